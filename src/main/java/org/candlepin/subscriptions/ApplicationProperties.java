@@ -105,6 +105,121 @@ public class ApplicationProperties {
    */
   private int cullingOffsetDays = 14;
 
+  /**
+   * How long the hypervisor mappings reported in inventory for an account are loaded in full once
+   * and then refreshed from the hosts modified since the account's previous tally. Mappings of
+   * hosts removed from inventory may linger until the next full load. A zero duration disables
+   * caching.
+   */
+  private Duration hypervisorMappingCacheTtl = Duration.ofDays(1);
+
+  /**
+   * Number of inventory hosts read per query when collecting usage. Each page is read in its own
+   * short transaction, so that no snapshot is held open on the inventory database for the whole
+   * tally. When 0, all hosts are streamed within a single transaction.
+   */
+  private int hostFactsPageSize = 0;
+
+  /**
+   * Number of worker threads used to normalize and bucket inventory hosts while collecting usage.
+   * The default of 1 processes every host serially on the thread running the tally.
+   */
+  private int hostProcessingThreads = 1;
+
+  /**
+   * Number of inventory hosts handed to a worker thread at a time when hosts are processed in
+   * parallel (see hostProcessingThreads).
+   */
+  private int hostProcessingShardSize = 1000;
+
+  /**
+   * Number of changed hosts to queue before flushing them to the database during a tally. Should
+   * match the JDBC batch size so that each flush is sent as a single batch per statement type.
+   */
+  private int hostPersistenceBatchSize = 100;
+
+  /**
+   * Number of worker threads used to apply usage calculations to the snapshots of each granularity.
+   * The default of 1 rolls every granularity serially on the thread running the tally.
+   */
+  private int snapshotRollupThreads = 1;
+
+  /**
+   * When enabled, accounts tallied from scratch within the fullTallyInterval only re-normalize the
+   * inventory hosts modified since their last tally. The usage of unchanged hosts is rebuilt from
+   * their persisted buckets.
+   */
+  private boolean incrementalTallyEnabled = false;
+
+  /**
+   * How often each account is tallied from scratch when incremental tallies are enabled. Full
+   * tallies correct any drift, e.g. buckets for products added to the whitelist since a host last
+   * changed.
+   */
+  private Duration fullTallyInterval = Duration.ofDays(7);
+
+  /**
+   * When enabled, metric usage is collected from all events of the tally range read with a single
+   * ordered query, rather than one query per hour.
+   */
+  private boolean metricEventSingleScanEnabled = false;
+
+  /**
+   * When enabled, the hourly metric tally only loads the instances referenced by the events being
+   * tallied, instead of every instance of the account, and writes them back in batches of
+   * hostPersistenceBatchSize.
+   */
+  private boolean metricInstanceStoreEnabled = false;
+
+  /**
+   * Maximum number of snapshots sent in a single TallySummary message. Snapshots of the same
+   * account and granularity are grouped together up to this size. The default of 1 sends one
+   * message per snapshot.
+   */
+  private int tallySummaryBatchSize = 1;
+
+  /** Compression codec used by the TallySummary producer (none, gzip, snappy, lz4 or zstd). */
+  private String tallySummaryCompressionType = "none";
+
+  /** How long the TallySummary producer waits for more records to fill a Kafka batch. */
+  private Duration tallySummaryLinger = Duration.ZERO;
+
+  /**
+   * Tasks identical to (or covered by the range of) a task queued within this window are dropped,
+   * and duplicate pending tasks of a consumed batch are merged. Zero disables task coalescing.
+   */
+  private Duration taskCoalesceWindow = Duration.ZERO;
+
+  /**
+   * Number of pending tasks of a group the in-memory task queue holds before queuing a task blocks.
+   */
+  private int inMemoryTaskQueueCapacity = 1024;
+
+  /** When enabled, the in-memory task queue is unbounded rather than blocking producers. */
+  private boolean inMemoryTaskQueueSpillEnabled = false;
+
+  /**
+   * When enabled, tally reports are cached per request until new snapshots are committed for the
+   * account or tallyReportCacheTtl elapses.
+   */
+  private boolean tallyReportCacheEnabled = false;
+
+  /** Maximum number of report snapshots held by the tally report cache across all reports. */
+  private long tallyReportCacheMaxSnapshots = 50000;
+
+  /**
+   * How long a cached tally report is served at most. Reports of accounts tallied in another
+   * process are already reloaded once that process records its snapshot writes, so this only
+   * bounds how long unused reports are held.
+   */
+  private Duration tallyReportCacheTtl = Duration.ofMinutes(5);
+
+  /**
+   * When enabled, capacity reports are summed per period by the database, and only the rows of the
+   * requested page are returned, rather than every matching subscription capacity.
+   */
+  private boolean capacityDbAggregationEnabled = false;
+
   /**
    * Expected domain suffix for origin or referer headers.
    *
@@ -0,0 +1,43 @@
+/*
+ * Copyright Red Hat, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * Red Hat trademarks are not licensed under GPLv3. No permission is
+ * granted to use or replicate Red Hat trademarks that are incorporated
+ * in this software or its documentation.
+ */
+package org.candlepin.subscriptions.db;
+
+import java.time.OffsetDateTime;
+import java.util.Optional;
+import org.candlepin.subscriptions.db.model.AccountTallyState;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+
+/** Repository for the per-account incremental tally state. */
+public interface AccountTallyStateRepository extends JpaRepository<AccountTallyState, String> {
+
+  /**
+   * Find when the snapshots of an account were last written.
+   *
+   * @param accountNumber the account number
+   * @return the time of the last snapshot write, empty if none was recorded
+   */
+  @Query(
+      "select s.snapshotsUpdatedOn from AccountTallyState s "
+          + "where s.accountNumber = :accountNumber")
+  Optional<OffsetDateTime> findSnapshotsUpdatedOn(@Param("accountNumber") String accountNumber);
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright Red Hat, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * Red Hat trademarks are not licensed under GPLv3. No permission is
+ * granted to use or replicate Red Hat trademarks that are incorporated
+ * in this software or its documentation.
+ */
+package org.candlepin.subscriptions.db;
+
+import java.time.OffsetDateTime;
+import java.util.Collection;
+import java.util.List;
+import org.candlepin.subscriptions.db.model.EventKey;
+import org.candlepin.subscriptions.db.model.EventPartition;
+import org.candlepin.subscriptions.json.Event;
+import org.springframework.transaction.annotation.Transactional;
+
+/**
+ * Fragment interface defining methods for event writes not handled well by Spring JPA's repository
+ * methods.
+ *
+ * <p>See
+ * https://docs.spring.io/spring-data/jpa/docs/2.3.0.RELEASE/reference/html/#repositories.custom-implementations
+ */
+public interface CustomizedEventRecordRepository {
+
+  /**
+   * Inserts or updates the given events, matching existing rows by their natural key (account,
+   * event source, event type, instance and timestamp). On PostgreSQL this is done with batched
+   * INSERT ... ON CONFLICT statements, without loading the existing records; an updated row keeps
+   * its ID.
+   *
+   * @param events the events to write. Events without an ID are assigned one.
+   */
+  @Transactional
+  void upsertAll(Collection<Event> events);
+
+  /**
+   * Deletes the events of an account, event source and event type in a time range, other than the
+   * given events. On PostgreSQL this is done with a single DELETE statement.
+   *
+   * @param accountNumber account number
+   * @param eventSource event source
+   * @param eventType event type
+   * @param begin start of the time range (inclusive)
+   * @param end end of the time range (exclusive)
+   * @param keep the natural keys of the events to keep
+   * @return the number of deleted events
+   */
+  @Transactional
+  int deleteInTimeRangeExcept(
+      String accountNumber,
+      String eventSource,
+      String eventType,
+      OffsetDateTime begin,
+      OffsetDateTime end,
+      Collection<EventKey> keep);
+
+  /**
+   * @return whether the events table is range partitioned by timestamp. Only ever true on
+   *     PostgreSQL.
+   */
+  boolean isPartitioned();
+
+  /**
+   * Lists the range partitions of the events table. The default partition, which holds events
+   * outside of every range, is not included.
+   *
+   * @return the range partitions, ordered by start
+   */
+  List<EventPartition> findPartitions();
+
+  /**
+   * Creates a range partition of the events table, unless it already exists.
+   *
+   * @param partition the partition to create
+   */
+  @Transactional
+  void createPartition(EventPartition partition);
+
+  /**
+   * @param partition a range partition that doesn't exist yet
+   * @return whether the default partition holds events within the range of the partition, in
+   *     which case it can only be created with createPartitionFromDefault.
+   */
+  boolean hasDefaultPartitionEvents(EventPartition partition);
+
+  /**
+   * Creates a range partition of the events table, moving the events of its range out of the
+   * default partition. PostgreSQL refuses to create a partition while the default partition holds
+   * events of its range, which happens whenever partitions were not created ahead in time.
+   *
+   * @param partition the partition to create
+   */
+  @Transactional
+  void createPartitionFromDefault(EventPartition partition);
+
+  /**
+   * Detaches a range partition from the events table and drops it, along with all of its events.
+   *
+   * @param partition the partition to drop
+   */
+  @Transactional
+  void dropPartition(EventPartition partition);
+}
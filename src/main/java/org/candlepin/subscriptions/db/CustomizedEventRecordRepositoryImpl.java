@@ -0,0 +1,331 @@
+/*
+ * Copyright Red Hat, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * Red Hat trademarks are not licensed under GPLv3. No permission is
+ * granted to use or replicate Red Hat trademarks that are incorporated
+ * in this software or its documentation.
+ */
+package org.candlepin.subscriptions.db;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.sql.Array;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.stream.Collectors;
+import javax.persistence.EntityManager;
+import org.candlepin.subscriptions.db.model.EventKey;
+import org.candlepin.subscriptions.db.model.EventPartition;
+import org.candlepin.subscriptions.db.model.EventRecord;
+import org.candlepin.subscriptions.json.Event;
+import org.hibernate.Session;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Repository;
+
+/** Class implementing event writes not handled well by Spring JPA's repository methods. */
+@Repository
+public class CustomizedEventRecordRepositoryImpl implements CustomizedEventRecordRepository {
+
+  private static final String POSTGRESQL = "PostgreSQL";
+
+  // The event ID is also part of the event data, so a conflicting row keeps its own ID there too.
+  private static final String UPSERT_EVENT_SQL =
+      "insert into events "
+          + "(id, account_number, event_source, event_type, instance_id, service_type, timestamp, "
+          + "data) values (?, ?, ?, ?, ?, ?, ?, cast(? as jsonb)) "
+          + "on conflict (event_type, event_source, instance_id, account_number, timestamp) "
+          + "do update set service_type = excluded.service_type, "
+          + "data = excluded.data || jsonb_build_object('event_id', events.id)";
+
+  private static final String DELETE_STALE_EVENTS_SQL =
+      "delete from events e where e.account_number = ? and e.event_source = ? "
+          + "and e.event_type = ? and e.timestamp >= ? and e.timestamp < ? "
+          + "and not exists (select 1 from unnest(?::text[], ?::text[]) as k(instance_id, ts) "
+          + "where k.instance_id = e.instance_id and k.ts::timestamptz = e.timestamp)";
+
+  private static final String IS_PARTITIONED_SQL =
+      "select exists (select 1 from pg_partitioned_table where partrelid = to_regclass('events'))";
+
+  private static final String FIND_PARTITIONS_SQL =
+      "select c.relname from pg_inherits i join pg_class c on c.oid = i.inhrelid "
+          + "where i.inhparent = to_regclass('events')";
+
+  private static final String HAS_DEFAULT_PARTITION_EVENTS_SQL =
+      "select exists (select 1 from events_default where timestamp >= ? and timestamp < ?)";
+
+  private static final String EVENT_COLUMNS =
+      "id, account_number, timestamp, data, event_type, event_source, instance_id, service_type";
+
+  private static final String FIND_BY_KEY_JPQL =
+      "select r from EventRecord r where r.accountNumber = :accountNumber "
+          + "and r.eventSource = :eventSource and r.eventType = :eventType "
+          + "and r.instanceId = :instanceId and r.timestamp = :timestamp";
+
+  private static final String FIND_IN_TIME_RANGE_JPQL =
+      "select r from EventRecord r where r.accountNumber = :accountNumber "
+          + "and r.eventSource = :eventSource and r.eventType = :eventType "
+          + "and r.timestamp >= :begin and r.timestamp < :end";
+
+  private final EntityManager em;
+  private final ObjectMapper objectMapper;
+  private final int batchSize;
+
+  @Autowired
+  public CustomizedEventRecordRepositoryImpl(
+      @Qualifier("rhsmSubscriptionsEntityManagerFactory") EntityManager em,
+      ObjectMapper objectMapper,
+      @Value("${spring.jpa.properties.hibernate.jdbc.batch_size:100}") int batchSize) {
+    this.em = em;
+    this.objectMapper = objectMapper;
+    this.batchSize = Math.max(1, batchSize);
+  }
+
+  @Override
+  public void upsertAll(Collection<Event> events) {
+    for (Event event : events) {
+      if (event.getEventId() == null) {
+        event.setEventId(UUID.randomUUID());
+      }
+    }
+    Session session = em.unwrap(Session.class);
+    if (!supportsUpsert(session)) {
+      events.forEach(this::saveByKey);
+      return;
+    }
+    session.doWork(connection -> upsertEvents(connection, events));
+  }
+
+  @Override
+  public int deleteInTimeRangeExcept(
+      String accountNumber,
+      String eventSource,
+      String eventType,
+      OffsetDateTime begin,
+      OffsetDateTime end,
+      Collection<EventKey> keep) {
+    Session session = em.unwrap(Session.class);
+    if (!supportsUpsert(session)) {
+      return removeInTimeRangeExcept(accountNumber, eventSource, eventType, begin, end, keep);
+    }
+    return session.doReturningWork(
+        connection -> {
+          try (PreparedStatement statement =
+              connection.prepareStatement(DELETE_STALE_EVENTS_SQL)) {
+            Array instanceIds =
+                connection.createArrayOf(
+                    "text", keep.stream().map(EventKey::getInstanceId).toArray());
+            Array timestamps =
+                connection.createArrayOf(
+                    "text", keep.stream().map(k -> k.getTimestamp().toString()).toArray());
+            statement.setString(1, accountNumber);
+            statement.setString(2, eventSource);
+            statement.setString(3, eventType);
+            statement.setObject(4, begin);
+            statement.setObject(5, end);
+            statement.setArray(6, instanceIds);
+            statement.setArray(7, timestamps);
+            return statement.executeUpdate();
+          }
+        });
+  }
+
+  @Override
+  public boolean isPartitioned() {
+    Session session = em.unwrap(Session.class);
+    return supportsUpsert(session)
+        && session.doReturningWork(
+            connection -> {
+              try (Statement statement = connection.createStatement();
+                  ResultSet result = statement.executeQuery(IS_PARTITIONED_SQL)) {
+                return result.next() && result.getBoolean(1);
+              }
+            });
+  }
+
+  @Override
+  public List<EventPartition> findPartitions() {
+    if (!isPartitioned()) {
+      return List.of();
+    }
+    List<EventPartition> partitions = new ArrayList<>();
+    em.unwrap(Session.class)
+        .doWork(
+            connection -> {
+              try (Statement statement = connection.createStatement();
+                  ResultSet result = statement.executeQuery(FIND_PARTITIONS_SQL)) {
+                while (result.next()) {
+                  EventPartition.fromName(result.getString(1)).ifPresent(partitions::add);
+                }
+              }
+            });
+    partitions.sort(Comparator.comparing(EventPartition::getStart));
+    return partitions;
+  }
+
+  @Override
+  public void createPartition(EventPartition partition) {
+    // DDL can't take bind parameters; the name and bounds are generated from dates.
+    executeStatement(
+        String.format(
+            "create table if not exists %s partition of events "
+                + "for values from (timestamptz '%s') to (timestamptz '%s')",
+            partition.getName(), partition.getStart(), partition.getEnd()));
+  }
+
+  @Override
+  public boolean hasDefaultPartitionEvents(EventPartition partition) {
+    return em.unwrap(Session.class)
+        .doReturningWork(
+            connection -> {
+              try (PreparedStatement statement =
+                  connection.prepareStatement(HAS_DEFAULT_PARTITION_EVENTS_SQL)) {
+                statement.setObject(1, partition.getStart());
+                statement.setObject(2, partition.getEnd());
+                try (ResultSet result = statement.executeQuery()) {
+                  return result.next() && result.getBoolean(1);
+                }
+              }
+            });
+  }
+
+  @Override
+  public void createPartitionFromDefault(EventPartition partition) {
+    String range =
+        String.format(
+            "timestamp >= timestamptz '%s' and timestamp < timestamptz '%s'",
+            partition.getStart(), partition.getEnd());
+    // While detached, the default partition can't receive the events being moved; writers of the
+    // events table wait for the transaction, as detaching locks it.
+    executeStatement("alter table events detach partition events_default");
+    createPartition(partition);
+    executeStatement(
+        String.format(
+            "insert into events (%s) select %s from events_default where %s",
+            EVENT_COLUMNS, EVENT_COLUMNS, range));
+    executeStatement(String.format("delete from events_default where %s", range));
+    executeStatement("alter table events attach partition events_default default");
+  }
+
+  @Override
+  public void dropPartition(EventPartition partition) {
+    executeStatement(String.format("alter table events detach partition %s", partition.getName()));
+    executeStatement(String.format("drop table %s", partition.getName()));
+  }
+
+  private void executeStatement(String sql) {
+    em.unwrap(Session.class)
+        .doWork(
+            connection -> {
+              try (Statement statement = connection.createStatement()) {
+                statement.execute(sql);
+              }
+            });
+  }
+
+  private boolean supportsUpsert(Session session) {
+    return session.doReturningWork(
+        connection -> POSTGRESQL.equals(connection.getMetaData().getDatabaseProductName()));
+  }
+
+  private void upsertEvents(Connection connection, Collection<Event> events) throws SQLException {
+    try (PreparedStatement statement = connection.prepareStatement(UPSERT_EVENT_SQL)) {
+      int pending = 0;
+      for (Event event : events) {
+        statement.setObject(1, event.getEventId());
+        statement.setString(2, event.getAccountNumber());
+        statement.setString(3, event.getEventSource());
+        statement.setString(4, event.getEventType());
+        statement.setString(5, event.getInstanceId());
+        statement.setString(6, event.getServiceType());
+        statement.setObject(7, event.getTimestamp());
+        statement.setString(8, toJson(event));
+        statement.addBatch();
+        pending++;
+        if (pending >= batchSize) {
+          statement.executeBatch();
+          pending = 0;
+        }
+      }
+      if (pending > 0) {
+        statement.executeBatch();
+      }
+    }
+  }
+
+  private String toJson(Event event) {
+    try {
+      return objectMapper.writeValueAsString(event);
+    } catch (JsonProcessingException e) {
+      throw new IllegalArgumentException("Error serializing event", e);
+    }
+  }
+
+  /** Fallback for databases without ON CONFLICT support, e.g. the in-memory test database. */
+  private void saveByKey(Event event) {
+    List<EventRecord> existing =
+        em.createQuery(FIND_BY_KEY_JPQL, EventRecord.class)
+            .setParameter("accountNumber", event.getAccountNumber())
+            .setParameter("eventSource", event.getEventSource())
+            .setParameter("eventType", event.getEventType())
+            .setParameter("instanceId", event.getInstanceId())
+            .setParameter("timestamp", event.getTimestamp())
+            .getResultList();
+    if (existing.isEmpty()) {
+      em.persist(new EventRecord(event));
+      return;
+    }
+    EventRecord record = existing.get(0);
+    event.setEventId(record.getId());
+    record.setServiceType(event.getServiceType());
+    record.setEvent(event);
+  }
+
+  /** Fallback for databases without unnest support, e.g. the in-memory test database. */
+  private int removeInTimeRangeExcept(
+      String accountNumber,
+      String eventSource,
+      String eventType,
+      OffsetDateTime begin,
+      OffsetDateTime end,
+      Collection<EventKey> keep) {
+    Set<EventKey> keys = new HashSet<>(keep);
+    List<EventRecord> stale =
+        em.createQuery(FIND_IN_TIME_RANGE_JPQL, EventRecord.class)
+            .setParameter("accountNumber", accountNumber)
+            .setParameter("eventSource", eventSource)
+            .setParameter("eventType", eventType)
+            .setParameter("begin", begin)
+            .setParameter("end", end)
+            .getResultStream()
+            .filter(r -> !keys.contains(EventKey.fromEvent(r.getEvent())))
+            .collect(Collectors.toList());
+    stale.forEach(em::remove);
+    return stale.size();
+  }
+}
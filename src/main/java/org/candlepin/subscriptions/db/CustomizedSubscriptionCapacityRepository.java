@@ -22,6 +22,8 @@ package org.candlepin.subscriptions.db;
 
 import java.time.OffsetDateTime;
 import java.util.List;
+import org.candlepin.subscriptions.db.model.CapacityTotals;
+import org.candlepin.subscriptions.db.model.Granularity;
 import org.candlepin.subscriptions.db.model.ServiceLevel;
 import org.candlepin.subscriptions.db.model.SubscriptionCapacity;
 import org.candlepin.subscriptions.db.model.Usage;
@@ -43,4 +45,27 @@ public interface CustomizedSubscriptionCapacityRepository {
       Usage usage,
       OffsetDateTime reportBegin,
       OffsetDateTime reportEnd);
+
+  /**
+   * Sums the capacity of the subscriptions active at the start of each period from firstPeriod to
+   * lastPeriod, both included. A subscription is active strictly between its begin and end dates.
+   *
+   * @param ownerId the owner of the subscriptions.
+   * @param productId the product to sum the capacity of.
+   * @param serviceLevel the service level to filter by, or null for any.
+   * @param usage the usage to filter by, or null for any.
+   * @param granularity the length of a period.
+   * @param firstPeriod the start of the first period.
+   * @param lastPeriod the start of the last period.
+   * @return the totals of each period, in ascending order.
+   */
+  @Transactional
+  List<CapacityTotals> sumCapacityByPeriod(
+      String ownerId,
+      String productId,
+      ServiceLevel serviceLevel,
+      Usage usage,
+      Granularity granularity,
+      OffsetDateTime firstPeriod,
+      OffsetDateTime lastPeriod);
 }
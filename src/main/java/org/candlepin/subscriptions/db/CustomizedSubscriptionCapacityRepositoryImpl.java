@@ -20,17 +20,28 @@
  */
 package org.candlepin.subscriptions.db;
 
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.time.Duration;
 import java.time.OffsetDateTime;
+import java.time.Period;
+import java.time.temporal.TemporalAmount;
 import java.util.ArrayList;
+import java.util.EnumMap;
 import java.util.List;
+import java.util.Map;
 import javax.persistence.EntityManager;
 import javax.persistence.criteria.CriteriaBuilder;
 import javax.persistence.criteria.CriteriaQuery;
 import javax.persistence.criteria.Predicate;
 import javax.persistence.criteria.Root;
+import org.candlepin.subscriptions.db.model.CapacityTimeline;
+import org.candlepin.subscriptions.db.model.CapacityTotals;
+import org.candlepin.subscriptions.db.model.Granularity;
 import org.candlepin.subscriptions.db.model.ServiceLevel;
 import org.candlepin.subscriptions.db.model.SubscriptionCapacity;
 import org.candlepin.subscriptions.db.model.Usage;
+import org.hibernate.Session;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.stereotype.Repository;
@@ -40,6 +51,38 @@ import org.springframework.stereotype.Repository;
 public class CustomizedSubscriptionCapacityRepositoryImpl
     implements CustomizedSubscriptionCapacityRepository {
 
+  private static final String POSTGRESQL = "PostgreSQL";
+
+  /**
+   * Joins the capacities against the series of period starts, so that only one row per period
+   * leaves the database. The filters are part of the join condition so that periods without any
+   * active subscription still get a row.
+   */
+  private static final String SUM_CAPACITY_BY_PERIOD_SQL =
+      "select p.period_start,"
+          + " coalesce(sum(c.physical_sockets), 0), coalesce(sum(c.virtual_sockets), 0),"
+          + " coalesce(sum(c.physical_cores), 0), coalesce(sum(c.virtual_cores), 0)"
+          + " from generate_series(cast(? as timestamptz), cast(? as timestamptz),"
+          + " cast(? as interval)) as p(period_start)"
+          + " left join subscription_capacity c on c.owner_id = ? and c.product_id = ?"
+          + " and (cast(? as varchar) is null or c.sla = ?)"
+          + " and (cast(? as varchar) is null or c.usage = ?)"
+          + " and c.begin_date < p.period_start and c.end_date > p.period_start"
+          + " group by p.period_start order by p.period_start";
+
+  /** Lengths of the periods of each granularity; also valid PostgreSQL interval literals. */
+  private static final Map<Granularity, TemporalAmount> PERIOD_LENGTHS =
+      new EnumMap<>(Granularity.class);
+
+  static {
+    PERIOD_LENGTHS.put(Granularity.HOURLY, Duration.ofHours(1));
+    PERIOD_LENGTHS.put(Granularity.DAILY, Period.ofDays(1));
+    PERIOD_LENGTHS.put(Granularity.WEEKLY, Period.ofWeeks(1));
+    PERIOD_LENGTHS.put(Granularity.MONTHLY, Period.ofMonths(1));
+    PERIOD_LENGTHS.put(Granularity.QUARTERLY, Period.ofMonths(3));
+    PERIOD_LENGTHS.put(Granularity.YEARLY, Period.ofYears(1));
+  }
+
   private EntityManager em;
 
   @Autowired
@@ -89,4 +132,79 @@ public class CustomizedSubscriptionCapacityRepositoryImpl
 
     return em.createQuery(cq).getResultList();
   }
+
+  @Override
+  public List<CapacityTotals> sumCapacityByPeriod(
+      String ownerId,
+      String productId,
+      ServiceLevel serviceLevel,
+      Usage usage,
+      Granularity granularity,
+      OffsetDateTime firstPeriod,
+      OffsetDateTime lastPeriod) {
+    TemporalAmount periodLength = PERIOD_LENGTHS.get(granularity);
+    String sla =
+        serviceLevel == null || serviceLevel == ServiceLevel._ANY ? null : serviceLevel.getValue();
+    String usageValue = usage == null || usage == Usage._ANY ? null : usage.getValue();
+
+    Session session = em.unwrap(Session.class);
+    if (!isPostgreSql(session)) {
+      return sumCapacityByPeriodInMemory(
+          ownerId, productId, serviceLevel, usage, periodLength, firstPeriod, lastPeriod);
+    }
+    return session.doReturningWork(
+        connection -> {
+          List<CapacityTotals> totals = new ArrayList<>();
+          try (PreparedStatement statement =
+              connection.prepareStatement(SUM_CAPACITY_BY_PERIOD_SQL)) {
+            statement.setObject(1, firstPeriod);
+            statement.setObject(2, lastPeriod);
+            statement.setString(3, periodLength.toString());
+            statement.setString(4, ownerId);
+            statement.setString(5, productId);
+            statement.setString(6, sla);
+            statement.setString(7, sla);
+            statement.setString(8, usageValue);
+            statement.setString(9, usageValue);
+            try (ResultSet result = statement.executeQuery()) {
+              while (result.next()) {
+                totals.add(
+                    new CapacityTotals(
+                        result.getObject(1, OffsetDateTime.class),
+                        result.getInt(2),
+                        result.getInt(3),
+                        result.getInt(4),
+                        result.getInt(5)));
+              }
+            }
+          }
+          return totals;
+        });
+  }
+
+  /** Sums the capacities in the JVM, for databases lacking generate_series (e.g. HSQLDB). */
+  @SuppressWarnings("java:S107")
+  private List<CapacityTotals> sumCapacityByPeriodInMemory(
+      String ownerId,
+      String productId,
+      ServiceLevel serviceLevel,
+      Usage usage,
+      TemporalAmount periodLength,
+      OffsetDateTime firstPeriod,
+      OffsetDateTime lastPeriod) {
+    List<SubscriptionCapacity> matches =
+        findByOwnerAndProductId(ownerId, productId, serviceLevel, usage, firstPeriod, lastPeriod);
+    List<OffsetDateTime> periods = new ArrayList<>();
+    for (OffsetDateTime period = firstPeriod;
+        !period.isAfter(lastPeriod);
+        period = period.plus(periodLength)) {
+      periods.add(period);
+    }
+    return new CapacityTimeline(matches).totals(periods);
+  }
+
+  private boolean isPostgreSql(Session session) {
+    return session.doReturningWork(
+        connection -> POSTGRESQL.equals(connection.getMetaData().getDatabaseProductName()));
+  }
 }
@@ -0,0 +1,53 @@
+/*
+ * Copyright Red Hat, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * Red Hat trademarks are not licensed under GPLv3. No permission is
+ * granted to use or replicate Red Hat trademarks that are incorporated
+ * in this software or its documentation.
+ */
+package org.candlepin.subscriptions.db;
+
+import java.util.Collection;
+import java.util.List;
+import org.candlepin.subscriptions.db.model.TallySnapshot;
+import org.springframework.transaction.annotation.Transactional;
+
+/**
+ * Fragment interface defining methods for writes not handled well by Spring JPA's repository
+ * methods.
+ *
+ * <p>See
+ * https://docs.spring.io/spring-data/jpa/docs/2.3.0.RELEASE/reference/html/#repositories.custom-implementations
+ */
+public interface CustomizedTallySnapshotRepository {
+
+  /**
+   * Inserts or updates the given snapshots, matching existing rows by their natural key (account,
+   * product, granularity, service level, usage and snapshot date), along with their tally
+   * measurements. On PostgreSQL this is done with batched INSERT ... ON CONFLICT statements, and
+   * the snapshots are detached from the persistence context so they are not written twice.
+   *
+   * <p>Only tally measurements are written; the deprecated hardware measurements are not. The
+   * tally measurements of a written snapshot are replaced by the snapshot's: existing measurements
+   * missing from the snapshot are deleted.
+   *
+   * @param snapshots the snapshots to write. Each snapshot is assigned the ID of the row it was
+   *     written to, which is the existing row's ID when its natural key was already present.
+   * @return the written snapshots
+   */
+  @Transactional
+  List<TallySnapshot> upsertAll(Collection<TallySnapshot> snapshots);
+}
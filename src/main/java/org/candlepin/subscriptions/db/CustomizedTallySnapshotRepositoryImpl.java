@@ -0,0 +1,253 @@
+/*
+ * Copyright Red Hat, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * Red Hat trademarks are not licensed under GPLv3. No permission is
+ * granted to use or replicate Red Hat trademarks that are incorporated
+ * in this software or its documentation.
+ */
+package org.candlepin.subscriptions.db;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import javax.persistence.EntityManager;
+import org.candlepin.subscriptions.db.model.TallyMeasurementKey;
+import org.candlepin.subscriptions.db.model.TallySnapshot;
+import org.hibernate.Session;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Repository;
+
+/** Class implementing custom writes not handled well by Spring JPA's repository methods. */
+@Repository
+public class CustomizedTallySnapshotRepositoryImpl implements CustomizedTallySnapshotRepository {
+
+  private static final String POSTGRESQL = "PostgreSQL";
+
+  private static final String UPSERT_SNAPSHOT_SQL =
+      "insert into tally_snapshots "
+          + "(id, account_number, owner_id, product_id, granularity, sla, usage, snapshot_date) "
+          + "values (?, ?, ?, ?, ?, ?, ?, ?) "
+          + "on conflict (account_number, product_id, granularity, sla, usage, snapshot_date) "
+          + "do update set owner_id = excluded.owner_id";
+
+  /**
+   * Columns returned by the snapshot upsert. A snapshot conflicting with an existing row keeps the
+   * existing row's ID, so the returned IDs are matched back to the snapshots by natural key.
+   */
+  private static final String[] UPSERT_SNAPSHOT_RETURNING = {
+    "id", "account_number", "product_id", "granularity", "sla", "usage", "snapshot_date"
+  };
+
+  /**
+   * Clears the measurements of a written snapshot before its current ones are upserted, so that
+   * measurements no longer present on the snapshot are deleted, as merging the entity would.
+   */
+  private static final String DELETE_MEASUREMENTS_SQL =
+      "delete from tally_measurements where snapshot_id = ?";
+
+  /**
+   * Writes a measurement of a snapshot. Snapshots are looked up by natural key rather than ID,
+   * since a conflicting row inserted by another transaction keeps its own ID. The measurements of
+   * the snapshot were deleted beforehand, so a conflict only arises from a concurrent writer.
+   */
+  private static final String UPSERT_MEASUREMENT_SQL =
+      "insert into tally_measurements (snapshot_id, measurement_type, uom, value) "
+          + "select id, ?, ?, ? from tally_snapshots "
+          + "where account_number = ? and product_id = ? and granularity = ? and sla = ? "
+          + "and usage = ? and snapshot_date = ? "
+          + "on conflict (snapshot_id, measurement_type, uom) do update set value = excluded.value";
+
+  private final EntityManager em;
+  private final int batchSize;
+
+  @Autowired
+  public CustomizedTallySnapshotRepositoryImpl(
+      @Qualifier("rhsmSubscriptionsEntityManagerFactory") EntityManager em,
+      @Value("${spring.jpa.properties.hibernate.jdbc.batch_size:100}") int batchSize) {
+    this.em = em;
+    this.batchSize = Math.max(1, batchSize);
+  }
+
+  @Override
+  public List<TallySnapshot> upsertAll(Collection<TallySnapshot> snapshots) {
+    Session session = em.unwrap(Session.class);
+    boolean supportsUpsert =
+        session.doReturningWork(
+            connection -> POSTGRESQL.equals(connection.getMetaData().getDatabaseProductName()));
+    if (!supportsUpsert) {
+      return saveAll(snapshots);
+    }
+
+    List<TallySnapshot> written = new ArrayList<>(snapshots);
+    for (TallySnapshot snapshot : written) {
+      if (snapshot.getId() == null) {
+        snapshot.setId(UUID.randomUUID());
+      } else if (em.contains(snapshot)) {
+        em.detach(snapshot);
+      }
+    }
+    session.doWork(
+        connection -> {
+          upsertSnapshots(connection, written);
+          deleteMeasurements(connection, written);
+          upsertMeasurements(connection, written);
+        });
+    return written;
+  }
+
+  /** Fallback for databases without ON CONFLICT support, e.g. the in-memory test database. */
+  private List<TallySnapshot> saveAll(Collection<TallySnapshot> snapshots) {
+    List<TallySnapshot> saved = new ArrayList<>(snapshots.size());
+    for (TallySnapshot snapshot : snapshots) {
+      if (snapshot.getId() == null) {
+        em.persist(snapshot);
+        saved.add(snapshot);
+      } else {
+        saved.add(em.merge(snapshot));
+      }
+    }
+    return saved;
+  }
+
+  private void upsertSnapshots(Connection connection, List<TallySnapshot> snapshots)
+      throws SQLException {
+    Map<List<Object>, TallySnapshot> pendingIds = new HashMap<>();
+    try (PreparedStatement statement =
+        connection.prepareStatement(UPSERT_SNAPSHOT_SQL, UPSERT_SNAPSHOT_RETURNING)) {
+      for (TallySnapshot snapshot : snapshots) {
+        statement.setObject(1, snapshot.getId());
+        statement.setString(2, snapshot.getAccountNumber());
+        statement.setString(3, snapshot.getOwnerId());
+        statement.setString(4, snapshot.getProductId());
+        statement.setString(5, snapshot.getGranularity().name());
+        statement.setString(6, snapshot.getServiceLevel().getValue());
+        statement.setString(7, snapshot.getUsage().getValue());
+        statement.setObject(8, snapshot.getSnapshotDate());
+        statement.addBatch();
+        pendingIds.put(
+            naturalKey(
+                snapshot.getAccountNumber(),
+                snapshot.getProductId(),
+                snapshot.getGranularity().name(),
+                snapshot.getServiceLevel().getValue(),
+                snapshot.getUsage().getValue(),
+                snapshot.getSnapshotDate()),
+            snapshot);
+        if (pendingIds.size() >= batchSize) {
+          executeSnapshotBatch(statement, pendingIds);
+        }
+      }
+      if (!pendingIds.isEmpty()) {
+        executeSnapshotBatch(statement, pendingIds);
+      }
+    }
+  }
+
+  /** Executes the pending upserts and writes the ID of each written row back to its snapshot. */
+  private void executeSnapshotBatch(
+      PreparedStatement statement, Map<List<Object>, TallySnapshot> pendingIds)
+      throws SQLException {
+    statement.executeBatch();
+    try (ResultSet written = statement.getGeneratedKeys()) {
+      while (written.next()) {
+        TallySnapshot snapshot =
+            pendingIds.get(
+                naturalKey(
+                    written.getString("account_number"),
+                    written.getString("product_id"),
+                    written.getString("granularity"),
+                    written.getString("sla"),
+                    written.getString("usage"),
+                    written.getObject("snapshot_date", OffsetDateTime.class)));
+        if (snapshot != null) {
+          snapshot.setId(written.getObject("id", UUID.class));
+        }
+      }
+    }
+    pendingIds.clear();
+  }
+
+  private static List<Object> naturalKey(
+      String accountNumber,
+      String productId,
+      String granularity,
+      String serviceLevel,
+      String usage,
+      OffsetDateTime snapshotDate) {
+    return Arrays.asList(
+        accountNumber, productId, granularity, serviceLevel, usage, snapshotDate.toInstant());
+  }
+
+  private void deleteMeasurements(Connection connection, List<TallySnapshot> snapshots)
+      throws SQLException {
+    try (PreparedStatement statement = connection.prepareStatement(DELETE_MEASUREMENTS_SQL)) {
+      int pending = 0;
+      for (TallySnapshot snapshot : snapshots) {
+        statement.setObject(1, snapshot.getId());
+        statement.addBatch();
+        pending = executeBatchIfFull(statement, pending + 1);
+      }
+      if (pending > 0) {
+        statement.executeBatch();
+      }
+    }
+  }
+
+  private void upsertMeasurements(Connection connection, List<TallySnapshot> snapshots)
+      throws SQLException {
+    try (PreparedStatement statement = connection.prepareStatement(UPSERT_MEASUREMENT_SQL)) {
+      int pending = 0;
+      for (TallySnapshot snapshot : snapshots) {
+        for (Map.Entry<TallyMeasurementKey, Double> measurement :
+            snapshot.getTallyMeasurements().entrySet()) {
+          statement.setString(1, measurement.getKey().getMeasurementType().name());
+          statement.setString(2, measurement.getKey().getUom().name());
+          statement.setDouble(3, measurement.getValue());
+          statement.setString(4, snapshot.getAccountNumber());
+          statement.setString(5, snapshot.getProductId());
+          statement.setString(6, snapshot.getGranularity().name());
+          statement.setString(7, snapshot.getServiceLevel().getValue());
+          statement.setString(8, snapshot.getUsage().getValue());
+          statement.setObject(9, snapshot.getSnapshotDate());
+          statement.addBatch();
+          pending = executeBatchIfFull(statement, pending + 1);
+        }
+      }
+      if (pending > 0) {
+        statement.executeBatch();
+      }
+    }
+  }
+
+  private int executeBatchIfFull(PreparedStatement statement, int pending) throws SQLException {
+    if (pending < batchSize) {
+      return pending;
+    }
+    statement.executeBatch();
+    return 0;
+  }
+}
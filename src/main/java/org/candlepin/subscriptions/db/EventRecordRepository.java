@@ -20,11 +20,19 @@
  */
 package org.candlepin.subscriptions.db;
 
+import static org.hibernate.jpa.QueryHints.HINT_FETCH_SIZE;
+
 import java.time.OffsetDateTime;
+import java.util.List;
 import java.util.UUID;
 import java.util.stream.Stream;
+import javax.persistence.QueryHint;
 import org.candlepin.subscriptions.db.model.EventRecord;
+import org.candlepin.subscriptions.json.Event;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.repository.query.Param;
 
 /**
  * DB repository for Event records.
@@ -33,7 +41,8 @@ import org.springframework.data.jpa.repository.JpaRepository;
  * @see org.candlepin.subscriptions.json.Event
  */
 @SuppressWarnings({"linelength", "indentation"})
-public interface EventRecordRepository extends JpaRepository<EventRecord, UUID> {
+public interface EventRecordRepository
+    extends JpaRepository<EventRecord, UUID>, CustomizedEventRecordRepository {
 
   /**
    * Fetch a stream of events for a given account for a given time range.
@@ -78,6 +87,69 @@ public interface EventRecordRepository extends JpaRepository<EventRecord, UUID>
           OffsetDateTime begin,
           OffsetDateTime end);
 
+  /**
+   * Stream the events of a given account and service type for a given time range, in timestamp
+   * order.
+   *
+   * <p>The events returned include those at begin and up to (but not including) end. Only the event
+   * data is selected, so the records are not held by the persistence context while the stream is
+   * consumed, and rows are fetched from the database in chunks.
+   *
+   * @param accountNumber account number
+   * @param serviceType service type of the events
+   * @param begin start of the time range (inclusive)
+   * @param end end of the time range (exclusive)
+   * @return Stream of Events
+   */
+  @Query(
+      "select r.event from EventRecord r where r.accountNumber = :accountNumber "
+          + "and r.serviceType = :serviceType and r.timestamp >= :begin and r.timestamp < :end "
+          + "order by r.timestamp")
+  @QueryHints(@QueryHint(name = HINT_FETCH_SIZE, value = "500"))
+  Stream<Event> streamEventsInTimeRangeByServiceType(
+      @Param("accountNumber") String accountNumber,
+      @Param("serviceType") String serviceType,
+      @Param("begin") OffsetDateTime begin,
+      @Param("end") OffsetDateTime end);
+
+  /**
+   * Find the distinct instance IDs referenced by the events of a given account and service type in
+   * a given time range.
+   *
+   * @param accountNumber account number
+   * @param serviceType service type of the events
+   * @param begin start of the time range (inclusive)
+   * @param end end of the time range (exclusive)
+   * @return the instance IDs referenced by the events
+   */
+  @Query(
+      "select distinct r.instanceId from EventRecord r where r.accountNumber = :accountNumber "
+          + "and r.serviceType = :serviceType and r.timestamp >= :begin and r.timestamp < :end")
+  List<String> findInstanceIdsInTimeRangeByServiceType(
+      @Param("accountNumber") String accountNumber,
+      @Param("serviceType") String serviceType,
+      @Param("begin") OffsetDateTime begin,
+      @Param("end") OffsetDateTime end);
+
+  /**
+   * Find the distinct accounts having events of a given event source and event type in a given time
+   * range.
+   *
+   * @param eventSource event source
+   * @param eventType event type
+   * @param begin start of the time range (inclusive)
+   * @param end end of the time range (exclusive)
+   * @return the account numbers having events in the range
+   */
+  @Query(
+      "select distinct r.accountNumber from EventRecord r where r.eventSource = :eventSource "
+          + "and r.eventType = :eventType and r.timestamp >= :begin and r.timestamp < :end")
+  List<String> findAccountNumbersInTimeRange(
+      @Param("eventSource") String eventSource,
+      @Param("eventType") String eventType,
+      @Param("begin") OffsetDateTime begin,
+      @Param("end") OffsetDateTime end);
+
   /**
    * Delete old event records given a cutoff date
    *
@@ -20,6 +20,8 @@
  */
 package org.candlepin.subscriptions.db;
 
+import java.time.OffsetDateTime;
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 import java.util.UUID;
@@ -40,6 +42,7 @@ import org.springframework.data.jpa.domain.Specification;
 import org.springframework.data.jpa.repository.EntityGraph;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.JpaSpecificationExecutor;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 import org.springframework.util.StringUtils;
@@ -47,7 +50,10 @@ import org.springframework.util.StringUtils;
 /** Provides access to Host database entities. */
 @SuppressWarnings({"linelength", "indentation"})
 public interface HostRepository
-    extends JpaRepository<Host, UUID>, JpaSpecificationExecutor<Host>, TagProfileLookup {
+    extends JpaRepository<Host, UUID>,
+        JpaSpecificationExecutor<Host>,
+        TagProfileLookup,
+        CustomizedHostRepository {
 
   /**
    * Find all Hosts by bucket criteria and return a page of TallyHostView objects. A TallyHostView
@@ -177,4 +183,48 @@ public interface HostRepository
       Pageable pageable);
 
   List<Host> findByAccountNumber(String accountNumber);
+
+  /**
+   * Find the instances of an account with the given instance IDs, whatever their type.
+   *
+   * @param accountNumber account number of the instances
+   * @param instanceIds instance IDs to look up
+   * @return the instances found; IDs without a persisted instance are skipped
+   */
+  List<Host> findByAccountNumberAndInstanceIdIn(
+      String accountNumber, Collection<String> instanceIds);
+
+  /**
+   * Find the latest lastSeen of the instances of a given type, without loading them.
+   *
+   * @param accountNumber account number of the instances
+   * @param instanceType instance (service) type of the instances
+   * @return the newest lastSeen, or null if the account has no instance of the type
+   */
+  @Query(
+      "select max(h.lastSeen) from Host h where "
+          + "h.accountNumber = :account and h.instanceType = :instanceType")
+  OffsetDateTime findMaxLastSeen(
+      @Param("account") String accountNumber, @Param("instanceType") String instanceType);
+
+  /**
+   * Delete the monthly totals of the given months for all instances of a given type, without
+   * loading the instances.
+   *
+   * @param accountNumber account number of the instances
+   * @param instanceType instance (service) type of the instances
+   * @param monthIds months to clear, formatted with InstanceMonthlyTotalKey#formatMonthId
+   * @return number of monthly totals removed
+   */
+  @Modifying
+  @Query(
+      value =
+          "delete from instance_monthly_totals where month in (:months) and instance_id in "
+              + "(select h.id from hosts h where h.account_number = :account "
+              + "and h.instance_type = :instanceType)",
+      nativeQuery = true)
+  int deleteMonthlyTotals(
+      @Param("account") String accountNumber,
+      @Param("instanceType") String instanceType,
+      @Param("months") Collection<String> monthIds);
 }
@@ -22,6 +22,7 @@ package org.candlepin.subscriptions.db;
 
 import java.time.OffsetDateTime;
 import java.util.Collection;
+import java.util.List;
 import java.util.UUID;
 import java.util.stream.Stream;
 import org.candlepin.subscriptions.db.model.Granularity;
@@ -31,11 +32,18 @@ import org.candlepin.subscriptions.db.model.Usage;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.JpaSpecificationExecutor;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.transaction.annotation.Propagation;
 import org.springframework.transaction.annotation.Transactional;
 
 /** Interface that Spring Data will turn into a DAO for us. */
-public interface TallySnapshotRepository extends JpaRepository<TallySnapshot, UUID> {
+public interface TallySnapshotRepository
+    extends JpaRepository<TallySnapshot, UUID>,
+        JpaSpecificationExecutor<TallySnapshot>,
+        CustomizedTallySnapshotRepository {
 
   // suppress line length and params arguments, can't help either easily b/c this is a spring data
   // method
@@ -55,6 +63,36 @@ public interface TallySnapshotRepository extends JpaRepository<TallySnapshot, UU
   void deleteAllByAccountNumberAndGranularityAndSnapshotDateBefore(
       String accountNumber, Granularity granularity, OffsetDateTime cutoffDate);
 
+  /**
+   * Find the IDs of the snapshots of a granularity dated before a cutoff, in ID order, starting
+   * after a given ID. Used to delete expired snapshots in key-ranged chunks.
+   *
+   * @param granularity granularity of the snapshots
+   * @param cutoffDate snapshots dated before this are returned
+   * @param after only IDs greater than this one are returned
+   * @param pageable limits the number of IDs returned
+   * @return the IDs, in ascending order
+   */
+  @Query(
+      "select s.id from TallySnapshot s where s.granularity = :granularity "
+          + "and s.snapshotDate < :cutoffDate and s.id > :after order by s.id")
+  List<UUID> findIdsByGranularityAndSnapshotDateBefore(
+      @Param("granularity") Granularity granularity,
+      @Param("cutoffDate") OffsetDateTime cutoffDate,
+      @Param("after") UUID after,
+      Pageable pageable);
+
+  /**
+   * Delete snapshots by ID with a single statement. Their measurements are removed by the cascading
+   * foreign keys of the measurement tables.
+   *
+   * @param ids IDs of the snapshots to delete
+   * @return the number of deleted snapshots
+   */
+  @Modifying
+  @Query("delete from TallySnapshot s where s.id in :ids")
+  int deleteByIdIn(@Param("ids") Collection<UUID> ids);
+
   Stream<TallySnapshot> findByAccountNumberInAndProductIdInAndGranularityAndSnapshotDateBetween(
       Collection<String> accountNumbers,
       Collection<String> productIds,
@@ -0,0 +1,70 @@
+/*
+ * Copyright Red Hat, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * Red Hat trademarks are not licensed under GPLv3. No permission is
+ * granted to use or replicate Red Hat trademarks that are incorporated
+ * in this software or its documentation.
+ */
+package org.candlepin.subscriptions.db;
+
+import java.time.OffsetDateTime;
+import java.util.Collection;
+import org.candlepin.subscriptions.db.model.Granularity;
+import org.candlepin.subscriptions.db.model.TallySnapshot;
+import org.candlepin.subscriptions.db.model.TallySnapshot_;
+import org.springframework.data.jpa.domain.Specification;
+
+/** Util class for building Specification&lt;TallySnapshot&gt; instances. */
+public class TallySnapshotSpecification {
+
+  private TallySnapshotSpecification() {
+    throw new IllegalStateException("Utility class; should never be instantiated!");
+  }
+
+  public static Specification<TallySnapshot> accountNumberIn(Collection<String> accountNumbers) {
+    return (root, query, builder) ->
+        accountNumbers.isEmpty()
+            ? builder.disjunction()
+            : root.get(TallySnapshot_.accountNumber).in(accountNumbers);
+  }
+
+  /**
+   * Matches the snapshots of the given products for a single granularity within a period. Several
+   * periods can be combined with {@link Specification#or(Specification)} to load the snapshots of
+   * multiple granularities in one query.
+   *
+   * @param granularity the granularity of the snapshots
+   * @param productIds the products of the snapshots
+   * @param beginning the start of the period (inclusive)
+   * @param ending the end of the period (inclusive)
+   * @return the specification
+   */
+  public static Specification<TallySnapshot> granularityPeriod(
+      Granularity granularity,
+      Collection<String> productIds,
+      OffsetDateTime beginning,
+      OffsetDateTime ending) {
+    return (root, query, builder) -> {
+      if (productIds.isEmpty()) {
+        return builder.disjunction();
+      }
+      return builder.and(
+          builder.equal(root.get(TallySnapshot_.granularity), granularity),
+          root.get(TallySnapshot_.productId).in(productIds),
+          builder.between(root.get(TallySnapshot_.snapshotDate), beginning, ending));
+    };
+  }
+}
@@ -0,0 +1,65 @@
+/*
+ * Copyright Red Hat, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * Red Hat trademarks are not licensed under GPLv3. No permission is
+ * granted to use or replicate Red Hat trademarks that are incorporated
+ * in this software or its documentation.
+ */
+package org.candlepin.subscriptions.db.model;
+
+import java.time.OffsetDateTime;
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.Table;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+import org.hibernate.annotations.DynamicUpdate;
+
+/**
+ * Tracks how far the inventory hosts of an account have been tallied, so that subsequent tallies
+ * only need to process the hosts that changed since, and when the account's snapshots last changed.
+ */
+// Only changed columns are written, as host and snapshot columns are set by different tallies.
+@Entity
+@DynamicUpdate
+@Getter
+@Setter
+@NoArgsConstructor
+@Table(name = "account_tally_state")
+public class AccountTallyState {
+
+  @Id
+  @Column(name = "account_number")
+  private String accountNumber;
+
+  /** Latest inventory modified_on timestamp of the hosts applied to the account's tally. */
+  @Column(name = "host_modified_on")
+  private OffsetDateTime hostModifiedOn;
+
+  /** When every host of the account was last tallied from scratch. */
+  @Column(name = "last_full_tally")
+  private OffsetDateTime lastFullTally;
+
+  /** When snapshots of the account were last written, by any kind of tally. */
+  @Column(name = "snapshots_updated_on")
+  private OffsetDateTime snapshotsUpdatedOn;
+
+  public AccountTallyState(String accountNumber) {
+    this.accountNumber = accountNumber;
+  }
+}
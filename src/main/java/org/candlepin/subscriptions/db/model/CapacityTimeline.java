@@ -0,0 +1,121 @@
+/*
+ * Copyright Red Hat, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * Red Hat trademarks are not licensed under GPLv3. No permission is
+ * granted to use or replicate Red Hat trademarks that are incorporated
+ * in this software or its documentation.
+ */
+package org.candlepin.subscriptions.db.model;
+
+import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Computes the capacity of a set of subscriptions at a series of dates with a single sweep.
+ *
+ * <p>Each subscription becomes two delta events: its capacity is added after its begin date and
+ * removed from its end date on. A subscription counts towards a date strictly between its begin and
+ * end dates. Both event lists are sorted once, then walked alongside the ascending dates, so the
+ * capacities of all dates cost O(n log n + dates) rather than O(n * dates).
+ */
+public class CapacityTimeline {
+
+  private static final int PHYSICAL_SOCKETS = 0;
+  private static final int VIRTUAL_SOCKETS = 1;
+  private static final int PHYSICAL_CORES = 2;
+  private static final int VIRTUAL_CORES = 3;
+  private static final int MEASUREMENTS = 4;
+
+  private final List<Delta> begins = new ArrayList<>();
+  private final List<Delta> ends = new ArrayList<>();
+
+  public CapacityTimeline(Collection<SubscriptionCapacity> capacities) {
+    for (SubscriptionCapacity capacity : capacities) {
+      // Subscriptions not ending after they begin never count towards any date.
+      if (capacity.getBeginDate() == null
+          || capacity.getEndDate() == null
+          || !capacity.getEndDate().isAfter(capacity.getBeginDate())) {
+        continue;
+      }
+      int[] values = new int[MEASUREMENTS];
+      values[PHYSICAL_SOCKETS] = sanitize(capacity.getPhysicalSockets());
+      values[VIRTUAL_SOCKETS] = sanitize(capacity.getVirtualSockets());
+      values[PHYSICAL_CORES] = sanitize(capacity.getPhysicalCores());
+      values[VIRTUAL_CORES] = sanitize(capacity.getVirtualCores());
+      begins.add(new Delta(capacity.getBeginDate(), values));
+      ends.add(new Delta(capacity.getEndDate(), values));
+    }
+    begins.sort(Comparator.comparing(Delta::getDate, OffsetDateTime.timeLineOrder()));
+    ends.sort(Comparator.comparing(Delta::getDate, OffsetDateTime.timeLineOrder()));
+  }
+
+  /**
+   * Get the capacity totals of each date.
+   *
+   * @param dates the dates, in ascending order.
+   * @return one total per date, in the same order.
+   */
+  public List<CapacityTotals> totals(List<OffsetDateTime> dates) {
+    List<CapacityTotals> result = new ArrayList<>(dates.size());
+    int[] totals = new int[MEASUREMENTS];
+    int nextBegin = 0;
+    int nextEnd = 0;
+    for (OffsetDateTime date : dates) {
+      while (nextBegin < begins.size() && begins.get(nextBegin).getDate().isBefore(date)) {
+        begins.get(nextBegin++).applyTo(totals, 1);
+      }
+      while (nextEnd < ends.size() && !ends.get(nextEnd).getDate().isAfter(date)) {
+        ends.get(nextEnd++).applyTo(totals, -1);
+      }
+      result.add(
+          new CapacityTotals(
+              date,
+              totals[PHYSICAL_SOCKETS],
+              totals[VIRTUAL_SOCKETS],
+              totals[PHYSICAL_CORES],
+              totals[VIRTUAL_CORES]));
+    }
+    return result;
+  }
+
+  private static int sanitize(Integer value) {
+    return value != null ? value : 0;
+  }
+
+  /** The capacity of a subscription, added or removed at a date. */
+  private static class Delta {
+    private final OffsetDateTime date;
+    private final int[] values;
+
+    Delta(OffsetDateTime date, int[] values) {
+      this.date = date;
+      this.values = values;
+    }
+
+    OffsetDateTime getDate() {
+      return date;
+    }
+
+    void applyTo(int[] totals, int sign) {
+      for (int i = 0; i < MEASUREMENTS; i++) {
+        totals[i] += sign * values[i];
+      }
+    }
+  }
+}
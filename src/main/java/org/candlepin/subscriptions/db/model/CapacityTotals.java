@@ -0,0 +1,65 @@
+/*
+ * Copyright Red Hat, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * Red Hat trademarks are not licensed under GPLv3. No permission is
+ * granted to use or replicate Red Hat trademarks that are incorporated
+ * in this software or its documentation.
+ */
+package org.candlepin.subscriptions.db.model;
+
+import java.time.OffsetDateTime;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.ToString;
+import org.candlepin.subscriptions.utilization.api.model.CapacitySnapshot;
+
+/** The summed capacity of the subscriptions active at the start of a report period. */
+@EqualsAndHashCode
+@Getter
+@ToString
+public class CapacityTotals {
+
+  private final OffsetDateTime date;
+  private final int physicalSockets;
+  private final int virtualSockets;
+  private final int physicalCores;
+  private final int virtualCores;
+
+  public CapacityTotals(
+      OffsetDateTime date,
+      int physicalSockets,
+      int virtualSockets,
+      int physicalCores,
+      int virtualCores) {
+    this.date = date;
+    this.physicalSockets = physicalSockets;
+    this.virtualSockets = virtualSockets;
+    this.physicalCores = physicalCores;
+    this.virtualCores = virtualCores;
+  }
+
+  public CapacitySnapshot asApiSnapshot() {
+    return new CapacitySnapshot()
+        .date(date)
+        .sockets(physicalSockets + virtualSockets)
+        .physicalSockets(physicalSockets)
+        .hypervisorSockets(virtualSockets)
+        .cores(physicalCores + virtualCores)
+        .physicalCores(physicalCores)
+        .hypervisorCores(virtualCores)
+        .hasInfiniteQuantity(false);
+  }
+}
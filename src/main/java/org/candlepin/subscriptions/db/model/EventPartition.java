@@ -0,0 +1,94 @@
+/*
+ * Copyright Red Hat, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * Red Hat trademarks are not licensed under GPLv3. No permission is
+ * granted to use or replicate Red Hat trademarks that are incorporated
+ * in this software or its documentation.
+ */
+package org.candlepin.subscriptions.db.model;
+
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.ToString;
+
+/**
+ * A range partition of the events table, covering event timestamps from its start (inclusive) to
+ * its end (exclusive).
+ *
+ * <p>Partitions are named after their bounds in UTC, e.g. events_20210401_20210501, so that they
+ * can be told apart from the default partition and their bounds read without parsing the partition
+ * definition.
+ */
+@EqualsAndHashCode
+@Getter
+@ToString
+public class EventPartition {
+
+  private static final DateTimeFormatter BOUND_FORMAT = DateTimeFormatter.BASIC_ISO_DATE;
+  private static final Pattern NAME_PATTERN = Pattern.compile("events_(\\d{8})_(\\d{8})");
+
+  private final String name;
+  private final OffsetDateTime start;
+  private final OffsetDateTime end;
+
+  public EventPartition(OffsetDateTime start, OffsetDateTime end) {
+    this.start = Objects.requireNonNull(start).withOffsetSameInstant(ZoneOffset.UTC);
+    this.end = Objects.requireNonNull(end).withOffsetSameInstant(ZoneOffset.UTC);
+    if (!this.start.toLocalTime().equals(LocalTime.MIDNIGHT)
+        || !this.end.toLocalTime().equals(LocalTime.MIDNIGHT)
+        || !this.start.isBefore(this.end)) {
+      throw new IllegalArgumentException(
+          String.format("Invalid event partition bounds: %s to %s", start, end));
+    }
+    this.name =
+        String.format(
+            "events_%s_%s",
+            this.start.toLocalDate().format(BOUND_FORMAT),
+            this.end.toLocalDate().format(BOUND_FORMAT));
+  }
+
+  /**
+   * Read the bounds of a partition from its name.
+   *
+   * @param name name of a partition of the events table
+   * @return the partition, or empty if the name is not that of a range partition
+   */
+  public static Optional<EventPartition> fromName(String name) {
+    Matcher matcher = NAME_PATTERN.matcher(name);
+    if (!matcher.matches()) {
+      return Optional.empty();
+    }
+    return Optional.of(
+        new EventPartition(parseBound(matcher.group(1)), parseBound(matcher.group(2))));
+  }
+
+  private static OffsetDateTime parseBound(String bound) {
+    return LocalDate.parse(bound, BOUND_FORMAT).atStartOfDay().atOffset(ZoneOffset.UTC);
+  }
+
+  public boolean overlaps(EventPartition other) {
+    return start.isBefore(other.end) && other.start.isBefore(end);
+  }
+}
@@ -66,6 +66,7 @@ public class EventRecord {
     this.eventType = event.getEventType();
     this.eventSource = event.getEventSource();
     this.instanceId = event.getInstanceId();
+    this.serviceType = event.getServiceType();
     this.timestamp = event.getTimestamp();
   }
 
@@ -83,6 +84,9 @@ public class EventRecord {
   @Column(name = "instance_id")
   private String instanceId;
 
+  @Column(name = "service_type")
+  private String serviceType;
+
   private OffsetDateTime timestamp;
 
   @Valid
@@ -122,6 +126,14 @@ public class EventRecord {
     this.eventSource = eventSource;
   }
 
+  public String getServiceType() {
+    return serviceType;
+  }
+
+  public void setServiceType(String serviceType) {
+    this.serviceType = serviceType;
+  }
+
   public OffsetDateTime getTimestamp() {
     return timestamp;
   }
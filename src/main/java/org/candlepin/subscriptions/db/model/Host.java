@@ -208,6 +208,55 @@ public class Host implements Serializable {
     this.hardwareType = normalizedFacts.getHardwareType();
   }
 
+  /**
+   * Applies the HBI derived state and buckets of another host to this one.
+   *
+   * <p>Only values that differ are written, so applying a host with identical content leaves this
+   * entity and its collections untouched and Hibernate will not issue any statements for it.
+   *
+   * @param other a host built from the latest inventory facts.
+   */
+  public void updateFrom(Host other) {
+    if (other.inventoryId != null) {
+      this.inventoryId = other.inventoryId;
+      this.instanceId = other.instanceId;
+    }
+
+    this.insightsId = other.insightsId;
+    this.accountNumber = other.accountNumber;
+    this.orgId = other.orgId;
+    this.displayName = other.displayName;
+    this.subscriptionManagerId = other.subscriptionManagerId;
+    this.guest = other.guest;
+    this.hypervisorUuid = other.hypervisorUuid;
+    this.isHypervisor = other.isHypervisor;
+    this.isUnmappedGuest = other.isUnmappedGuest;
+    this.cloudProvider = other.cloudProvider;
+    this.lastSeen = other.lastSeen;
+    this.hardwareType = other.hardwareType;
+
+    if (other.numOfGuests != null) {
+      this.numOfGuests = other.numOfGuests;
+    }
+
+    // Collection writes mark the whole collection dirty, so avoid them for unchanged values.
+    other.measurements.forEach(
+        (uom, value) -> {
+          if (!Objects.equals(measurements.get(uom), value)) {
+            measurements.put(uom, value);
+          }
+        });
+
+    Set<HostTallyBucket> updatedBuckets = new HashSet<>();
+    other.buckets.forEach(
+        bucket -> {
+          bucket.setHost(this);
+          updatedBuckets.add(bucket);
+        });
+    buckets.retainAll(updatedBuckets);
+    buckets.addAll(updatedBuckets);
+  }
+
   /**
    * @deprecated use getMeasurement(Measurement.Uom.CORES) instead
    * @return effective cores measured on the instance
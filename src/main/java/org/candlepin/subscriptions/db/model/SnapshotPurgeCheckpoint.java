@@ -0,0 +1,60 @@
+/*
+ * Copyright Red Hat, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * Red Hat trademarks are not licensed under GPLv3. No permission is
+ * granted to use or replicate Red Hat trademarks that are incorporated
+ * in this software or its documentation.
+ */
+package org.candlepin.subscriptions.db.model;
+
+import java.time.OffsetDateTime;
+import java.util.UUID;
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.EnumType;
+import javax.persistence.Enumerated;
+import javax.persistence.Id;
+import javax.persistence.Table;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+/**
+ * Tracks how far the snapshots of a granularity have been purged, so that an interrupted purge can
+ * resume where it left off.
+ */
+@Entity
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+@Table(name = "snapshot_purge_checkpoint")
+public class SnapshotPurgeCheckpoint {
+
+  @Id
+  @Enumerated(EnumType.STRING)
+  @Column(name = "granularity")
+  private Granularity granularity;
+
+  /** Cutoff date of the purge in progress; a purge with another cutoff starts over. */
+  @Column(name = "cutoff_date")
+  private OffsetDateTime cutoffDate;
+
+  /** Highest ID of the snapshots purged so far, snapshots being purged in ID order. */
+  @Column(name = "last_snapshot_id")
+  private UUID lastSnapshotId;
+}
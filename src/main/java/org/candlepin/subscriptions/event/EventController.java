@@ -22,6 +22,7 @@ package org.candlepin.subscriptions.event;
 
 import java.time.OffsetDateTime;
 import java.util.Collection;
+import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.UUID;
@@ -60,6 +61,44 @@ public class EventController {
         .map(EventRecord::getEvent);
   }
 
+  /**
+   * Note: calling method needs to use @Transactional and close the stream
+   *
+   * @param accountNumber account identifier
+   * @param serviceType service type of the events
+   * @param begin beginning of the time range (inclusive)
+   * @param end end of the time range (exclusive)
+   * @return stream of Event, ordered by timestamp
+   */
+  public Stream<Event> fetchEventsInTimeRangeByServiceType(
+      String accountNumber, String serviceType, OffsetDateTime begin, OffsetDateTime end) {
+    return repo.streamEventsInTimeRangeByServiceType(accountNumber, serviceType, begin, end);
+  }
+
+  /**
+   * @param accountNumber account identifier
+   * @param serviceType service type of the events
+   * @param begin beginning of the time range (inclusive)
+   * @param end end of the time range (exclusive)
+   * @return the distinct instance IDs referenced by the events
+   */
+  public List<String> fetchInstanceIdsInTimeRangeByServiceType(
+      String accountNumber, String serviceType, OffsetDateTime begin, OffsetDateTime end) {
+    return repo.findInstanceIdsInTimeRangeByServiceType(accountNumber, serviceType, begin, end);
+  }
+
+  /**
+   * @param eventSource event source
+   * @param eventType event type
+   * @param begin beginning of the time range (inclusive)
+   * @param end end of the time range (exclusive)
+   * @return the distinct accounts having events in the range
+   */
+  public List<String> fetchAccountNumbersInTimeRange(
+      String eventSource, String eventType, OffsetDateTime begin, OffsetDateTime end) {
+    return repo.findAccountNumbersInTimeRange(eventSource, eventType, begin, end);
+  }
+
   @SuppressWarnings({"linelength", "indentation"})
   public Map<EventKey, Event> mapEventsInTimeRange(
       String accountNumber,
@@ -96,6 +135,39 @@ public class EventController {
     repo.saveAll(events.stream().map(EventRecord::new).collect(Collectors.toList()));
   }
 
+  /**
+   * Upserts events by their natural key without loading the existing records.
+   *
+   * @param events the events to write
+   */
+  @Transactional
+  public void upsertAll(Collection<Event> events) {
+    repo.upsertAll(events);
+  }
+
+  /**
+   * Deletes the events of an account, event source and event type in a time range, other than the
+   * given ones. Together with {@link #upsertAll}, replaces the events of a time range.
+   *
+   * @param accountNumber account identifier
+   * @param eventSource event source of the events
+   * @param eventType event type of the events
+   * @param begin beginning of the time range (inclusive)
+   * @param end end of the time range (exclusive)
+   * @param keep the natural keys of the events to keep
+   * @return the number of deleted events
+   */
+  @Transactional
+  public int deleteEventsInTimeRangeExcept(
+      String accountNumber,
+      String eventSource,
+      String eventType,
+      OffsetDateTime begin,
+      OffsetDateTime end,
+      Collection<EventKey> keep) {
+    return repo.deleteInTimeRangeExcept(accountNumber, eventSource, eventType, begin, end, keep);
+  }
+
   /**
    * Fetch a single Event by its ID.
    *
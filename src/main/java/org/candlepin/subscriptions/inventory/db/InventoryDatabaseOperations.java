@@ -20,28 +20,131 @@
  */
 package org.candlepin.subscriptions.inventory.db;
 
+import java.time.OffsetDateTime;
 import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
 import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
 import java.util.stream.Stream;
+import org.candlepin.subscriptions.ApplicationProperties;
 import org.candlepin.subscriptions.inventory.db.model.InventoryHostFacts;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
 
 /** Isolates readonly transaction for inventory database operations. */
 @Component
 public class InventoryDatabaseOperations {
 
+  /** Lowest possible inventory ID, where reading pages of host facts starts. */
+  private static final String FIRST_HOST_ID = new UUID(0L, 0L).toString();
+
   private final InventoryRepository repo;
+  private final TransactionTemplate readOnlyTransaction;
+  private final int hostFactsPageSize;
 
-  public InventoryDatabaseOperations(InventoryRepository inventoryRepository) {
+  public InventoryDatabaseOperations(
+      InventoryRepository inventoryRepository,
+      @Qualifier("inventoryTransactionManager") PlatformTransactionManager transactionManager,
+      ApplicationProperties props) {
     this.repo = inventoryRepository;
+    this.readOnlyTransaction = new TransactionTemplate(transactionManager);
+    this.readOnlyTransaction.setReadOnly(true);
+    this.hostFactsPageSize = props.getHostFactsPageSize();
   }
 
-  @Transactional(value = "inventoryTransactionManager", readOnly = true)
+  /**
+   * Passes the facts of all the active hosts of the given accounts to the consumer.
+   *
+   * <p>When a page size is configured, hosts are read in pages ordered by inventory ID (keyset
+   * pagination), each page in its own read-only transaction. The consumer is called outside of
+   * those transactions, so that slow processing never holds a snapshot open on the inventory
+   * database. Each host is returned at most once, though hosts added to inventory while pages are
+   * being read may be missed until the next tally.
+   */
   public void processHostFacts(
       Collection<String> accounts, int culledOffsetDays, Consumer<InventoryHostFacts> consumer) {
-    try (Stream<InventoryHostFacts> hostFactStream = repo.getFacts(accounts, culledOffsetDays)) {
-      hostFactStream.forEach(consumer::accept);
+    processPages(
+        () -> repo.getFacts(accounts, culledOffsetDays),
+        afterId -> repo.getFactsPage(accounts, culledOffsetDays, afterId, hostFactsPageSize),
+        consumer);
+  }
+
+  /**
+   * Passes the facts of the active hosts of an account that changed since the given time to the
+   * consumer, paged like {@link #processHostFacts(Collection, int, Consumer)}.
+   */
+  public void processChangedHostFacts(
+      String account,
+      OffsetDateTime since,
+      int culledOffsetDays,
+      Consumer<InventoryHostFacts> consumer) {
+    processPages(
+        () -> repo.getChangedFacts(account, since, culledOffsetDays),
+        afterId ->
+            repo.getChangedFactsPage(account, since, culledOffsetDays, afterId, hostFactsPageSize),
+        consumer);
+  }
+
+  /**
+   * Passes the facts of the given active hosts of an account to the consumer, paged like {@link
+   * #processHostFacts(Collection, int, Consumer)}.
+   */
+  public void processHostFacts(
+      String account,
+      Collection<String> inventoryIds,
+      int culledOffsetDays,
+      Consumer<InventoryHostFacts> consumer) {
+    String idArray = InventoryRepository.toUuidArray(inventoryIds);
+    processPages(
+        () -> repo.getFactsByIds(account, inventoryIds, culledOffsetDays),
+        afterId ->
+            repo.getFactsByIdArrayPage(
+                account, idArray, culledOffsetDays, afterId, hostFactsPageSize),
+        consumer);
+  }
+
+  /**
+   * Reads host facts either in a single streaming transaction when paging is disabled, or page by
+   * page after the last inventory ID read, each page in its own transaction.
+   */
+  private void processPages(
+      Supplier<Stream<InventoryHostFacts>> streamQuery,
+      Function<String, List<InventoryHostFacts>> pageQuery,
+      Consumer<InventoryHostFacts> consumer) {
+    if (hostFactsPageSize <= 0) {
+      readOnlyTransaction.executeWithoutResult(
+          status -> {
+            try (Stream<InventoryHostFacts> hostFactStream = streamQuery.get()) {
+              hostFactStream.forEach(consumer::accept);
+            }
+          });
+      return;
+    }
+
+    String afterId = FIRST_HOST_ID;
+    List<InventoryHostFacts> page;
+    do {
+      String pageStart = afterId;
+      page = readOnlyTransaction.execute(status -> pageQuery.apply(pageStart));
+      if (page == null || page.isEmpty()) {
+        return;
+      }
+      page.forEach(consumer);
+      afterId = page.get(page.size() - 1).getInventoryId().toString();
+    } while (page.size() >= hostFactsPageSize);
+  }
+
+  @Transactional(value = "inventoryTransactionManager", readOnly = true)
+  public Set<String> activeHostIds(String account, int culledOffsetDays) {
+    try (Stream<String> stream = repo.getActiveHostIds(account, culledOffsetDays)) {
+      return stream.collect(Collectors.toSet());
     }
   }
 
@@ -51,4 +154,12 @@ public class InventoryDatabaseOperations {
       stream.forEach(consumer::accept);
     }
   }
+
+  @Transactional(value = "inventoryTransactionManager", readOnly = true)
+  public void reportedHypervisorsChangedSince(
+      Collection<String> accounts, OffsetDateTime since, Consumer<Object[]> consumer) {
+    try (Stream<Object[]> stream = repo.getReportedHypervisorsChangedSince(accounts, since)) {
+      stream.forEach(consumer::accept);
+    }
+  }
 }
@@ -20,7 +20,9 @@
  */
 package org.candlepin.subscriptions.inventory.db;
 
+import java.time.OffsetDateTime;
 import java.util.Collection;
+import java.util.List;
 import java.util.UUID;
 import java.util.stream.Stream;
 import org.candlepin.subscriptions.inventory.db.model.InventoryHost;
@@ -38,19 +40,148 @@ public interface InventoryRepository extends Repository<InventoryHost, UUID> {
       @Param("accounts") Collection<String> accounts,
       @Param("culledOffsetDays") Integer culledOffsetDays);
 
+  /**
+   * Get a page of the facts returned by getFacts, ordered by inventory ID.
+   *
+   * @param accounts the accounts to filter hosts by.
+   * @param culledOffsetDays the number of days after which stale hosts are considered culled.
+   * @param afterId only hosts with an inventory ID greater than this one are returned.
+   * @param pageSize the maximum number of hosts to return.
+   * @return the facts of the hosts in the page.
+   */
+  @Query(nativeQuery = true)
+  List<InventoryHostFacts> getFactsPage(
+      @Param("accounts") Collection<String> accounts,
+      @Param("culledOffsetDays") Integer culledOffsetDays,
+      @Param("afterId") String afterId,
+      @Param("pageSize") Integer pageSize);
+
+  /**
+   * Get the facts of the active hosts of an account that need to be re-normalized by an incremental
+   * tally: hosts modified since the given time, along with the hypervisors of those hosts and every
+   * guest of those hypervisors, since a hypervisor's usage depends on all of its guests.
+   *
+   * @param account the account to filter hosts by.
+   * @param since only hosts modified after this time are returned, besides affected hypervisors
+   *     and their guests.
+   * @param culledOffsetDays the number of days after which stale hosts are considered culled.
+   * @return a stream of the facts of the matching hosts.
+   */
+  @Query(nativeQuery = true)
+  Stream<InventoryHostFacts> getChangedFacts(
+      @Param("account") String account,
+      @Param("since") OffsetDateTime since,
+      @Param("culledOffsetDays") Integer culledOffsetDays);
+
+  /**
+   * Get a page of the facts returned by getChangedFacts, ordered by inventory ID.
+   *
+   * @param account the account to filter hosts by.
+   * @param since only hosts modified after this time are returned, besides affected hypervisors
+   *     and their guests.
+   * @param culledOffsetDays the number of days after which stale hosts are considered culled.
+   * @param afterId only hosts with an inventory ID greater than this one are returned.
+   * @param pageSize the maximum number of hosts to return.
+   * @return the facts of the hosts in the page.
+   */
+  @Query(nativeQuery = true)
+  List<InventoryHostFacts> getChangedFactsPage(
+      @Param("account") String account,
+      @Param("since") OffsetDateTime since,
+      @Param("culledOffsetDays") Integer culledOffsetDays,
+      @Param("afterId") String afterId,
+      @Param("pageSize") Integer pageSize);
+
+  /**
+   * Get the facts of the given active hosts of an account.
+   *
+   * @param account the account to filter hosts by.
+   * @param inventoryIds the inventory IDs of the hosts to return.
+   * @param culledOffsetDays the number of days after which stale hosts are considered culled.
+   * @return a stream of the facts of the matching hosts.
+   */
+  default Stream<InventoryHostFacts> getFactsByIds(
+      String account, Collection<String> inventoryIds, Integer culledOffsetDays) {
+    return getFactsByIdArray(account, toUuidArray(inventoryIds), culledOffsetDays);
+  }
+
+  /**
+   * Format inventory IDs as the PostgreSQL array literal expected by the queries taking an array of
+   * IDs.
+   *
+   * @param inventoryIds the inventory IDs to format.
+   * @return the array literal.
+   */
+  static String toUuidArray(Collection<String> inventoryIds) {
+    return "{" + String.join(",", inventoryIds) + "}";
+  }
+
+  /**
+   * Get the facts of the given active hosts of an account. The IDs are bound as a single uuid
+   * array, so that the lookup uses the primary key whatever the number of IDs.
+   *
+   * @param account the account to filter hosts by.
+   * @param inventoryIds the inventory IDs of the hosts to return, as a PostgreSQL array literal.
+   * @param culledOffsetDays the number of days after which stale hosts are considered culled.
+   * @return a stream of the facts of the matching hosts.
+   */
+  @Query(nativeQuery = true)
+  Stream<InventoryHostFacts> getFactsByIdArray(
+      @Param("account") String account,
+      @Param("inventoryIds") String inventoryIds,
+      @Param("culledOffsetDays") Integer culledOffsetDays);
+
+  /**
+   * Get a page of the facts returned by getFactsByIdArray, ordered by inventory ID.
+   *
+   * @param account the account to filter hosts by.
+   * @param inventoryIds the inventory IDs of the hosts to return, as a PostgreSQL array literal.
+   * @param culledOffsetDays the number of days after which stale hosts are considered culled.
+   * @param afterId only hosts with an inventory ID greater than this one are returned.
+   * @param pageSize the maximum number of hosts to return.
+   * @return the facts of the hosts in the page.
+   */
+  @Query(nativeQuery = true)
+  List<InventoryHostFacts> getFactsByIdArrayPage(
+      @Param("account") String account,
+      @Param("inventoryIds") String inventoryIds,
+      @Param("culledOffsetDays") Integer culledOffsetDays,
+      @Param("afterId") String afterId,
+      @Param("pageSize") Integer pageSize);
+
+  /**
+   * Get the IDs of all the hosts of an account that would be returned by getFacts.
+   *
+   * @param account the account to filter hosts by.
+   * @param culledOffsetDays the number of days after which stale hosts are considered culled.
+   * @return a stream of inventory IDs.
+   */
+  @Query(
+      nativeQuery = true,
+      value =
+          "select cast(h.id as varchar) from hosts h "
+              + "where h.account = :account"
+              + "   and (h.facts->'rhsm'->>'BILLING_MODEL' IS NULL OR h.facts->'rhsm'->>'BILLING_MODEL' <> 'marketplace')"
+              + "   and (h.stale_timestamp is null "
+              + "   or  (NOW() < h.stale_timestamp + make_interval(days => :culledOffsetDays)))")
+  Stream<String> getActiveHostIds(
+      @Param("account") String account, @Param("culledOffsetDays") Integer culledOffsetDays);
+
   /**
    * Get a mapping of hypervisor ID to associated hypervisor host's subscription-manager ID. If the
    * hypervisor hasn't been reported, then the hyp_subman_id value will be null.
    *
    * @param accounts the accounts to filter hosts by.
-   * @return a stream of Object[] with each entry representing a hypervisor mapping.
+   * @return a stream of Object[] with each entry representing a hypervisor mapping, followed by the
+   *     account of the guest reporting it.
    */
   @Query(
       nativeQuery = true,
       value =
           "select "
               + "distinct h.facts->'rhsm'->>'VM_HOST_UUID' as hyp_id, "
-              + "h_.canonical_facts->>'subscription_manager_id' as hyp_subman_id "
+              + "h_.canonical_facts->>'subscription_manager_id' as hyp_subman_id, "
+              + "h.account "
               + "from hosts h "
               + "left outer join hosts h_ on h.facts->'rhsm'->>'VM_HOST_UUID' = h_.canonical_facts->>'subscription_manager_id' "
               + "where h.facts->'rhsm'->'VM_HOST_UUID' is not null "
@@ -58,10 +189,45 @@ public interface InventoryRepository extends Repository<InventoryHost, UUID> {
               + "union all "
               + "select "
               + "distinct h.facts->'satellite'->>'virtual_host_uuid' as hyp_id, "
-              + "h_.canonical_facts->>'subscription_manager_id' as hyp_subman_id "
+              + "h_.canonical_facts->>'subscription_manager_id' as hyp_subman_id, "
+              + "h.account "
               + "from hosts h "
               + "left outer join hosts h_ on h.facts->'satellite'->>'virtual_host_uuid' = h_.canonical_facts->>'subscription_manager_id' "
               + "where h.facts->'satellite'->'virtual_host_uuid' is not null "
               + "and h.account IN (:accounts)")
   Stream<Object[]> getReportedHypervisors(@Param("accounts") Collection<String> accounts);
+
+  /**
+   * Get the rows of getReportedHypervisors involving a guest or a hypervisor host modified since the
+   * given time, so that a previously loaded mapping can be brought up to date.
+   *
+   * @param accounts the accounts to filter hosts by.
+   * @param since only mappings with a guest or hypervisor modified after this time are returned.
+   * @return a stream of Object[] with each entry representing a hypervisor mapping, followed by the
+   *     account of the guest reporting it.
+   */
+  @Query(
+      nativeQuery = true,
+      value =
+          "select "
+              + "distinct h.facts->'rhsm'->>'VM_HOST_UUID' as hyp_id, "
+              + "h_.canonical_facts->>'subscription_manager_id' as hyp_subman_id, "
+              + "h.account "
+              + "from hosts h "
+              + "left outer join hosts h_ on h.facts->'rhsm'->>'VM_HOST_UUID' = h_.canonical_facts->>'subscription_manager_id' "
+              + "where h.facts->'rhsm'->'VM_HOST_UUID' is not null "
+              + "and h.account IN (:accounts) "
+              + "and (h.modified_on > :since or h_.modified_on > :since) "
+              + "union all "
+              + "select "
+              + "distinct h.facts->'satellite'->>'virtual_host_uuid' as hyp_id, "
+              + "h_.canonical_facts->>'subscription_manager_id' as hyp_subman_id, "
+              + "h.account "
+              + "from hosts h "
+              + "left outer join hosts h_ on h.facts->'satellite'->>'virtual_host_uuid' = h_.canonical_facts->>'subscription_manager_id' "
+              + "where h.facts->'satellite'->'virtual_host_uuid' is not null "
+              + "and h.account IN (:accounts) "
+              + "and (h.modified_on > :since or h_.modified_on > :since)")
+  Stream<Object[]> getReportedHypervisorsChangedSince(
+      @Param("accounts") Collection<String> accounts, @Param("since") OffsetDateTime since);
 }
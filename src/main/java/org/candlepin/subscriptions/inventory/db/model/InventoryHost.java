@@ -28,6 +28,7 @@ import javax.persistence.ColumnResult;
 import javax.persistence.ConstructorResult;
 import javax.persistence.Entity;
 import javax.persistence.Id;
+import javax.persistence.NamedNativeQueries;
 import javax.persistence.NamedNativeQuery;
 import javax.persistence.SqlResultSetMapping;
 import javax.persistence.Table;
@@ -81,60 +82,149 @@ import lombok.Setter;
  * query.  It's inspired by https://dba.stackexchange.com/a/54289. See also
  * https://stackoverflow.com/a/28557803/6124862
  */
-@NamedNativeQuery(
-    name = "InventoryHost.getFacts",
-    query =
-        "select h.id as inventory_id, h.modified_on, h.account, h.display_name, "
-            + "h.facts->'rhsm'->>'orgId' as org_id, "
-            + "h.facts->'rhsm'->>'CPU_CORES' as cores, "
-            + "h.facts->'rhsm'->>'CPU_SOCKETS' as sockets, "
-            + "h.facts->'rhsm'->>'IS_VIRTUAL' as is_virtual, "
-            + "h.facts->'rhsm'->>'VM_HOST_UUID' as hypervisor_uuid, "
-            + "h.facts->'satellite'->>'virtual_host_uuid' as satellite_hypervisor_uuid, "
-            + "h.facts->'satellite'->>'system_purpose_role' as satellite_role, "
-            + "h.facts->'satellite'->>'system_purpose_sla' as satellite_sla, "
-            + "h.facts->'satellite'->>'system_purpose_usage' as satellite_usage, "
-            + "h.facts->'rhsm'->>'GUEST_ID' as guest_id, "
-            + "h.facts->'rhsm'->>'SYNC_TIMESTAMP' as sync_timestamp, "
-            + "h.facts->'rhsm'->>'SYSPURPOSE_ROLE' as syspurpose_role, "
-            + "h.facts->'rhsm'->>'SYSPURPOSE_SLA' as syspurpose_sla, "
-            + "h.facts->'rhsm'->>'SYSPURPOSE_USAGE' as syspurpose_usage, "
-            + "h.facts->'rhsm'->>'SYSPURPOSE_UNITS' as syspurpose_units, "
-            + "h.facts->'rhsm'->>'BILLING_MODEL' as  billing_model, "
-            + "h.facts->'qpc'->>'IS_RHEL' as is_rhel, "
-            + "h.system_profile_facts->>'infrastructure_type' as system_profile_infrastructure_type, "
-            + "h.system_profile_facts->>'cores_per_socket' as system_profile_cores_per_socket, "
-            + "h.system_profile_facts->>'number_of_sockets' as system_profile_sockets, "
-            + "h.system_profile_facts->>'cloud_provider' as cloud_provider, "
-            + "h.canonical_facts->>'subscription_manager_id' as subscription_manager_id, "
-            + "h.canonical_facts->>'insights_id' as insights_id, "
-            + "rhsm_products.products, "
-            + "qpc_prods.qpc_products, "
-            + "qpc_certs.qpc_product_ids, "
-            + "system_profile.system_profile_product_ids, "
-            + "h.stale_timestamp "
-            + "from hosts h "
-            + "cross join lateral ( "
-            + "    select string_agg(items, ',') as products "
-            + "    from jsonb_array_elements_text(h.facts->'rhsm'->'RH_PROD') as items) rhsm_products "
-            + "cross join lateral ( "
-            + "    select string_agg(items, ',') as qpc_products "
-            + "    from jsonb_array_elements_text(h.facts->'qpc'->'rh_products_installed') as items) qpc_prods "
-            + "cross join lateral ( "
-            + "    select string_agg(items, ',') as qpc_product_ids "
-            + "    from jsonb_array_elements_text(h.facts->'qpc'->'rh_product_certs') as items) qpc_certs "
-            + "cross join lateral ( "
-            + "    select string_agg(items->>'id', ',') as system_profile_product_ids "
-            + "    from jsonb_array_elements(h.system_profile_facts->'installed_products') as items) system_profile "
-            + "where account IN (:accounts)"
-            + "   and (h.facts->'rhsm'->>'BILLING_MODEL' IS NULL OR h.facts->'rhsm'->>'BILLING_MODEL' <> 'marketplace')"
-            + "   and (stale_timestamp is null "
-            + "   or  (NOW() < stale_timestamp + make_interval(days => :culledOffsetDays)))",
-    resultSetMapping = "inventoryHostFactsMapping")
+@NamedNativeQueries({
+  @NamedNativeQuery(
+      name = "InventoryHost.getFacts",
+      query =
+          InventoryHost.FACTS_SELECT
+              + "where account IN (:accounts)"
+              + InventoryHost.ACTIVE_HOST_FILTER,
+      resultSetMapping = "inventoryHostFactsMapping"),
+  @NamedNativeQuery(
+      name = "InventoryHost.getFactsPage",
+      query =
+          InventoryHost.FACTS_SELECT
+              + "where account IN (:accounts)"
+              + "   and h.id > cast(:afterId as uuid)"
+              + InventoryHost.ACTIVE_HOST_FILTER
+              + " order by h.id limit :pageSize",
+      resultSetMapping = "inventoryHostFactsMapping"),
+  @NamedNativeQuery(
+      name = "InventoryHost.getChangedFacts",
+      query =
+          InventoryHost.CHANGED_HYPERVISORS
+              + InventoryHost.FACTS_SELECT
+              + "where account = :account"
+              + InventoryHost.ACTIVE_HOST_FILTER
+              + "   and h.modified_on > :since "
+              + "union "
+              + InventoryHost.FACTS_SELECT
+              + "where account = :account"
+              + InventoryHost.ACTIVE_HOST_FILTER
+              + "   and (h.canonical_facts->>'subscription_manager_id' in (select hypervisor_id from changed_hypervisors) "
+              + "   or h.facts->'rhsm'->>'VM_HOST_UUID' in (select hypervisor_id from changed_hypervisors) "
+              + "   or h.facts->'satellite'->>'virtual_host_uuid' in (select hypervisor_id from changed_hypervisors))",
+      resultSetMapping = "inventoryHostFactsMapping"),
+  @NamedNativeQuery(
+      name = "InventoryHost.getChangedFactsPage",
+      query =
+          InventoryHost.CHANGED_HYPERVISORS
+              + InventoryHost.FACTS_SELECT
+              + "where account = :account"
+              + "   and h.id > cast(:afterId as uuid)"
+              + InventoryHost.ACTIVE_HOST_FILTER
+              + "   and h.modified_on > :since "
+              + "union "
+              + InventoryHost.FACTS_SELECT
+              + "where account = :account"
+              + "   and h.id > cast(:afterId as uuid)"
+              + InventoryHost.ACTIVE_HOST_FILTER
+              + "   and (h.canonical_facts->>'subscription_manager_id' in (select hypervisor_id from changed_hypervisors) "
+              + "   or h.facts->'rhsm'->>'VM_HOST_UUID' in (select hypervisor_id from changed_hypervisors) "
+              + "   or h.facts->'satellite'->>'virtual_host_uuid' in (select hypervisor_id from changed_hypervisors))"
+              + " order by inventory_id limit :pageSize",
+      resultSetMapping = "inventoryHostFactsMapping"),
+  @NamedNativeQuery(
+      name = "InventoryHost.getFactsByIdArray",
+      query =
+          InventoryHost.FACTS_SELECT
+              + "where account = :account"
+              + "   and h.id = any(cast(:inventoryIds as uuid[]))"
+              + InventoryHost.ACTIVE_HOST_FILTER,
+      resultSetMapping = "inventoryHostFactsMapping"),
+  @NamedNativeQuery(
+      name = "InventoryHost.getFactsByIdArrayPage",
+      query =
+          InventoryHost.FACTS_SELECT
+              + "where account = :account"
+              + "   and h.id = any(cast(:inventoryIds as uuid[]))"
+              + "   and h.id > cast(:afterId as uuid)"
+              + InventoryHost.ACTIVE_HOST_FILTER
+              + " order by h.id limit :pageSize",
+      resultSetMapping = "inventoryHostFactsMapping")
+})
 @Getter
 @Setter
 public class InventoryHost implements Serializable {
 
+  /** Columns and joins shared by the fact queries. */
+  static final String FACTS_SELECT =
+      "select h.id as inventory_id, h.modified_on, h.account, h.display_name, "
+          + "h.facts->'rhsm'->>'orgId' as org_id, "
+          + "h.facts->'rhsm'->>'CPU_CORES' as cores, "
+          + "h.facts->'rhsm'->>'CPU_SOCKETS' as sockets, "
+          + "h.facts->'rhsm'->>'IS_VIRTUAL' as is_virtual, "
+          + "h.facts->'rhsm'->>'VM_HOST_UUID' as hypervisor_uuid, "
+          + "h.facts->'satellite'->>'virtual_host_uuid' as satellite_hypervisor_uuid, "
+          + "h.facts->'satellite'->>'system_purpose_role' as satellite_role, "
+          + "h.facts->'satellite'->>'system_purpose_sla' as satellite_sla, "
+          + "h.facts->'satellite'->>'system_purpose_usage' as satellite_usage, "
+          + "h.facts->'rhsm'->>'GUEST_ID' as guest_id, "
+          + "h.facts->'rhsm'->>'SYNC_TIMESTAMP' as sync_timestamp, "
+          + "h.facts->'rhsm'->>'SYSPURPOSE_ROLE' as syspurpose_role, "
+          + "h.facts->'rhsm'->>'SYSPURPOSE_SLA' as syspurpose_sla, "
+          + "h.facts->'rhsm'->>'SYSPURPOSE_USAGE' as syspurpose_usage, "
+          + "h.facts->'rhsm'->>'SYSPURPOSE_UNITS' as syspurpose_units, "
+          + "h.facts->'rhsm'->>'BILLING_MODEL' as  billing_model, "
+          + "h.facts->'qpc'->>'IS_RHEL' as is_rhel, "
+          + "h.system_profile_facts->>'infrastructure_type' as system_profile_infrastructure_type, "
+          + "h.system_profile_facts->>'cores_per_socket' as system_profile_cores_per_socket, "
+          + "h.system_profile_facts->>'number_of_sockets' as system_profile_sockets, "
+          + "h.system_profile_facts->>'cloud_provider' as cloud_provider, "
+          + "h.canonical_facts->>'subscription_manager_id' as subscription_manager_id, "
+          + "h.canonical_facts->>'insights_id' as insights_id, "
+          + "rhsm_products.products, "
+          + "qpc_prods.qpc_products, "
+          + "qpc_certs.qpc_product_ids, "
+          + "system_profile.system_profile_product_ids, "
+          + "h.stale_timestamp "
+          + "from hosts h "
+          + "cross join lateral ( "
+          + "    select string_agg(items, ',') as products "
+          + "    from jsonb_array_elements_text(h.facts->'rhsm'->'RH_PROD') as items) rhsm_products "
+          + "cross join lateral ( "
+          + "    select string_agg(items, ',') as qpc_products "
+          + "    from jsonb_array_elements_text(h.facts->'qpc'->'rh_products_installed') as items) qpc_prods "
+          + "cross join lateral ( "
+          + "    select string_agg(items, ',') as qpc_product_ids "
+          + "    from jsonb_array_elements_text(h.facts->'qpc'->'rh_product_certs') as items) qpc_certs "
+          + "cross join lateral ( "
+          + "    select string_agg(items->>'id', ',') as system_profile_product_ids "
+          + "    from jsonb_array_elements(h.system_profile_facts->'installed_products') as items) system_profile ";
+
+  /**
+   * Resolves the hypervisors affected by the hosts of an account modified since a given time: the
+   * changed hosts themselves, in case they are hypervisors, and the hypervisors of changed guests.
+   * Computed once, so that their guests can be looked up by equality rather than correlated
+   * against every host of the account.
+   */
+  static final String CHANGED_HYPERVISORS =
+      "with changed_hypervisors as ( "
+          + "    select c.canonical_facts->>'subscription_manager_id' as hypervisor_id "
+          + "    from hosts c where c.account = :account and c.modified_on > :since "
+          + "    union "
+          + "    select c.facts->'rhsm'->>'VM_HOST_UUID' "
+          + "    from hosts c where c.account = :account and c.modified_on > :since "
+          + "    union "
+          + "    select c.facts->'satellite'->>'virtual_host_uuid' "
+          + "    from hosts c where c.account = :account and c.modified_on > :since) ";
+
+  /** Excludes marketplace hosts and hosts culled by inventory. */
+  static final String ACTIVE_HOST_FILTER =
+      "   and (h.facts->'rhsm'->>'BILLING_MODEL' IS NULL OR h.facts->'rhsm'->>'BILLING_MODEL' <> 'marketplace')"
+          + "   and (stale_timestamp is null "
+          + "   or  (NOW() < stale_timestamp + make_interval(days => :culledOffsetDays)))";
+
   @Id private UUID id;
 
   private String account;
@@ -34,6 +34,9 @@ import org.springframework.util.StringUtils;
 /** Provides account lists from Prometheus metrics. */
 public class PrometheusAccountSource {
 
+  /** The metric label holding the account number. */
+  public static final String ACCOUNT_LABEL = "ebs_account";
+
   private PrometheusService service;
   private PrometheusMetricsProperties prometheusProps;
   private QueryBuilder queryBuilder;
@@ -56,7 +59,7 @@ public class PrometheusAccountSource {
             prometheusProps.getMetricsTimeoutForProductTag(productProfileId));
 
     return result.getData().getResult().stream()
-        .map(r -> r.getMetric().getOrDefault("ebs_account", ""))
+        .map(r -> r.getMetric().getOrDefault(ACCOUNT_LABEL, ""))
         .filter(StringUtils::hasText)
         .collect(Collectors.toSet());
   }
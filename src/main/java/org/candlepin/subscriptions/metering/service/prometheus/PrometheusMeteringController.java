@@ -23,11 +23,14 @@ package org.candlepin.subscriptions.metering.service.prometheus;
 import io.micrometer.core.annotation.Timed;
 import java.math.BigDecimal;
 import java.time.OffsetDateTime;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
 import org.candlepin.subscriptions.db.model.EventKey;
 import org.candlepin.subscriptions.db.model.config.OptInType;
 import org.candlepin.subscriptions.event.EventController;
@@ -96,28 +99,15 @@ public class PrometheusMeteringController {
   @Transactional
   public void collectMetrics(
       String tag, Uom metric, String account, OffsetDateTime start, OffsetDateTime end) {
-    Optional<TagMetric> tagMetric = prometheusMetricsProperties.getTagMetric(tag, metric);
-    if (tagMetric.isEmpty()) {
-      throw new UnsupportedOperationException(
-          String.format("Unable to find TagMetric for tag %s and metric %s!", tag, metric));
-    }
-
-    Optional<TagMetaData> tagMetaData = tagProfile.getTagMetaDataByTag(tagMetric.get().getTag());
-    if (tagMetaData.isEmpty()) {
-      throw new UnsupportedOperationException(
-          String.format("Unable to determine service type for tag %s.", tagMetric.get().getTag()));
-    }
-
+    TagMetric tagMetric = getTagMetric(tag, metric);
+    String serviceType = getServiceType(tagMetric);
     MetricProperties metricProps =
         prometheusMetricsProperties.getSupportedMetricsForProduct(tag).get(metric);
 
     // Reset the start/end dates to ensure they span a complete hour.
     // NOTE: If the prometheus query step changes, we will need to adjust this.
     OffsetDateTime startDate = clock.startOfHour(start);
-    // Subtract 1 minute off the end date so that the date is guaranteed to never be
-    // at the top of an hour. Otherwise we would get an extra hour added onto the date
-    // when we moved it to the end of the hour.
-    OffsetDateTime endDate = clock.endOfHour(end.minusMinutes(1));
+    OffsetDateTime endDate = getEndOfRange(end);
     log.debug("Ensuring marketplace account {} has been set up for syncing/reporting.", account);
     ensureOptIn(account);
     openshiftRetry.execute(
@@ -125,85 +115,94 @@ public class PrometheusMeteringController {
           try {
 
             log.info("Collecting metrics for account {}: {} {}", account, tag, metric);
+            String query = buildPromQLForMetering(account, tagMetric);
+            if (prometheusMetricsProperties.isStreamResultsEnabled()) {
+              AccountEvents events =
+                  new AccountEvents(account, tagMetric, serviceType, startDate, endDate);
+              QueryResult status =
+                  prometheusService.streamRangeQuery(
+                      query,
+                      startDate,
+                      endDate,
+                      metricProps.getStep(),
+                      metricProps.getQueryTimeout(),
+                      events::add);
+              checkStatus(tag, metric, status);
+              events.persist();
+              return null;
+            }
+
             QueryResult metricData =
                 prometheusService.runRangeQuery(
-                    buildPromQLForMetering(account, tagMetric.get()),
+                    query,
                     startDate,
                     endDate,
                     metricProps.getStep(),
                     metricProps.getQueryTimeout());
+            checkStatus(tag, metric, metricData);
 
-            if (StatusType.ERROR.equals(metricData.getStatus())) {
-              throw new MeteringException(
-                  String.format(
-                      "Unable to fetch %s %s metrics: %s", tag, metric, metricData.getError()));
-            }
+            persistMetrics(
+                account,
+                tagMetric,
+                serviceType,
+                metricData.getData().getResult(),
+                startDate,
+                endDate);
+            return null;
+          } catch (Exception e) {
+            log.warn(
+                "Exception thrown while updating {} {} metrics. [Attempt: {}]: {}",
+                tag,
+                metric,
+                context.getRetryCount() + 1,
+                e.getMessage());
+            throw e;
+          }
+        });
+  }
+
+  /**
+   * Run a single range query for the metrics of every account, and split its results by account.
+   *
+   * @param tag the product tag
+   * @param metric the metric to fetch
+   * @param start the start of the range
+   * @param end the end of the range
+   * @return the results of each account, keyed by account number
+   */
+  @SuppressWarnings("java:S2139")
+  @Timed("rhsm-subscriptions.metering.openshift.all_accounts")
+  public Map<String, List<QueryResultDataResult>> fetchMetricsByAccount(
+      String tag, Uom metric, OffsetDateTime start, OffsetDateTime end) {
+    TagMetric tagMetric = getTagMetric(tag, metric);
+    MetricProperties metricProps =
+        prometheusMetricsProperties.getSupportedMetricsForProduct(tag).get(metric);
+    OffsetDateTime startDate = clock.startOfHour(start);
+    OffsetDateTime endDate = getEndOfRange(end);
+    return openshiftRetry.execute(
+        context -> {
+          try {
+            log.info("Collecting metrics for all accounts: {} {}", tag, metric);
+            QueryResult metricData =
+                prometheusService.runRangeQuery(
+                    buildMultiAccountPromQLForMetering(tagMetric),
+                    startDate,
+                    endDate,
+                    metricProps.getStep(),
+                    metricProps.getQueryTimeout());
+            checkStatus(tag, metric, metricData);
 
-            Map<EventKey, Event> existing =
-                eventController.mapEventsInTimeRange(
-                    account,
-                    MeteringEventFactory.EVENT_SOURCE,
-                    MeteringEventFactory.getEventType(tagMetric.get().getMetricId()),
-                    // We need to shift the start and end dates by the step, to account for the
-                    // shift in the event start date when it is created. See note about eventDate
-                    // below.
-                    startDate.minusSeconds(prometheusMetricsProperties.getOpenshift().getStep()),
-                    endDate.minusSeconds(prometheusMetricsProperties.getOpenshift().getStep()));
-            log.debug("Found {} existing events.", existing.size());
-
-            Map<EventKey, Event> events = new HashMap<>();
+            Map<String, List<QueryResultDataResult>> resultsByAccount = new HashMap<>();
             for (QueryResultDataResult r : metricData.getData().getResult()) {
-              Map<String, String> labels = r.getMetric();
-              String clusterId = labels.get("_id");
-              String sla = labels.get("support");
-              String usage = labels.get("usage");
-              // NOTE: Role comes from the product label despite its name. The values set here
-              //       are NOT engineering or swatch product IDs. They map to the roles in the
-              //       tag profile. For openshift, the values will be 'ocp' or 'osd'.
-              String role = labels.get("product");
-
-              // For the openshift metrics, we expect our results to be a 'matrix'
-              // vector [(instant_time,value), ...] so we only look at the result's getValues()
-              // data.
-              for (List<BigDecimal> measurement : r.getValues()) {
-                BigDecimal time = measurement.get(0);
-                BigDecimal value = measurement.get(1);
-
-                OffsetDateTime eventTermDate = clock.dateFromUnix(time);
-                // Need to subtract the step because we are averaging and the metric value
-                // actually represents the end of the measured period. The start of the event
-                // should be at the beginning.
-                OffsetDateTime eventDate =
-                    eventTermDate.minusSeconds(
-                        prometheusMetricsProperties.getOpenshift().getStep());
-
-                Event event =
-                    createOrUpdateEvent(
-                        existing,
-                        account,
-                        tagMetric.get().getMetricId(),
-                        clusterId,
-                        sla,
-                        usage,
-                        role,
-                        eventDate,
-                        eventTermDate,
-                        tagMetaData.get().getServiceType(),
-                        tagMetric.get().getUom(),
-                        value);
-                events.putIfAbsent(EventKey.fromEvent(event), event);
+              String account = r.getMetric().get(PrometheusAccountSource.ACCOUNT_LABEL);
+              if (StringUtils.hasText(account)) {
+                resultsByAccount.computeIfAbsent(account, a -> new ArrayList<>()).add(r);
               }
             }
-
-            eventController.saveAll(events.values());
-            log.info("Persisted {} events for {} {} metrics.", events.size(), tag, metric);
-
-            // Delete any stale events found during the period.
-            deleteStaleEvents(existing.values());
-            return null;
+            return resultsByAccount;
           } catch (Exception e) {
             log.warn(
-                "Exception thrown while updating {} {} metrics. [Attempt: {}]: {}",
+                "Exception thrown while fetching {} {} metrics. [Attempt: {}]: {}",
                 tag,
                 metric,
                 context.getRetryCount() + 1,
@@ -213,6 +212,234 @@ public class PrometheusMeteringController {
         });
   }
 
+  /**
+   * Find the accounts that already have events of a metric over a range, so that the stale events
+   * of accounts missing from the results of {@link #fetchMetricsByAccount} can be removed.
+   *
+   * @param tag the product tag
+   * @param metric the metric
+   * @param start the start of the range
+   * @param end the end of the range
+   * @return the account numbers having events in the range
+   */
+  public List<String> findAccountsWithEvents(
+      String tag, Uom metric, OffsetDateTime start, OffsetDateTime end) {
+    TagMetric tagMetric = getTagMetric(tag, metric);
+    // Shifted by the step like the events themselves, see AccountEvents.
+    int step = prometheusMetricsProperties.getOpenshift().getStep();
+    return eventController.fetchAccountNumbersInTimeRange(
+        MeteringEventFactory.EVENT_SOURCE,
+        MeteringEventFactory.getEventType(tagMetric.getMetricId()),
+        clock.startOfHour(start).minusSeconds(step),
+        getEndOfRange(end).minusSeconds(step));
+  }
+
+  /**
+   * Persist the metrics of an account, out of the results fetched by {@link
+   * #fetchMetricsByAccount}.
+   *
+   * @param tag the product tag
+   * @param metric the metric fetched
+   * @param account the account number
+   * @param start the start of the range that was fetched
+   * @param end the end of the range that was fetched
+   * @param results the results of the account
+   */
+  @Transactional
+  public void updateAccountMetrics(
+      String tag,
+      Uom metric,
+      String account,
+      OffsetDateTime start,
+      OffsetDateTime end,
+      List<QueryResultDataResult> results) {
+    TagMetric tagMetric = getTagMetric(tag, metric);
+    String serviceType = getServiceType(tagMetric);
+    log.debug("Ensuring marketplace account {} has been set up for syncing/reporting.", account);
+    ensureOptIn(account);
+    persistMetrics(
+        account, tagMetric, serviceType, results, clock.startOfHour(start), getEndOfRange(end));
+  }
+
+  private TagMetric getTagMetric(String tag, Uom metric) {
+    Optional<TagMetric> tagMetric = prometheusMetricsProperties.getTagMetric(tag, metric);
+    if (tagMetric.isEmpty()) {
+      throw new UnsupportedOperationException(
+          String.format("Unable to find TagMetric for tag %s and metric %s!", tag, metric));
+    }
+    return tagMetric.get();
+  }
+
+  private String getServiceType(TagMetric tagMetric) {
+    Optional<TagMetaData> tagMetaData = tagProfile.getTagMetaDataByTag(tagMetric.getTag());
+    if (tagMetaData.isEmpty()) {
+      throw new UnsupportedOperationException(
+          String.format("Unable to determine service type for tag %s.", tagMetric.getTag()));
+    }
+    return tagMetaData.get().getServiceType();
+  }
+
+  private OffsetDateTime getEndOfRange(OffsetDateTime end) {
+    // Subtract 1 minute off the end date so that the date is guaranteed to never be
+    // at the top of an hour. Otherwise we would get an extra hour added onto the date
+    // when we moved it to the end of the hour.
+    return clock.endOfHour(end.minusMinutes(1));
+  }
+
+  private void checkStatus(String tag, Uom metric, QueryResult result) {
+    if (StatusType.ERROR.equals(result.getStatus())) {
+      throw new MeteringException(
+          String.format("Unable to fetch %s %s metrics: %s", tag, metric, result.getError()));
+    }
+  }
+
+  private void persistMetrics(
+      String account,
+      TagMetric tagMetric,
+      String serviceType,
+      List<QueryResultDataResult> results,
+      OffsetDateTime startDate,
+      OffsetDateTime endDate) {
+    AccountEvents events = new AccountEvents(account, tagMetric, serviceType, startDate, endDate);
+    for (QueryResultDataResult r : results) {
+      // For the openshift metrics, we expect our results to be a 'matrix'
+      // vector [(instant_time,value), ...] so we only look at the result's getValues()
+      // data.
+      for (List<BigDecimal> measurement : r.getValues()) {
+        events.add(r.getMetric(), measurement.get(0), measurement.get(1));
+      }
+    }
+    events.persist();
+  }
+
+  /**
+   * The metric events of an account over a range, built one sample at a time.
+   *
+   * <p>Events are written in batches of eventBatchSize as they are built, and only their natural
+   * keys are held until the range is complete: to ignore later samples of the same event, and to
+   * find the stale events of the range. Unless events are upserted, the existing events of the
+   * range are still loaded up front.
+   */
+  private class AccountEvents {
+    private final String account;
+    private final TagMetric tagMetric;
+    private final String serviceType;
+    private final String eventType;
+    private final OffsetDateTime rangeStart;
+    private final OffsetDateTime rangeEnd;
+    private final boolean upsert;
+    private final int batchSize;
+    private final Map<EventKey, Event> existing;
+    private final Set<EventKey> keys = new HashSet<>();
+    private final List<Event> pending = new ArrayList<>();
+
+    private AccountEvents(
+        String account,
+        TagMetric tagMetric,
+        String serviceType,
+        OffsetDateTime startDate,
+        OffsetDateTime endDate) {
+      this.account = account;
+      this.tagMetric = tagMetric;
+      this.serviceType = serviceType;
+      this.eventType = MeteringEventFactory.getEventType(tagMetric.getMetricId());
+      // We need to shift the start and end dates by the step, to account for the
+      // shift in the event start date when it is created. See note about eventDate
+      // below.
+      this.rangeStart =
+          startDate.minusSeconds(prometheusMetricsProperties.getOpenshift().getStep());
+      this.rangeEnd = endDate.minusSeconds(prometheusMetricsProperties.getOpenshift().getStep());
+      this.upsert = prometheusMetricsProperties.isEventUpsertEnabled();
+      this.batchSize = Math.max(1, prometheusMetricsProperties.getEventBatchSize());
+      // Upserted events are matched to existing ones by the database instead.
+      this.existing =
+          upsert
+              ? new HashMap<>()
+              : eventController.mapEventsInTimeRange(
+                  account, MeteringEventFactory.EVENT_SOURCE, eventType, rangeStart, rangeEnd);
+      log.debug("Found {} existing events.", existing.size());
+    }
+
+    private void add(Map<String, String> labels, BigDecimal time, BigDecimal value) {
+      String clusterId = labels.get("_id");
+      String sla = labels.get("support");
+      String usage = labels.get("usage");
+      // NOTE: Role comes from the product label despite its name. The values set here
+      //       are NOT engineering or swatch product IDs. They map to the roles in the
+      //       tag profile. For openshift, the values will be 'ocp' or 'osd'.
+      String role = labels.get("product");
+
+      OffsetDateTime eventTermDate = clock.dateFromUnix(time);
+      // Need to subtract the step because we are averaging and the metric value
+      // actually represents the end of the measured period. The start of the event
+      // should be at the beginning.
+      OffsetDateTime eventDate =
+          eventTermDate.minusSeconds(prometheusMetricsProperties.getOpenshift().getStep());
+
+      // The first sample of an event wins.
+      EventKey key =
+          new EventKey(account, MeteringEventFactory.EVENT_SOURCE, eventType, clusterId, eventDate);
+      if (!keys.add(key)) {
+        return;
+      }
+
+      pending.add(
+          createOrUpdateEvent(
+              existing,
+              account,
+              tagMetric.getMetricId(),
+              clusterId,
+              sla,
+              usage,
+              role,
+              eventDate,
+              eventTermDate,
+              serviceType,
+              tagMetric.getUom(),
+              value));
+      if (pending.size() >= batchSize) {
+        flush();
+      }
+    }
+
+    private void flush() {
+      if (pending.isEmpty()) {
+        return;
+      }
+      if (upsert) {
+        eventController.upsertAll(pending);
+      } else {
+        eventController.saveAll(pending);
+      }
+      pending.clear();
+    }
+
+    private void persist() {
+      flush();
+      if (upsert) {
+        int deleted =
+            eventController.deleteEventsInTimeRangeExcept(
+                account, MeteringEventFactory.EVENT_SOURCE, eventType, rangeStart, rangeEnd, keys);
+        log.info(
+            "Upserted {} events for {} {} metrics, deleted {} stale events.",
+            keys.size(),
+            tagMetric.getTag(),
+            tagMetric.getUom(),
+            deleted);
+        return;
+      }
+
+      log.info(
+          "Persisted {} events for {} {} metrics.",
+          keys.size(),
+          tagMetric.getTag(),
+          tagMetric.getUom());
+
+      // Delete any stale events found during the period.
+      deleteStaleEvents(existing.values());
+    }
+  }
+
   private void ensureOptIn(String account) {
     try {
       optInController.optInByAccountNumber(account, OptInType.PROMETHEUS, true, true, true);
@@ -286,4 +513,12 @@ public class PrometheusMeteringController {
     descriptor.addRuntimeVar("account", account);
     return prometheusQueryBuilder.build(descriptor);
   }
+
+  private String buildMultiAccountPromQLForMetering(TagMetric tagMetric) {
+    // Default the query template if the tag profile didn't specify one.
+    if (!StringUtils.hasText(tagMetric.getQueryKey())) {
+      tagMetric.setQueryKey(QueryBuilder.DEFAULT_METRIC_QUERY_KEY);
+    }
+    return prometheusQueryBuilder.buildMultiAccountQuery(new QueryDescriptor(tagMetric));
+  }
 }
@@ -46,6 +46,39 @@ public class PrometheusMetricsProperties {
 
   private Map<String, String> accountQueryTemplates = new HashMap<>();
 
+  /**
+   * Templates of queries fetching a metric for every account at once, keyed like queryTemplates.
+   * Results must keep the ebs_account label.
+   */
+  private Map<String, String> multiAccountQueryTemplates = new HashMap<>();
+
+  /**
+   * When enabled, metrics are collected with a single query per metric for all accounts, instead
+   * of one query per account.
+   */
+  private boolean multiAccountQueryEnabled = false;
+
+  /**
+   * When enabled, per-account range query responses are parsed as a stream of samples, rather than
+   * deserialized whole before creating events.
+   */
+  private boolean streamResultsEnabled = false;
+
+  /**
+   * When enabled, metering events are upserted by their natural key and stale events are removed
+   * with a single delete, instead of loading and updating the existing events of the range.
+   */
+  private boolean eventUpsertEnabled = false;
+
+  /**
+   * Number of events of an account built from samples before they are written, so that only their
+   * natural keys are held until every sample of the range is read.
+   */
+  private int eventBatchSize = 1000;
+
+  /** Number of accounts whose events are written in parallel after a multi-account query. */
+  private int collectionThreads = 1;
+
   /**
    * SPEL templates do not support nested expressions so the QueryBuilder will apply template
    * parameters a set number of times to prevent recursion.
@@ -92,6 +125,12 @@ public class PrometheusMetricsProperties {
         : Optional.empty();
   }
 
+  public Optional<String> getMultiAccountQueryTemplate(String templateKey) {
+    return multiAccountQueryTemplates.containsKey(templateKey)
+        ? Optional.of(multiAccountQueryTemplates.get(templateKey))
+        : Optional.empty();
+  }
+
   public Optional<String> getAccountQueryTemplate(String templateKey) {
     return accountQueryTemplates.containsKey(templateKey)
         ? Optional.of(accountQueryTemplates.get(templateKey))
@@ -0,0 +1,139 @@
+/*
+ * Copyright Red Hat, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * Red Hat trademarks are not licensed under GPLv3. No permission is
+ * granted to use or replicate Red Hat trademarks that are incorporated
+ * in this software or its documentation.
+ */
+package org.candlepin.subscriptions.metering.service.prometheus;
+
+import io.micrometer.core.annotation.Timed;
+import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import javax.annotation.PreDestroy;
+import org.candlepin.subscriptions.json.Measurement.Uom;
+import org.candlepin.subscriptions.prometheus.model.QueryResultDataResult;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+/**
+ * Collects a metric for every account with a single range query, then writes the events of each
+ * account in parallel, on collectionThreads threads. Accounts that have events in the range but no
+ * results are written too, so that their stale events are removed.
+ *
+ * <p>Each account is written in its own transaction. When writing an account fails, its metrics are
+ * collected again on their own, with the per-account query and its retries.
+ */
+@Component
+public class PrometheusMultiAccountCollector {
+
+  private static final Logger log = LoggerFactory.getLogger(PrometheusMultiAccountCollector.class);
+
+  private final PrometheusMeteringController controller;
+  private final ExecutorService executor;
+
+  public PrometheusMultiAccountCollector(
+      PrometheusMeteringController controller, PrometheusMetricsProperties metricsProperties) {
+    this.controller = controller;
+    int threads = metricsProperties.getCollectionThreads();
+    this.executor = threads > 1 ? Executors.newFixedThreadPool(threads) : null;
+  }
+
+  @PreDestroy
+  public void destroy() {
+    if (executor != null) {
+      executor.shutdown();
+    }
+  }
+
+  @Timed("rhsm-subscriptions.metering.openshift.collect_all_accounts")
+  public void collectMetrics(String tag, Uom metric, OffsetDateTime start, OffsetDateTime end) {
+    Map<String, List<QueryResultDataResult>> resultsByAccount =
+        new HashMap<>(controller.fetchMetricsByAccount(tag, metric, start, end));
+    // Accounts without results any more are updated with none, to remove their stale events.
+    int fetched = resultsByAccount.size();
+    controller
+        .findAccountsWithEvents(tag, metric, start, end)
+        .forEach(account -> resultsByAccount.putIfAbsent(account, List.of()));
+    log.info(
+        "Updating {} {} metrics of {} accounts, {} of them without results.",
+        tag,
+        metric,
+        resultsByAccount.size(),
+        resultsByAccount.size() - fetched);
+
+    if (executor == null) {
+      resultsByAccount.forEach(
+          (account, results) -> updateAccount(tag, metric, account, start, end, results));
+      return;
+    }
+    List<Future<?>> futures = new ArrayList<>(resultsByAccount.size());
+    resultsByAccount.forEach(
+        (account, results) ->
+            futures.add(
+                executor.submit(() -> updateAccount(tag, metric, account, start, end, results))));
+    for (Future<?> future : futures) {
+      awaitAccount(future);
+    }
+  }
+
+  private void updateAccount(
+      String tag,
+      Uom metric,
+      String account,
+      OffsetDateTime start,
+      OffsetDateTime end,
+      List<QueryResultDataResult> results) {
+    try {
+      controller.updateAccountMetrics(tag, metric, account, start, end, results);
+    } catch (Exception e) {
+      log.warn(
+          "Unable to update {} {} metrics of account {}, collecting them on their own: {}",
+          tag,
+          metric,
+          account,
+          e.getMessage());
+      try {
+        controller.collectMetrics(tag, metric, account, start, end);
+      } catch (Exception retryException) {
+        log.error(
+            "Unable to collect {} {} metrics of account {}.", tag, metric, account, retryException);
+      }
+    }
+  }
+
+  private void awaitAccount(Future<?> future) {
+    try {
+      future.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted while updating account metrics", e);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) e.getCause();
+      }
+      throw new IllegalStateException("Unable to update account metrics", e.getCause());
+    }
+  }
+}
@@ -0,0 +1,184 @@
+/*
+ * Copyright Red Hat, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * Red Hat trademarks are not licensed under GPLv3. No permission is
+ * granted to use or replicate Red Hat trademarks that are incorporated
+ * in this software or its documentation.
+ */
+package org.candlepin.subscriptions.metering.service.prometheus;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.candlepin.subscriptions.prometheus.model.QueryResult;
+import org.candlepin.subscriptions.prometheus.model.StatusType;
+
+/**
+ * Reads a prometheus query response with Jackson's streaming parser, handing each sample to a
+ * {@link SampleHandler} as it is read, instead of building the {@link QueryResult} model of the
+ * whole response.
+ *
+ * <p>Only the labels of the current series are kept, so memory use does not grow with the number
+ * of series or samples in the response.
+ */
+public class PrometheusQueryResultReader {
+
+  private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+  /** Receives the samples of a query response, in the order of the response. */
+  @FunctionalInterface
+  public interface SampleHandler {
+    void accept(Map<String, String> labels, BigDecimal time, BigDecimal value);
+  }
+
+  private PrometheusQueryResultReader() {
+    throw new IllegalStateException("Utility class; should never be instantiated!");
+  }
+
+  /**
+   * Read a query response.
+   *
+   * @param response the JSON response
+   * @param handler receives every sample of the response
+   * @return the status and error of the response, without its data
+   * @throws IOException if the response could not be read
+   */
+  public static QueryResult read(InputStream response, SampleHandler handler) throws IOException {
+    QueryResult result = new QueryResult();
+    try (JsonParser parser = JSON_FACTORY.createParser(response)) {
+      if (parser.nextToken() != JsonToken.START_OBJECT) {
+        throw new IOException("Expected a JSON object in prometheus response");
+      }
+      while (parser.nextToken() == JsonToken.FIELD_NAME) {
+        String field = parser.getCurrentName();
+        parser.nextToken();
+        switch (field) {
+          case "status":
+            result.setStatus(StatusType.fromValue(parser.getText()));
+            break;
+          case "errorType":
+            result.setErrorType(parser.getText());
+            break;
+          case "error":
+            result.setError(parser.getText());
+            break;
+          case "data":
+            readData(parser, handler);
+            break;
+          default:
+            parser.skipChildren();
+        }
+      }
+    }
+    return result;
+  }
+
+  private static void readData(JsonParser parser, SampleHandler handler) throws IOException {
+    if (parser.currentToken() != JsonToken.START_OBJECT) {
+      parser.skipChildren();
+      return;
+    }
+    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+      String field = parser.getCurrentName();
+      parser.nextToken();
+      if ("result".equals(field) && parser.currentToken() == JsonToken.START_ARRAY) {
+        while (parser.nextToken() == JsonToken.START_OBJECT) {
+          readSeries(parser, handler);
+        }
+      } else {
+        parser.skipChildren();
+      }
+    }
+  }
+
+  private static void readSeries(JsonParser parser, SampleHandler handler) throws IOException {
+    Map<String, String> labels = null;
+    // Prometheus sends the labels of a series first; samples are only held until then otherwise.
+    List<BigDecimal[]> earlySamples = new ArrayList<>();
+    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+      String field = parser.getCurrentName();
+      parser.nextToken();
+      if ("metric".equals(field)) {
+        labels = readLabels(parser);
+        for (BigDecimal[] sample : earlySamples) {
+          handler.accept(labels, sample[0], sample[1]);
+        }
+        earlySamples.clear();
+      } else if ("values".equals(field) && parser.currentToken() == JsonToken.START_ARRAY) {
+        while (parser.nextToken() == JsonToken.START_ARRAY) {
+          readSample(parser, labels, handler, earlySamples);
+        }
+      } else if ("value".equals(field) && parser.currentToken() == JsonToken.START_ARRAY) {
+        readSample(parser, labels, handler, earlySamples);
+      } else {
+        parser.skipChildren();
+      }
+    }
+    for (BigDecimal[] sample : earlySamples) {
+      handler.accept(Collections.emptyMap(), sample[0], sample[1]);
+    }
+  }
+
+  private static Map<String, String> readLabels(JsonParser parser) throws IOException {
+    if (parser.currentToken() != JsonToken.START_OBJECT) {
+      parser.skipChildren();
+      return Collections.emptyMap();
+    }
+    Map<String, String> labels = new HashMap<>();
+    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+      String label = parser.getCurrentName();
+      parser.nextToken();
+      labels.put(label, parser.getValueAsString());
+    }
+    return Collections.unmodifiableMap(labels);
+  }
+
+  /** Reads a [time, value] pair, the parser being on its opening bracket. */
+  private static void readSample(
+      JsonParser parser,
+      Map<String, String> labels,
+      SampleHandler handler,
+      List<BigDecimal[]> earlySamples)
+      throws IOException {
+    parser.nextToken();
+    BigDecimal time = readDecimal(parser);
+    parser.nextToken();
+    BigDecimal value = readDecimal(parser);
+    if (parser.nextToken() != JsonToken.END_ARRAY) {
+      throw new IOException("Expected a [time, value] pair in prometheus response");
+    }
+    if (labels == null) {
+      earlySamples.add(new BigDecimal[] {time, value});
+    } else {
+      handler.accept(labels, time, value);
+    }
+  }
+
+  private static BigDecimal readDecimal(JsonParser parser) throws IOException {
+    if (parser.currentToken() == JsonToken.VALUE_STRING) {
+      return new BigDecimal(parser.getText());
+    }
+    return parser.getDecimalValue();
+  }
+}
@@ -21,6 +21,8 @@
 package org.candlepin.subscriptions.metering.service.prometheus;
 
 import com.google.common.net.UrlEscapers;
+import java.io.IOException;
+import java.io.InputStream;
 import java.time.OffsetDateTime;
 import org.candlepin.subscriptions.exception.ErrorCode;
 import org.candlepin.subscriptions.exception.ExternalServiceException;
@@ -69,6 +71,43 @@ public class PrometheusService {
     }
   }
 
+  /**
+   * Run a range query, handing each sample of its response to a handler as the response is read.
+   *
+   * @return the status and error of the response, without its data
+   * @see PrometheusQueryResultReader
+   */
+  public QueryResult streamRangeQuery(
+      String promQL,
+      OffsetDateTime start,
+      OffsetDateTime end,
+      Integer step,
+      Integer timeout,
+      PrometheusQueryResultReader.SampleHandler handler)
+      throws ExternalServiceException {
+    log.info("Streaming metrics from prometheus: {} -> {} [Step: {}]", start, end, step);
+    String query = sanitizeQuery(promQL);
+    log.debug(
+        "Running prometheus range query: Start: {} End: {} Step: {}, Query: {}",
+        start.toEpochSecond(),
+        end.toEpochSecond(),
+        step,
+        query);
+    try (InputStream response =
+        apiProvider.queryRangeStream(
+            query, start.toEpochSecond(), end.toEpochSecond(), Integer.toString(step), timeout)) {
+      return PrometheusQueryResultReader.read(response, handler);
+    } catch (ApiException apie) {
+      throw new ExternalServiceException(
+          ErrorCode.REQUEST_PROCESSING_ERROR,
+          String.format("Prometheus API Error! CODE: %s", apie.getCode()),
+          new ApiException(String.format("Prometheus API response code: %s", apie.getCode())));
+    } catch (IOException e) {
+      throw new ExternalServiceException(
+          ErrorCode.REQUEST_PROCESSING_ERROR, "Unable to read prometheus response", e);
+    }
+  }
+
   public QueryResult runQuery(String promQL, OffsetDateTime time, Integer timeout)
       throws ExternalServiceException {
     log.info("Fetching metrics from prometheus: {}", time);
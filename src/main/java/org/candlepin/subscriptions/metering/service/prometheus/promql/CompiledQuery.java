@@ -0,0 +1,81 @@
+/*
+ * Copyright Red Hat, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * Red Hat trademarks are not licensed under GPLv3. No permission is
+ * granted to use or replicate Red Hat trademarks that are incorporated
+ * in this software or its documentation.
+ */
+package org.candlepin.subscriptions.metering.service.prometheus.promql;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A query template with every expression over its metric already evaluated. Runtime variables are
+ * all that is left, and rendering only substitutes their values.
+ */
+class CompiledQuery {
+
+  /** Delimits the name of a runtime variable within a partially evaluated template. */
+  static final char VARIABLE_DELIMITER = '\u0000';
+
+  private final List<String> literals;
+  private final List<String> variables;
+  private final int literalLength;
+
+  private CompiledQuery(List<String> literals, List<String> variables) {
+    this.literals = literals;
+    this.variables = variables;
+    this.literalLength = literals.stream().mapToInt(String::length).sum();
+  }
+
+  /**
+   * Split a partially evaluated template into its literal text and the runtime variables in
+   * between, each variable name being enclosed in {@link #VARIABLE_DELIMITER}s.
+   */
+  static CompiledQuery parse(String partial) {
+    List<String> literals = new ArrayList<>();
+    List<String> variables = new ArrayList<>();
+    int start = 0;
+    int open;
+    while ((open = partial.indexOf(VARIABLE_DELIMITER, start)) >= 0) {
+      int close = partial.indexOf(VARIABLE_DELIMITER, open + 1);
+      if (close < 0) {
+        throw new IllegalStateException(
+            String.format("Unterminated runtime variable in query template: %s", partial));
+      }
+      literals.add(partial.substring(start, open));
+      variables.add(partial.substring(open + 1, close));
+      start = close + 1;
+    }
+    literals.add(partial.substring(start));
+    return new CompiledQuery(literals, variables);
+  }
+
+  /** Render the query, a missing runtime variable rendering as an empty string like in SpEL. */
+  String render(Map<String, String> runtime) {
+    StringBuilder query = new StringBuilder(literalLength + 16 * variables.size());
+    for (int i = 0; i < variables.size(); i++) {
+      query.append(literals.get(i));
+      String value = runtime.get(variables.get(i));
+      if (value != null) {
+        query.append(value);
+      }
+    }
+    return query.append(literals.get(variables.size())).toString();
+  }
+}
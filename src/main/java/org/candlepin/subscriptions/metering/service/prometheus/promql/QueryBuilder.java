@@ -20,17 +20,41 @@
  */
 package org.candlepin.subscriptions.metering.service.prometheus.promql;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import java.util.AbstractMap;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import javax.annotation.PostConstruct;
+import lombok.Value;
+import org.candlepin.subscriptions.files.TagMetric;
+import org.candlepin.subscriptions.files.TagProfile;
+import org.candlepin.subscriptions.json.Measurement.Uom;
 import org.candlepin.subscriptions.metering.service.prometheus.PrometheusMetricsProperties;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.expression.ExpressionParser;
+import org.springframework.expression.ParseException;
+import org.springframework.expression.ParserContext;
 import org.springframework.expression.common.TemplateParserContext;
 import org.springframework.expression.spel.standard.SpelExpressionParser;
 import org.springframework.expression.spel.support.StandardEvaluationContext;
 import org.springframework.stereotype.Component;
 
-/** Builds PromQL queries based on a configured template. */
+/**
+ * Builds PromQL queries based on a configured template.
+ *
+ * <p>Each template is compiled once per metric: every expression over the metric is evaluated up
+ * front, leaving only the runtime variables, which are substituted as plain values when a query is
+ * built. Runtime variables can therefore only be rendered as they are, not used within other
+ * expressions.
+ */
 @Component
 public class QueryBuilder {
 
@@ -44,12 +68,78 @@ public class QueryBuilder {
    */
   public static final String DEFAULT_METRIC_QUERY_KEY = "default";
 
+  private static final ParserContext TEMPLATE_CONTEXT = new TemplateParserContext();
+
+  /** Stands in for the runtime variables while compiling, rendering each as a delimited name. */
+  private static final Map<String, String> RUNTIME_VARIABLES =
+      new AbstractMap<>() {
+        @Override
+        public String get(Object key) {
+          return CompiledQuery.VARIABLE_DELIMITER
+              + String.valueOf(key)
+              + CompiledQuery.VARIABLE_DELIMITER;
+        }
+
+        @Override
+        public Set<Entry<String, String>> entrySet() {
+          return Collections.emptySet();
+        }
+      };
+
   private final PrometheusMetricsProperties metricsProperties;
+  private final ExpressionParser parser = new SpelExpressionParser();
+
+  /**
+   * Compiled queries, by template and then by metric. Metrics are keyed by a copy of their values,
+   * since TagMetric is mutable and may be changed after its queries were compiled.
+   */
+  private final ConcurrentMap<String, ConcurrentMap<MetricKey, CompiledQuery>> compiled =
+      new ConcurrentHashMap<>();
+
+  /**
+   * The compiled queries of each metric instance, by template, so that building a query doesn't
+   * copy and hash the metric. Metric instances are compared by identity and held weakly; an entry
+   * is only used while the metric still matches the values it was compiled for.
+   */
+  private final Cache<TagMetric, MetricQueries> metricQueries =
+      CacheBuilder.newBuilder().weakKeys().build();
 
   public QueryBuilder(PrometheusMetricsProperties metricsProperties) {
     this.metricsProperties = metricsProperties;
   }
 
+  /**
+   * Compile the configured templates for every prometheus enabled metric, so that an invalid
+   * template fails on startup rather than when metrics are first collected.
+   */
+  @PostConstruct
+  public void compileTemplates() {
+    validate("query", metricsProperties.getQueryTemplates());
+    validate("account query", metricsProperties.getAccountQueryTemplates());
+    validate("multi-account query", metricsProperties.getMultiAccountQueryTemplates());
+
+    TagProfile tagProfile = metricsProperties.getTagProfile();
+    if (tagProfile == null || tagProfile.getTagMetrics() == null) {
+      return;
+    }
+    tagProfile.getTagMetrics().stream()
+        .filter(metric -> tagProfile.tagIsPrometheusEnabled(metric.getTag()))
+        .forEach(
+            metric -> {
+              metricsProperties
+                  .getQueryTemplate(metric.getQueryKey())
+                  .ifPresent(template -> compiledQuery(template, metric));
+              metricsProperties
+                  .getMultiAccountQueryTemplate(metric.getQueryKey())
+                  .ifPresent(template -> compiledQuery(template, metric));
+              metricsProperties
+                  .getAccountQueryTemplate(metric.getAccountQueryKey())
+                  .ifPresent(template -> compiledQuery(template, metric));
+            });
+    log.info(
+        "Compiled {} PromQL queries.", compiled.values().stream().mapToInt(Map::size).sum());
+  }
+
   public String build(QueryDescriptor queryDescriptor) {
     String templateKey = queryDescriptor.getMetric().getQueryKey();
     Optional<String> template = metricsProperties.getQueryTemplate(templateKey);
@@ -62,6 +152,21 @@ public class QueryBuilder {
     return buildQuery(template.get(), queryDescriptor);
   }
 
+  /**
+   * Build the query fetching a metric for every account at once, keeping the account label on each
+   * result.
+   */
+  public String buildMultiAccountQuery(QueryDescriptor queryDescriptor) {
+    String templateKey = queryDescriptor.getMetric().getQueryKey();
+    Optional<String> template = metricsProperties.getMultiAccountQueryTemplate(templateKey);
+    if (template.isEmpty()) {
+      throw new IllegalArgumentException(
+          String.format("Unable to find multi-account query template for key: %s", templateKey));
+    }
+    log.debug("Building multi-account metric lookup PromQL.");
+    return buildQuery(template.get(), queryDescriptor);
+  }
+
   public String buildAccountLookupQuery(QueryDescriptor queryDescriptor) {
     String templateKey = queryDescriptor.getMetric().getAccountQueryKey();
     Optional<String> template = metricsProperties.getAccountQueryTemplate(templateKey);
@@ -74,20 +179,100 @@ public class QueryBuilder {
   }
 
   private String buildQuery(String template, QueryDescriptor descriptor) {
-    ExpressionParser parser = new SpelExpressionParser();
-    StandardEvaluationContext context = new StandardEvaluationContext(descriptor);
+    String query = compiledQuery(template, descriptor.getMetric()).render(descriptor.getRuntime());
+    log.debug("PromQL: {}", query);
+    return query;
+  }
+
+  private CompiledQuery compiledQuery(String template, TagMetric metric) {
+    MetricQueries queries = metricQueries.getIfPresent(metric);
+    if (queries == null || !queries.key.matches(metric)) {
+      queries = new MetricQueries(MetricKey.of(metric));
+      metricQueries.put(metric, queries);
+    }
+    MetricKey key = queries.key;
+    return queries.byTemplate.computeIfAbsent(
+        template,
+        t ->
+            compiled
+                .computeIfAbsent(t, k -> new ConcurrentHashMap<>())
+                .computeIfAbsent(key, k -> compile(t, metric)));
+  }
+
+  private CompiledQuery compile(String template, TagMetric metric) {
+    if (template.indexOf(CompiledQuery.VARIABLE_DELIMITER) >= 0) {
+      throw new IllegalArgumentException(
+          String.format("Query template contains a reserved character! %s", template));
+    }
+    StandardEvaluationContext context =
+        new StandardEvaluationContext(new QueryDescriptor(metric, RUNTIME_VARIABLES));
 
     // Only allow nested expressions based on a config setting. We need to do this
     // to prevent potential infinite recursion.
     String query = template;
     for (int i = 0; i < metricsProperties.getTemplateParameterDepth(); i++) {
-      query = (String) parser.parseExpression(query, new TemplateParserContext()).getValue(context);
+      if (!query.contains(TEMPLATE_CONTEXT.getExpressionPrefix())) {
+        break;
+      }
+      query = (String) parser.parseExpression(query, TEMPLATE_CONTEXT).getValue(context);
       if (query == null) {
         throw new IllegalStateException(
             String.format("Unable to parse query template! %s", template));
       }
     }
-    log.debug("PromQL: {}", query);
-    return query;
+    return CompiledQuery.parse(query);
+  }
+
+  private void validate(String type, Map<String, String> templates) {
+    templates.forEach(
+        (key, template) -> {
+          try {
+            parser.parseExpression(template, TEMPLATE_CONTEXT);
+          } catch (ParseException e) {
+            throw new IllegalStateException(
+                String.format("Invalid %s template for key %s: %s", type, key, e.getMessage()), e);
+          }
+        });
+  }
+
+  /** The values of a metric that a compiled query depends on. */
+  @Value
+  private static class MetricKey {
+    String tag;
+    String metricId;
+    Uom uom;
+    String queryKey;
+    String accountQueryKey;
+    Map<String, String> queryParams;
+
+    static MetricKey of(TagMetric metric) {
+      return new MetricKey(
+          metric.getTag(),
+          metric.getMetricId(),
+          metric.getUom(),
+          metric.getQueryKey(),
+          metric.getAccountQueryKey(),
+          metric.getQueryParams() == null ? null : new HashMap<>(metric.getQueryParams()));
+    }
+
+    /** Whether the metric still has the values of this key, without copying them. */
+    boolean matches(TagMetric metric) {
+      return Objects.equals(tag, metric.getTag())
+          && Objects.equals(metricId, metric.getMetricId())
+          && uom == metric.getUom()
+          && Objects.equals(queryKey, metric.getQueryKey())
+          && Objects.equals(accountQueryKey, metric.getAccountQueryKey())
+          && Objects.equals(queryParams, metric.getQueryParams());
+    }
+  }
+
+  /** The compiled queries of a metric instance, by template. */
+  private static class MetricQueries {
+    private final MetricKey key;
+    private final ConcurrentMap<String, CompiledQuery> byTemplate = new ConcurrentHashMap<>();
+
+    private MetricQueries(MetricKey key) {
+      this.key = key;
+    }
   }
 }
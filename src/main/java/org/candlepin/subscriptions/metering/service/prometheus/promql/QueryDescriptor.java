@@ -45,6 +45,11 @@ public class QueryDescriptor {
     this.runtime = new HashMap<>();
   }
 
+  QueryDescriptor(TagMetric metric, Map<String, String> runtime) {
+    this.metric = metric;
+    this.runtime = runtime;
+  }
+
   public void addRuntimeVar(String name, String value) {
     this.runtime.put(name, value);
   }
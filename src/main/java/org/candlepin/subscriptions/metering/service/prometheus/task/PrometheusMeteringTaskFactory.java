@@ -23,6 +23,8 @@ package org.candlepin.subscriptions.metering.service.prometheus.task;
 import java.time.OffsetDateTime;
 import org.candlepin.subscriptions.json.Measurement.Uom;
 import org.candlepin.subscriptions.metering.service.prometheus.PrometheusMeteringController;
+import org.candlepin.subscriptions.metering.service.prometheus.PrometheusMultiAccountCollector;
+import org.candlepin.subscriptions.metering.task.AllAccountsMetricsTask;
 import org.candlepin.subscriptions.metering.task.MetricsTask;
 import org.candlepin.subscriptions.task.Task;
 import org.candlepin.subscriptions.task.TaskDescriptor;
@@ -34,9 +36,13 @@ import org.springframework.util.StringUtils;
 public class PrometheusMeteringTaskFactory implements TaskFactory {
 
   private final PrometheusMeteringController controller;
+  private final PrometheusMultiAccountCollector multiAccountCollector;
 
-  public PrometheusMeteringTaskFactory(PrometheusMeteringController controller) {
+  public PrometheusMeteringTaskFactory(
+      PrometheusMeteringController controller,
+      PrometheusMultiAccountCollector multiAccountCollector) {
     this.controller = controller;
+    this.multiAccountCollector = multiAccountCollector;
   }
 
   @Override
@@ -50,6 +56,14 @@ public class PrometheusMeteringTaskFactory implements TaskFactory {
           validateDate(taskDescriptor, "start"),
           validateDate(taskDescriptor, "end"));
     }
+    if (TaskType.METRICS_COLLECTION_ALL_ACCOUNTS.equals(taskDescriptor.getTaskType())) {
+      return new AllAccountsMetricsTask(
+          multiAccountCollector,
+          validateString(taskDescriptor, "productTag"),
+          Uom.fromValue(validateString(taskDescriptor, "metric")),
+          validateDate(taskDescriptor, "start"),
+          validateDate(taskDescriptor, "end"));
+    }
     throw new IllegalArgumentException(
         String.format("Could not build task. Unknown task type: %s", taskDescriptor.getTaskType()));
   }
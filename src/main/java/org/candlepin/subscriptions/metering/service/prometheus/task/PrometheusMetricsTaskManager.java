@@ -28,6 +28,7 @@ import org.candlepin.subscriptions.metering.service.prometheus.PrometheusAccount
 import org.candlepin.subscriptions.metering.service.prometheus.PrometheusMetricsProperties;
 import org.candlepin.subscriptions.task.TaskDescriptor;
 import org.candlepin.subscriptions.task.TaskDescriptor.TaskDescriptorBuilder;
+import org.candlepin.subscriptions.task.TaskPriority;
 import org.candlepin.subscriptions.task.TaskQueueProperties;
 import org.candlepin.subscriptions.task.TaskType;
 import org.candlepin.subscriptions.task.queue.TaskQueue;
@@ -90,6 +91,17 @@ public class PrometheusMetricsTaskManager {
   @Transactional
   public void updateMetricsForAllAccounts(
       String productTag, OffsetDateTime start, OffsetDateTime end) {
+    if (prometheusProps.isMultiAccountQueryEnabled()) {
+      prometheusProps
+          .getSupportedMetricsForProduct(productTag)
+          .keySet()
+          .forEach(
+              metric -> {
+                log.info("Queuing {} {} metric update for all accounts.", productTag, metric);
+                queue.enqueue(createAllAccountsMetricsTask(productTag, metric, start, end));
+              });
+      return;
+    }
     prometheusProps
         .getSupportedMetricsForProduct(productTag)
         .keySet()
@@ -109,6 +121,17 @@ public class PrometheusMetricsTaskManager {
             });
   }
 
+  private TaskDescriptor createAllAccountsMetricsTask(
+      String productTag, Uom metric, OffsetDateTime start, OffsetDateTime end) {
+    return TaskDescriptor.builder(TaskType.METRICS_COLLECTION_ALL_ACCOUNTS, topic)
+        .setSingleValuedArg("productTag", productTag)
+        .setSingleValuedArg("metric", metric.value())
+        .setSingleValuedArg("start", start.toString())
+        .setSingleValuedArg("end", end.toString())
+        .setPriority(TaskPriority.HOURLY)
+        .build();
+  }
+
   private TaskDescriptor createMetricsTask(
       String account, String productTag, Uom metric, OffsetDateTime start, OffsetDateTime end) {
     log.info(
@@ -123,7 +146,8 @@ public class PrometheusMetricsTaskManager {
             .setSingleValuedArg("account", account)
             .setSingleValuedArg("productTag", productTag)
             .setSingleValuedArg("metric", metric.value())
-            .setSingleValuedArg("start", start.toString());
+            .setSingleValuedArg("start", start.toString())
+            .setPriority(TaskPriority.HOURLY);
 
     if (end != null) {
       builder.setSingleValuedArg("end", end.toString());
@@ -23,6 +23,7 @@ package org.candlepin.subscriptions.metering.task;
 import org.candlepin.subscriptions.metering.service.prometheus.PrometheusAccountSource;
 import org.candlepin.subscriptions.metering.service.prometheus.PrometheusMeteringController;
 import org.candlepin.subscriptions.metering.service.prometheus.PrometheusMetricsProperties;
+import org.candlepin.subscriptions.metering.service.prometheus.PrometheusMultiAccountCollector;
 import org.candlepin.subscriptions.metering.service.prometheus.PrometheusService;
 import org.candlepin.subscriptions.metering.service.prometheus.promql.QueryBuilder;
 import org.candlepin.subscriptions.metering.service.prometheus.task.PrometheusMeteringTaskFactory;
@@ -79,8 +80,10 @@ public class MeteringTasksConfiguration {
   @Bean
   @Qualifier("prometheusTaskFactory")
   @Profile("openshift-metering-worker")
-  TaskFactory meteringTaskFactory(PrometheusMeteringController controller) {
-    return new PrometheusMeteringTaskFactory(controller);
+  TaskFactory meteringTaskFactory(
+      PrometheusMeteringController controller,
+      PrometheusMultiAccountCollector multiAccountCollector) {
+    return new PrometheusMeteringTaskFactory(controller, multiAccountCollector);
   }
 
   @Bean
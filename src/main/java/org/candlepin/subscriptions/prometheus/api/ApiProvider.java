@@ -20,6 +20,8 @@
  */
 package org.candlepin.subscriptions.prometheus.api;
 
+import java.io.InputStream;
+import org.candlepin.subscriptions.prometheus.ApiException;
 import org.candlepin.subscriptions.prometheus.resources.QueryApi;
 import org.candlepin.subscriptions.prometheus.resources.QueryRangeApi;
 
@@ -41,4 +43,18 @@ public interface ApiProvider {
    * @return the prometheus range query API.
    */
   QueryRangeApi queryRangeApi();
+
+  /**
+   * Runs a range query, without deserializing its response, so that it can be parsed as a stream.
+   *
+   * @param query the (escaped) query
+   * @param start start of the range (linux timestamp)
+   * @param end end of the range (linux timestamp)
+   * @param step query resolution step
+   * @param timeout evaluation timeout
+   * @return the JSON response, which the caller must close
+   * @throws ApiException if the query could not be run
+   */
+  InputStream queryRangeStream(String query, Long start, Long end, String step, Integer timeout)
+      throws ApiException;
 }
@@ -62,7 +62,7 @@ public class ApiProviderFactory implements FactoryBean<ApiProvider> {
     } else {
       log.warn("Prometheus API URL not set...");
     }
-    return new ApiProviderImpl(apiClient);
+    return new ApiProviderImpl(apiClient, clientProperties.getToken());
   }
 
   @Override
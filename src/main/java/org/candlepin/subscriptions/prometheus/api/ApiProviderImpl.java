@@ -20,9 +20,16 @@
  */
 package org.candlepin.subscriptions.prometheus.api;
 
+import java.io.InputStream;
+import javax.ws.rs.client.Invocation;
+import javax.ws.rs.client.WebTarget;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
 import org.candlepin.subscriptions.prometheus.ApiClient;
+import org.candlepin.subscriptions.prometheus.ApiException;
 import org.candlepin.subscriptions.prometheus.resources.QueryApi;
 import org.candlepin.subscriptions.prometheus.resources.QueryRangeApi;
+import org.springframework.util.StringUtils;
 
 /**
  * The default API prometheus API provider implementation that will connect to a Thanos/Prometheus
@@ -30,10 +37,19 @@ import org.candlepin.subscriptions.prometheus.resources.QueryRangeApi;
  */
 public class ApiProviderImpl implements ApiProvider {
 
+  private ApiClient apiClient;
   private QueryApi queryApi;
   private QueryRangeApi rangeApi;
+  private String bearerToken;
 
-  public ApiProviderImpl(ApiClient apiClient) {
+  /**
+   * @param apiClient the configured client of the generated APIs
+   * @param bearerToken the token sent on the requests made outside of the generated APIs, which
+   *     don't go through the authentications of the client; null for none
+   */
+  public ApiProviderImpl(ApiClient apiClient, String bearerToken) {
+    this.apiClient = apiClient;
+    this.bearerToken = bearerToken;
     queryApi = new QueryApi(apiClient);
     rangeApi = new QueryRangeApi(apiClient);
   }
@@ -47,4 +63,34 @@ public class ApiProviderImpl implements ApiProvider {
   public QueryRangeApi queryRangeApi() {
     return this.rangeApi;
   }
+
+  @Override
+  public InputStream queryRangeStream(
+      String query, Long start, Long end, String step, Integer timeout) throws ApiException {
+    WebTarget target =
+        apiClient
+            .getHttpClient()
+            .target(apiClient.getBasePath())
+            .path("/query_range/")
+            .queryParam("query", query)
+            .queryParam("start", start)
+            .queryParam("end", end)
+            .queryParam("step", step);
+    if (timeout != null) {
+      target = target.queryParam("timeout", timeout);
+    }
+
+    Invocation.Builder request = target.request(MediaType.APPLICATION_JSON);
+    if (StringUtils.hasText(bearerToken)) {
+      request.header("Authorization", "Bearer " + bearerToken);
+    }
+
+    Response response = request.get();
+    if (!Response.Status.Family.SUCCESSFUL.equals(response.getStatusInfo().getFamily())) {
+      int status = response.getStatus();
+      response.close();
+      throw new ApiException(status, "Range query failed");
+    }
+    return response.readEntity(InputStream.class);
+  }
 }
@@ -20,6 +20,11 @@
  */
 package org.candlepin.subscriptions.prometheus.api;
 
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import org.candlepin.subscriptions.prometheus.ApiException;
 import org.candlepin.subscriptions.prometheus.resources.QueryApi;
 import org.candlepin.subscriptions.prometheus.resources.QueryRangeApi;
 
@@ -47,4 +52,17 @@ public class StubApiProvider implements ApiProvider {
   public QueryRangeApi queryRangeApi() {
     return this.rangeApi;
   }
+
+  /** Serializes the result of the stubbed range query API, as the server would send it. */
+  @Override
+  public InputStream queryRangeStream(
+      String query, Long start, Long end, String step, Integer timeout) throws ApiException {
+    try {
+      return new ByteArrayInputStream(
+          new ObjectMapper()
+              .writeValueAsBytes(rangeApi.queryRange(query, start, end, step, timeout)));
+    } catch (JsonProcessingException e) {
+      throw new ApiException(e);
+    }
+  }
 }
@@ -24,12 +24,16 @@ import java.time.OffsetDateTime;
 import java.time.temporal.TemporalAmount;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.stream.Collectors;
 import javax.validation.constraints.Min;
 import javax.validation.constraints.NotNull;
 import javax.ws.rs.BadRequestException;
 import javax.ws.rs.core.Context;
 import javax.ws.rs.core.UriInfo;
+import org.candlepin.subscriptions.ApplicationProperties;
 import org.candlepin.subscriptions.db.SubscriptionCapacityRepository;
+import org.candlepin.subscriptions.db.model.CapacityTimeline;
+import org.candlepin.subscriptions.db.model.CapacityTotals;
 import org.candlepin.subscriptions.db.model.Granularity;
 import org.candlepin.subscriptions.db.model.ServiceLevel;
 import org.candlepin.subscriptions.db.model.SubscriptionCapacity;
@@ -62,6 +66,7 @@ public class CapacityResource implements CapacityApi {
   private final PageLinkCreator pageLinkCreator;
   private final ApplicationClock clock;
   private final ProductProfileRegistry productProfileRegistry;
+  private final boolean dbAggregationEnabled;
 
   @Context UriInfo uriInfo;
 
@@ -69,11 +74,13 @@ public class CapacityResource implements CapacityApi {
       SubscriptionCapacityRepository repository,
       PageLinkCreator pageLinkCreator,
       ApplicationClock clock,
-      ProductProfileRegistry productProfileRegistry) {
+      ProductProfileRegistry productProfileRegistry,
+      ApplicationProperties applicationProperties) {
     this.repository = repository;
     this.pageLinkCreator = pageLinkCreator;
     this.clock = clock;
     this.productProfileRegistry = productProfileRegistry;
+    this.dbAggregationEnabled = applicationProperties.isCapacityDbAggregationEnabled();
   }
 
   @Override
@@ -101,7 +108,9 @@ public class CapacityResource implements CapacityApi {
 
     Granularity granularityValue = Granularity.fromString(granularityType.toString());
     String ownerId = ResourceUtils.getOwnerId();
-    List<CapacitySnapshot> capacities =
+    Pageable pageable =
+        offset != null || limit != null ? ResourceUtils.getPageable(offset, limit) : null;
+    Page<CapacitySnapshot> capacities =
         getCapacities(
             ownerId,
             productId,
@@ -109,19 +118,12 @@ public class CapacityResource implements CapacityApi {
             sanitizedUsage,
             granularityValue,
             beginning,
-            ending);
+            ending,
+            pageable);
 
-    List<CapacitySnapshot> data;
-    TallyReportLinks links;
-    if (offset != null || limit != null) {
-      Pageable pageable = ResourceUtils.getPageable(offset, limit);
-      data = paginate(capacities, pageable);
-      Page<CapacitySnapshot> snapshotPage = new PageImpl<>(data, pageable, capacities.size());
-      links = pageLinkCreator.getPaginationLinks(uriInfo, snapshotPage);
-    } else {
-      data = capacities;
-      links = null;
-    }
+    List<CapacitySnapshot> data = capacities.getContent();
+    TallyReportLinks links =
+        pageable != null ? pageLinkCreator.getPaginationLinks(uriInfo, capacities) : null;
 
     CapacityReport report = new CapacityReport();
     report.setData(data);
@@ -151,6 +153,26 @@ public class CapacityResource implements CapacityApi {
       Granularity granularity,
       @NotNull OffsetDateTime reportBegin,
       @NotNull OffsetDateTime reportEnd) {
+    return getCapacities(
+            ownerId, productId, sla, usage, granularity, reportBegin, reportEnd, null)
+        .getContent();
+  }
+
+  /**
+   * Computes the capacity snapshots of the requested page of the report's periods. Only the
+   * snapshots of the page are built, either summed by the database or from a single sweep over the
+   * subscriptions' begin and end dates.
+   */
+  @SuppressWarnings("java:S107")
+  private Page<CapacitySnapshot> getCapacities(
+      String ownerId,
+      ProductId productId,
+      ServiceLevel sla,
+      Usage usage,
+      Granularity granularity,
+      OffsetDateTime reportBegin,
+      OffsetDateTime reportEnd,
+      Pageable pageable) {
 
     /* Throw an error if we are asked to generate capacity reports at a finer granularity than what is
      * supported by the product.  The reports created would be technically accurate, but would convey the
@@ -162,34 +184,60 @@ public class CapacityResource implements CapacityApi {
       throw new BadRequestException(e.getMessage());
     }
 
-    List<SubscriptionCapacity> matches =
-        repository.findByOwnerAndProductId(
-            ownerId, productId.toString(), sla, usage, reportBegin, reportEnd);
+    List<OffsetDateTime> dates = getPeriodDates(granularity, reportBegin, reportEnd);
+    List<OffsetDateTime> pageDates = paginate(dates, pageable);
+    List<CapacityTotals> totals;
+    if (pageDates.isEmpty()) {
+      totals = List.of();
+    } else if (dbAggregationEnabled) {
+      totals =
+          repository.sumCapacityByPeriod(
+              ownerId,
+              productId.toString(),
+              sla,
+              usage,
+              granularity,
+              pageDates.get(0),
+              pageDates.get(pageDates.size() - 1));
+    } else {
+      List<SubscriptionCapacity> matches =
+          repository.findByOwnerAndProductId(
+              ownerId, productId.toString(), sla, usage, reportBegin, reportEnd);
+      totals = new CapacityTimeline(matches).totals(pageDates);
+    }
+    List<CapacitySnapshot> snapshots =
+        totals.stream().map(CapacityTotals::asApiSnapshot).collect(Collectors.toList());
+    return pageable == null
+        ? new PageImpl<>(snapshots)
+        : new PageImpl<>(snapshots, pageable, dates.size());
+  }
 
+  private List<OffsetDateTime> getPeriodDates(
+      Granularity granularity, OffsetDateTime reportBegin, OffsetDateTime reportEnd) {
     SnapshotTimeAdjuster timeAdjuster = SnapshotTimeAdjuster.getTimeAdjuster(clock, granularity);
 
     OffsetDateTime start = timeAdjuster.adjustToPeriodStart(reportBegin);
     OffsetDateTime end = timeAdjuster.adjustToPeriodEnd(reportEnd);
     TemporalAmount offset = timeAdjuster.getSnapshotOffset();
 
-    List<CapacitySnapshot> result = new ArrayList<>();
+    List<OffsetDateTime> result = new ArrayList<>();
     OffsetDateTime next = OffsetDateTime.from(start);
 
     while (next.isBefore(end) || next.isEqual(end)) {
-      result.add(createCapacitySnapshot(next, matches));
+      result.add(next);
       next = timeAdjuster.adjustToPeriodStart(next.plus(offset));
     }
 
     return result;
   }
 
-  private List<CapacitySnapshot> paginate(List<CapacitySnapshot> capacities, Pageable pageable) {
+  private List<OffsetDateTime> paginate(List<OffsetDateTime> dates, Pageable pageable) {
     if (pageable == null) {
-      return capacities;
+      return dates;
     }
-    int offset = pageable.getPageNumber() * pageable.getPageSize();
-    int lastIndex = Math.min(capacities.size(), offset + pageable.getPageSize());
-    return capacities.subList(offset, lastIndex);
+    int offset = Math.min(dates.size(), pageable.getPageNumber() * pageable.getPageSize());
+    int lastIndex = Math.min(dates.size(), offset + pageable.getPageSize());
+    return dates.subList(offset, lastIndex);
   }
 
   /**
@@ -206,51 +254,4 @@ public class CapacityResource implements CapacityApi {
             productId.toString(), productProfile.getFinestGranularity());
     Assert.isTrue(productProfile.supportsGranularity(requestedGranularity), msg);
   }
-
-  protected CapacitySnapshot createCapacitySnapshot(
-      OffsetDateTime date, List<SubscriptionCapacity> matches) {
-    // NOTE there is room for future optimization here, as the we're *generally* calculating the
-    // same sum
-    // across a time range, also we might opt to do some of this in the DB query in the future.
-    int sockets = 0;
-    int physicalSockets = 0;
-    int hypervisorSockets = 0;
-    int cores = 0;
-    int physicalCores = 0;
-    int hypervisorCores = 0;
-
-    for (SubscriptionCapacity capacity : matches) {
-      if (capacity.getBeginDate().isBefore(date) && capacity.getEndDate().isAfter(date)) {
-        int capacityVirtSockets = sanitize(capacity.getVirtualSockets());
-        sockets += capacityVirtSockets;
-        hypervisorSockets += capacityVirtSockets;
-
-        int capacityPhysicalSockets = sanitize(capacity.getPhysicalSockets());
-        sockets += capacityPhysicalSockets;
-        physicalSockets += capacityPhysicalSockets;
-
-        int capacityPhysCores = sanitize(capacity.getPhysicalCores());
-        cores += capacityPhysCores;
-        physicalCores += capacityPhysCores;
-
-        int capacityVirtCores = sanitize(capacity.getVirtualCores());
-        cores += capacityVirtCores;
-        hypervisorCores += capacityVirtCores;
-      }
-    }
-
-    return new CapacitySnapshot()
-        .date(date)
-        .sockets(sockets)
-        .physicalSockets(physicalSockets)
-        .hypervisorSockets(hypervisorSockets)
-        .cores(cores)
-        .physicalCores(physicalCores)
-        .hypervisorCores(hypervisorCores)
-        .hasInfiniteQuantity(false);
-  }
-
-  private int sanitize(Integer value) {
-    return value != null ? value : 0;
-  }
 }
@@ -0,0 +1,214 @@
+/*
+ * Copyright Red Hat, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * Red Hat trademarks are not licensed under GPLv3. No permission is
+ * granted to use or replicate Red Hat trademarks that are incorporated
+ * in this software or its documentation.
+ */
+package org.candlepin.subscriptions.resource;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.GuavaCacheMetrics;
+import java.time.OffsetDateTime;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.ToString;
+import org.candlepin.subscriptions.ApplicationProperties;
+import org.candlepin.subscriptions.db.AccountTallyStateRepository;
+import org.candlepin.subscriptions.tally.TallySnapshotsCommittedEvent;
+import org.candlepin.subscriptions.utilization.api.model.GranularityType;
+import org.candlepin.subscriptions.utilization.api.model.ProductId;
+import org.candlepin.subscriptions.utilization.api.model.ServiceLevelType;
+import org.candlepin.subscriptions.utilization.api.model.TallyReport;
+import org.candlepin.subscriptions.utilization.api.model.UsageType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.data.domain.Page;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+/**
+ * Caches the tally reports served by TallyResource, keyed by every parameter of the request.
+ *
+ * <p>The cache is bounded by the total number of snapshots held across all reports, and the
+ * reports of an account are dropped as soon as the snapshot strategies commit new snapshots for
+ * it. Since that invalidation only reaches caches in the process running the tally, each entry also
+ * remembers when the account's snapshots were last written as of its load, and is only served
+ * while that time is unchanged. That costs a primary key lookup per request, much cheaper than the
+ * report itself. Entries also expire after a TTL.
+ *
+ * <p>Hit, miss and eviction counts are published under the rhsm-subscriptions.tally-report-cache
+ * cache name.
+ */
+@Component
+public class TallyReportCache {
+
+  private static final Logger log = LoggerFactory.getLogger(TallyReportCache.class);
+
+  public static final String CACHE_NAME = "rhsm-subscriptions.tally-report-cache";
+
+  private final AccountTallyStateRepository stateRepository;
+  private final Cache<Key, Versioned> cache;
+
+  /** Incremented by every invalidation, so that reports loaded concurrently are not cached. */
+  private final AtomicLong invalidations = new AtomicLong();
+
+  public TallyReportCache(
+      ApplicationProperties props,
+      AccountTallyStateRepository stateRepository,
+      MeterRegistry meterRegistry) {
+    this.stateRepository = stateRepository;
+    if (props.isTallyReportCacheEnabled()) {
+      this.cache =
+          CacheBuilder.newBuilder()
+              .maximumWeight(props.getTallyReportCacheMaxSnapshots())
+              .weigher(
+                  (Key key, Versioned versioned) ->
+                      versioned.entry.getReport().getData().size() + 1)
+              .expireAfterWrite(props.getTallyReportCacheTtl().toMillis(), TimeUnit.MILLISECONDS)
+              .recordStats()
+              .build();
+      GuavaCacheMetrics.monitor(meterRegistry, cache, CACHE_NAME);
+    } else {
+      this.cache = null;
+    }
+  }
+
+  /**
+   * Get the cached report for the given request, loading and caching it when missing.
+   *
+   * @param key the parameters of the report request.
+   * @param loader builds the report when it isn't cached.
+   * @return the cached or loaded report.
+   */
+  public Entry get(Key key, Supplier<Entry> loader) {
+    if (cache == null) {
+      return loader.get();
+    }
+
+    // Read before loading, so that snapshots written during the load make the entry stale.
+    OffsetDateTime snapshotsUpdatedOn =
+        stateRepository.findSnapshotsUpdatedOn(key.getAccountNumber()).orElse(null);
+    Versioned cached = cache.getIfPresent(key);
+    if (cached != null && Objects.equals(cached.snapshotsUpdatedOn, snapshotsUpdatedOn)) {
+      return cached.entry;
+    }
+
+    long invalidationsBefore = invalidations.get();
+    Entry loaded = loader.get();
+    if (invalidations.get() == invalidationsBefore) {
+      cache.put(key, new Versioned(loaded, snapshotsUpdatedOn));
+      // An invalidation may have run between the check and the put.
+      if (invalidations.get() != invalidationsBefore) {
+        cache.invalidate(key);
+      }
+    }
+    return loaded;
+  }
+
+  /**
+   * Drops the cached reports of the given accounts.
+   *
+   * @param accountNumbers the accounts whose reports are stale.
+   */
+  public void invalidate(Set<String> accountNumbers) {
+    if (cache == null || accountNumbers.isEmpty()) {
+      return;
+    }
+    invalidations.incrementAndGet();
+    cache.asMap().keySet().removeIf(key -> accountNumbers.contains(key.getAccountNumber()));
+    log.debug("Invalidated cached tally reports of {} account(s).", accountNumbers.size());
+  }
+
+  @TransactionalEventListener(fallbackExecution = true)
+  public void onSnapshotsCommitted(TallySnapshotsCommittedEvent event) {
+    invalidate(event.getAccountNumbers());
+  }
+
+  /** A cached entry, along with when the account's snapshots were last written as of its load. */
+  private static class Versioned {
+    private final Entry entry;
+    private final OffsetDateTime snapshotsUpdatedOn;
+
+    private Versioned(Entry entry, OffsetDateTime snapshotsUpdatedOn) {
+      this.entry = entry;
+      this.snapshotsUpdatedOn = snapshotsUpdatedOn;
+    }
+  }
+
+  /** The parameters of a tally report request. */
+  @EqualsAndHashCode
+  @Getter
+  @ToString
+  public static class Key {
+    private final String accountNumber;
+    private final ProductId productId;
+    private final GranularityType granularity;
+    private final ServiceLevelType sla;
+    private final UsageType usage;
+    private final OffsetDateTime beginning;
+    private final OffsetDateTime ending;
+    private final Integer offset;
+    private final Integer limit;
+    private final Boolean useRunningTotalsFormat;
+
+    @SuppressWarnings("java:S107")
+    public Key(
+        String accountNumber,
+        ProductId productId,
+        GranularityType granularity,
+        ServiceLevelType sla,
+        UsageType usage,
+        OffsetDateTime beginning,
+        OffsetDateTime ending,
+        Integer offset,
+        Integer limit,
+        Boolean useRunningTotalsFormat) {
+      this.accountNumber = accountNumber;
+      this.productId = productId;
+      this.granularity = granularity;
+      this.sla = sla;
+      this.usage = usage;
+      this.beginning = beginning;
+      this.ending = ending;
+      this.offset = offset;
+      this.limit = limit;
+      this.useRunningTotalsFormat = useRunningTotalsFormat;
+    }
+  }
+
+  /**
+   * A cached report without its pagination links, which depend on the request URI, along with the
+   * page they are built from. The report must not be modified once cached.
+   */
+  @Getter
+  public static class Entry {
+    private final TallyReport report;
+    private final Page<?> page;
+
+    public Entry(TallyReport report, Page<?> page) {
+      this.report = report;
+      this.page = page;
+    }
+  }
+}
@@ -52,6 +52,7 @@ import org.candlepin.subscriptions.utilization.api.model.TallySnapshot;
 import org.candlepin.subscriptions.utilization.api.model.UsageType;
 import org.candlepin.subscriptions.utilization.api.resources.TallyApi;
 import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageImpl;
 import org.springframework.data.domain.Pageable;
 import org.springframework.stereotype.Component;
 
@@ -63,6 +64,7 @@ public class TallyResource implements TallyApi {
   private final PageLinkCreator pageLinkCreator;
   private final ApplicationClock clock;
   private final ProductProfileRegistry productProfileRegistry;
+  private final TallyReportCache reportCache;
 
   @Context private UriInfo uriInfo;
 
@@ -70,11 +72,13 @@ public class TallyResource implements TallyApi {
       TallySnapshotRepository repository,
       PageLinkCreator pageLinkCreator,
       ApplicationClock clock,
-      ProductProfileRegistry productProfileRegistry) {
+      ProductProfileRegistry productProfileRegistry,
+      TallyReportCache reportCache) {
     this.repository = repository;
     this.pageLinkCreator = pageLinkCreator;
     this.clock = clock;
     this.productProfileRegistry = productProfileRegistry;
+    this.reportCache = reportCache;
   }
 
   @SuppressWarnings("linelength")
@@ -92,11 +96,8 @@ public class TallyResource implements TallyApi {
       Boolean useRunningTotalsFormat) {
     // When limit and offset are not specified, we will fill the report with dummy
     // records from beginning to ending dates. Otherwise we page as usual.
-    Pageable pageable = null;
     boolean fill = limit == null && offset == null;
-    if (!fill) {
-      pageable = ResourceUtils.getPageable(offset, limit);
-    }
+    Pageable pageable = fill ? null : ResourceUtils.getPageable(offset, limit);
 
     String accountNumber = ResourceUtils.getAccountNumber();
     ServiceLevel serviceLevel = ResourceUtils.sanitizeServiceLevel(sla);
@@ -112,6 +113,61 @@ public class TallyResource implements TallyApi {
       throw new BadRequestException(e.getMessage());
     }
 
+    TallyReportCache.Key cacheKey =
+        new TallyReportCache.Key(
+            accountNumber,
+            productId,
+            granularityType,
+            sla,
+            usageType,
+            beginning,
+            ending,
+            offset,
+            limit,
+            useRunningTotalsFormat);
+    TallyReportCache.Entry cached =
+        reportCache.get(
+            cacheKey,
+            () ->
+                buildReport(
+                    accountNumber,
+                    productId,
+                    granularityFromValue,
+                    serviceLevel,
+                    effectiveUsage,
+                    beginning,
+                    ending,
+                    pageable,
+                    sla,
+                    usageType,
+                    useRunningTotalsFormat));
+
+    // Cached reports are shared, so each response gets its own report holding its own links.
+    TallyReport report =
+        new TallyReport().data(cached.getReport().getData()).meta(cached.getReport().getMeta());
+
+    // Only set page links if we are paging (not filling).
+    if (pageable != null) {
+      report.setLinks(pageLinkCreator.getPaginationLinks(uriInfo, cached.getPage()));
+    }
+
+    return report;
+  }
+
+  @SuppressWarnings({"linelength", "java:S107"})
+  private TallyReportCache.Entry buildReport(
+      String accountNumber,
+      ProductId productId,
+      Granularity granularityFromValue,
+      ServiceLevel serviceLevel,
+      Usage effectiveUsage,
+      OffsetDateTime beginning,
+      OffsetDateTime ending,
+      Pageable pageable,
+      ServiceLevelType sla,
+      UsageType usageType,
+      Boolean useRunningTotalsFormat) {
+
     Page<org.candlepin.subscriptions.db.model.TallySnapshot> snapshotPage =
         repository
             .findByAccountNumberAndProductIdAndGranularityAndServiceLevelAndUsageAndSnapshotDateBetweenOrderBySnapshotDate(
@@ -143,13 +199,8 @@ public class TallyResource implements TallyApi {
       transformToRunningTotalFormat(report);
     }
 
-    // Only set page links if we are paging (not filling).
-    if (pageable != null) {
-      report.setLinks(pageLinkCreator.getPaginationLinks(uriInfo, snapshotPage));
-    }
-
     // Fill the report gaps if no paging was requested.
-    if (fill) {
+    if (pageable == null) {
       ReportFiller reportFiller = ReportFillerFactory.getInstance(clock, granularityFromValue);
       reportFiller.fillGaps(report, beginning, ending, useRunningTotalsFormat);
     }
@@ -157,7 +208,13 @@ public class TallyResource implements TallyApi {
     // Set the count last since the report may have gotten filled.
     report.getMeta().setCount(report.getData().size());
 
-    return report;
+    // Only the page metadata is kept for building links, not the snapshot entities.
+    Page<?> page =
+        pageable == null
+            ? null
+            : new PageImpl<>(
+                List.of(), snapshotPage.getPageable(), snapshotPage.getTotalElements());
+    return new TallyReportCache.Entry(report, page);
   }
 
   private Double getTotalCoreHours(TallyReport report) {
@@ -23,6 +23,7 @@ package org.candlepin.subscriptions.retention;
 import java.time.Duration;
 import lombok.Getter;
 import lombok.Setter;
+import org.candlepin.subscriptions.db.model.Granularity;
 import org.springframework.boot.context.properties.ConfigurationProperties;
 import org.springframework.stereotype.Component;
 
@@ -32,4 +33,13 @@ import org.springframework.stereotype.Component;
 @ConfigurationProperties(prefix = "rhsm-subscriptions.event-retention-policy")
 public class EventRecordsRetentionProperties {
   private Duration eventRetentionDuration = Duration.ofDays(90L);
+
+  /**
+   * Range of event timestamps covered by each partition of the events table, when it is
+   * partitioned. Either DAILY or MONTHLY.
+   */
+  private Granularity partitionGranularity = Granularity.MONTHLY;
+
+  /** Number of partitions, after the current one, that are created ahead of time. */
+  private int partitionsAhead = 3;
 }
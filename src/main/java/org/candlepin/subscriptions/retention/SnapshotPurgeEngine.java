@@ -0,0 +1,183 @@
+/*
+ * Copyright Red Hat, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * Red Hat trademarks are not licensed under GPLv3. No permission is
+ * granted to use or replicate Red Hat trademarks that are incorporated
+ * in this software or its documentation.
+ */
+package org.candlepin.subscriptions.retention;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import java.time.Duration;
+import java.time.OffsetDateTime;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+import org.candlepin.subscriptions.db.SnapshotPurgeCheckpointRepository;
+import org.candlepin.subscriptions.db.TallySnapshotRepository;
+import org.candlepin.subscriptions.db.model.Granularity;
+import org.candlepin.subscriptions.db.model.SnapshotPurgeCheckpoint;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * Purges expired tally snapshots of all accounts, one granularity at a time.
+ *
+ * <p>Snapshots are deleted in chunks of IDs, in ID order, each chunk in its own transaction along
+ * with a checkpoint of the last deleted ID. A purge that is interrupted resumes from its checkpoint
+ * on the next run, as long as the cutoff date of the granularity has not changed since. Deletes
+ * can be throttled to a maximum number of snapshots per second.
+ */
+@Component
+public class SnapshotPurgeEngine {
+
+  private static final Logger log = LoggerFactory.getLogger(SnapshotPurgeEngine.class);
+
+  /** Lowest possible snapshot ID, where purging a granularity starts. */
+  private static final UUID FIRST_SNAPSHOT_ID = new UUID(0L, 0L);
+
+  private final TallySnapshotRepository snapshotRepository;
+  private final SnapshotPurgeCheckpointRepository checkpointRepository;
+  private final TallyRetentionPolicy policy;
+  private final SnapshotPurgeProperties properties;
+  private final TransactionTemplate transaction;
+  private final MeterRegistry meterRegistry;
+  private final Timer chunkTimer;
+
+  public SnapshotPurgeEngine(
+      TallySnapshotRepository snapshotRepository,
+      SnapshotPurgeCheckpointRepository checkpointRepository,
+      TallyRetentionPolicy policy,
+      SnapshotPurgeProperties properties,
+      @Qualifier("rhsmSubscriptionsTransactionManager")
+          PlatformTransactionManager transactionManager,
+      MeterRegistry meterRegistry) {
+    this.snapshotRepository = snapshotRepository;
+    this.checkpointRepository = checkpointRepository;
+    this.policy = policy;
+    this.properties = properties;
+    this.transaction = new TransactionTemplate(transactionManager);
+    // Chunks are committed even when purging within another transaction, so progress is kept.
+    this.transaction.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+    this.meterRegistry = meterRegistry;
+    this.chunkTimer = meterRegistry.timer("rhsm-subscriptions.retention.snapshots.purge.chunk");
+  }
+
+  /** Purge the expired snapshots of every granularity that has a cutoff date. */
+  public void purge() {
+    for (Granularity granularity : Granularity.values()) {
+      OffsetDateTime cutoffDate = policy.getCutoffDate(granularity);
+      if (cutoffDate == null) {
+        continue;
+      }
+      if (!purge(granularity, cutoffDate)) {
+        log.warn("Snapshot purge interrupted; it will resume from its checkpoint on the next run.");
+        return;
+      }
+    }
+  }
+
+  /** @return false if the purge was interrupted before all expired snapshots were deleted */
+  private boolean purge(Granularity granularity, OffsetDateTime cutoffDate) {
+    Counter purged =
+        meterRegistry.counter(
+            "rhsm-subscriptions.retention.snapshots.purged", "granularity", granularity.name());
+    UUID after = resumeAfter(granularity, cutoffDate);
+    log.info(
+        "Purging {} snapshots older than {}, starting after snapshot {}",
+        granularity,
+        cutoffDate,
+        after);
+
+    long total = 0;
+    int chunkSize = Math.max(1, properties.getChunkSize());
+    List<UUID> chunk;
+    do {
+      long start = System.nanoTime();
+      UUID from = after;
+      chunk = chunkTimer.record(() -> purgeChunk(granularity, cutoffDate, from, chunkSize));
+      purged.increment(chunk.size());
+      total += chunk.size();
+      if (!chunk.isEmpty()) {
+        after = chunk.get(chunk.size() - 1);
+        log.debug("Purged {} {} snapshots so far.", total, granularity);
+      }
+      if (!throttle(chunk.size(), Duration.ofNanos(System.nanoTime() - start))) {
+        return false;
+      }
+    } while (chunk.size() == chunkSize);
+
+    checkpointRepository.findById(granularity).ifPresent(checkpointRepository::delete);
+    log.info("Purged {} {} snapshots.", total, granularity);
+    return true;
+  }
+
+  private UUID resumeAfter(Granularity granularity, OffsetDateTime cutoffDate) {
+    Optional<SnapshotPurgeCheckpoint> checkpoint = checkpointRepository.findById(granularity);
+    if (checkpoint.isPresent() && checkpoint.get().getCutoffDate().isEqual(cutoffDate)) {
+      return checkpoint.get().getLastSnapshotId();
+    }
+    return FIRST_SNAPSHOT_ID;
+  }
+
+  private List<UUID> purgeChunk(
+      Granularity granularity, OffsetDateTime cutoffDate, UUID after, int chunkSize) {
+    return transaction.execute(
+        status -> {
+          List<UUID> ids =
+              snapshotRepository.findIdsByGranularityAndSnapshotDateBefore(
+                  granularity, cutoffDate, after, PageRequest.of(0, chunkSize));
+          if (!ids.isEmpty()) {
+            snapshotRepository.deleteByIdIn(ids);
+            checkpointRepository.save(
+                new SnapshotPurgeCheckpoint(granularity, cutoffDate, ids.get(ids.size() - 1)));
+          }
+          return ids;
+        });
+  }
+
+  /**
+   * Wait long enough after deleting a chunk to keep within the configured rate.
+   *
+   * @return false if interrupted while waiting
+   */
+  private boolean throttle(int deleted, Duration elapsed) {
+    double maxPerSecond = properties.getMaxSnapshotsPerSecond();
+    if (maxPerSecond <= 0 || deleted == 0) {
+      return true;
+    }
+    long minimumNanos = (long) (deleted / maxPerSecond * 1_000_000_000L);
+    long remainingNanos = minimumNanos - elapsed.toNanos();
+    if (remainingNanos <= 0) {
+      return true;
+    }
+    try {
+      Thread.sleep(remainingNanos / 1_000_000L, (int) (remainingNanos % 1_000_000L));
+      return true;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return false;
+    }
+  }
+}
@@ -0,0 +1,46 @@
+/*
+ * Copyright Red Hat, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * Red Hat trademarks are not licensed under GPLv3. No permission is
+ * granted to use or replicate Red Hat trademarks that are incorporated
+ * in this software or its documentation.
+ */
+package org.candlepin.subscriptions.retention;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+/** Properties of the chunked snapshot purge. */
+@Getter
+@Setter
+@Component
+@ConfigurationProperties(prefix = "rhsm-subscriptions.snapshot-purge")
+public class SnapshotPurgeProperties {
+
+  /**
+   * When enabled, expired snapshots of all accounts are purged per granularity in key-ranged
+   * chunks, instead of with one delete per account and granularity.
+   */
+  private boolean chunked = false;
+
+  /** Number of snapshots deleted per chunk, each chunk in its own transaction. */
+  private int chunkSize = 1000;
+
+  /** Maximum number of snapshots deleted per second; 0 or less means unlimited. */
+  private double maxSnapshotsPerSecond = 0;
+}
@@ -21,18 +21,23 @@
 package org.candlepin.subscriptions.retention;
 
 import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
 import java.time.temporal.ChronoUnit;
+import java.util.List;
 import java.util.stream.Stream;
 import org.candlepin.subscriptions.db.AccountListSource;
 import org.candlepin.subscriptions.db.EventRecordRepository;
 import org.candlepin.subscriptions.db.TallySnapshotRepository;
+import org.candlepin.subscriptions.db.model.EventPartition;
 import org.candlepin.subscriptions.db.model.Granularity;
 import org.candlepin.subscriptions.tally.AccountListSourceException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.stereotype.Component;
-import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
 
 /** Cleans up stale tally snapshots for an account. */
 @Component
@@ -44,6 +49,9 @@ public class TallyRetentionController {
   private final TallyRetentionPolicy policy;
   private final EventRecordsRetentionProperties eventRecordsRetentionProperties;
   private final AccountListSource accountListSource;
+  private final SnapshotPurgeEngine snapshotPurgeEngine;
+  private final SnapshotPurgeProperties snapshotPurgeProperties;
+  private final TransactionTemplate transaction;
 
   @Autowired
   public TallyRetentionController(
@@ -51,18 +59,43 @@ public class TallyRetentionController {
       EventRecordRepository eventRecordRepository,
       TallyRetentionPolicy policy,
       EventRecordsRetentionProperties eventRecordsRetentionProperties,
-      AccountListSource accountListSource) {
+      AccountListSource accountListSource,
+      SnapshotPurgeEngine snapshotPurgeEngine,
+      SnapshotPurgeProperties snapshotPurgeProperties,
+      @Qualifier("rhsmSubscriptionsTransactionManager")
+          PlatformTransactionManager transactionManager) {
     this.tallySnapshotRepository = tallySnapshotRepository;
     this.eventRecordRepository = eventRecordRepository;
     this.policy = policy;
     this.eventRecordsRetentionProperties = eventRecordsRetentionProperties;
     this.accountListSource = accountListSource;
+    this.snapshotPurgeEngine = snapshotPurgeEngine;
+    this.snapshotPurgeProperties = snapshotPurgeProperties;
+    this.transaction = new TransactionTemplate(transactionManager);
   }
 
-  @Transactional
+  /**
+   * Purge the expired snapshots of every account. The chunked purge commits each chunk on its own,
+   * so only the purge account by account runs in a single transaction.
+   */
   public void purgeSnapshots() throws AccountListSourceException {
-    try (Stream<String> accountList = accountListSource.purgeReportAccounts()) {
-      accountList.forEach(this::cleanStaleSnapshotsForAccount);
+    if (snapshotPurgeProperties.isChunked()) {
+      snapshotPurgeEngine.purge();
+      return;
+    }
+    AccountListSourceException failure =
+        transaction.execute(
+            status -> {
+              try (Stream<String> accountList = accountListSource.purgeReportAccounts()) {
+                accountList.forEach(this::cleanStaleSnapshotsForAccount);
+                return null;
+              } catch (AccountListSourceException e) {
+                status.setRollbackOnly();
+                return e;
+              }
+            });
+    if (failure != null) {
+      throw failure;
     }
   }
 
@@ -85,6 +118,64 @@ public class TallyRetentionController {
 
     log.info("Purging event records older than Duration {}", cutoffDate);
 
+    if (eventRecordRepository.isPartitioned()) {
+      createEventPartitions();
+      dropEventPartitionsBefore(cutoffDate);
+    }
+    // Removes what is left before the cutoff, only scanning the partitions that straddle it.
     eventRecordRepository.deleteEventRecordsByTimestampBefore(cutoffDate);
   }
+
+  /**
+   * Create the partitions of the events table for the current period and the configured number of
+   * periods ahead, skipping periods already covered by a partition. Events of a period that landed
+   * in the default partition, e.g. because the job didn't run in time, are moved into the new
+   * partition.
+   */
+  public void createEventPartitions() {
+    Granularity granularity = eventRecordsRetentionProperties.getPartitionGranularity();
+    List<EventPartition> existing = eventRecordRepository.findPartitions();
+    OffsetDateTime start = startOfPartition(OffsetDateTime.now(ZoneOffset.UTC), granularity);
+    for (int i = 0; i <= eventRecordsRetentionProperties.getPartitionsAhead(); i++) {
+      OffsetDateTime end =
+          granularity == Granularity.DAILY ? start.plusDays(1) : start.plusMonths(1);
+      EventPartition partition = new EventPartition(start, end);
+      if (existing.stream().noneMatch(partition::overlaps)) {
+        createEventPartition(partition);
+      }
+      start = end;
+    }
+  }
+
+  private void createEventPartition(EventPartition partition) {
+    if (eventRecordRepository.hasDefaultPartitionEvents(partition)) {
+      log.info("Creating event partition {} from the default partition", partition.getName());
+      eventRecordRepository.createPartitionFromDefault(partition);
+    } else {
+      log.info("Creating event partition {}", partition.getName());
+      eventRecordRepository.createPartition(partition);
+    }
+  }
+
+  private void dropEventPartitionsBefore(OffsetDateTime cutoffDate) {
+    for (EventPartition partition : eventRecordRepository.findPartitions()) {
+      if (!partition.getEnd().isAfter(cutoffDate)) {
+        log.info("Dropping event partition {}", partition.getName());
+        eventRecordRepository.dropPartition(partition);
+      }
+    }
+  }
+
+  private static OffsetDateTime startOfPartition(OffsetDateTime date, Granularity granularity) {
+    OffsetDateTime day = date.truncatedTo(ChronoUnit.DAYS);
+    switch (granularity) {
+      case DAILY:
+        return day;
+      case MONTHLY:
+        return day.withDayOfMonth(1);
+      default:
+        throw new IllegalStateException(
+            String.format("Unsupported event partition granularity: %s", granularity));
+    }
+  }
 }
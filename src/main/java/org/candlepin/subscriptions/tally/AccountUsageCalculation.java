@@ -63,10 +63,8 @@ public class AccountUsageCalculation {
   }
 
   public void addCalculation(UsageCalculation calc) {
-    String productId = calc.getProductId();
-    this.calculations.put(
-        new UsageCalculation.Key(productId, calc.getSla(), calc.getUsage()), calc);
-    this.products.add(productId);
+    this.calculations.put(calc.getKey(), calc);
+    this.products.add(calc.getProductId());
   }
 
   public void addUsage(
@@ -79,6 +77,16 @@ public class AccountUsageCalculation {
     products.add(key.getProductId());
   }
 
+  /**
+   * Adds all calculations from another calculation of the same account into this one.
+   *
+   * @param other the partial calculation to merge.
+   */
+  public void merge(AccountUsageCalculation other) {
+    other.calculations.forEach((key, calc) -> getOrCreateCalculation(key).merge(calc));
+    products.addAll(other.products);
+  }
+
   public boolean containsCalculation(UsageCalculation.Key key) {
     return this.calculations.containsKey(key);
   }
@@ -118,7 +118,7 @@ public class CloudigradeAccountUsageCollector {
     if (usageCount.getUsage() == null) {
       usage = Usage._ANY;
     }
-    return new UsageCalculation.Key(productId, sla, usage);
+    return UsageCalculation.Key.of(productId, sla, usage);
   }
 
   private String extractProductId(
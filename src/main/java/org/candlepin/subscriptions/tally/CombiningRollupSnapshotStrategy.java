@@ -23,10 +23,10 @@ package org.candlepin.subscriptions.tally;
 import java.time.OffsetDateTime;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
@@ -35,6 +35,7 @@ import java.util.function.DoubleBinaryOperator;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 import org.candlepin.subscriptions.db.TallySnapshotRepository;
+import org.candlepin.subscriptions.db.TallySnapshotSpecification;
 import org.candlepin.subscriptions.db.model.Granularity;
 import org.candlepin.subscriptions.db.model.HardwareMeasurementType;
 import org.candlepin.subscriptions.db.model.TallyMeasurementKey;
@@ -44,6 +45,8 @@ import org.candlepin.subscriptions.util.DateRange;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.data.jpa.domain.Specification;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
@@ -63,16 +66,19 @@ public class CombiningRollupSnapshotStrategy {
   private final TallySnapshotRepository tallyRepo;
   private final SnapshotSummaryProducer summaryProducer;
   private final ApplicationClock clock;
+  private final ApplicationEventPublisher eventPublisher;
 
   @Autowired
   public CombiningRollupSnapshotStrategy(
       TallySnapshotRepository tallyRepo,
       SnapshotSummaryProducer summaryProducer,
-      ApplicationClock clock) {
+      ApplicationClock clock,
+      ApplicationEventPublisher eventPublisher) {
 
     this.tallyRepo = tallyRepo;
     this.summaryProducer = summaryProducer;
     this.clock = clock;
+    this.eventPublisher = eventPublisher;
   }
 
   /**
@@ -133,10 +139,18 @@ public class CombiningRollupSnapshotStrategy {
             .flatMap(List::stream)
             .collect(Collectors.toList());
 
+    // Snapshots are written in one batch once everything has been rolled up, keyed so that each
+    // snapshot is written at most once.
+    Map<TallySnapshotNaturalKey, TallySnapshot> pendingWrites = new LinkedHashMap<>();
+    Stream.of(finestGranularitySnapshots, rollupSnapshots)
+        .flatMap(List::stream)
+        .forEach(snapshot -> pendingWrites.put(new TallySnapshotNaturalKey(snapshot), snapshot));
+    log.debug("Writing {} snapshots for account {}.", pendingWrites.size(), accountNumber);
+
     Map<String, List<TallySnapshot>> totalSnapshots =
-        Stream.of(finestGranularitySnapshots, rollupSnapshots)
-            .flatMap(List::stream)
+        tallyRepo.upsertAll(pendingWrites.values()).stream()
             .collect(Collectors.groupingBy(TallySnapshot::getAccountNumber));
+    eventPublisher.publishEvent(new TallySnapshotsCommittedEvent(totalSnapshots.keySet()));
 
     summaryProducer.produceTallySummaryMessages(totalSnapshots);
 
@@ -150,17 +164,14 @@ public class CombiningRollupSnapshotStrategy {
       Map<TallySnapshotNaturalKey, TallySnapshot> totalExistingSnapshots,
       Map<TallySnapshotNaturalKey, List<TallySnapshot>> derivedExistingSnapshots,
       Set<String> swatchProductIds) {
+    Specification<TallySnapshot> periods = null;
     for (Granularity granularity : GRANULARITIES) {
       Granularity rollupGranularity = calculateNextGranularity(granularity);
 
-      boolean granularityWillBeRolledUp =
-          Arrays.asList(GRANULARITIES).contains(rollupGranularity)
-              && Objects.nonNull(rollupGranularity);
-
       OffsetDateTime effectiveStartTime;
       OffsetDateTime effectiveEndTime;
 
-      if (granularityWillBeRolledUp) {
+      if (willBeRolledUp(granularity)) {
         // need to fetch all component snapshots of the rollups affected
         effectiveStartTime = clock.calculateStartOfRange(startDateTime, rollupGranularity);
         effectiveEndTime = clock.calculateEndOfRange(endDateTime, rollupGranularity);
@@ -169,14 +180,22 @@ public class CombiningRollupSnapshotStrategy {
         effectiveEndTime = endDateTime;
       }
 
+      Specification<TallySnapshot> period =
+          TallySnapshotSpecification.granularityPeriod(
+              granularity, swatchProductIds, effectiveStartTime, effectiveEndTime);
+      periods = Objects.isNull(periods) ? period : periods.or(period);
+    }
+
+    Map<Granularity, List<TallySnapshot>> existingByGranularity =
+        tallyRepo
+            .findAll(
+                TallySnapshotSpecification.accountNumberIn(List.of(accountNumber)).and(periods))
+            .stream()
+            .collect(Collectors.groupingBy(TallySnapshot::getGranularity));
+
+    for (Granularity granularity : GRANULARITIES) {
       var existingSnapshots =
-          getCurrentSnapshotsByAccount(
-                  List.of(accountNumber),
-                  swatchProductIds,
-                  granularity,
-                  effectiveStartTime,
-                  effectiveEndTime)
-              .getOrDefault(accountNumber, Collections.emptyList());
+          existingByGranularity.getOrDefault(granularity, Collections.emptyList());
 
       existingSnapshots.forEach(
           snap -> {
@@ -187,7 +206,8 @@ public class CombiningRollupSnapshotStrategy {
             totalExistingSnapshots.put(key, snap);
           });
 
-      if (granularityWillBeRolledUp) {
+      if (willBeRolledUp(granularity)) {
+        Granularity rollupGranularity = calculateNextGranularity(granularity);
         derivedExistingSnapshots.putAll(
             existingSnapshots.stream()
                 .collect(Collectors.groupingBy(s -> calculateRollupKey(rollupGranularity, s))));
@@ -195,6 +215,12 @@ public class CombiningRollupSnapshotStrategy {
     }
   }
 
+  private boolean willBeRolledUp(Granularity granularity) {
+    Granularity rollupGranularity = calculateNextGranularity(granularity);
+    return Arrays.asList(GRANULARITIES).contains(rollupGranularity)
+        && Objects.nonNull(rollupGranularity);
+  }
+
   private Set<String> getSwatchProductIds(
       Map<OffsetDateTime, AccountUsageCalculation> accountCalcs) {
     return accountCalcs.values().stream()
@@ -203,20 +229,6 @@ public class CombiningRollupSnapshotStrategy {
         .collect(Collectors.toSet());
   }
 
-  @SuppressWarnings("indentation")
-  protected Map<String, List<TallySnapshot>> getCurrentSnapshotsByAccount(
-      Collection<String> accounts,
-      Collection<String> products,
-      Granularity granularity,
-      OffsetDateTime begin,
-      OffsetDateTime end) {
-    try (Stream<TallySnapshot> snapStream =
-        tallyRepo.findByAccountNumberInAndProductIdInAndGranularityAndSnapshotDateBetween(
-            accounts, products, granularity, begin, end)) {
-      return snapStream.collect(Collectors.groupingBy(TallySnapshot::getAccountNumber));
-    }
-  }
-
   protected void populateSnapshotFromProductUsageCalculation(
       TallySnapshot snapshot,
       String account,
@@ -269,7 +281,7 @@ public class CombiningRollupSnapshotStrategy {
       Map<OffsetDateTime, AccountUsageCalculation> accountCalcs,
       Granularity granularity) {
 
-    List<TallySnapshot> saved = new ArrayList<>();
+    List<TallySnapshot> produced = new ArrayList<>();
 
     accountCalcs.forEach(
         (offset, accountCalc) -> {
@@ -296,10 +308,10 @@ public class CombiningRollupSnapshotStrategy {
                 granularity);
 
             snapshot.setSnapshotDate(offset);
-            saved.add(tallyRepo.save(snapshot));
+            produced.add(snapshot);
           }
         });
-    return saved;
+    return produced;
   }
 
   private List<TallySnapshot> produceRollups(
@@ -347,7 +359,7 @@ public class CombiningRollupSnapshotStrategy {
     allContributingSnapshots.forEach(
         snapshot -> {
           var identifier =
-              new UsageCalculation.Key(
+              UsageCalculation.Key.of(
                   snapshot.getProductId(), snapshot.getServiceLevel(), snapshot.getUsage());
           reducedMeasurements.computeIfAbsent(identifier, i -> new HashMap<>());
           Map<TallyMeasurementKey, Double> measurements = reducedMeasurements.get(identifier);
@@ -384,7 +396,7 @@ public class CombiningRollupSnapshotStrategy {
       Granularity granularity,
       Map<UsageCalculation.Key, Map<TallyMeasurementKey, Double>> reducedMeasurements,
       TallySnapshot firstFinestGranularitySnapshot) {
-    List<TallySnapshot> saved = new ArrayList<>();
+    List<TallySnapshot> produced = new ArrayList<>();
 
     reducedMeasurements.forEach(
         (usageKey, measurements) -> {
@@ -415,9 +427,9 @@ public class CombiningRollupSnapshotStrategy {
                   snapshot.setMeasurement(
                       measurementKey.getMeasurementType(), measurementKey.getUom(), value));
 
-          saved.add(tallyRepo.save(snapshot));
+          produced.add(snapshot);
         });
 
-    return saved;
+    return produced;
   }
 }
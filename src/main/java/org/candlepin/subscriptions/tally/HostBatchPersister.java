@@ -0,0 +1,112 @@
+/*
+ * Copyright Red Hat, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * Red Hat trademarks are not licensed under GPLv3. No permission is
+ * granted to use or replicate Red Hat trademarks that are incorporated
+ * in this software or its documentation.
+ */
+package org.candlepin.subscriptions.tally;
+
+import io.micrometer.core.instrument.Counter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import org.candlepin.subscriptions.db.HostRepository;
+import org.candlepin.subscriptions.db.model.Host;
+
+/**
+ * Persists hosts produced by a tally in batches, skipping hosts whose content did not change.
+ *
+ * <p>Hosts are compared against the previously persisted record with the same inventory ID. When
+ * their fingerprints match nothing is written; otherwise the changes are applied to the persisted
+ * record. Changed and new hosts are queued and flushed once the configured batch size is reached,
+ * so that Hibernate can group the statements into JDBC batches.
+ *
+ * <p>Not thread-safe; must be used from the thread that owns the current transaction.
+ */
+class HostBatchPersister {
+
+  private final HostRepository hostRepository;
+  private final Map<String, Host> existingHosts;
+  private final int batchSize;
+  private final Counter unchangedHosts;
+  private List<Host> pending;
+  private int unchangedCount;
+  private int writtenCount;
+
+  /**
+   * @param hostRepository repository used to persist hosts
+   * @param existingHosts the previously persisted hosts, keyed by inventory ID
+   * @param batchSize number of changed hosts to queue before flushing
+   * @param unchangedHosts counter incremented for every host that is skipped
+   */
+  HostBatchPersister(
+      HostRepository hostRepository,
+      Map<String, Host> existingHosts,
+      int batchSize,
+      Counter unchangedHosts) {
+    this.hostRepository = hostRepository;
+    this.existingHosts = existingHosts;
+    this.batchSize = Math.max(1, batchSize);
+    this.unchangedHosts = unchangedHosts;
+    this.pending = new ArrayList<>(this.batchSize);
+  }
+
+  /**
+   * Queue a host for persistence, if its content differs from the persisted record.
+   *
+   * @param host a host built from the latest inventory facts
+   */
+  public void persist(Host host) {
+    Host existing = host.getInventoryId() == null ? null : existingHosts.get(host.getInventoryId());
+    Host toSave = host;
+    if (existing != null) {
+      HostFingerprint original = HostFingerprint.of(existing);
+      existing.updateFrom(host);
+      if (original.equals(HostFingerprint.of(existing))) {
+        unchangedCount++;
+        unchangedHosts.increment();
+        return;
+      }
+      toSave = existing;
+    }
+
+    pending.add(toSave);
+    if (pending.size() >= batchSize) {
+      flush();
+    }
+  }
+
+  /** Write all queued hosts to the database. */
+  public void flush() {
+    if (pending.isEmpty()) {
+      return;
+    }
+    List<Host> batch = pending;
+    pending = new ArrayList<>(batchSize);
+    hostRepository.saveAll(batch);
+    hostRepository.flush();
+    writtenCount += batch.size();
+  }
+
+  public int getUnchangedCount() {
+    return unchangedCount;
+  }
+
+  public int getWrittenCount() {
+    return writtenCount;
+  }
+}
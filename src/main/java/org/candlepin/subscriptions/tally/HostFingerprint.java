@@ -0,0 +1,104 @@
+/*
+ * Copyright Red Hat, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * Red Hat trademarks are not licensed under GPLv3. No permission is
+ * granted to use or replicate Red Hat trademarks that are incorporated
+ * in this software or its documentation.
+ */
+package org.candlepin.subscriptions.tally;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.stream.Collectors;
+import org.candlepin.subscriptions.db.model.Host;
+import org.candlepin.subscriptions.db.model.HostTallyBucket;
+import org.candlepin.subscriptions.json.Measurement;
+
+/**
+ * Captures the persisted content of a host and its buckets, so that two versions of a host can be
+ * compared to determine whether anything needs to be written.
+ *
+ * <p>Database identifiers are deliberately excluded; only the values that come from inventory and
+ * the tally are part of the fingerprint.
+ */
+final class HostFingerprint {
+
+  private final List<Object> fields;
+  private final Map<Measurement.Uom, Double> measurements;
+  private final Set<List<Object>> buckets;
+
+  private HostFingerprint(Host host) {
+    this.fields =
+        Arrays.asList(
+            host.getInstanceId(),
+            host.getInventoryId(),
+            host.getInsightsId(),
+            host.getDisplayName(),
+            host.getAccountNumber(),
+            host.getOrgId(),
+            host.getSubscriptionManagerId(),
+            host.isGuest(),
+            host.getHypervisorUuid(),
+            host.getHardwareType(),
+            host.getNumOfGuests(),
+            host.getLastSeen(),
+            host.isUnmappedGuest(),
+            host.isHypervisor(),
+            host.getCloudProvider(),
+            host.getInstanceType());
+    this.measurements = new HashMap<>(host.getMeasurements());
+    this.buckets =
+        host.getBuckets().stream().map(HostFingerprint::bucketContent).collect(Collectors.toSet());
+  }
+
+  public static HostFingerprint of(Host host) {
+    return new HostFingerprint(host);
+  }
+
+  private static List<Object> bucketContent(HostTallyBucket bucket) {
+    return Arrays.asList(
+        bucket.getKey().getProductId(),
+        bucket.getKey().getSla(),
+        bucket.getKey().getUsage(),
+        bucket.getKey().getAsHypervisor(),
+        bucket.getCores(),
+        bucket.getSockets(),
+        bucket.getMeasurementType());
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) {
+      return true;
+    }
+    if (o == null || getClass() != o.getClass()) {
+      return false;
+    }
+    HostFingerprint that = (HostFingerprint) o;
+    return fields.equals(that.fields)
+        && measurements.equals(that.measurements)
+        && buckets.equals(that.buckets);
+  }
+
+  @Override
+  public int hashCode() {
+    return Objects.hash(fields, measurements, buckets);
+  }
+}
@@ -0,0 +1,198 @@
+/*
+ * Copyright Red Hat, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * Red Hat trademarks are not licensed under GPLv3. No permission is
+ * granted to use or replicate Red Hat trademarks that are incorporated
+ * in this software or its documentation.
+ */
+package org.candlepin.subscriptions.tally;
+
+import java.time.Duration;
+import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import org.candlepin.subscriptions.ApplicationProperties;
+import org.candlepin.subscriptions.inventory.db.InventoryDatabaseOperations;
+import org.candlepin.subscriptions.util.ApplicationClock;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+/**
+ * Caches the hypervisor mappings reported in inventory per account, so that tallies don't repeat
+ * the expensive reported hypervisors query. An account's mapping is loaded in full once per cache
+ * TTL (the tally window); the tallies in between only query the mappings whose guest or hypervisor
+ * host was modified since the previous tally, and apply them to the cached mapping. Accounts are
+ * loaded or refreshed together, in a single query each.
+ *
+ * <p>Hosts removed from inventory leave no modified row behind, so their mappings linger until the
+ * next full load, or until the account is evicted, e.g. by a tally that removed a guest or a
+ * hypervisor.
+ *
+ * <p>Each account's mapping is held in an immutable, array-backed map. Since such maps don't allow
+ * null values, hypervisors that were not reported as hosts are stored with an empty
+ * subscription-manager ID and translated back to null when the mapping is read.
+ */
+@Component
+public class HypervisorMappingCache {
+
+  private static final Logger log = LoggerFactory.getLogger(HypervisorMappingCache.class);
+
+  private static final String UNREPORTED = "";
+
+  /**
+   * Margin subtracted from the time of the last refresh when querying changed mappings, so that
+   * hosts committed by inventory out of modified_on order are not missed.
+   */
+  private static final Duration MODIFIED_ON_OVERLAP = Duration.ofMinutes(5);
+
+  private final InventoryDatabaseOperations inventory;
+  private final ApplicationClock clock;
+  private final Duration ttl;
+  private final Map<String, AccountMapping> cache = new ConcurrentHashMap<>();
+
+  public HypervisorMappingCache(
+      InventoryDatabaseOperations inventory, ApplicationClock clock, ApplicationProperties props) {
+    this.inventory = inventory;
+    this.clock = clock;
+    this.ttl = props.getHypervisorMappingCacheTtl();
+  }
+
+  /**
+   * Get the mapping of hypervisor ID to the hypervisor host's subscription-manager ID reported by
+   * the guests of the given accounts. If the hypervisor hasn't been reported, the value is null.
+   *
+   * @param accounts the accounts to get the mapping for.
+   * @return a mapping suitable for FactNormalizer.normalize
+   */
+  public Map<String, String> getMapping(Collection<String> accounts) {
+    OffsetDateTime now = clock.now();
+    List<Map<String, String>> accountMappings = new ArrayList<>();
+    List<String> expired = new ArrayList<>();
+    Map<String, AccountMapping> cached = new HashMap<>();
+    for (String account : accounts) {
+      AccountMapping accountMapping = cache.get(account);
+      if (accountMapping != null && accountMapping.loaded.plus(ttl).isAfter(now)) {
+        cached.put(account, accountMapping);
+      } else {
+        expired.add(account);
+      }
+    }
+    if (!cached.isEmpty()) {
+      accountMappings.addAll(refresh(cached, now));
+    }
+    if (!expired.isEmpty()) {
+      accountMappings.addAll(load(expired, now));
+    }
+
+    Map<String, String> mapping = new HashMap<>();
+    accountMappings.forEach(
+        accountMapping ->
+            accountMapping.forEach(
+                (hypervisorId, subscriptionManagerId) ->
+                    mapping.put(
+                        hypervisorId,
+                        UNREPORTED.equals(subscriptionManagerId) ? null : subscriptionManagerId)));
+    return mapping;
+  }
+
+  /**
+   * Drops the cached mapping of an account, so that it is loaded in full by its next tally.
+   *
+   * @param account the account to evict.
+   */
+  public void evict(String account) {
+    cache.remove(account);
+  }
+
+  private Collection<Map<String, String>> load(List<String> accounts, OffsetDateTime now) {
+    Map<String, Map<String, String>> reportedByAccount = new HashMap<>();
+    accounts.forEach(account -> reportedByAccount.put(account, new HashMap<>()));
+    inventory.reportedHypervisors(accounts, reported -> put(reportedByAccount, reported));
+    log.debug("Loaded hypervisor mappings for {} accounts.", accounts.size());
+
+    List<Map<String, String>> loaded = new ArrayList<>();
+    cache.values().removeIf(accountMapping -> !accountMapping.loaded.plus(ttl).isAfter(now));
+    reportedByAccount.forEach(
+        (account, reported) -> {
+          Map<String, String> accountMapping = Map.copyOf(reported);
+          loaded.add(accountMapping);
+          if (!ttl.isZero()) {
+            cache.put(account, new AccountMapping(accountMapping, now, now));
+          }
+        });
+    return loaded;
+  }
+
+  private Collection<Map<String, String>> refresh(
+      Map<String, AccountMapping> cached, OffsetDateTime now) {
+    OffsetDateTime since =
+        cached.values().stream()
+            .map(accountMapping -> accountMapping.refreshed)
+            .min(OffsetDateTime::compareTo)
+            .orElse(now)
+            .minus(MODIFIED_ON_OVERLAP);
+    Map<String, Map<String, String>> changedByAccount = new HashMap<>();
+    inventory.reportedHypervisorsChangedSince(
+        cached.keySet(), since, reported -> put(changedByAccount, reported));
+    log.debug(
+        "Refreshed hypervisor mappings of {} accounts with {} changed accounts.",
+        cached.size(),
+        changedByAccount.size());
+
+    List<Map<String, String>> refreshed = new ArrayList<>();
+    cached.forEach(
+        (account, accountMapping) -> {
+          Map<String, String> changed = changedByAccount.get(account);
+          Map<String, String> mapping = accountMapping.mapping;
+          if (changed != null) {
+            Map<String, String> merged = new HashMap<>(mapping);
+            merged.putAll(changed);
+            mapping = Map.copyOf(merged);
+          }
+          refreshed.add(mapping);
+          cache.put(account, new AccountMapping(mapping, accountMapping.loaded, now));
+        });
+    return refreshed;
+  }
+
+  private static void put(Map<String, Map<String, String>> byAccount, Object[] reported) {
+    String subscriptionManagerId = (String) reported[1];
+    byAccount
+        .computeIfAbsent((String) reported[2], account -> new HashMap<>())
+        .put(
+            (String) reported[0],
+            subscriptionManagerId == null ? UNREPORTED : subscriptionManagerId);
+  }
+
+  /** The cached mapping of an account, with when it was last loaded in full and refreshed. */
+  private static class AccountMapping {
+    private final Map<String, String> mapping;
+    private final OffsetDateTime loaded;
+    private final OffsetDateTime refreshed;
+
+    private AccountMapping(
+        Map<String, String> mapping, OffsetDateTime loaded, OffsetDateTime refreshed) {
+      this.mapping = mapping;
+      this.loaded = loaded;
+      this.refreshed = refreshed;
+    }
+  }
+}
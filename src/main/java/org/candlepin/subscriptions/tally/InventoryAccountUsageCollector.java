@@ -22,23 +22,40 @@ package org.candlepin.subscriptions.tally;
 
 import io.micrometer.core.instrument.Counter;
 import io.micrometer.core.instrument.MeterRegistry;
+import java.time.Duration;
+import java.time.OffsetDateTime;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Deque;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
 import java.util.function.Function;
 import java.util.stream.Collectors;
+import javax.annotation.PreDestroy;
 import org.candlepin.subscriptions.ApplicationProperties;
+import org.candlepin.subscriptions.db.AccountTallyStateRepository;
 import org.candlepin.subscriptions.db.HostRepository;
+import org.candlepin.subscriptions.db.model.AccountTallyState;
 import org.candlepin.subscriptions.db.model.Host;
+import org.candlepin.subscriptions.db.model.HostBucketKey;
 import org.candlepin.subscriptions.db.model.HostTallyBucket;
 import org.candlepin.subscriptions.db.model.ServiceLevel;
 import org.candlepin.subscriptions.db.model.Usage;
 import org.candlepin.subscriptions.inventory.db.InventoryDatabaseOperations;
+import org.candlepin.subscriptions.inventory.db.model.InventoryHostFacts;
 import org.candlepin.subscriptions.tally.collector.ProductUsageCollector;
 import org.candlepin.subscriptions.tally.collector.ProductUsageCollectorFactory;
 import org.candlepin.subscriptions.tally.facts.FactNormalizer;
@@ -49,32 +66,83 @@ import org.springframework.stereotype.Component;
 import org.springframework.transaction.annotation.Transactional;
 import org.springframework.util.StringUtils;
 
-/** Collects the max values from all accounts in the inventory. */
+/**
+ * Collects the max values from all accounts in the inventory.
+ *
+ * <p>When configured with more than one host processing thread, the inventory hosts are split into
+ * shards that are normalized and bucketed concurrently. Each shard produces its own partial
+ * calculations, which are merged in shard order on the calling thread, so the results are identical
+ * to processing the hosts serially. Hosts are always persisted from the calling thread so that they
+ * participate in the collection's transaction.
+ *
+ * <p>Hosts are persisted through a {@link HostBatchPersister}, which skips hosts whose content did
+ * not change since the last tally and writes the remaining ones in batches.
+ *
+ * <p>When incremental tallies are enabled, accounts are periodically tallied from scratch; in
+ * between, only the inventory hosts modified since the account's last tally (plus the hypervisors
+ * they belong to and all of those hypervisors' guests, whose usage depends on each other) are
+ * normalized. Unchanged hosts are applied from their persisted buckets, which are committed along
+ * with the account's high-water mark.
+ */
 @Component
 public class InventoryAccountUsageCollector {
 
   private static final Logger log = LoggerFactory.getLogger(InventoryAccountUsageCollector.class);
 
+  /**
+   * Margin subtracted from an account's high-water mark when querying changed hosts, so that hosts
+   * committed by inventory out of modified_on order are not missed. Re-processing a host is
+   * harmless.
+   */
+  private static final Duration MODIFIED_ON_OVERLAP = Duration.ofMinutes(5);
+
   private final FactNormalizer factNormalizer;
   private final InventoryDatabaseOperations inventory;
+  private final HypervisorMappingCache hypervisorMappingCache;
   private final HostRepository hostRepository;
+  private final AccountTallyStateRepository tallyStateRepository;
   private final int culledOffsetDays;
+  private final int hostProcessingThreads;
+  private final int hostProcessingShardSize;
+  private final int hostPersistenceBatchSize;
+  private final boolean incrementalTallyEnabled;
+  private final Duration fullTallyInterval;
+  private final ExecutorService hostProcessingExecutor;
   private final Counter totalHosts;
+  private final Counter unchangedHosts;
 
   public InventoryAccountUsageCollector(
       FactNormalizer factNormalizer,
       InventoryDatabaseOperations inventory,
+      HypervisorMappingCache hypervisorMappingCache,
       HostRepository hostRepository,
+      AccountTallyStateRepository tallyStateRepository,
       ApplicationProperties props,
       MeterRegistry meterRegistry) {
     this.factNormalizer = factNormalizer;
     this.inventory = inventory;
+    this.hypervisorMappingCache = hypervisorMappingCache;
     this.hostRepository = hostRepository;
+    this.tallyStateRepository = tallyStateRepository;
     this.culledOffsetDays = props.getCullingOffsetDays();
+    this.hostProcessingThreads = props.getHostProcessingThreads();
+    this.hostProcessingShardSize = Math.max(1, props.getHostProcessingShardSize());
+    this.hostPersistenceBatchSize = props.getHostPersistenceBatchSize();
+    this.incrementalTallyEnabled = props.isIncrementalTallyEnabled();
+    this.fullTallyInterval = props.getFullTallyInterval();
+    this.hostProcessingExecutor =
+        hostProcessingThreads > 1 ? Executors.newFixedThreadPool(hostProcessingThreads) : null;
     this.totalHosts = meterRegistry.counter("rhsm-subscriptions.tally.hbi_hosts");
+    this.unchangedHosts = meterRegistry.counter("rhsm-subscriptions.tally.hbi_hosts.unchanged");
+  }
+
+  @PreDestroy
+  protected void destroy() {
+    if (hostProcessingExecutor != null) {
+      hostProcessingExecutor.shutdownNow();
+    }
   }
 
-  @SuppressWarnings("squid:S3776")
   @Transactional
   public Map<String, AccountUsageCalculation> collect(
       Collection<String> products, Collection<String> accounts) {
@@ -85,128 +153,401 @@ public class InventoryAccountUsageCollector {
             .filter(host -> host.getInventoryId() != null)
             .collect(
                 Collectors.toMap(
-                    Host::getInventoryId, Function.identity(), this::handleDuplicateHost));
+                    Host::getInventoryId,
+                    Function.identity(),
+                    this::handleDuplicateHost,
+                    ConcurrentHashMap::new));
 
-    Map<String, String> hypMapping = new HashMap<>();
-    Map<String, Set<UsageCalculation.Key>> hypervisorUsageKeys = new HashMap<>();
-    Map<String, Map<String, NormalizedFacts>> accountHypervisorFacts = new HashMap<>();
-    Map<String, Host> hypervisorHosts = new HashMap<>();
-    Map<String, Integer> hypervisorGuestCounts = new HashMap<>();
+    HostBatchPersister persister =
+        new HostBatchPersister(
+            hostRepository,
+            new HashMap<>(inventoryHostMap),
+            hostPersistenceBatchSize,
+            unchangedHosts);
 
-    inventory.reportedHypervisors(
-        accounts, reported -> hypMapping.put((String) reported[0], (String) reported[1]));
+    Map<String, String> hypMapping = hypervisorMappingCache.getMapping(accounts);
     log.info("Found {} reported hypervisors.", hypMapping.size());
 
-    Map<String, AccountUsageCalculation> calcsByAccount = new HashMap<>();
-    inventory.processHostFacts(
-        accounts,
-        culledOffsetDays,
-        hostFacts -> {
-          String account = hostFacts.getAccount();
-
-          calcsByAccount.putIfAbsent(account, new AccountUsageCalculation(account));
-
-          AccountUsageCalculation accountCalc = calcsByAccount.get(account);
-          NormalizedFacts facts = factNormalizer.normalize(hostFacts, hypMapping);
-
-          // Validate and set the owner.
-          // Don't set null owner as it may overwrite an existing value.
-          // Likely won't happen, but there could be stale data in inventory
-          // with no owner set.
-          String owner = facts.getOwner();
-          if (owner != null) {
-            String currentOwner = accountCalc.getOwner();
-            if (currentOwner != null && !currentOwner.equalsIgnoreCase(owner)) {
-              throw new IllegalStateException(
-                  String.format(
-                      "Attempt to set a different owner for an account: %s:%s",
-                      currentOwner, owner));
-            }
-            accountCalc.setOwner(owner);
-          }
+    OffsetDateTime tallyStart = OffsetDateTime.now();
+    Map<String, AccountTallyState> tallyStates = getTallyStates(accounts);
+    Set<String> incrementalAccounts =
+        selectIncrementalAccounts(tallyStates, existing, hypMapping, tallyStart);
+    Collection<String> fullAccounts =
+        incrementalAccounts.isEmpty()
+            ? accounts
+            : accounts.stream()
+                .filter(account -> !incrementalAccounts.contains(account))
+                .collect(Collectors.toList());
 
-          Host existingHost = inventoryHostMap.remove(hostFacts.getInventoryId().toString());
-          Host host = existingHost == null ? new Host(hostFacts, facts) : existingHost;
-          if (existingHost != null) {
-            host.getBuckets().clear(); // ensure we recalculate to remove any stale buckets
-            host.populateFieldsFromHbi(hostFacts, facts);
-          }
+    HostCollectionState state = new HostCollectionState();
+    if (!fullAccounts.isEmpty()) {
+      collectHosts(
+          state,
+          products,
+          hypMapping,
+          inventoryHostMap,
+          persister,
+          consumer -> inventory.processHostFacts(fullAccounts, culledOffsetDays, consumer));
+    }
+    for (String account : incrementalAccounts) {
+      OffsetDateTime since =
+          tallyStates.get(account).getHostModifiedOn().minus(MODIFIED_ON_OVERLAP);
+      log.info("Tallying hosts of account {} changed since {}.", account, since);
+      collectHosts(
+          state,
+          products,
+          hypMapping,
+          inventoryHostMap,
+          persister,
+          consumer ->
+              inventory.processChangedHostFacts(account, since, culledOffsetDays, consumer));
+      List<String> regroupedHostIds = regroupedHostIds(state, account, inventoryHostMap);
+      if (!regroupedHostIds.isEmpty()) {
+        collectHosts(
+            state,
+            products,
+            hypMapping,
+            inventoryHostMap,
+            persister,
+            consumer ->
+                inventory.processHostFacts(account, regroupedHostIds, culledOffsetDays, consumer));
+      }
+      List<String> uncollectedHostIds =
+          collectUnchangedHosts(state, products, account, inventoryHostMap);
+      if (!uncollectedHostIds.isEmpty()) {
+        collectHosts(
+            state,
+            products,
+            hypMapping,
+            inventoryHostMap,
+            persister,
+            consumer ->
+                inventory.processHostFacts(
+                    account, uncollectedHostIds, culledOffsetDays, consumer));
+      }
+    }
 
-          if (facts.isHypervisor()) {
-            Map<String, NormalizedFacts> idToHypervisorMap =
-                accountHypervisorFacts.computeIfAbsent(account, a -> new HashMap<>());
-            idToHypervisorMap.put(hostFacts.getSubscriptionManagerId(), facts);
-            hypervisorHosts.put(hostFacts.getSubscriptionManagerId(), host);
-          } else if (facts.isVirtual() && !StringUtils.isEmpty(facts.getHypervisorUuid())) {
-            Integer guests = hypervisorGuestCounts.getOrDefault(host.getHypervisorUuid(), 0);
-            hypervisorGuestCounts.put(host.getHypervisorUuid(), ++guests);
-          }
+    // apply data from guests to hypervisor records
+    collectHypervisorGuestData(state);
 
-          ServiceLevel[] slas = new ServiceLevel[] {facts.getSla(), ServiceLevel._ANY};
-          Usage[] usages = new Usage[] {facts.getUsage(), Usage._ANY};
-
-          // Calculate for each UsageKey
-          products.forEach(
-              product -> {
-                for (ServiceLevel sla : slas) {
-                  for (Usage usage : usages) {
-                    UsageCalculation.Key key = new UsageCalculation.Key(product, sla, usage);
-                    UsageCalculation calc = accountCalc.getOrCreateCalculation(key);
-                    if (facts.getProducts().contains(product)) {
-                      try {
-                        String hypervisorUuid = facts.getHypervisorUuid();
-                        if (hypervisorUuid != null) {
-                          Set<UsageCalculation.Key> keys =
-                              hypervisorUsageKeys.computeIfAbsent(
-                                  hypervisorUuid, uuid -> new HashSet<>());
-                          keys.add(key);
-                        }
-                        Optional<HostTallyBucket> appliedBucket =
-                            ProductUsageCollectorFactory.get(product).collect(calc, facts);
-                        appliedBucket.ifPresent(host::addBucket);
-                      } catch (Exception e) {
-                        log.error(
-                            "Unable to collect usage data for host: {} product: {}",
-                            hostFacts.getSubscriptionManagerId(),
-                            product,
-                            e);
-                      }
-                    }
-                  }
-                }
-              });
+    log.info(
+        "Removing {} stale host records (HBI records no longer present).", inventoryHostMap.size());
+    // Removed guests and hypervisors leave mappings behind that only a full load drops.
+    inventoryHostMap.values().stream()
+        .filter(host -> host.isHypervisor() || host.getHypervisorUuid() != null)
+        .map(Host::getAccountNumber)
+        .distinct()
+        .forEach(hypervisorMappingCache::evict);
+    hostRepository.deleteAll(inventoryHostMap.values());
 
-          // Save the host now that the buckets have been determined. Hypervisor hosts will
-          // be persisted once all potential guests have been processed.
-          if (!facts.isHypervisor()) {
-            hostRepository.save(host);
-          }
+    if (state.hypervisorHosts.size() > 0) {
+      log.info("Persisting {} hypervisor hosts.", state.hypervisorHosts.size());
+      state.hypervisorHosts.values().forEach(persister::persist);
+    }
+    persister.flush();
+    log.info(
+        "Wrote {} changed host records, skipped {} unchanged host records.",
+        persister.getWrittenCount(),
+        persister.getUnchangedCount());
 
-          totalHosts.increment();
+    if (incrementalTallyEnabled) {
+      updateTallyStates(accounts, fullAccounts, tallyStates, state, tallyStart);
+    }
+
+    if (log.isDebugEnabled()) {
+      state.calcsByAccount.values().forEach(calc -> log.debug("Account Usage: {}", calc));
+    }
+
+    return state.calcsByAccount;
+  }
+
+  /**
+   * Feeds the inventory hosts produced by the given source through collectHost, either serially or
+   * in shards on the host processing executor.
+   */
+  private void collectHosts(
+      HostCollectionState state,
+      Collection<String> products,
+      Map<String, String> hypMapping,
+      Map<String, Host> inventoryHostMap,
+      HostBatchPersister persister,
+      Consumer<Consumer<InventoryHostFacts>> hostSource) {
+    if (hostProcessingExecutor == null) {
+      hostSource.accept(
+          hostFacts ->
+              collectHost(
+                  state,
+                  products,
+                  hostFacts,
+                  hypMapping,
+                  inventoryHostMap,
+                  persister::persist));
+    } else {
+      ShardedHostCollector shardedCollector =
+          new ShardedHostCollector(state, products, hypMapping, inventoryHostMap, persister);
+      try {
+        hostSource.accept(shardedCollector);
+        shardedCollector.finish();
+      } finally {
+        shardedCollector.cancelPending();
+      }
+    }
+  }
+
+  private Map<String, AccountTallyState> getTallyStates(Collection<String> accounts) {
+    if (!incrementalTallyEnabled) {
+      return new HashMap<>();
+    }
+    return tallyStateRepository.findAllById(accounts).stream()
+        .collect(Collectors.toMap(AccountTallyState::getAccountNumber, Function.identity()));
+  }
+
+  /**
+   * Determines which accounts can be tallied incrementally. An account must have been tallied from
+   * scratch within the full tally interval, and none of its persisted hypervisors may have lost all
+   * of their guests or have been removed from inventory, since such a hypervisor would neither be
+   * returned as changed nor be correctly rebuilt from its buckets.
+   */
+  private Set<String> selectIncrementalAccounts(
+      Map<String, AccountTallyState> tallyStates,
+      List<Host> existing,
+      Map<String, String> hypMapping,
+      OffsetDateTime tallyStart) {
+    Set<String> incrementalAccounts = new HashSet<>();
+    tallyStates.forEach(
+        (account, tallyState) -> {
+          if (tallyState.getHostModifiedOn() != null
+              && tallyState.getLastFullTally() != null
+              && tallyState.getLastFullTally().plus(fullTallyInterval).isAfter(tallyStart)) {
+            incrementalAccounts.add(account);
+          }
         });
+    existing.stream()
+        .filter(Host::isHypervisor)
+        .filter(host -> hypMapping.get(host.getSubscriptionManagerId()) == null)
+        .forEach(host -> incrementalAccounts.remove(host.getAccountNumber()));
+    return incrementalAccounts;
+  }
 
-    // apply data from guests to hypervisor records
-    collectHypervisorGuestData(
-        hypervisorUsageKeys,
-        accountHypervisorFacts,
-        hypervisorHosts,
-        hypervisorGuestCounts,
-        calcsByAccount);
+  /**
+   * Lists the uncollected hosts of an account that belong to a hypervisor a changed guest moved
+   * away from: the hypervisor and its remaining guests, whose usage no longer matches their
+   * buckets.
+   */
+  private static List<String> regroupedHostIds(
+      HostCollectionState state, String account, Map<String, Host> inventoryHostMap) {
+    if (state.formerHypervisors.isEmpty()) {
+      return Collections.emptyList();
+    }
+    return inventoryHostMap.values().stream()
+        .filter(host -> account.equals(host.getAccountNumber()))
+        .filter(
+            host ->
+                state.formerHypervisors.contains(host.getSubscriptionManagerId())
+                    || state.formerHypervisors.contains(host.getHypervisorUuid()))
+        .map(Host::getInventoryId)
+        .collect(Collectors.toList());
+  }
 
+  /**
+   * Applies the persisted buckets of the hosts of an incrementally tallied account that were not
+   * returned as changed. Persisted hosts no longer active in inventory are left in the host map, so
+   * that they get removed as stale.
+   *
+   * <p>Each host contributes to the same usage keys as it would in collectHost, which requires its
+   * SLA and usage. Those are taken from a bucket of the host not rolled up to _ANY; the IDs of
+   * hosts without such a bucket are returned so that their facts can be collected instead.
+   */
+  private List<String> collectUnchangedHosts(
+      HostCollectionState state,
+      Collection<String> products,
+      String account,
+      Map<String, Host> inventoryHostMap) {
+    Set<String> activeHostIds = inventory.activeHostIds(account, culledOffsetDays);
+    AccountUsageCalculation accountCalc =
+        state.calcsByAccount.computeIfAbsent(account, AccountUsageCalculation::new);
+    List<String> uncollectedHostIds = new ArrayList<>();
+    int unchangedCount = 0;
+    Iterator<Host> hosts = inventoryHostMap.values().iterator();
+    while (hosts.hasNext()) {
+      Host host = hosts.next();
+      if (!account.equals(host.getAccountNumber())
+          || !activeHostIds.contains(host.getInventoryId())) {
+        continue;
+      }
+      Optional<HostBucketKey> hostKey =
+          host.getBuckets().stream()
+              .map(HostTallyBucket::getKey)
+              .filter(bucketKey -> bucketKey.getSla() != ServiceLevel._ANY)
+              .filter(bucketKey -> bucketKey.getUsage() != Usage._ANY)
+              .findFirst();
+      if (hostKey.isEmpty()) {
+        uncollectedHostIds.add(host.getInventoryId());
+        continue;
+      }
+      hosts.remove();
+      applyOwner(accountCalc, host.getOrgId());
+      usageKeys(products, hostKey.get().getSla(), hostKey.get().getUsage())
+          .forEach(accountCalc::getOrCreateCalculation);
+      for (HostTallyBucket bucket : host.getBuckets()) {
+        HostBucketKey bucketKey = bucket.getKey();
+        if (products.contains(bucketKey.getProductId())) {
+          UsageCalculation.Key key =
+              UsageCalculation.Key.of(
+                  bucketKey.getProductId(), bucketKey.getSla(), bucketKey.getUsage());
+          ProductUsageCollectorFactory.get(key.getProductId())
+              .collectFromBucket(accountCalc.getOrCreateCalculation(key), bucket);
+        }
+      }
+      unchangedCount++;
+    }
     log.info(
-        "Removing {} stale host records (HBI records no longer present).", inventoryHostMap.size());
-    hostRepository.deleteAll(inventoryHostMap.values());
+        "Applied {} unchanged hosts of account {} from their buckets; collecting {} from facts.",
+        unchangedCount,
+        account,
+        uncollectedHostIds.size());
+    return uncollectedHostIds;
+  }
 
-    if (hypervisorHosts.size() > 0) {
-      log.info("Persisting {} hypervisor hosts.", hypervisorHosts.size());
-      hostRepository.saveAll(hypervisorHosts.values());
+  /**
+   * Lists the usage keys a host with the given SLA and usage contributes to: every product with
+   * both the host's values and their _ANY rollups.
+   */
+  private static List<UsageCalculation.Key> usageKeys(
+      Collection<String> products, ServiceLevel sla, Usage usage) {
+    ServiceLevel[] slas = new ServiceLevel[] {sla, ServiceLevel._ANY};
+    Usage[] usages = new Usage[] {usage, Usage._ANY};
+    List<UsageCalculation.Key> keys = new ArrayList<>();
+    for (String product : products) {
+      for (ServiceLevel keySla : slas) {
+        for (Usage keyUsage : usages) {
+          keys.add(UsageCalculation.Key.of(product, keySla, keyUsage));
+        }
+      }
     }
+    return keys;
+  }
 
-    if (log.isDebugEnabled()) {
-      calcsByAccount.values().forEach(calc -> log.debug("Account Usage: {}", calc));
+  private void updateTallyStates(
+      Collection<String> accounts,
+      Collection<String> fullAccounts,
+      Map<String, AccountTallyState> tallyStates,
+      HostCollectionState state,
+      OffsetDateTime tallyStart) {
+    for (String account : accounts) {
+      AccountTallyState tallyState = tallyStates.computeIfAbsent(account, AccountTallyState::new);
+      OffsetDateTime latestModifiedOn = state.latestModifiedOn.get(account);
+      if (latestModifiedOn != null
+          && (tallyState.getHostModifiedOn() == null
+              || latestModifiedOn.isAfter(tallyState.getHostModifiedOn()))) {
+        tallyState.setHostModifiedOn(latestModifiedOn);
+      }
+      if (fullAccounts.contains(account)) {
+        tallyState.setLastFullTally(tallyStart);
+      }
+    }
+    tallyStateRepository.saveAll(tallyStates.values());
+  }
+
+  /**
+   * Normalizes a single inventory host and applies it to the given collection state.
+   *
+   * <p>The host is always built as a new instance from the inventory facts; it is reconciled with
+   * any previously persisted record when persisted. Hypervisor hosts are tracked in the state and
+   * persisted once all potential guests have been processed; all other hosts are handed to the
+   * given consumer once their buckets are determined.
+   */
+  @SuppressWarnings("squid:S3776")
+  private void collectHost(
+      HostCollectionState state,
+      Collection<String> products,
+      InventoryHostFacts hostFacts,
+      Map<String, String> hypMapping,
+      Map<String, Host> inventoryHostMap,
+      Consumer<Host> hostPersister) {
+    String account = hostFacts.getAccount();
+
+    AccountUsageCalculation accountCalc =
+        state.calcsByAccount.computeIfAbsent(account, AccountUsageCalculation::new);
+    NormalizedFacts facts = factNormalizer.normalize(hostFacts, hypMapping);
+
+    // Validate and set the owner.
+    // Don't set null owner as it may overwrite an existing value.
+    // Likely won't happen, but there could be stale data in inventory
+    // with no owner set.
+    applyOwner(accountCalc, facts.getOwner());
+
+    if (hostFacts.getModifiedOn() != null) {
+      state.latestModifiedOn.merge(
+          account, hostFacts.getModifiedOn(), InventoryAccountUsageCollector::latest);
     }
 
-    return calcsByAccount;
+    // Any host left in the map once all facts are processed is stale.
+    Host previous = inventoryHostMap.remove(hostFacts.getInventoryId().toString());
+    Host host = new Host(hostFacts, facts);
+    if (previous != null
+        && previous.getHypervisorUuid() != null
+        && !previous.getHypervisorUuid().equals(host.getHypervisorUuid())) {
+      state.formerHypervisors.add(previous.getHypervisorUuid());
+    }
+
+    if (facts.isHypervisor()) {
+      Map<String, NormalizedFacts> idToHypervisorMap =
+          state.accountHypervisorFacts.computeIfAbsent(account, a -> new HashMap<>());
+      idToHypervisorMap.put(hostFacts.getSubscriptionManagerId(), facts);
+      state.hypervisorHosts.put(hostFacts.getSubscriptionManagerId(), host);
+    } else if (facts.isVirtual() && !StringUtils.isEmpty(facts.getHypervisorUuid())) {
+      state.hypervisorGuestCounts.merge(host.getHypervisorUuid(), 1, Integer::sum);
+    }
+
+    // Calculate for each UsageKey
+    for (UsageCalculation.Key key : usageKeys(products, facts.getSla(), facts.getUsage())) {
+      String product = key.getProductId();
+      UsageCalculation calc = accountCalc.getOrCreateCalculation(key);
+      if (facts.getProducts().contains(product)) {
+        try {
+          String hypervisorUuid = facts.getHypervisorUuid();
+          if (hypervisorUuid != null) {
+            Set<UsageCalculation.Key> keys =
+                state.hypervisorUsageKeys.computeIfAbsent(hypervisorUuid, uuid -> new HashSet<>());
+            keys.add(key);
+          }
+          Optional<HostTallyBucket> appliedBucket =
+              ProductUsageCollectorFactory.get(product).collect(calc, facts);
+          appliedBucket.ifPresent(host::addBucket);
+        } catch (Exception e) {
+          log.error(
+              "Unable to collect usage data for host: {} product: {}",
+              hostFacts.getSubscriptionManagerId(),
+              product,
+              e);
+        }
+      }
+    }
+
+    // Save the host now that the buckets have been determined. Hypervisor hosts will
+    // be persisted once all potential guests have been processed.
+    if (!facts.isHypervisor()) {
+      hostPersister.accept(host);
+    }
+
+    totalHosts.increment();
+  }
+
+  private static void applyOwner(AccountUsageCalculation accountCalc, String owner) {
+    if (owner != null) {
+      String currentOwner = accountCalc.getOwner();
+      if (currentOwner != null && !currentOwner.equalsIgnoreCase(owner)) {
+        throw new IllegalStateException(
+            String.format(
+                "Attempt to set a different owner for an account: %s:%s", currentOwner, owner));
+      }
+      accountCalc.setOwner(owner);
+    }
+  }
+
+  private static OffsetDateTime latest(OffsetDateTime a, OffsetDateTime b) {
+    return a.isAfter(b) ? a : b;
   }
 
   private Host handleDuplicateHost(Host host1, Host host2) {
@@ -215,21 +556,18 @@ public class InventoryAccountUsageCollector {
     return host1;
   }
 
-  private void collectHypervisorGuestData(
-      Map<String, Set<UsageCalculation.Key>> hypervisorUsageKeys,
-      Map<String, Map<String, NormalizedFacts>> accountHypervisorFacts,
-      Map<String, Host> hypervisorHosts,
-      Map<String, Integer> hypervisorGuestCounts,
-      Map<String, AccountUsageCalculation> calcsByAccount) {
-    accountHypervisorFacts.forEach(
+  private void collectHypervisorGuestData(HostCollectionState state) {
+    state.accountHypervisorFacts.forEach(
         (account, accountHypervisors) -> {
-          AccountUsageCalculation accountCalc = calcsByAccount.get(account);
+          AccountUsageCalculation accountCalc = state.calcsByAccount.get(account);
           accountHypervisors.forEach(
               (hypervisorUuid, hypervisor) -> {
-                Host hypHost = hypervisorHosts.get(hypervisorUuid);
-                hypHost.setNumOfGuests(hypervisorGuestCounts.getOrDefault(hypervisorUuid, 0));
+                Host hypHost = state.hypervisorHosts.get(hypervisorUuid);
+                hypHost.setNumOfGuests(
+                    state.hypervisorGuestCounts.getOrDefault(hypervisorUuid, 0));
                 Set<UsageCalculation.Key> usageKeys =
-                    hypervisorUsageKeys.getOrDefault(hypervisorUuid, Collections.emptySet());
+                    state.hypervisorUsageKeys.getOrDefault(
+                        hypervisorUuid, Collections.emptySet());
 
                 usageKeys.forEach(
                     key -> {
@@ -251,4 +589,143 @@ public class InventoryAccountUsageCollector {
         .flatMap(List::stream)
         .collect(Collectors.toList());
   }
+
+  /** Calculations and hypervisor bookkeeping gathered while processing a set of hosts. */
+  private static class HostCollectionState {
+    private final Map<String, AccountUsageCalculation> calcsByAccount = new HashMap<>();
+    private final Map<String, Set<UsageCalculation.Key>> hypervisorUsageKeys = new HashMap<>();
+    private final Map<String, Map<String, NormalizedFacts>> accountHypervisorFacts =
+        new HashMap<>();
+    private final Map<String, Host> hypervisorHosts = new HashMap<>();
+    private final Map<String, Integer> hypervisorGuestCounts = new HashMap<>();
+    private final List<Host> hostsToPersist = new ArrayList<>();
+    private final Map<String, OffsetDateTime> latestModifiedOn = new HashMap<>();
+    private final Set<String> formerHypervisors = new HashSet<>();
+
+    /**
+     * Merges the state of a shard processed after everything already in this state. Later values
+     * win for per-host entries, matching the behavior of processing the hosts serially.
+     */
+    private void merge(HostCollectionState shard) {
+      shard.calcsByAccount.forEach(
+          (account, shardCalc) -> {
+            AccountUsageCalculation accountCalc =
+                calcsByAccount.computeIfAbsent(account, AccountUsageCalculation::new);
+            applyOwner(accountCalc, shardCalc.getOwner());
+            accountCalc.merge(shardCalc);
+          });
+      shard.hypervisorUsageKeys.forEach(
+          (hypervisorUuid, keys) ->
+              hypervisorUsageKeys
+                  .computeIfAbsent(hypervisorUuid, uuid -> new HashSet<>())
+                  .addAll(keys));
+      shard.accountHypervisorFacts.forEach(
+          (account, hypervisorFacts) ->
+              accountHypervisorFacts
+                  .computeIfAbsent(account, a -> new HashMap<>())
+                  .putAll(hypervisorFacts));
+      hypervisorHosts.putAll(shard.hypervisorHosts);
+      shard.hypervisorGuestCounts.forEach(
+          (hypervisorUuid, count) ->
+              hypervisorGuestCounts.merge(hypervisorUuid, count, Integer::sum));
+      shard.latestModifiedOn.forEach(
+          (account, modifiedOn) ->
+              latestModifiedOn.merge(
+                  account, modifiedOn, InventoryAccountUsageCollector::latest));
+      formerHypervisors.addAll(shard.formerHypervisors);
+    }
+  }
+
+  /**
+   * Splits the inventory host stream into shards processed by the host processing executor.
+   *
+   * <p>Completed shards are merged and persisted in submission order on the calling thread. The
+   * number of in-flight shards is bounded so that memory use is proportional to the thread count
+   * rather than to the number of hosts.
+   */
+  private class ShardedHostCollector implements Consumer<InventoryHostFacts> {
+    private final HostCollectionState state;
+    private final Collection<String> products;
+    private final Map<String, String> hypMapping;
+    private final Map<String, Host> inventoryHostMap;
+    private final HostBatchPersister persister;
+    private final Deque<Future<HostCollectionState>> pending = new ArrayDeque<>();
+    private List<InventoryHostFacts> shard = new ArrayList<>(hostProcessingShardSize);
+
+    private ShardedHostCollector(
+        HostCollectionState state,
+        Collection<String> products,
+        Map<String, String> hypMapping,
+        Map<String, Host> inventoryHostMap,
+        HostBatchPersister persister) {
+      this.state = state;
+      this.products = products;
+      this.hypMapping = hypMapping;
+      this.inventoryHostMap = inventoryHostMap;
+      this.persister = persister;
+    }
+
+    @Override
+    public void accept(InventoryHostFacts hostFacts) {
+      shard.add(hostFacts);
+      if (shard.size() >= hostProcessingShardSize) {
+        submitShard();
+      }
+    }
+
+    /** Submits any remaining hosts and waits for all shards to be merged. */
+    private void finish() {
+      if (!shard.isEmpty()) {
+        submitShard();
+      }
+      while (!pending.isEmpty()) {
+        mergeNextShard();
+      }
+    }
+
+    private void cancelPending() {
+      pending.forEach(future -> future.cancel(true));
+      pending.clear();
+    }
+
+    private void submitShard() {
+      List<InventoryHostFacts> hosts = shard;
+      shard = new ArrayList<>(hostProcessingShardSize);
+      pending.add(
+          hostProcessingExecutor.submit(
+              () -> {
+                HostCollectionState shardState = new HostCollectionState();
+                hosts.forEach(
+                    hostFacts ->
+                        collectHost(
+                            shardState,
+                            products,
+                            hostFacts,
+                            hypMapping,
+                            inventoryHostMap,
+                            shardState.hostsToPersist::add));
+                return shardState;
+              }));
+      while (pending.size() > hostProcessingThreads * 2) {
+        mergeNextShard();
+      }
+    }
+
+    private void mergeNextShard() {
+      HostCollectionState shardState;
+      try {
+        shardState = pending.remove().get();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IllegalStateException("Interrupted while waiting for host processing.", e);
+      } catch (ExecutionException e) {
+        if (e.getCause() instanceof RuntimeException) {
+          throw (RuntimeException) e.getCause();
+        }
+        throw new IllegalStateException("Unable to process inventory hosts.", e.getCause());
+      }
+      state.merge(shardState);
+      shardState.hostsToPersist.forEach(persister::persist);
+    }
+  }
 }
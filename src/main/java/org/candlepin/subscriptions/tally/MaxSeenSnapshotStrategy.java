@@ -20,15 +20,24 @@
  */
 package org.candlepin.subscriptions.tally;
 
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.stream.Collectors;
-import java.util.stream.Stream;
+import javax.annotation.PreDestroy;
+import org.candlepin.subscriptions.ApplicationProperties;
 import org.candlepin.subscriptions.db.TallySnapshotRepository;
+import org.candlepin.subscriptions.db.TallySnapshotSpecification;
+import org.candlepin.subscriptions.db.model.Granularity;
 import org.candlepin.subscriptions.db.model.TallySnapshot;
 import org.candlepin.subscriptions.files.ProductProfileRegistry;
 import org.candlepin.subscriptions.tally.roller.BaseSnapshotRoller;
+import org.candlepin.subscriptions.tally.roller.BaseSnapshotRoller.RollupResult;
 import org.candlepin.subscriptions.tally.roller.DailySnapshotRoller;
 import org.candlepin.subscriptions.tally.roller.HourlySnapshotRoller;
 import org.candlepin.subscriptions.tally.roller.MonthlySnapshotRoller;
@@ -39,51 +48,143 @@ import org.candlepin.subscriptions.util.ApplicationClock;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.data.jpa.domain.Specification;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
-/** Strategy for producing snapshots that captures the largest value recorded. */
+/**
+ * Strategy for producing snapshots that captures the largest value recorded.
+ *
+ * <p>The current snapshots of every granularity are loaded in a single query. Each roller then
+ * applies the same calculations to the snapshots of its own granularity, concurrently when more
+ * than one snapshot rollup thread is configured, and all changes are written back in one flush.
+ */
 @Service
 public class MaxSeenSnapshotStrategy {
 
   private static final Logger log = LoggerFactory.getLogger(MaxSeenSnapshotStrategy.class);
 
-  private final HourlySnapshotRoller hourlyRoller;
-  private final DailySnapshotRoller dailyRoller;
-  private final WeeklySnapshotRoller weeklyRoller;
-  private final MonthlySnapshotRoller monthlyRoller;
-  private final YearlySnapshotRoller yearlyRoller;
-  private final QuarterlySnapshotRoller quarterlyRoller;
+  private final TallySnapshotRepository tallyRepo;
+  private final List<BaseSnapshotRoller> rollers;
   private final SnapshotSummaryProducer summaryProducer;
+  private final ExecutorService rollupExecutor;
+  private final ApplicationEventPublisher eventPublisher;
 
   @Autowired
   public MaxSeenSnapshotStrategy(
       TallySnapshotRepository tallyRepo,
       ApplicationClock clock,
       ProductProfileRegistry registry,
-      SnapshotSummaryProducer summaryProducer) {
+      SnapshotSummaryProducer summaryProducer,
+      ApplicationProperties props,
+      ApplicationEventPublisher eventPublisher) {
+    this.tallyRepo = tallyRepo;
     this.summaryProducer = summaryProducer;
-    hourlyRoller = new HourlySnapshotRoller(tallyRepo, clock, registry);
-    dailyRoller = new DailySnapshotRoller(tallyRepo, clock, registry);
-    weeklyRoller = new WeeklySnapshotRoller(tallyRepo, clock, registry);
-    monthlyRoller = new MonthlySnapshotRoller(tallyRepo, clock, registry);
-    yearlyRoller = new YearlySnapshotRoller(tallyRepo, clock, registry);
-    quarterlyRoller = new QuarterlySnapshotRoller(tallyRepo, clock, registry);
+    this.eventPublisher = eventPublisher;
+    this.rollers =
+        List.of(
+            new HourlySnapshotRoller(tallyRepo, clock, registry),
+            new DailySnapshotRoller(tallyRepo, clock, registry),
+            new WeeklySnapshotRoller(tallyRepo, clock, registry),
+            new MonthlySnapshotRoller(tallyRepo, clock, registry),
+            new QuarterlySnapshotRoller(tallyRepo, clock, registry),
+            new YearlySnapshotRoller(tallyRepo, clock, registry));
+    int rollupThreads = Math.min(props.getSnapshotRollupThreads(), rollers.size());
+    this.rollupExecutor = rollupThreads > 1 ? Executors.newFixedThreadPool(rollupThreads) : null;
+  }
+
+  @PreDestroy
+  protected void destroy() {
+    if (rollupExecutor != null) {
+      rollupExecutor.shutdownNow();
+    }
   }
 
   @Transactional
   public Map<String, List<TallySnapshot>> produceSnapshotsFromCalculations(
       Collection<String> accounts, Collection<AccountUsageCalculation> accountCalcs) {
-    Stream<BaseSnapshotRoller> rollers =
-        Stream.of(
-            hourlyRoller, dailyRoller, weeklyRoller, monthlyRoller, quarterlyRoller, yearlyRoller);
+    Map<Granularity, Map<String, List<TallySnapshot>>> currentSnapshots =
+        getCurrentSnapshots(accounts, accountCalcs);
+
+    List<TallySnapshot> toSave = new ArrayList<>();
+    List<TallySnapshot> duplicates = new ArrayList<>();
+    for (RollupResult result : computeRollups(accountCalcs, currentSnapshots)) {
+      toSave.addAll(result.getSnapshots());
+      duplicates.addAll(result.getDuplicates());
+    }
+
+    log.debug("Persisting {} snapshots for {} account(s).", toSave.size(), accounts.size());
+    tallyRepo.deleteAll(duplicates);
     var newAndUpdatedSnapshots =
-        rollers
-            .map(roller -> roller.rollSnapshots(accounts, accountCalcs))
-            .flatMap(Collection::stream)
+        tallyRepo.saveAll(toSave).stream()
             .collect(Collectors.groupingBy(TallySnapshot::getAccountNumber));
+    tallyRepo.flush();
+    eventPublisher.publishEvent(new TallySnapshotsCommittedEvent(newAndUpdatedSnapshots.keySet()));
+
     summaryProducer.produceTallySummaryMessages(newAndUpdatedSnapshots);
     log.info("Finished producing snapshots for all accounts.");
     return newAndUpdatedSnapshots;
   }
+
+  /** Loads the snapshots of the current period of every granularity, by granularity and account. */
+  private Map<Granularity, Map<String, List<TallySnapshot>>> getCurrentSnapshots(
+      Collection<String> accounts, Collection<AccountUsageCalculation> accountCalcs) {
+    Specification<TallySnapshot> currentPeriods =
+        rollers.stream()
+            .map(roller -> roller.getCurrentSnapshotsSpecification(accountCalcs))
+            .reduce(Specification::or)
+            .orElseThrow();
+    return tallyRepo
+        .findAll(TallySnapshotSpecification.accountNumberIn(accounts).and(currentPeriods))
+        .stream()
+        .collect(
+            Collectors.groupingBy(
+                TallySnapshot::getGranularity,
+                Collectors.groupingBy(TallySnapshot::getAccountNumber)));
+  }
+
+  /** Applies the calculations to each granularity, returning the results in roller order. */
+  private List<RollupResult> computeRollups(
+      Collection<AccountUsageCalculation> accountCalcs,
+      Map<Granularity, Map<String, List<TallySnapshot>>> currentSnapshots) {
+    if (rollupExecutor == null) {
+      return rollers.stream()
+          .map(roller -> computeRollup(roller, accountCalcs, currentSnapshots))
+          .collect(Collectors.toList());
+    }
+
+    List<Future<RollupResult>> pending =
+        rollers.stream()
+            .map(
+                roller ->
+                    rollupExecutor.submit(
+                        () -> computeRollup(roller, accountCalcs, currentSnapshots)))
+            .collect(Collectors.toList());
+    List<RollupResult> results = new ArrayList<>(pending.size());
+    try {
+      for (Future<RollupResult> future : pending) {
+        results.add(future.get());
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted while waiting for snapshot rollups.", e);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) e.getCause();
+      }
+      throw new IllegalStateException("Unable to roll up snapshots.", e.getCause());
+    } finally {
+      pending.forEach(future -> future.cancel(true));
+    }
+    return results;
+  }
+
+  private RollupResult computeRollup(
+      BaseSnapshotRoller roller,
+      Collection<AccountUsageCalculation> accountCalcs,
+      Map<Granularity, Map<String, List<TallySnapshot>>> currentSnapshots) {
+    return roller.computeSnapshots(
+        accountCalcs, currentSnapshots.getOrDefault(roller.getGranularity(), Map.of()));
+  }
 }
@@ -0,0 +1,132 @@
+/*
+ * Copyright Red Hat, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * Red Hat trademarks are not licensed under GPLv3. No permission is
+ * granted to use or replicate Red Hat trademarks that are incorporated
+ * in this software or its documentation.
+ */
+package org.candlepin.subscriptions.tally;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.candlepin.subscriptions.db.HostRepository;
+import org.candlepin.subscriptions.db.model.Host;
+
+/**
+ * Holds the instances of a single account that are touched by an hourly tally.
+ *
+ * <p>Instead of loading every instance of the account, only the instances referenced by the events
+ * being tallied are loaded, a page of instance IDs at a time. Instances that do not exist yet are
+ * created on demand. Every instance handed out is considered changed, and is written back in
+ * batches by {@link #persist()}. Each batch is flushed, then detached from the persistence context
+ * and dropped from the store, so that the memory held by a tally does not grow with the number of
+ * instances written; the store must not be used to update instances after it was persisted.
+ *
+ * <p>Like the service instances of an {@link org.candlepin.subscriptions.db.model.Account},
+ * instances are keyed by instance ID alone, whatever their type, so that an instance already
+ * recorded under another type is updated rather than duplicated.
+ *
+ * <p>Not thread-safe; must be used from the thread that owns the current transaction.
+ */
+class MetricInstanceStore {
+
+  private final HostRepository hostRepository;
+  private final String accountNumber;
+  private final int batchSize;
+  private final Map<String, Host> instances = new HashMap<>();
+  private final Map<String, Host> changed = new LinkedHashMap<>();
+
+  /**
+   * @param hostRepository repository used to load and persist instances
+   * @param accountNumber account number of the instances
+   * @param batchSize number of instance IDs loaded per query, and of instances saved per flush
+   */
+  MetricInstanceStore(HostRepository hostRepository, String accountNumber, int batchSize) {
+    this.hostRepository = hostRepository;
+    this.accountNumber = accountNumber;
+    this.batchSize = Math.max(1, batchSize);
+  }
+
+  /**
+   * Load the persisted instances with the given IDs, one page of IDs per query.
+   *
+   * @param instanceIds IDs of the instances referenced by the events being tallied
+   */
+  public void load(Collection<String> instanceIds) {
+    List<String> page = new ArrayList<>(batchSize);
+    for (String instanceId : instanceIds) {
+      if (!instances.containsKey(instanceId)) {
+        page.add(instanceId);
+      }
+      if (page.size() >= batchSize) {
+        loadPage(page);
+        page = new ArrayList<>(batchSize);
+      }
+    }
+    if (!page.isEmpty()) {
+      loadPage(page);
+    }
+  }
+
+  private void loadPage(List<String> instanceIds) {
+    hostRepository
+        .findByAccountNumberAndInstanceIdIn(accountNumber, instanceIds)
+        .forEach(host -> instances.put(host.getInstanceId(), host));
+  }
+
+  /**
+   * Get an instance to update, creating it if it was not loaded.
+   *
+   * @param instanceId ID of the instance
+   * @return the loaded instance, or a new one
+   */
+  public Host get(String instanceId) {
+    Host host = instances.computeIfAbsent(instanceId, id -> new Host());
+    changed.put(instanceId, host);
+    return host;
+  }
+
+  /**
+   * Write the instances handed out by {@link #get(String)} to the database, in batches, releasing
+   * each batch once written.
+   */
+  public void persist() {
+    List<String> batch = new ArrayList<>(batchSize);
+    for (String instanceId : changed.keySet()) {
+      batch.add(instanceId);
+      if (batch.size() >= batchSize) {
+        flush(batch);
+        batch = new ArrayList<>(batchSize);
+      }
+    }
+    if (!batch.isEmpty()) {
+      flush(batch);
+    }
+    changed.clear();
+  }
+
+  private void flush(List<String> instanceIds) {
+    List<Host> batch = new ArrayList<>(instanceIds.size());
+    instanceIds.forEach(instanceId -> batch.add(instances.remove(instanceId)));
+    hostRepository.saveAll(batch);
+    hostRepository.flush();
+    hostRepository.detach(batch);
+  }
+}
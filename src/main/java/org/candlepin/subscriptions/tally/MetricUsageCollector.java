@@ -21,22 +21,30 @@
 package org.candlepin.subscriptions.tally;
 
 import java.time.OffsetDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.Set;
+import java.util.function.Function;
 import java.util.stream.Stream;
 import javax.ws.rs.core.Response;
+import org.candlepin.subscriptions.ApplicationProperties;
 import org.candlepin.subscriptions.db.AccountRepository;
+import org.candlepin.subscriptions.db.HostRepository;
 import org.candlepin.subscriptions.db.model.Account;
 import org.candlepin.subscriptions.db.model.HardwareMeasurementType;
 import org.candlepin.subscriptions.db.model.Host;
 import org.candlepin.subscriptions.db.model.HostBucketKey;
 import org.candlepin.subscriptions.db.model.HostHardwareType;
 import org.candlepin.subscriptions.db.model.HostTallyBucket;
+import org.candlepin.subscriptions.db.model.InstanceMonthlyTotalKey;
 import org.candlepin.subscriptions.db.model.ServiceLevel;
 import org.candlepin.subscriptions.db.model.Usage;
 import org.candlepin.subscriptions.event.EventController;
@@ -58,16 +66,26 @@ public class MetricUsageCollector {
   private final EventController eventController;
   private final ApplicationClock clock;
   private final ProductProfile productProfile;
+  private final boolean singleScanEnabled;
+  private final HostRepository hostRepository;
+  private final boolean instanceStoreEnabled;
+  private final int batchSize;
 
   public MetricUsageCollector(
       ProductProfile productProfile,
       AccountRepository accountRepository,
+      HostRepository hostRepository,
       EventController eventController,
-      ApplicationClock clock) {
+      ApplicationClock clock,
+      ApplicationProperties props) {
     this.accountRepository = accountRepository;
     this.eventController = eventController;
     this.clock = clock;
     this.productProfile = productProfile;
+    this.singleScanEnabled = props.isMetricEventSingleScanEnabled();
+    this.hostRepository = hostRepository;
+    this.instanceStoreEnabled = props.isMetricInstanceStoreEnabled();
+    this.batchSize = props.getHostPersistenceBatchSize();
   }
 
   @Transactional
@@ -80,18 +98,15 @@ public class MetricUsageCollector {
               range.getStartString(), range.getEndString()));
     }
 
+    if (instanceStoreEnabled) {
+      return collectWithInstanceStore(accountNumber, range);
+    }
+
     /* load the latest account state, so we can update host records conveniently */
     Account account =
         accountRepository
             .findById(accountNumber)
-            .orElseThrow(
-                () ->
-                    new SubscriptionsException(
-                        ErrorCode.OPT_IN_REQUIRED,
-                        Response.Status.BAD_REQUEST,
-                        "Account not found!",
-                        String.format(
-                            "Account %s was not found. Account not opted in?", accountNumber)));
+            .orElseThrow(() -> accountNotFound(accountNumber));
 
     /*
     Evaluate latest state to determine if we are doing a recalculation and filter to host records for only
@@ -108,14 +123,87 @@ public class MetricUsageCollector {
                 : host.getLastSeen();
       }
     }
+    DateRange effectiveRange = getEffectiveRange(range, newestInstanceTimestamp);
+    OffsetDateTime effectiveStartDateTime = effectiveRange.getStartDate();
+    OffsetDateTime effectiveEndDateTime = effectiveRange.getEndDate();
+    if (isRecalculating(range, newestInstanceTimestamp)) {
+      log.info("Clearing monthly totals for {} instances", existingInstances.size());
+      existingInstances
+          .values()
+          .forEach(
+              instance ->
+                  instance.clearMonthlyTotals(effectiveStartDateTime, effectiveEndDateTime));
+    }
+
+    Map<OffsetDateTime, AccountUsageCalculation> accountCalcs =
+        collectUsage(
+            accountNumber,
+            instanceId ->
+                account.getServiceInstances().computeIfAbsent(instanceId, id -> new Host()),
+            effectiveRange);
+    accountRepository.save(account);
+    return accountCalcs;
+  }
+
+  /**
+   * Same as the account based collection, but only the instances referenced by the events of the
+   * range are loaded and updated. Monthly totals of the other instances are cleared in bulk when
+   * retallying.
+   */
+  private Map<OffsetDateTime, AccountUsageCalculation> collectWithInstanceStore(
+      String accountNumber, DateRange range) {
+    if (!accountRepository.existsById(accountNumber)) {
+      throw accountNotFound(accountNumber);
+    }
+
+    String serviceType = productProfile.getServiceType();
+    OffsetDateTime newestInstanceTimestamp =
+        Optional.ofNullable(hostRepository.findMaxLastSeen(accountNumber, serviceType))
+            .orElse(OffsetDateTime.MIN);
+    DateRange effectiveRange = getEffectiveRange(range, newestInstanceTimestamp);
+    if (isRecalculating(range, newestInstanceTimestamp)) {
+      int cleared =
+          hostRepository.deleteMonthlyTotals(
+              accountNumber,
+              serviceType,
+              getMonthIds(effectiveRange.getStartDate(), effectiveRange.getEndDate()));
+      log.info("Cleared {} monthly totals of {} instances", cleared, serviceType);
+    }
+
+    MetricInstanceStore instanceStore =
+        new MetricInstanceStore(hostRepository, accountNumber, batchSize);
+    instanceStore.load(
+        eventController.fetchInstanceIdsInTimeRangeByServiceType(
+            accountNumber,
+            serviceType,
+            effectiveRange.getStartDate(),
+            effectiveRange.getEndDate()));
+    Map<OffsetDateTime, AccountUsageCalculation> accountCalcs =
+        collectUsage(accountNumber, instanceStore::get, effectiveRange);
+    instanceStore.persist();
+    return accountCalcs;
+  }
+
+  private SubscriptionsException accountNotFound(String accountNumber) {
+    return new SubscriptionsException(
+        ErrorCode.OPT_IN_REQUIRED,
+        Response.Status.BAD_REQUEST,
+        "Account not found!",
+        String.format("Account %s was not found. Account not opted in?", accountNumber));
+  }
+
+  private boolean isRecalculating(DateRange range, OffsetDateTime newestInstanceTimestamp) {
+    return newestInstanceTimestamp.isAfter(range.getStartDate());
+  }
+
+  /*
+  We need to recalculate several things if we are re-tallying, namely monthly totals need to be
+  cleared and re-updated for each host record
+   */
+  private DateRange getEffectiveRange(DateRange range, OffsetDateTime newestInstanceTimestamp) {
     OffsetDateTime effectiveStartDateTime;
     OffsetDateTime effectiveEndDateTime;
-    boolean isRecalculating;
-    /*
-    We need to recalculate several things if we are re-tallying, namely monthly totals need to be
-    cleared and re-updated for each host record
-     */
-    if (newestInstanceTimestamp.isAfter(range.getStartDate())) {
+    if (isRecalculating(range, newestInstanceTimestamp)) {
       effectiveStartDateTime = clock.startOfMonth(range.getStartDate());
       effectiveEndDateTime = clock.endOfCurrentHour();
       log.info(
@@ -124,7 +212,6 @@ public class MetricUsageCollector {
           range.getEndString(),
           effectiveStartDateTime,
           effectiveEndDateTime);
-      isRecalculating = true;
     } else {
       effectiveStartDateTime = range.getStartDate();
       effectiveEndDateTime = range.getEndDate();
@@ -134,52 +221,113 @@ public class MetricUsageCollector {
           range.getEndString(),
           effectiveStartDateTime,
           effectiveEndDateTime);
-      isRecalculating = false;
     }
+    return new DateRange(effectiveStartDateTime, effectiveEndDateTime);
+  }
 
-    if (isRecalculating) {
-      log.info("Clearing monthly totals for {} instances", existingInstances.size());
-      existingInstances
-          .values()
-          .forEach(
-              instance ->
-                  instance.clearMonthlyTotals(effectiveStartDateTime, effectiveEndDateTime));
+  /* Mirrors Host#clearMonthlyTotals */
+  private List<String> getMonthIds(OffsetDateTime startDateTime, OffsetDateTime endDateTime) {
+    List<String> monthIds = new ArrayList<>();
+    for (OffsetDateTime offset = startDateTime;
+        !offset.isAfter(endDateTime);
+        offset = offset.plusMonths(1)) {
+      monthIds.add(InstanceMonthlyTotalKey.formatMonthId(offset));
     }
+    return monthIds;
+  }
 
+  private Map<OffsetDateTime, AccountUsageCalculation> collectUsage(
+      String accountNumber, Function<String, Host> instances, DateRange range) {
     Map<OffsetDateTime, AccountUsageCalculation> accountCalcs = new HashMap<>();
-    for (OffsetDateTime offset = effectiveStartDateTime;
-        offset.isBefore(effectiveEndDateTime);
-        offset = offset.plusHours(1)) {
-      AccountUsageCalculation accountUsageCalculation = collectHour(account, offset);
-      if (accountUsageCalculation != null && !accountUsageCalculation.getKeys().isEmpty()) {
-        accountCalcs.put(offset, accountUsageCalculation);
+    if (singleScanEnabled) {
+      collectRange(accountNumber, instances, range, accountCalcs);
+    } else {
+      for (OffsetDateTime offset = range.getStartDate();
+          offset.isBefore(range.getEndDate());
+          offset = offset.plusHours(1)) {
+        addHourlyCalculation(accountCalcs, offset, collectHour(accountNumber, instances, offset));
       }
     }
-    accountRepository.save(account);
     return accountCalcs;
   }
 
+  /**
+   * Reads the events of the whole range with a single ordered query and buckets them into hours as
+   * they stream by. Only the instances seen in the current hour are held at a time.
+   */
+  private void collectRange(
+      String accountNumber,
+      Function<String, Host> instances,
+      DateRange range,
+      Map<OffsetDateTime, AccountUsageCalculation> accountCalcs) {
+    OffsetDateTime startDateTime = range.getStartDate();
+    OffsetDateTime currentHour = null;
+    Map<String, Host> thisHoursInstances = new HashMap<>();
+    try (Stream<Event> eventStream =
+        eventController.fetchEventsInTimeRangeByServiceType(
+            accountNumber, productProfile.getServiceType(), startDateTime, range.getEndDate())) {
+      Iterator<Event> events = eventStream.iterator();
+      while (events.hasNext()) {
+        Event event = events.next();
+        // keep the hour keys aligned with (and in the same offset as) the start of the range
+        OffsetDateTime eventHour =
+            startDateTime.plusHours(ChronoUnit.HOURS.between(startDateTime, event.getTimestamp()));
+        if (!eventHour.equals(currentHour)) {
+          if (currentHour != null) {
+            addHourlyCalculation(
+                accountCalcs,
+                currentHour,
+                tallyCurrentAccountState(accountNumber, thisHoursInstances));
+          }
+          currentHour = eventHour;
+          thisHoursInstances = new HashMap<>();
+        }
+        applyEvent(instances, event, thisHoursInstances);
+      }
+    }
+    if (currentHour != null) {
+      addHourlyCalculation(
+          accountCalcs, currentHour, tallyCurrentAccountState(accountNumber, thisHoursInstances));
+    }
+  }
+
+  private void addHourlyCalculation(
+      Map<OffsetDateTime, AccountUsageCalculation> accountCalcs,
+      OffsetDateTime hour,
+      AccountUsageCalculation accountUsageCalculation) {
+    if (accountUsageCalculation != null && !accountUsageCalculation.getKeys().isEmpty()) {
+      accountCalcs.put(hour, accountUsageCalculation);
+    }
+  }
+
   @Transactional
   public AccountUsageCalculation collectHour(Account account, OffsetDateTime startDateTime) {
+    return collectHour(
+        account.getAccountNumber(),
+        instanceId -> account.getServiceInstances().computeIfAbsent(instanceId, id -> new Host()),
+        startDateTime);
+  }
+
+  private AccountUsageCalculation collectHour(
+      String accountNumber, Function<String, Host> instances, OffsetDateTime startDateTime) {
     OffsetDateTime endDateTime = startDateTime.plusHours(1);
 
     Stream<Event> eventStream =
         eventController
-            .fetchEventsInTimeRange(account.getAccountNumber(), startDateTime, endDateTime)
+            .fetchEventsInTimeRange(accountNumber, startDateTime, endDateTime)
             .filter(event -> event.getServiceType().equals(productProfile.getServiceType()));
 
     Map<String, Host> thisHoursInstances = new HashMap<>();
-    eventStream.forEach(
-        event -> {
-          String instanceId = event.getInstanceId();
-          Host existing = account.getServiceInstances().get(instanceId);
-          Host host = existing == null ? new Host() : existing;
-          updateInstanceFromEvent(event, host);
-          thisHoursInstances.put(instanceId, host);
-          account.getServiceInstances().put(instanceId, host);
-        });
-
-    return tallyCurrentAccountState(account.getAccountNumber(), thisHoursInstances);
+    eventStream.forEach(event -> applyEvent(instances, event, thisHoursInstances));
+
+    return tallyCurrentAccountState(accountNumber, thisHoursInstances);
+  }
+
+  private void applyEvent(
+      Function<String, Host> instances, Event event, Map<String, Host> thisHoursInstances) {
+    Host host = instances.apply(event.getInstanceId());
+    updateInstanceFromEvent(event, host);
+    thisHoursInstances.put(event.getInstanceId(), host);
   }
 
   private AccountUsageCalculation tallyCurrentAccountState(
@@ -197,7 +345,7 @@ public class MetricUsageCollector {
                     .forEach(
                         bucket -> {
                           UsageCalculation.Key usageKey =
-                              new UsageCalculation.Key(
+                              UsageCalculation.Key.of(
                                   bucket.getKey().getProductId(),
                                   bucket.getKey().getSla(),
                                   bucket.getKey().getUsage());
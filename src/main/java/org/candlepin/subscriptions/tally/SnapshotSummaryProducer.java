@@ -20,10 +20,14 @@
  */
 package org.candlepin.subscriptions.tally;
 
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
+import org.candlepin.subscriptions.ApplicationProperties;
+import org.candlepin.subscriptions.db.model.Granularity;
 import org.candlepin.subscriptions.db.model.TallyMeasurementKey;
 import org.candlepin.subscriptions.db.model.TallySnapshot;
 import org.candlepin.subscriptions.json.TallyMeasurement;
@@ -43,13 +47,21 @@ public class SnapshotSummaryProducer {
 
   private final String tallySummaryTopic;
   private final KafkaTemplate<String, TallySummary> tallySummaryKafkaTemplate;
+  private final int batchSize;
+  private final DistributionSummary snapshotsPerMessage;
 
   @Autowired
   protected SnapshotSummaryProducer(
       KafkaTemplate<String, TallySummary> tallySummaryKafkaTemplate,
-      @Qualifier("marketplaceTasks") TaskQueueProperties props) {
+      @Qualifier("marketplaceTasks") TaskQueueProperties props,
+      ApplicationProperties applicationProperties,
+      MeterRegistry meterRegistry) {
     this.tallySummaryTopic = props.getTopic();
     this.tallySummaryKafkaTemplate = tallySummaryKafkaTemplate;
+    this.batchSize = Math.max(1, applicationProperties.getTallySummaryBatchSize());
+    // count is the number of messages sent, total the number of snapshots sent
+    this.snapshotsPerMessage =
+        meterRegistry.summary("rhsm-subscriptions.tally.summary.snapshots_per_message");
   }
 
   private TallySummary createTallySummary(
@@ -96,18 +108,34 @@ public class SnapshotSummaryProducer {
         .collect(Collectors.toList());
   }
 
+  /**
+   * Send the given snapshots as TallySummary messages. Snapshots of the same account and
+   * granularity are sent together, up to tallySummaryBatchSize snapshots per message.
+   *
+   * @param newAndUpdatedSnapshots snapshots to send, keyed by account number
+   */
   public void produceTallySummaryMessages(Map<String, List<TallySnapshot>> newAndUpdatedSnapshots) {
-    AtomicInteger totalTallies = new AtomicInteger();
-    newAndUpdatedSnapshots.forEach(
-        (account, snapshots) ->
-            snapshots.stream()
-                .map(snapshot -> createTallySummary(account, List.of(snapshot)))
-                .forEach(
-                    summary -> {
-                      tallySummaryKafkaTemplate.send(tallySummaryTopic, summary);
-                      totalTallies.getAndIncrement();
-                    }));
+    int totalTallies = 0;
+    int totalSnapshots = 0;
+    for (Map.Entry<String, List<TallySnapshot>> entry : newAndUpdatedSnapshots.entrySet()) {
+      String account = entry.getKey();
+      Map<Granularity, List<TallySnapshot>> byGranularity =
+          entry.getValue().stream()
+              .collect(
+                  Collectors.groupingBy(
+                      TallySnapshot::getGranularity, LinkedHashMap::new, Collectors.toList()));
+      for (List<TallySnapshot> snapshots : byGranularity.values()) {
+        for (int from = 0; from < snapshots.size(); from += batchSize) {
+          List<TallySnapshot> batch =
+              snapshots.subList(from, Math.min(from + batchSize, snapshots.size()));
+          tallySummaryKafkaTemplate.send(tallySummaryTopic, createTallySummary(account, batch));
+          snapshotsPerMessage.record(batch.size());
+          totalTallies++;
+          totalSnapshots += batch.size();
+        }
+      }
+    }
 
-    log.info("Produced {} TallySummary messages", totalTallies);
+    log.info("Produced {} TallySummary messages for {} snapshots", totalTallies, totalSnapshots);
   }
 }
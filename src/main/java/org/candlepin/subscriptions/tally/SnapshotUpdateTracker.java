@@ -0,0 +1,68 @@
+/*
+ * Copyright Red Hat, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * Red Hat trademarks are not licensed under GPLv3. No permission is
+ * granted to use or replicate Red Hat trademarks that are incorporated
+ * in this software or its documentation.
+ */
+package org.candlepin.subscriptions.tally;
+
+import java.time.OffsetDateTime;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import org.candlepin.subscriptions.db.AccountTallyStateRepository;
+import org.candlepin.subscriptions.db.model.AccountTallyState;
+import org.candlepin.subscriptions.util.ApplicationClock;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+/**
+ * Records when the snapshots of each account were last written, in the transaction that writes
+ * them, so that processes which don't receive {@link TallySnapshotsCommittedEvent} (e.g. the API
+ * serving cached reports) can tell whether what they hold is stale.
+ */
+@Component
+public class SnapshotUpdateTracker {
+
+  private final AccountTallyStateRepository stateRepository;
+  private final ApplicationClock clock;
+
+  public SnapshotUpdateTracker(
+      AccountTallyStateRepository stateRepository, ApplicationClock clock) {
+    this.stateRepository = stateRepository;
+    this.clock = clock;
+  }
+
+  @EventListener
+  public void onSnapshotsCommitted(TallySnapshotsCommittedEvent event) {
+    if (event.getAccountNumbers().isEmpty()) {
+      return;
+    }
+    OffsetDateTime now = clock.now();
+    Map<String, AccountTallyState> states =
+        stateRepository.findAllById(event.getAccountNumbers()).stream()
+            .collect(Collectors.toMap(AccountTallyState::getAccountNumber, Function.identity()));
+    event
+        .getAccountNumbers()
+        .forEach(
+            account ->
+                states
+                    .computeIfAbsent(account, AccountTallyState::new)
+                    .setSnapshotsUpdatedOn(now));
+    stateRepository.saveAll(states.values());
+  }
+}
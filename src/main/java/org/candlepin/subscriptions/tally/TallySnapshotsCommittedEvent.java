@@ -0,0 +1,42 @@
+/*
+ * Copyright Red Hat, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * Red Hat trademarks are not licensed under GPLv3. No permission is
+ * granted to use or replicate Red Hat trademarks that are incorporated
+ * in this software or its documentation.
+ */
+package org.candlepin.subscriptions.tally;
+
+import java.util.Collection;
+import java.util.Set;
+import lombok.Getter;
+import lombok.ToString;
+
+/**
+ * Published by the snapshot strategies once they have written new or updated snapshots. Listeners
+ * interested in the committed state should use a transactional event listener, as the event is
+ * published from within the strategy's transaction.
+ */
+@Getter
+@ToString
+public class TallySnapshotsCommittedEvent {
+
+  private final Set<String> accountNumbers;
+
+  public TallySnapshotsCommittedEvent(Collection<String> accountNumbers) {
+    this.accountNumbers = Set.copyOf(accountNumbers);
+  }
+}
@@ -27,6 +27,7 @@ import java.util.Set;
 import org.candlepin.subscriptions.ApplicationProperties;
 import org.candlepin.subscriptions.cloudigrade.ConcurrentApiFactory;
 import org.candlepin.subscriptions.db.AccountRepository;
+import org.candlepin.subscriptions.db.HostRepository;
 import org.candlepin.subscriptions.event.EventController;
 import org.candlepin.subscriptions.files.ProductProfile;
 import org.candlepin.subscriptions.files.ProductProfileRegistry;
@@ -39,8 +40,10 @@ import org.candlepin.subscriptions.task.TaskQueueProperties;
 import org.candlepin.subscriptions.task.queue.TaskConsumer;
 import org.candlepin.subscriptions.task.queue.TaskConsumerConfiguration;
 import org.candlepin.subscriptions.task.queue.TaskConsumerFactory;
+import org.candlepin.subscriptions.task.queue.kafka.KafkaTaskConsumerFactory;
 import org.candlepin.subscriptions.util.ApplicationClock;
 import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.boot.context.properties.ConfigurationProperties;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.ComponentScan;
@@ -148,17 +151,35 @@ public class TallyWorkerConfiguration {
     return taskConsumerFactory.createTaskConsumer(taskFactory, taskQueueProperties);
   }
 
+  @Bean
+  @Qualifier("tallyPriorityTaskConsumer")
+  @Profile("kafka-queue")
+  @ConditionalOnProperty(
+      prefix = "rhsm-subscriptions.tasks",
+      name = "priority-topic-enabled",
+      havingValue = "true")
+  public TaskConsumer tallyPriorityTaskProcessor(
+      @Qualifier("tallyTaskQueueProperties") TaskQueueProperties taskQueueProperties,
+      KafkaTaskConsumerFactory taskConsumerFactory,
+      TallyTaskFactory taskFactory) {
+
+    return taskConsumerFactory.createPriorityTaskConsumer(taskFactory, taskQueueProperties);
+  }
+
   @Bean
   @Qualifier("OpenShiftMetricsUsageCollector")
   public MetricUsageCollector openShiftMetricsUsageCollector(
       ProductProfileRegistry registry,
       AccountRepository accountRepo,
+      HostRepository hostRepo,
       EventController eventController,
-      ApplicationClock clock) {
+      ApplicationClock clock,
+      ApplicationProperties props) {
     Optional<ProductProfile> profile = registry.getProfileByName("OpenShiftMetrics");
     if (profile.isEmpty()) {
       throw new IllegalStateException("Could not find product profile for OpenShiftMetrics!");
     }
-    return new MetricUsageCollector(profile.get(), accountRepo, eventController, clock);
+    return new MetricUsageCollector(
+        profile.get(), accountRepo, hostRepo, eventController, clock, props);
   }
 }
@@ -22,8 +22,9 @@ package org.candlepin.subscriptions.tally;
 
 import java.util.EnumMap;
 import java.util.Map;
-import java.util.Map.Entry;
 import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.stream.Collectors;
 import org.candlepin.subscriptions.db.model.HardwareMeasurementType;
 import org.candlepin.subscriptions.db.model.ServiceLevel;
@@ -33,26 +34,88 @@ import org.candlepin.subscriptions.json.Measurement;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-/** The calculated usage for a key where key is (productId, sla). */
+/**
+ * The calculated usage for a key where key is (productId, sla).
+ *
+ * <p>Totals are accumulated in dense primitive arrays indexed by hardware measurement type and UOM,
+ * so adding usage does not allocate. {@link Totals} instances are read-only views over those arrays
+ * and are only created when requested.
+ */
 public class UsageCalculation {
   private static final Logger log = LoggerFactory.getLogger(UsageCalculation.class);
 
+  private static final HardwareMeasurementType[] TYPES = HardwareMeasurementType.values();
+  private static final Measurement.Uom[] UOMS = Measurement.Uom.values();
+
+  private static final int CORES = 0;
+  private static final int SOCKETS = 1;
+  private static final int INSTANCES = 2;
+  private static final int LEGACY_COUNTS = 3;
+
   private final Key key;
 
+  /** Measurement values, indexed by type ordinal * UOM count + UOM ordinal. */
+  private final double[] measurements = new double[TYPES.length * UOMS.length];
+
+  /** Whether a measurement has been recorded, using the same indexing as measurements. */
+  private final boolean[] measured = new boolean[TYPES.length * UOMS.length];
+
+  /** Deprecated cores, sockets and instances counts, indexed by type ordinal * 3. */
+  private final int[] legacyCounts = new int[TYPES.length * LEGACY_COUNTS];
+
+  /** Whether any totals have been recorded for a type, indexed by type ordinal. */
+  private final boolean[] typePresent = new boolean[TYPES.length];
+
+  /** Lazily created views, indexed by type ordinal. */
+  private Totals[] totalsViews;
+
   /**
    * Natural key for a given calculation.
    *
    * <p>Note that already data is scoped to an account, so account is not included in the key.
+   *
+   * <p>Keys are immutable; use {@link #of(String, ServiceLevel, Usage)} to obtain a shared instance
+   * instead of allocating a new key for every lookup.
    */
   public static class Key {
+    private static final ServiceLevel[] SLAS = ServiceLevel.values();
+    private static final Usage[] USAGES = Usage.values();
+    private static final ConcurrentMap<String, Key[]> INTERNED = new ConcurrentHashMap<>();
+
     private final String productId;
     private final ServiceLevel sla;
     private final Usage usage;
+    private final int hash;
 
     public Key(String productId, ServiceLevel sla, Usage usage) {
       this.productId = productId;
       this.sla = sla;
       this.usage = usage;
+      this.hash = Objects.hash(productId, sla, usage);
+    }
+
+    /**
+     * Returns the shared key instance for the given values.
+     *
+     * @param productId the product ID
+     * @param sla the service level
+     * @param usage the usage
+     * @return an interned key equal to {@code new Key(productId, sla, usage)}
+     */
+    public static Key of(String productId, ServiceLevel sla, Usage usage) {
+      if (productId == null || sla == null || usage == null) {
+        return new Key(productId, sla, usage);
+      }
+      Key[] productKeys =
+          INTERNED.computeIfAbsent(productId, id -> new Key[SLAS.length * USAGES.length]);
+      int index = sla.ordinal() * USAGES.length + usage.ordinal();
+      Key interned = productKeys[index];
+      if (interned == null) {
+        // Racing threads may each create a key; they are equal, so whichever wins is fine.
+        interned = new Key(productId, sla, usage);
+        productKeys[index] = interned;
+      }
+      return interned;
     }
 
     public String getProductId() {
@@ -76,18 +139,19 @@ public class UsageCalculation {
         return false;
       }
       Key that = (Key) o;
-      return Objects.equals(productId, that.productId)
+      return hash == that.hash
+          && Objects.equals(productId, that.productId)
           && Objects.equals(sla, that.sla)
           && Objects.equals(usage, that.usage);
     }
 
     @Override
     public int hashCode() {
-      return Objects.hash(productId, sla, usage);
+      return hash;
     }
 
     public static Key fromTallySnapshot(TallySnapshot snapshot) {
-      return new Key(snapshot.getProductId(), snapshot.getServiceLevel(), snapshot.getUsage());
+      return of(snapshot.getProductId(), snapshot.getServiceLevel(), snapshot.getUsage());
     }
 
     @Override
@@ -96,37 +160,30 @@ public class UsageCalculation {
     }
   }
 
-  /** Provides metric totals associated with each hardware type associated with a calculation. */
+  /**
+   * Provides metric totals associated with each hardware type associated with a calculation.
+   *
+   * <p>A view over the values held by the owning calculation; changes made through either are
+   * visible in both.
+   */
   public static class Totals {
-    /** @deprecated use measurements instead */
-    @Deprecated(forRemoval = true)
-    private int cores;
-
-    /** @deprecated use measurements instead */
-    @Deprecated(forRemoval = true)
-    private int sockets;
-
-    /** @deprecated use measurements instead */
-    @Deprecated(forRemoval = true)
-    private int instances;
+    private final UsageCalculation calculation;
+    private final HardwareMeasurementType type;
 
-    private final Map<Measurement.Uom, Double> measurements = new EnumMap<>(Measurement.Uom.class);
-
-    public Totals() {
-      cores = 0;
-      sockets = 0;
-      instances = 0;
+    private Totals(UsageCalculation calculation, HardwareMeasurementType type) {
+      this.calculation = calculation;
+      this.type = type;
     }
 
     public String toString() {
       String entries =
-          measurements.entrySet().stream()
+          getMeasurements().entrySet().stream()
               .map(e -> String.format("%s: %s", e.getKey(), e.getValue()))
               .collect(Collectors.joining(", "));
       String uomMeasurements = String.format("[%s]", entries);
       return String.format(
           "[uom_measurements: %s, cores: %s, sockets: %s, instances: %s]",
-          uomMeasurements, cores, sockets, instances);
+          uomMeasurements, getCores(), getSockets(), getInstances());
     }
 
     /**
@@ -135,7 +192,7 @@ public class UsageCalculation {
      */
     @Deprecated(forRemoval = true)
     public int getCores() {
-      return cores;
+      return calculation.legacyCount(type, CORES);
     }
 
     /**
@@ -144,7 +201,7 @@ public class UsageCalculation {
      */
     @Deprecated(forRemoval = true)
     public int getSockets() {
-      return sockets;
+      return calculation.legacyCount(type, SOCKETS);
     }
 
     /**
@@ -153,30 +210,41 @@ public class UsageCalculation {
      */
     @Deprecated(forRemoval = true)
     public int getInstances() {
-      return instances;
+      return calculation.legacyCount(type, INSTANCES);
     }
 
+    /**
+     * Get a snapshot of the recorded measurements for this type.
+     *
+     * @return a new map of UOM to measured value, containing only UOMs that have been recorded.
+     */
     public Map<Measurement.Uom, Double> getMeasurements() {
-      return measurements;
+      Map<Measurement.Uom, Double> values = new EnumMap<>(Measurement.Uom.class);
+      for (Measurement.Uom uom : UOMS) {
+        int index = measurementIndex(type, uom);
+        if (calculation.measured[index]) {
+          values.put(uom, calculation.measurements[index]);
+        }
+      }
+      return values;
     }
 
     public Double getMeasurement(Measurement.Uom uom) {
-      return measurements.get(uom);
+      int index = measurementIndex(type, uom);
+      return calculation.measured[index] ? calculation.measurements[index] : null;
     }
 
-    public void increment(Measurement.Uom uom, Double amount) {
-      Double existingValue = getMeasurement(uom);
-      double value = existingValue == null ? 0.0 : existingValue;
-      double newValue = value + amount;
-      measurements.put(uom, newValue);
+    public void increment(Measurement.Uom uom, double amount) {
+      calculation.increment(type, uom, amount);
     }
   }
 
-  private final Map<HardwareMeasurementType, Totals> mappedTotals;
-
   public UsageCalculation(Key key) {
     this.key = key;
-    this.mappedTotals = new EnumMap<>(HardwareMeasurementType.class);
+  }
+
+  public Key getKey() {
+    return key;
   }
 
   public String getProductId() {
@@ -192,10 +260,21 @@ public class UsageCalculation {
   }
 
   public Totals getTotals(HardwareMeasurementType type) {
-    return mappedTotals.get(type);
+    if (!typePresent[type.ordinal()]) {
+      return null;
+    }
+    if (totalsViews == null) {
+      totalsViews = new Totals[TYPES.length];
+    }
+    Totals view = totalsViews[type.ordinal()];
+    if (view == null) {
+      view = new Totals(this, type);
+      totalsViews[type.ordinal()] = view;
+    }
+    return view;
   }
 
-  public void add(HardwareMeasurementType type, Measurement.Uom uom, Double value) {
+  public void add(HardwareMeasurementType type, Measurement.Uom uom, double value) {
     increment(type, uom, value);
     addToTotal(uom, value);
   }
@@ -220,7 +299,7 @@ public class UsageCalculation {
     increment(HardwareMeasurementType.TOTAL, cores, sockets, instances);
   }
 
-  public void addToTotal(Measurement.Uom uom, Double value) {
+  public void addToTotal(Measurement.Uom uom, double value) {
     increment(HardwareMeasurementType.TOTAL, uom, value);
   }
 
@@ -241,41 +320,70 @@ public class UsageCalculation {
   @Deprecated(forRemoval = true)
   public void addCloudigrade(HardwareMeasurementType cloudType, int count) {
     increment(cloudType, 0, count, count);
-    Totals awsTotals = getTotals(HardwareMeasurementType.AWS);
-    Totals grandTotal = getTotals(HardwareMeasurementType.TOTAL);
-    if (awsTotals != null) {
-      if (awsTotals.instances != count) {
-        log.warn(
-            "AWS totals differ by source; HBI: {} vs. cloudigrade: {}", awsTotals.instances, count);
+    if (typePresent[HardwareMeasurementType.AWS.ordinal()]) {
+      int awsInstances = legacyCount(HardwareMeasurementType.AWS, INSTANCES);
+      if (awsInstances != count) {
+        log.warn("AWS totals differ by source; HBI: {} vs. cloudigrade: {}", awsInstances, count);
       }
-      grandTotal.instances -= awsTotals.instances;
-      grandTotal.sockets -= awsTotals.sockets;
-      grandTotal.cores -= awsTotals.cores;
+      int aws = HardwareMeasurementType.AWS.ordinal() * LEGACY_COUNTS;
+      int total = HardwareMeasurementType.TOTAL.ordinal() * LEGACY_COUNTS;
+      legacyCounts[total + INSTANCES] -= legacyCounts[aws + INSTANCES];
+      legacyCounts[total + SOCKETS] -= legacyCounts[aws + SOCKETS];
+      legacyCounts[total + CORES] -= legacyCounts[aws + CORES];
     }
     addToTotal(0, count, count);
   }
 
+  /**
+   * Adds all totals from another calculation into this one.
+   *
+   * @param other a calculation for the same key.
+   */
+  public void merge(UsageCalculation other) {
+    for (int i = 0; i < measurements.length; i++) {
+      measurements[i] += other.measurements[i];
+      measured[i] |= other.measured[i];
+    }
+    for (int i = 0; i < legacyCounts.length; i++) {
+      legacyCounts[i] += other.legacyCounts[i];
+    }
+    for (int i = 0; i < typePresent.length; i++) {
+      typePresent[i] |= other.typePresent[i];
+    }
+  }
+
   /** @deprecated use increment(HardwareMeasurementType, Measurement.Uom, Double) instead */
   @Deprecated(forRemoval = true)
   private void increment(HardwareMeasurementType type, int cores, int sockets, int instances) {
-    Totals total = getOrDefault(type);
-    total.cores += cores;
-    total.sockets += sockets;
-    total.instances += instances;
+    int offset = type.ordinal() * LEGACY_COUNTS;
+    legacyCounts[offset + CORES] += cores;
+    legacyCounts[offset + SOCKETS] += sockets;
+    legacyCounts[offset + INSTANCES] += instances;
+    typePresent[type.ordinal()] = true;
   }
 
-  private void increment(HardwareMeasurementType type, Measurement.Uom uom, Double value) {
-    Totals total = getOrDefault(type);
-    total.increment(uom, value);
+  private void increment(HardwareMeasurementType type, Measurement.Uom uom, double value) {
+    int index = measurementIndex(type, uom);
+    measurements[index] += value;
+    measured[index] = true;
+    typePresent[type.ordinal()] = true;
   }
 
-  private Totals getOrDefault(HardwareMeasurementType type) {
-    this.mappedTotals.putIfAbsent(type, new Totals());
-    return this.mappedTotals.get(type);
+  private int legacyCount(HardwareMeasurementType type, int field) {
+    return legacyCounts[type.ordinal() * LEGACY_COUNTS + field];
+  }
+
+  private static int measurementIndex(HardwareMeasurementType type, Measurement.Uom uom) {
+    return type.ordinal() * UOMS.length + uom.ordinal();
   }
 
   public boolean hasMeasurements() {
-    return !this.mappedTotals.isEmpty();
+    for (boolean present : typePresent) {
+      if (present) {
+        return true;
+      }
+    }
+    return false;
   }
 
   @Override
@@ -283,8 +391,10 @@ public class UsageCalculation {
     StringBuilder builder = new StringBuilder();
     builder.append(
         String.format("[Product: %s, sla: %s, usage: %s", key.productId, key.sla, key.usage));
-    for (Entry<HardwareMeasurementType, Totals> entry : mappedTotals.entrySet()) {
-      builder.append(String.format(", %s: %s", entry.getKey(), entry.getValue()));
+    for (HardwareMeasurementType type : TYPES) {
+      if (typePresent[type.ordinal()]) {
+        builder.append(String.format(", %s: %s", type, getTotals(type)));
+      }
     }
     builder.append("]");
     return builder.toString();
@@ -48,4 +48,13 @@ public interface ProductUsageCollector {
    */
   Optional<HostTallyBucket> collectForHypervisor(
       String account, UsageCalculation prodCalc, NormalizedFacts hypervisorFacts);
+
+  /**
+   * Re-apply the usage of a bucket previously returned by this collector to the provided product
+   * calculation. Allows the usage of a host to be counted without re-normalizing its facts.
+   *
+   * @param prodCalc which usage key's calculation to update
+   * @param bucket a bucket created by this collector for the same usage key
+   */
+  void collectFromBucket(UsageCalculation prodCalc, HostTallyBucket bucket);
 }
@@ -101,6 +101,18 @@ public class RHELProductUsageCollector implements ProductUsageCollector {
             prodCalc, false, appliedCores, appliedSockets, HardwareMeasurementType.VIRTUAL));
   }
 
+  @Override
+  public void collectFromBucket(UsageCalculation prodCalc, HostTallyBucket bucket) {
+    HardwareMeasurementType type = bucket.getMeasurementType();
+    if (HardwareMeasurementType.getCloudProviderTypes().contains(type)) {
+      prodCalc.addCloudProvider(type, bucket.getCores(), bucket.getSockets(), 1);
+    } else if (type == HardwareMeasurementType.PHYSICAL) {
+      prodCalc.addPhysical(bucket.getCores(), bucket.getSockets(), 1);
+    } else {
+      prodCalc.addHypervisor(bucket.getCores(), bucket.getSockets(), 1);
+    }
+  }
+
   private HostTallyBucket createBucket(
       UsageCalculation currentCalc,
       boolean asHypervisor,
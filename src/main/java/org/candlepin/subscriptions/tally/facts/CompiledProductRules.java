@@ -0,0 +1,158 @@
+/*
+ * Copyright Red Hat, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * Red Hat trademarks are not licensed under GPLv3. No permission is
+ * granted to use or replicate Red Hat trademarks that are incorporated
+ * in this software or its documentation.
+ */
+package org.candlepin.subscriptions.tally.facts;
+
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Predicate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The product mapping rules of the product profile registry, compiled into bitsets over a dense
+ * numbering of the swatch product IDs.
+ *
+ * <p>The products of a host are accumulated in a BitSet, so mapping engineering IDs and roles and
+ * pruning RHEL products become bitwise operations instead of parsing and set operations on product
+ * names.
+ */
+final class CompiledProductRules {
+  private static final Logger log = LoggerFactory.getLogger(CompiledProductRules.class);
+
+  static final String RHEL = "RHEL";
+  static final String RHEL_UNGROUPED = "RHEL Ungrouped";
+
+  private static final BitSet NONE = new BitSet();
+
+  private final String[] products;
+  private final Map<String, BitSet> engProductIdProducts = new HashMap<>();
+  private final Map<String, BitSet> roleProducts = new HashMap<>();
+  private final BitSet rhelVariants;
+  private final BitSet rhelProducts;
+  private final BitSet rhelIncludedProducts;
+  private final int rhelIndex;
+  private final int rhelUngroupedIndex;
+
+  CompiledProductRules(
+      Map<Integer, Set<String>> engProductIdToSwatchProductIds,
+      Map<String, Set<String>> roleToSwatchProductIds) {
+    Map<String, Integer> indexes = new LinkedHashMap<>();
+    engProductIdToSwatchProductIds.forEach(
+        (engProductId, swatchProductIds) ->
+            engProductIdProducts.put(
+                engProductId.toString(), toBitSet(indexes, swatchProductIds)));
+    roleToSwatchProductIds.forEach(
+        (role, swatchProductIds) -> roleProducts.put(role, toBitSet(indexes, swatchProductIds)));
+    this.rhelIndex = indexOf(indexes, RHEL);
+    this.rhelUngroupedIndex = indexOf(indexes, RHEL_UNGROUPED);
+
+    this.products = indexes.keySet().toArray(new String[0]);
+    this.rhelVariants = matching(FactNormalizer::isRhelVariant);
+    this.rhelProducts = matching(product -> product.startsWith("RHEL"));
+    this.rhelIncludedProducts =
+        matching(product -> product.startsWith("Satellite") || product.startsWith("OpenShift"));
+  }
+
+  /** Adds the swatch products of the given engineering product IDs. */
+  void addEngineeringProducts(BitSet hostProducts, Collection<String> productIds) {
+    if (productIds == null) {
+      return;
+    }
+    for (String productId : productIds) {
+      BitSet mapped = engProductIdProducts.get(productId);
+      if (mapped == null) {
+        mapped = lookupNonCanonical(productId);
+      }
+      hostProducts.or(mapped);
+    }
+  }
+
+  /** Replaces any RHEL variant with the products of the given role. */
+  void applyRole(BitSet hostProducts, String role) {
+    if (role != null) {
+      hostProducts.andNot(rhelVariants);
+      hostProducts.or(roleProducts.getOrDefault(role, NONE));
+    }
+  }
+
+  void addRhel(BitSet hostProducts) {
+    hostProducts.set(rhelIndex);
+  }
+
+  /** Groups RHEL under "RHEL Ungrouped" when it has no variant, or conflicting variants. */
+  void resolveRhelVariants(BitSet hostProducts) {
+    BitSet variants = (BitSet) hostProducts.clone();
+    variants.and(rhelVariants);
+    int variantCount = variants.cardinality();
+    if ((variantCount == 0 && hostProducts.get(rhelIndex)) || variantCount > 1) {
+      hostProducts.set(rhelUngroupedIndex);
+    }
+  }
+
+  /** If a Satellite or OpenShift product was found, do not include RHEL or its variants. */
+  void pruneProducts(BitSet hostProducts) {
+    if (hostProducts.intersects(rhelIncludedProducts)) {
+      hostProducts.andNot(rhelProducts);
+    }
+  }
+
+  Set<String> toProducts(BitSet hostProducts) {
+    Set<String> names = new HashSet<>();
+    hostProducts.stream().forEach(index -> names.add(products[index]));
+    return names;
+  }
+
+  /** Handles IDs like "069" that are numerically equal to a mapped engineering product ID. */
+  private BitSet lookupNonCanonical(String productId) {
+    try {
+      return engProductIdProducts.getOrDefault(
+          Integer.toString(Integer.parseInt(productId)), NONE);
+    } catch (NumberFormatException e) {
+      log.debug("Skipping non-numeric productId: {}", productId);
+      return NONE;
+    }
+  }
+
+  private BitSet matching(Predicate<String> predicate) {
+    BitSet matches = new BitSet(products.length);
+    for (int i = 0; i < products.length; i++) {
+      if (predicate.test(products[i])) {
+        matches.set(i);
+      }
+    }
+    return matches;
+  }
+
+  private static BitSet toBitSet(Map<String, Integer> indexes, Set<String> swatchProductIds) {
+    BitSet bits = new BitSet();
+    swatchProductIds.forEach(product -> bits.set(indexOf(indexes, product)));
+    return bits;
+  }
+
+  private static int indexOf(Map<String, Integer> indexes, String product) {
+    return indexes.computeIfAbsent(product, p -> indexes.size());
+  }
+}
@@ -21,11 +21,8 @@
 package org.candlepin.subscriptions.tally.facts;
 
 import java.time.OffsetDateTime;
-import java.util.Collection;
-import java.util.Collections;
+import java.util.BitSet;
 import java.util.Map;
-import java.util.Set;
-import java.util.stream.Collectors;
 import org.candlepin.subscriptions.ApplicationProperties;
 import org.candlepin.subscriptions.db.model.HardwareMeasurementType;
 import org.candlepin.subscriptions.db.model.HostHardwareType;
@@ -47,15 +44,22 @@ public class FactNormalizer {
 
   private final ApplicationClock clock;
   private final int hostSyncThresholdHours;
-  private final Map<Integer, Set<String>> engProductIdToSwatchProductIdsMap;
-  private final Map<String, Set<String>> roleToProductsMap;
+  private final CompiledProductRules productRules;
+
+  /**
+   * The last sync timestamp parsed. Conduit stamps every host of a sync with the same time, so
+   * consecutive hosts of an account mostly share it and only need it parsed once.
+   */
+  private volatile SyncTimestamp lastSync = new SyncTimestamp("", null);
 
   public FactNormalizer(
       ApplicationProperties props, ProductProfileRegistry profileRegistry, ApplicationClock clock) {
     this.clock = clock;
     this.hostSyncThresholdHours = props.getHostLastSyncThresholdHours();
-    this.engProductIdToSwatchProductIdsMap = profileRegistry.getEngProductIdToSwatchProductIdsMap();
-    this.roleToProductsMap = profileRegistry.getRoleToSwatchProductIdsMap();
+    this.productRules =
+        new CompiledProductRules(
+            profileRegistry.getEngProductIdToSwatchProductIdsMap(),
+            profileRegistry.getRoleToSwatchProductIdsMap());
   }
 
   public static boolean isRhelVariant(String product) {
@@ -72,21 +76,23 @@ public class FactNormalizer {
       InventoryHostFacts hostFacts, Map<String, String> reportedHypervisors) {
 
     NormalizedFacts normalizedFacts = new NormalizedFacts();
+    BitSet products = new BitSet();
     normalizeClassification(normalizedFacts, hostFacts, reportedHypervisors);
-    normalizeSystemProfileFacts(normalizedFacts, hostFacts);
-    normalizeSatelliteFacts(normalizedFacts, hostFacts);
-    normalizeRhsmFacts(normalizedFacts, hostFacts);
-    normalizeQpcFacts(normalizedFacts, hostFacts);
+    normalizeSystemProfileFacts(normalizedFacts, hostFacts, products);
+    normalizeSatelliteFacts(normalizedFacts, hostFacts, products);
+    normalizeRhsmFacts(normalizedFacts, hostFacts, products);
+    normalizeQpcFacts(hostFacts, products);
     normalizeSocketCount(normalizedFacts, hostFacts);
-    normalizeConflictingOrMissingRhelVariants(normalizedFacts);
-    pruneProducts(normalizedFacts);
+    productRules.resolveRhelVariants(products);
+    productRules.pruneProducts(products);
+    normalizedFacts.setProducts(productRules.toProducts(products));
     normalizeUnits(normalizedFacts, hostFacts);
     return normalizedFacts;
   }
 
   private void normalizeSatelliteFacts(
-      NormalizedFacts normalizedFacts, InventoryHostFacts hostFacts) {
-    handleRole(normalizedFacts, hostFacts.getSatelliteRole());
+      NormalizedFacts normalizedFacts, InventoryHostFacts hostFacts, BitSet products) {
+    productRules.applyRole(products, hostFacts.getSatelliteRole());
     handleSla(normalizedFacts, hostFacts, hostFacts.getSatelliteSla());
     handleUsage(normalizedFacts, hostFacts, hostFacts.getSatelliteUsage());
   }
@@ -156,20 +162,6 @@ public class FactNormalizer {
     return hardwareType;
   }
 
-  @SuppressWarnings("indentation")
-  private void pruneProducts(NormalizedFacts normalizedFacts) {
-    // If a Satellite or OpenShift product was found, do not include RHEL or its variants.
-    boolean hasRhelIncludedProduct =
-        normalizedFacts.getProducts().stream()
-            .anyMatch(s -> s.startsWith("Satellite") || s.startsWith("OpenShift"));
-    if (hasRhelIncludedProduct) {
-      normalizedFacts.setProducts(
-          normalizedFacts.getProducts().stream()
-              .filter(prod -> !prod.startsWith("RHEL"))
-              .collect(Collectors.toSet()));
-    }
-  }
-
   private void normalizeSocketCount(NormalizedFacts normalizedFacts, InventoryHostFacts hostFacts) {
     // modulo-2 rounding only applied to physical or hypervisors
     if (normalizedFacts.isHypervisor() || !isVirtual(hostFacts)) {
@@ -180,19 +172,8 @@ public class FactNormalizer {
     }
   }
 
-  private void normalizeConflictingOrMissingRhelVariants(NormalizedFacts normalizedFacts) {
-    long variantCount =
-        normalizedFacts.getProducts().stream().filter(FactNormalizer::isRhelVariant).count();
-
-    boolean hasRhel = normalizedFacts.getProducts().contains("RHEL");
-
-    if ((variantCount == 0 && hasRhel) || variantCount > 1) {
-      normalizedFacts.addProduct("RHEL Ungrouped");
-    }
-  }
-
   private void normalizeSystemProfileFacts(
-      NormalizedFacts normalizedFacts, InventoryHostFacts hostFacts) {
+      NormalizedFacts normalizedFacts, InventoryHostFacts hostFacts, BitSet products) {
     String cloudProvider = hostFacts.getCloudProvider();
     if (HardwareMeasurementType.isSupportedCloudProvider(cloudProvider)) {
       normalizedFacts.setCloudProviderType(
@@ -206,30 +187,11 @@ public class FactNormalizer {
       normalizedFacts.setCores(
           hostFacts.getSystemProfileCoresPerSocket() * hostFacts.getSystemProfileSockets());
     }
-    getProductsFromProductIds(normalizedFacts, hostFacts.getSystemProfileProductIds());
-  }
-
-  private void getProductsFromProductIds(
-      NormalizedFacts normalizedFacts, Collection<String> productIds) {
-    if (productIds == null) {
-      return;
-    }
-
-    for (String productId : productIds) {
-      try {
-        Integer numericProductId = Integer.parseInt(productId);
-        normalizedFacts
-            .getProducts()
-            .addAll(
-                engProductIdToSwatchProductIdsMap.getOrDefault(
-                    numericProductId, Collections.emptySet()));
-      } catch (NumberFormatException e) {
-        log.debug("Skipping non-numeric productId: {}", productId);
-      }
-    }
+    productRules.addEngineeringProducts(products, hostFacts.getSystemProfileProductIds());
   }
 
-  private void normalizeRhsmFacts(NormalizedFacts normalizedFacts, InventoryHostFacts hostFacts) {
+  private void normalizeRhsmFacts(
+      NormalizedFacts normalizedFacts, InventoryHostFacts hostFacts, BitSet products) {
     // If the host hasn't been seen by rhsm-conduit, consider the host as unregistered, and do not
     // apply this host's facts.
     //
@@ -237,9 +199,9 @@ public class FactNormalizer {
     //       records once a host no longer exists.
     String syncTimestamp = hostFacts.getSyncTimestamp();
     boolean skipRhsmFacts =
-        !syncTimestamp.isEmpty() && hostUnregistered(OffsetDateTime.parse(syncTimestamp));
+        !syncTimestamp.isEmpty() && hostUnregistered(parseSyncTimestamp(syncTimestamp));
     if (!skipRhsmFacts) {
-      getProductsFromProductIds(normalizedFacts, hostFacts.getProducts());
+      productRules.addEngineeringProducts(products, hostFacts.getProducts());
 
       // Check for cores and sockets. If not included, default to 0.
       if (normalizedFacts.getCores() == null || hostFacts.getCores() != 0) {
@@ -249,21 +211,12 @@ public class FactNormalizer {
         normalizedFacts.setSockets(hostFacts.getSockets());
       }
       normalizedFacts.setOwner(hostFacts.getOrgId());
-      handleRole(normalizedFacts, hostFacts.getSyspurposeRole());
+      productRules.applyRole(products, hostFacts.getSyspurposeRole());
       handleSla(normalizedFacts, hostFacts, hostFacts.getSyspurposeSla());
       handleUsage(normalizedFacts, hostFacts, hostFacts.getSyspurposeUsage());
     }
   }
 
-  private void handleRole(NormalizedFacts normalizedFacts, String role) {
-    if (role != null) {
-      normalizedFacts.getProducts().removeIf(FactNormalizer::isRhelVariant);
-      normalizedFacts
-          .getProducts()
-          .addAll(roleToProductsMap.getOrDefault(role, Collections.emptySet()));
-    }
-  }
-
   private void handleUsage(
       NormalizedFacts normalizedFacts, InventoryHostFacts hostFacts, String usage) {
     Usage effectiveUsage = Usage.fromString(usage);
@@ -296,12 +249,21 @@ public class FactNormalizer {
     }
   }
 
-  private void normalizeQpcFacts(NormalizedFacts normalizedFacts, InventoryHostFacts hostFacts) {
+  private void normalizeQpcFacts(InventoryHostFacts hostFacts, BitSet products) {
     // Check if this is a RHEL host and set product.
     if (hostFacts.getQpcProducts() != null && hostFacts.getQpcProducts().contains("RHEL")) {
-      normalizedFacts.addProduct("RHEL");
+      productRules.addRhel(products);
     }
-    getProductsFromProductIds(normalizedFacts, hostFacts.getQpcProductIds());
+    productRules.addEngineeringProducts(products, hostFacts.getQpcProductIds());
+  }
+
+  private OffsetDateTime parseSyncTimestamp(String syncTimestamp) {
+    SyncTimestamp last = lastSync;
+    if (!last.text.equals(syncTimestamp)) {
+      last = new SyncTimestamp(syncTimestamp, OffsetDateTime.parse(syncTimestamp));
+      lastSync = last;
+    }
+    return last.value;
   }
 
   /**
@@ -320,4 +282,15 @@ public class FactNormalizer {
     }
     return lastSync.isBefore(clock.now().minusHours(hostSyncThresholdHours));
   }
+
+  /** A sync timestamp along with its parsed value. */
+  private static class SyncTimestamp {
+    private final String text;
+    private final OffsetDateTime value;
+
+    SyncTimestamp(String text, OffsetDateTime value) {
+      this.text = text;
+      this.value = value;
+    }
+  }
 }
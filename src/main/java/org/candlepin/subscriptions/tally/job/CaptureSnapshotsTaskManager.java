@@ -33,6 +33,7 @@ import org.candlepin.subscriptions.tally.AccountListSourceException;
 import org.candlepin.subscriptions.tally.TallyTaskQueueConfiguration;
 import org.candlepin.subscriptions.task.TaskDescriptor;
 import org.candlepin.subscriptions.task.TaskManagerException;
+import org.candlepin.subscriptions.task.TaskPriority;
 import org.candlepin.subscriptions.task.TaskQueueProperties;
 import org.candlepin.subscriptions.task.TaskType;
 import org.candlepin.subscriptions.task.queue.TaskProducerConfiguration;
@@ -88,6 +89,7 @@ public class CaptureSnapshotsTaskManager {
     queue.enqueue(
         TaskDescriptor.builder(TaskType.UPDATE_SNAPSHOTS, taskQueueProperties.getTopic())
             .setSingleValuedArg("accounts", accountNumber)
+            .setPriority(TaskPriority.INTERACTIVE)
             .build());
   }
 
@@ -147,6 +149,7 @@ public class CaptureSnapshotsTaskManager {
             .setSingleValuedArg("accountNumber", accountNumber)
             .setSingleValuedArg("startDateTime", tallyRange.getStartString())
             .setSingleValuedArg("endDateTime", tallyRange.getEndString())
+            .setPriority(TaskPriority.HOURLY)
             .build());
   }
 
@@ -217,6 +220,7 @@ public class CaptureSnapshotsTaskManager {
                 // clone the list so that we can be sure that we don't clear references
                 // out from under the task queue should delivery be delayed for any reason.
                 .setArg("accounts", new ArrayList<>(queuedAccounts))
+                .setPriority(TaskPriority.BULK)
                 .build());
       } catch (Exception e) {
         log.error(
@@ -32,6 +32,7 @@ import java.util.function.Function;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 import org.candlepin.subscriptions.db.TallySnapshotRepository;
+import org.candlepin.subscriptions.db.TallySnapshotSpecification;
 import org.candlepin.subscriptions.db.model.Granularity;
 import org.candlepin.subscriptions.db.model.HardwareMeasurement;
 import org.candlepin.subscriptions.db.model.HardwareMeasurementType;
@@ -43,6 +44,7 @@ import org.candlepin.subscriptions.tally.UsageCalculation.Totals;
 import org.candlepin.subscriptions.util.ApplicationClock;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.data.jpa.domain.Specification;
 
 /**
  * Base class for all usage snapshot rollers. A snapshot roller is responsible compressing finer
@@ -74,6 +76,9 @@ public abstract class BaseSnapshotRoller {
   public abstract Collection<TallySnapshot> rollSnapshots(
       Collection<String> accounts, Collection<AccountUsageCalculation> accountCalcs);
 
+  /** @return the granularity of the snapshots produced by this roller. */
+  public abstract Granularity getGranularity();
+
   protected TallySnapshot createSnapshotFromProductUsageCalculation(
       String account, String owner, UsageCalculation productCalc, Granularity granularity) {
     TallySnapshot snapshot = new TallySnapshot();
@@ -144,7 +149,51 @@ public abstract class BaseSnapshotRoller {
       Collection<AccountUsageCalculation> accountCalcs,
       Map<String, List<TallySnapshot>> existingSnaps,
       Granularity targetGranularity) {
-    List<TallySnapshot> snaps = new LinkedList<>();
+    RollupResult result = computeSnapshots(accountCalcs, existingSnaps, targetGranularity);
+    tallyRepo.deleteAll(result.getDuplicates());
+    log.debug("Persisting {} {} snapshots.", result.getSnapshots().size(), targetGranularity);
+    return tallyRepo.saveAll(result.getSnapshots());
+  }
+
+  /**
+   * Builds the criteria matching the snapshots of the current period that this roller would update
+   * for the given calculations. Criteria from several rollers can be OR'd together to load the
+   * current snapshots of every granularity in a single query.
+   *
+   * @param accountCalcs the current calculations from the host inventory.
+   * @return the specification for this roller's current snapshots.
+   */
+  public Specification<TallySnapshot> getCurrentSnapshotsSpecification(
+      Collection<AccountUsageCalculation> accountCalcs) {
+    Granularity granularity = getGranularity();
+    OffsetDateTime now = clock.now();
+    return TallySnapshotSpecification.granularityPeriod(
+        granularity,
+        getApplicableProducts(accountCalcs, granularity),
+        clock.calculateStartOfRange(now, granularity),
+        clock.calculateEndOfRange(now, granularity));
+  }
+
+  /**
+   * Applies the calculations to already loaded snapshots of the current period without reading or
+   * writing the database. Rollers for different granularities work on distinct snapshots, so they
+   * can compute concurrently and leave persisting the result to the caller.
+   *
+   * @param accountCalcs the current calculations from the host inventory.
+   * @param existingSnaps the snapshots of the current period for this granularity, by account.
+   * @return the new and updated snapshots, along with any duplicates that should be removed.
+   */
+  public RollupResult computeSnapshots(
+      Collection<AccountUsageCalculation> accountCalcs,
+      Map<String, List<TallySnapshot>> existingSnaps) {
+    return computeSnapshots(accountCalcs, existingSnaps, getGranularity());
+  }
+
+  private RollupResult computeSnapshots(
+      Collection<AccountUsageCalculation> accountCalcs,
+      Map<String, List<TallySnapshot>> existingSnaps,
+      Granularity targetGranularity) {
+    RollupResult result = new RollupResult();
     for (AccountUsageCalculation accountCalc : accountCalcs) {
       String account = accountCalc.getAccount();
 
@@ -156,7 +205,7 @@ public abstract class BaseSnapshotRoller {
                     Collectors.toMap(
                         UsageCalculation.Key::fromTallySnapshot,
                         Function.identity(),
-                        this::handleDuplicateSnapshot));
+                        result::handleDuplicateSnapshot));
       }
 
       for (UsageCalculation.Key usageKey : accountCalc.getKeys()) {
@@ -175,24 +224,14 @@ public abstract class BaseSnapshotRoller {
                     accountCalc.getOwner(),
                     productCalc,
                     targetGranularity);
-            snaps.add(snap);
+            result.snapshots.add(snap);
           } else if (snap != null && updateMaxValues(snap, productCalc)) {
-            snaps.add(snap);
+            result.snapshots.add(snap);
           }
         }
       }
     }
-    log.debug("Persisting {} {} snapshots.", snaps.size(), targetGranularity);
-    return tallyRepo.saveAll(snaps);
-  }
-
-  private TallySnapshot handleDuplicateSnapshot(TallySnapshot snap1, TallySnapshot snap2) {
-    log.warn(
-        "Removing duplicate TallySnapshot granularity: {}, key: {}",
-        snap2.getGranularity(),
-        UsageCalculation.Key.fromTallySnapshot(snap2));
-    tallyRepo.delete(snap2);
-    return snap1;
+    return result;
   }
 
   protected Set<String> getApplicableProducts(
@@ -316,4 +355,29 @@ public abstract class BaseSnapshotRoller {
   private boolean mustUpdate(Integer v1, Integer v2) {
     return v1 == null || v2 > v1;
   }
+
+  /** The outcome of applying calculations to the current snapshots of a single granularity. */
+  public static class RollupResult {
+    private final List<TallySnapshot> snapshots = new LinkedList<>();
+    private final List<TallySnapshot> duplicates = new LinkedList<>();
+
+    /** @return the new and updated snapshots that need to be saved. */
+    public List<TallySnapshot> getSnapshots() {
+      return snapshots;
+    }
+
+    /** @return the duplicate snapshots that need to be deleted. */
+    public List<TallySnapshot> getDuplicates() {
+      return duplicates;
+    }
+
+    private TallySnapshot handleDuplicateSnapshot(TallySnapshot snap1, TallySnapshot snap2) {
+      log.warn(
+          "Removing duplicate TallySnapshot granularity: {}, key: {}",
+          snap2.getGranularity(),
+          UsageCalculation.Key.fromTallySnapshot(snap2));
+      duplicates.add(snap2);
+      return snap1;
+    }
+  }
 }
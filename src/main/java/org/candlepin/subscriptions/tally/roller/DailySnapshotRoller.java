@@ -26,6 +26,7 @@ import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 import org.candlepin.subscriptions.db.TallySnapshotRepository;
+import org.candlepin.subscriptions.db.model.Granularity;
 import org.candlepin.subscriptions.db.model.TallySnapshot;
 import org.candlepin.subscriptions.files.ProductProfileRegistry;
 import org.candlepin.subscriptions.tally.AccountUsageCalculation;
@@ -49,6 +50,11 @@ public class DailySnapshotRoller extends BaseSnapshotRoller {
     super(tallyRepo, clock, registry);
   }
 
+  @Override
+  public Granularity getGranularity() {
+    return DAILY;
+  }
+
   @Override
   @Transactional
   public Collection<TallySnapshot> rollSnapshots(
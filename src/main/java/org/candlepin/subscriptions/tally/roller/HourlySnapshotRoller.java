@@ -26,6 +26,7 @@ import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 import org.candlepin.subscriptions.db.TallySnapshotRepository;
+import org.candlepin.subscriptions.db.model.Granularity;
 import org.candlepin.subscriptions.db.model.TallySnapshot;
 import org.candlepin.subscriptions.files.ProductProfileRegistry;
 import org.candlepin.subscriptions.tally.AccountUsageCalculation;
@@ -48,6 +49,11 @@ public class HourlySnapshotRoller extends BaseSnapshotRoller {
     super(tallyRepo, clock, registry);
   }
 
+  @Override
+  public Granularity getGranularity() {
+    return HOURLY;
+  }
+
   @Override
   @Transactional
   public Collection<TallySnapshot> rollSnapshots(
@@ -45,16 +45,21 @@ import org.springframework.lang.NonNull;
  * object that defines the actual work that is to be done.
  *
  * <p>A descriptor can also specify any task arguments to customize task execution.
+ *
+ * <p>A descriptor carries a TaskPriority, BULK unless specified. The priority only affects
+ * scheduling, so it is not part of the identity of a descriptor.
  */
 public class TaskDescriptor {
 
   private final String groupId;
   private final TaskType type;
+  private final TaskPriority priority;
   private Map<String, List<String>> args;
 
   private TaskDescriptor(TaskDescriptorBuilder builder) {
     this.groupId = builder.groupId;
     this.type = builder.type;
+    this.priority = builder.priority;
     this.args = builder.args;
   }
 
@@ -66,6 +71,10 @@ public class TaskDescriptor {
     return type;
   }
 
+  public TaskPriority getPriority() {
+    return priority;
+  }
+
   public Map<String, List<String>> getTaskArgs() {
     return args;
   }
@@ -84,6 +93,7 @@ public class TaskDescriptor {
     builder.append("TaskDescriptor[");
     builder.append("groupId: " + groupId);
     builder.append(", taskType: " + type);
+    builder.append(", priority: " + priority);
     builder.append(", args: [");
 
     Iterator<Entry<String, List<String>>> iter = args.entrySet().iterator();
@@ -132,6 +142,8 @@ public class TaskDescriptor {
 
     @NonNull private final TaskType type;
 
+    @NonNull private TaskPriority priority = TaskPriority.BULK;
+
     private Map<String, List<String>> args;
 
     private TaskDescriptorBuilder(TaskType type, String groupId) {
@@ -150,6 +162,11 @@ public class TaskDescriptor {
       return this;
     }
 
+    public TaskDescriptorBuilder setPriority(TaskPriority priority) {
+      this.priority = priority;
+      return this;
+    }
+
     public TaskDescriptorBuilder setArgs(Map<String, List<String>> args) {
       this.args = new HashMap<>(args);
       return this;
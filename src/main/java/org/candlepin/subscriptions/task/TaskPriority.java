@@ -0,0 +1,68 @@
+/*
+ * Copyright Red Hat, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * Red Hat trademarks are not licensed under GPLv3. No permission is
+ * granted to use or replicate Red Hat trademarks that are incorporated
+ * in this software or its documentation.
+ */
+package org.candlepin.subscriptions.task;
+
+/**
+ * The scheduling priority of a task.
+ *
+ * <p>Pending tasks are dispatched in a weighted round robin across priorities: whenever a priority
+ * has pending tasks, it gets at least its weight's share of the dispatches, so that latency
+ * sensitive tasks are not stuck behind a bulk fan-out, and bulk tasks are never starved.
+ *
+ * <p>On Kafka, a queue with a priority topic sends the tasks above BULK to it, and a consumer of
+ * its own runs them, whatever the bulk backlog. Otherwise all priorities share one topic, and a
+ * Kafka consumer reorders only the tasks of a polled batch.
+ */
+public enum TaskPriority {
+  /** Tasks triggered on demand, e.g. by an opt-in or an operator. */
+  INTERACTIVE(6),
+  /** Periodic tasks on a deadline, e.g. hourly tallies and metering. */
+  HOURLY(3),
+  /** Tasks fanned out over every account, e.g. the nightly tally. */
+  BULK(1);
+
+  private final int weight;
+
+  TaskPriority(int weight) {
+    this.weight = weight;
+  }
+
+  public int getWeight() {
+    return weight;
+  }
+
+  /**
+   * Parse a priority name.
+   *
+   * @param name the priority name, possibly null for messages queued before priorities existed
+   * @return the matching priority, BULK when unknown
+   */
+  public static TaskPriority fromString(String name) {
+    if (name == null) {
+      return BULK;
+    }
+    try {
+      return valueOf(name);
+    } catch (IllegalArgumentException e) {
+      return BULK;
+    }
+  }
+}
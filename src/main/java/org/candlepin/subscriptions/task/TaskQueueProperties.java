@@ -20,6 +20,7 @@
  */
 package org.candlepin.subscriptions.task;
 
+import java.time.Duration;
 import java.time.OffsetDateTime;
 import lombok.Data;
 
@@ -31,9 +32,39 @@ public class TaskQueueProperties {
 
   private String topic;
 
+  /**
+   * When enabled, tasks above BULK priority are sent to priorityTopic, which is read by a kafka
+   * consumer of its own, so that they never wait behind the bulk tasks pending on topic.
+   */
+  private boolean priorityTopicEnabled = false;
+
+  /** Topic of the tasks above BULK priority, when priorityTopicEnabled. */
+  private String priorityTopic;
+
   private int executorTaskQueueThreadLimit = 20;
 
   private OffsetDateTime seekOverrideTimestamp = null;
 
   private boolean seekOverrideEnd = false;
+
+  /**
+   * Number of task messages a kafka consumer polls at a time. When greater than 1, messages are
+   * consumed in batches and executed by kafkaBatchThreads threads, keeping the order of messages
+   * with the same key.
+   */
+  private int kafkaBatchSize = 1;
+
+  /** Number of threads executing a polled batch of task messages, per kafka consumer. */
+  private int kafkaBatchThreads = 1;
+
+  /**
+   * Longest a single task is expected to run. A batch must complete within kafkaMaxPollInterval,
+   * and each of the kafkaBatchThreads threads runs its share of the batch one task after another,
+   * so batches are capped at kafkaBatchThreads * (kafkaMaxPollInterval / kafkaBatchMaxTaskDuration)
+   * messages.
+   */
+  private Duration kafkaBatchMaxTaskDuration = Duration.ofMinutes(5);
+
+  /** The max.poll.interval.ms of the kafka consumers. */
+  private Duration kafkaMaxPollInterval = Duration.ofMinutes(30);
 }
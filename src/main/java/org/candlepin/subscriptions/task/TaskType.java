@@ -25,5 +25,6 @@ public enum TaskType {
   UPDATE_SNAPSHOTS,
   UPDATE_ORG_INVENTORY,
   METRICS_COLLECTION,
+  METRICS_COLLECTION_ALL_ACCOUNTS,
   UPDATE_HOURLY_SNAPSHOTS
 }
@@ -0,0 +1,380 @@
+/*
+ * Copyright Red Hat, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * Red Hat trademarks are not licensed under GPLv3. No permission is
+ * granted to use or replicate Red Hat trademarks that are incorporated
+ * in this software or its documentation.
+ */
+package org.candlepin.subscriptions.task.queue;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.time.Duration;
+import java.time.OffsetDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import org.candlepin.subscriptions.task.TaskDescriptor;
+import org.candlepin.subscriptions.task.TaskPriority;
+import org.candlepin.subscriptions.util.ApplicationClock;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Collapses duplicate tasks, so that overlapping triggers (jobs, JMX operations, retries) do not
+ * run the same work back to back.
+ *
+ * <p>Tasks are the same when they share a group, type and arguments. Tasks working on a time range
+ * (startDateTime/endDateTime or start/end arguments) are compared without their range:
+ *
+ * <ul>
+ *   <li>on enqueue, a task is dropped when a task still pending or running, and enqueued within the
+ *       coalesce window, already covers its range;
+ *   <li>within a batch of pending tasks, tasks with overlapping or adjacent ranges are merged into
+ *       a single task over the widened range.
+ * </ul>
+ *
+ * <p>Within a batch, tasks over several accounts (the "accounts" argument of bulk tally tasks) are
+ * compared account by account, so that an account already part of a bulk task is not tallied
+ * twice. The accounts of a bulk task still alike afterwards are regrouped into a single task.
+ *
+ * <p>Consumers report the tasks they finish through {@link #completed(TaskDescriptor)}, which
+ * forgets the enqueued tasks they cover. The window bounds how long a task is remembered when its
+ * completion is never reported, e.g. when it runs in another process.
+ *
+ * <p>A task is only dropped in favor of one of the same or higher priority, and merged tasks take
+ * the highest priority among them. A zero window disables coalescing.
+ */
+public class TaskCoalescer {
+  private static final Logger log = LoggerFactory.getLogger(TaskCoalescer.class);
+
+  private static final String ACCOUNTS_ARG = "accounts";
+
+  private static final List<List<String>> RANGE_ARGS =
+      List.of(List.of("startDateTime", "endDateTime"), List.of("start", "end"));
+
+  private final Duration window;
+  private final ApplicationClock clock;
+  private final Counter coalescedTasks;
+  private final Map<TaskDescriptor, List<Enqueued>> pendingTasks = new HashMap<>();
+  private final Deque<Enqueued> enqueueOrder = new ArrayDeque<>();
+
+  public TaskCoalescer(Duration window, ApplicationClock clock, MeterRegistry meterRegistry) {
+    this.window = window;
+    this.clock = clock;
+    this.coalescedTasks = meterRegistry.counter("rhsm-subscriptions.tasks.coalesced");
+  }
+
+  public boolean isEnabled() {
+    return !window.isZero() && !window.isNegative();
+  }
+
+  /**
+   * Check whether a task should be enqueued, recording it if so.
+   *
+   * @param task the task about to be enqueued
+   * @return false if a pending task enqueued within the coalesce window already covers this one
+   */
+  public synchronized boolean shouldEnqueue(TaskDescriptor task) {
+    if (!isEnabled()) {
+      return true;
+    }
+    OffsetDateTime now = clock.now();
+    expire(now.minus(window));
+
+    RangedTask ranged = new RangedTask(null, task, null);
+    List<Enqueued> entries = pendingTasks.computeIfAbsent(ranged.key, k -> new ArrayList<>());
+    if (entries.stream().anyMatch(entry -> entry.task.covers(ranged))) {
+      log.debug("Coalesced task already pending: {}", task);
+      coalescedTasks.increment();
+      return false;
+    }
+    Enqueued enqueued = new Enqueued(ranged, now);
+    entries.add(enqueued);
+    enqueueOrder.addLast(enqueued);
+    return true;
+  }
+
+  /**
+   * Forget the enqueued tasks covered by a finished task, so that later duplicates are enqueued
+   * again. The finished task may be one merged from several enqueued tasks.
+   *
+   * @param task the task that finished running, successfully or not
+   */
+  public synchronized void completed(TaskDescriptor task) {
+    if (!isEnabled()) {
+      return;
+    }
+    RangedTask done = new RangedTask(null, task, null);
+    List<Enqueued> entries = pendingTasks.get(done.key);
+    if (entries != null) {
+      entries.removeIf(entry -> done.spans(entry.task));
+      if (entries.isEmpty()) {
+        pendingTasks.remove(done.key);
+      }
+    }
+  }
+
+  /**
+   * Forget the tasks enqueued before the given time. Tasks are expired in enqueue order, so each
+   * call only visits the tasks it removes.
+   */
+  private void expire(OffsetDateTime expiry) {
+    while (!enqueueOrder.isEmpty() && enqueueOrder.peekFirst().enqueued.isBefore(expiry)) {
+      Enqueued expired = enqueueOrder.removeFirst();
+      List<Enqueued> entries = pendingTasks.get(expired.task.key);
+      // Tasks forgotten on completion are no longer listed.
+      if (entries != null && entries.remove(expired) && entries.isEmpty()) {
+        pendingTasks.remove(expired.task.key);
+      }
+    }
+  }
+
+  /**
+   * Collapse the duplicates of a batch of pending tasks, merging tasks whose ranges overlap or
+   * touch. Merged tasks take the place of the last task merged into them, so that they still run
+   * after everything queued before any of their duplicates.
+   *
+   * @param tasks pending tasks, in execution order
+   * @return the tasks left to execute
+   */
+  public List<TaskDescriptor> coalesce(List<TaskDescriptor> tasks) {
+    if (!isEnabled() || tasks.size() < 2) {
+      return tasks;
+    }
+    List<Map.Entry<String, TaskDescriptor>> entries = new ArrayList<>(tasks.size());
+    tasks.forEach(task -> entries.add(Map.entry("", task)));
+    return coalesceLanes(entries).get("");
+  }
+
+  /**
+   * Collapse the duplicates of a batch of pending tasks spread over lanes, as {@link
+   * #coalesce(List)} does. A merged task runs in the lane of the last task merged into it.
+   *
+   * @param tasks pending tasks with the key of their lane, in execution order
+   * @return the tasks left to execute by lane, the lanes in order of their first task
+   */
+  public Map<String, List<TaskDescriptor>> coalesceLanes(
+      List<Map.Entry<String, TaskDescriptor>> tasks) {
+    List<Map.Entry<String, TaskDescriptor>> result = tasks;
+    if (isEnabled() && tasks.size() > 1) {
+      List<RangedTask> merged = new ArrayList<>(tasks.size());
+      boolean coalesced = false;
+      for (Map.Entry<String, TaskDescriptor> task : tasks) {
+        for (RangedTask ranged : splitAccounts(task.getKey(), task.getValue())) {
+          Iterator<RangedTask> existing = merged.iterator();
+          while (existing.hasNext()) {
+            RangedTask candidate = existing.next();
+            if (candidate.canMerge(ranged)) {
+              ranged.merge(candidate);
+              existing.remove();
+              coalescedTasks.increment();
+              coalesced = true;
+            }
+          }
+          merged.add(ranged);
+        }
+      }
+      if (coalesced) {
+        result = regroupAccounts(merged);
+        log.info("Coalesced {} pending tasks into {}", tasks.size(), result.size());
+      }
+    }
+    Map<String, List<TaskDescriptor>> lanes = new LinkedHashMap<>();
+    for (Map.Entry<String, TaskDescriptor> task : result) {
+      lanes.computeIfAbsent(task.getKey(), key -> new ArrayList<>()).add(task.getValue());
+    }
+    return lanes;
+  }
+
+  /** Split a task over several accounts into one task per account. */
+  private static List<RangedTask> splitAccounts(String lane, TaskDescriptor task) {
+    if (!task.hasArg(ACCOUNTS_ARG) || task.getArg(ACCOUNTS_ARG).size() < 2) {
+      return List.of(new RangedTask(lane, task, null));
+    }
+    List<RangedTask> split = new ArrayList<>(task.getArg(ACCOUNTS_ARG).size());
+    for (String account : task.getArg(ACCOUNTS_ARG)) {
+      TaskDescriptor single =
+          TaskDescriptor.builder(task.getTaskType(), task.getGroupId())
+              .setArgs(task.getTaskArgs())
+              .setSingleValuedArg(ACCOUNTS_ARG, account)
+              .setPriority(task.getPriority())
+              .build();
+      split.add(new RangedTask(lane, single, task));
+    }
+    return split;
+  }
+
+  /** Join consecutive accounts split from the same task, and still alike, back into one task. */
+  private static List<Map.Entry<String, TaskDescriptor>> regroupAccounts(List<RangedTask> tasks) {
+    List<Map.Entry<String, TaskDescriptor>> result = new ArrayList<>(tasks.size());
+    int groupStart = 0;
+    for (int i = 1; i <= tasks.size(); i++) {
+      if (i < tasks.size() && tasks.get(groupStart).isGroupedWith(tasks.get(i))) {
+        continue;
+      }
+      String lane = tasks.get(groupStart).lane;
+      TaskDescriptor first = tasks.get(groupStart).toTaskDescriptor();
+      if (i - groupStart == 1) {
+        result.add(Map.entry(lane, first));
+      } else {
+        List<String> accounts = new ArrayList<>(i - groupStart);
+        for (RangedTask task : tasks.subList(groupStart, i)) {
+          accounts.addAll(task.key.getArg(ACCOUNTS_ARG));
+        }
+        result.add(
+            Map.entry(
+                lane,
+                TaskDescriptor.builder(first.getTaskType(), first.getGroupId())
+                    .setArgs(first.getTaskArgs())
+                    .setArg(ACCOUNTS_ARG, accounts)
+                    .setPriority(first.getPriority())
+                    .build()));
+      }
+      groupStart = i;
+    }
+    return result;
+  }
+
+  private static class Enqueued {
+    private final RangedTask task;
+    private final OffsetDateTime enqueued;
+
+    private Enqueued(RangedTask task, OffsetDateTime enqueued) {
+      this.task = task;
+      this.enqueued = enqueued;
+    }
+  }
+
+  /** A task split into its identity (the task without its range) and its range, if any. */
+  private static class RangedTask {
+    private final String lane;
+    private final TaskDescriptor original;
+    private final TaskDescriptor splitFrom;
+    private final TaskDescriptor key;
+    private final List<String> rangeArgs;
+    private TaskPriority priority;
+    private String startString;
+    private String endString;
+    private OffsetDateTime start;
+    private OffsetDateTime end;
+
+    private RangedTask(String lane, TaskDescriptor task, TaskDescriptor splitFrom) {
+      this.lane = lane;
+      this.original = task;
+      this.splitFrom = splitFrom;
+      this.priority = task.getPriority();
+      List<String> foundArgs = null;
+      for (List<String> candidate : RANGE_ARGS) {
+        if (task.hasArg(candidate.get(0)) && task.hasArg(candidate.get(1))) {
+          try {
+            startString = task.getArg(candidate.get(0)).get(0);
+            endString = task.getArg(candidate.get(1)).get(0);
+            start = OffsetDateTime.parse(startString);
+            end = OffsetDateTime.parse(endString);
+            foundArgs = candidate;
+            break;
+          } catch (DateTimeParseException e) {
+            start = null;
+            end = null;
+          }
+        }
+      }
+      this.rangeArgs = foundArgs;
+      if (rangeArgs == null) {
+        this.key = task;
+      } else {
+        Map<String, List<String>> args = new HashMap<>(task.getTaskArgs());
+        rangeArgs.forEach(args::remove);
+        this.key =
+            TaskDescriptor.builder(task.getTaskType(), task.getGroupId()).setArgs(args).build();
+      }
+    }
+
+    private boolean hasRange() {
+      return rangeArgs != null;
+    }
+
+    private boolean covers(RangedTask other) {
+      return priority.compareTo(other.priority) <= 0 && spans(other);
+    }
+
+    /** Whether this task's range includes the other's, whatever their priorities. */
+    private boolean spans(RangedTask other) {
+      if (!hasRange() || !other.hasRange()) {
+        return !hasRange() && !other.hasRange();
+      }
+      return !start.isAfter(other.start) && !end.isBefore(other.end);
+    }
+
+    private boolean isGroupedWith(RangedTask other) {
+      return splitFrom != null
+          && splitFrom == other.splitFrom
+          && priority == other.priority
+          && Objects.equals(startString, other.startString)
+          && Objects.equals(endString, other.endString);
+    }
+
+    private boolean canMerge(RangedTask other) {
+      if (!key.equals(other.key) || hasRange() != other.hasRange()) {
+        return false;
+      }
+      return !hasRange() || (!start.isAfter(other.end) && !other.start.isAfter(end));
+    }
+
+    private void merge(RangedTask other) {
+      if (other.priority.compareTo(priority) < 0) {
+        priority = other.priority;
+      }
+      if (!hasRange()) {
+        return;
+      }
+      if (other.start.isBefore(start)) {
+        start = other.start;
+        startString = other.startString;
+      }
+      if (other.end.isAfter(end)) {
+        end = other.end;
+        endString = other.endString;
+      }
+    }
+
+    private TaskDescriptor toTaskDescriptor() {
+      if (!hasRange()) {
+        if (priority == original.getPriority()) {
+          return original;
+        }
+        return TaskDescriptor.builder(key.getTaskType(), key.getGroupId())
+            .setArgs(key.getTaskArgs())
+            .setPriority(priority)
+            .build();
+      }
+      return TaskDescriptor.builder(key.getTaskType(), key.getGroupId())
+          .setArgs(key.getTaskArgs())
+          .setPriority(priority)
+          .setSingleValuedArg(rangeArgs.get(0), startString)
+          .setSingleValuedArg(rangeArgs.get(1), endString)
+          .build();
+    }
+  }
+}
@@ -20,10 +20,12 @@
  */
 package org.candlepin.subscriptions.task.queue;
 
+import io.micrometer.core.instrument.MeterRegistry;
 import org.candlepin.subscriptions.task.queue.inmemory.ExecutorTaskQueue;
 import org.candlepin.subscriptions.task.queue.inmemory.ExecutorTaskQueueConsumerFactory;
 import org.candlepin.subscriptions.task.queue.kafka.KafkaTaskConsumerConfiguration;
 import org.candlepin.subscriptions.task.queue.kafka.KafkaTaskConsumerFactory;
+import org.candlepin.subscriptions.util.ApplicationClock;
 import org.candlepin.subscriptions.util.KafkaConsumerRegistry;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnBean;
 import org.springframework.context.annotation.Bean;
@@ -38,18 +40,24 @@ import org.springframework.context.annotation.Primary;
  * bean for the TaskConsumer.
  */
 @Configuration
-@Import(KafkaTaskConsumerConfiguration.class)
+@Import({KafkaTaskConsumerConfiguration.class, TaskCoalescerConfiguration.class})
 public class TaskConsumerConfiguration {
   @Bean
   @Primary
   @ConditionalOnBean(KafkaTaskConsumerConfiguration.class)
-  KafkaTaskConsumerFactory kakfaTaskConsumerFactory(KafkaConsumerRegistry kafkaConsumerRegistry) {
-    return new KafkaTaskConsumerFactory(kafkaConsumerRegistry);
+  KafkaTaskConsumerFactory kakfaTaskConsumerFactory(
+      KafkaConsumerRegistry kafkaConsumerRegistry,
+      TaskCoalescer taskCoalescer,
+      MeterRegistry meterRegistry,
+      ApplicationClock clock) {
+    return new KafkaTaskConsumerFactory(
+        kafkaConsumerRegistry, taskCoalescer, meterRegistry, clock);
   }
 
   @Bean
   @ConditionalOnBean(ExecutorTaskQueue.class)
-  ExecutorTaskQueueConsumerFactory inMemoryTaskConsumerFactory(ExecutorTaskQueue queue) {
-    return new ExecutorTaskQueueConsumerFactory(queue);
+  ExecutorTaskQueueConsumerFactory inMemoryTaskConsumerFactory(
+      ExecutorTaskQueue queue, MeterRegistry meterRegistry) {
+    return new ExecutorTaskQueueConsumerFactory(queue, meterRegistry);
   }
 }
@@ -0,0 +1,51 @@
+/*
+ * Copyright Red Hat, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * Red Hat trademarks are not licensed under GPLv3. No permission is
+ * granted to use or replicate Red Hat trademarks that are incorporated
+ * in this software or its documentation.
+ */
+package org.candlepin.subscriptions.task.queue;
+
+import java.util.List;
+import org.candlepin.subscriptions.task.TaskDescriptor;
+
+/** Derives the key used to keep related tasks in order, in every task queue implementation. */
+public class TaskKeys {
+
+  /** Task args identifying the account (or org) a task works on, in order of preference. */
+  private static final List<String> ORDERING_ARGS =
+      List.of("accountNumber", "account", "accounts", "org_id");
+
+  private TaskKeys() {
+    throw new IllegalStateException("Utility class; should never be instantiated!");
+  }
+
+  /**
+   * Tasks working on the same account share an ordering key, and must be executed in the order
+   * they were queued.
+   *
+   * @param taskDescriptor the task
+   * @return the account (or org) the task works on, or null if unknown
+   */
+  public static String orderingKey(TaskDescriptor taskDescriptor) {
+    return ORDERING_ARGS.stream()
+        .filter(taskDescriptor::hasArg)
+        .findFirst()
+        .map(arg -> String.join(",", taskDescriptor.getArg(arg)))
+        .orElse(null);
+  }
+}
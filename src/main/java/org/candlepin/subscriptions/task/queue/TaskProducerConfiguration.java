@@ -27,7 +27,11 @@ import org.springframework.context.annotation.Import;
 
 /** Configuration necessary for components which produce tasks onto one or more task queues. */
 @Configuration
-@Import({KafkaTaskProducerConfiguration.class, ExecutorTaskQueueConfiguration.class})
+@Import({
+  KafkaTaskProducerConfiguration.class,
+  ExecutorTaskQueueConfiguration.class,
+  TaskCoalescerConfiguration.class
+})
 public class TaskProducerConfiguration {
   /* Intentionally empty */
 }
@@ -0,0 +1,61 @@
+/*
+ * Copyright Red Hat, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * Red Hat trademarks are not licensed under GPLv3. No permission is
+ * granted to use or replicate Red Hat trademarks that are incorporated
+ * in this software or its documentation.
+ */
+package org.candlepin.subscriptions.task.queue;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+import org.candlepin.subscriptions.task.TaskPriority;
+
+/**
+ * Histograms of the time tasks wait between being queued and starting execution, per queue and
+ * priority, published as rhsm-subscriptions.tasks.queue.wait.
+ */
+public class TaskWaitTimers {
+  private final Map<TaskPriority, Timer> timers = new EnumMap<>(TaskPriority.class);
+
+  public TaskWaitTimers(MeterRegistry meterRegistry, String queue) {
+    for (TaskPriority priority : TaskPriority.values()) {
+      timers.put(
+          priority,
+          Timer.builder("rhsm-subscriptions.tasks.queue.wait")
+              .tag("queue", queue)
+              .tag("priority", priority.name().toLowerCase(Locale.ROOT))
+              .publishPercentileHistogram()
+              .register(meterRegistry));
+    }
+  }
+
+  /**
+   * Record the wait of a task.
+   *
+   * @param priority the priority of the task
+   * @param wait the time between queuing and execution; ignored when negative (e.g. clock skew)
+   */
+  public void record(TaskPriority priority, Duration wait) {
+    if (!wait.isNegative()) {
+      timers.get(priority).record(wait);
+    }
+  }
+}
@@ -0,0 +1,248 @@
+/*
+ * Copyright Red Hat, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * Red Hat trademarks are not licensed under GPLv3. No permission is
+ * granted to use or replicate Red Hat trademarks that are incorporated
+ * in this software or its documentation.
+ */
+package org.candlepin.subscriptions.task.queue;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+import org.candlepin.subscriptions.task.TaskPriority;
+
+/**
+ * Hands out pending items in a smooth weighted round robin across their {@link TaskPriority}.
+ *
+ * <p>On each pick, every priority with pending items earns credit equal to its weight, and the
+ * priority with the most credit is picked and pays back the total weight of the pending
+ * priorities. Over any run of picks, each pending priority thus gets its weight's share, and items
+ * of a priority are handed out in the order they were added. Credit is not banked while a priority
+ * has no pending items.
+ *
+ * <p>Items sharing an ordering key are always handed out in the order they were added, whatever
+ * their priority: when the next item of the picked priority has pending predecessors with the same
+ * key, the earliest of those is handed out in its place. A higher priority item thus pulls the
+ * earlier items of its key ahead along with it.
+ *
+ * <p>A dispatcher with a positive capacity blocks {@link #put} while it is full. Once closed,
+ * {@link #take} hands out the remaining items, and then returns empty.
+ *
+ * @param <T> the type of the pending items
+ */
+public class WeightedTaskDispatcher<T> {
+  private final ReentrantLock lock = new ReentrantLock();
+  private final Condition notEmpty = lock.newCondition();
+  private final Condition notFull = lock.newCondition();
+  private final Map<TaskPriority, Deque<Pending<T>>> pending = new EnumMap<>(TaskPriority.class);
+  private final Map<TaskPriority, Integer> counts = new EnumMap<>(TaskPriority.class);
+  private final Map<TaskPriority, Integer> credits = new EnumMap<>(TaskPriority.class);
+  private final Map<String, Deque<Pending<T>>> pendingByKey = new HashMap<>();
+  private final Function<? super T, String> orderingKey;
+  private final int capacity;
+  private int size;
+  private boolean closed;
+
+  public WeightedTaskDispatcher() {
+    this(0);
+  }
+
+  /** @param capacity maximum number of pending items; zero or less for no limit */
+  public WeightedTaskDispatcher(int capacity) {
+    this(capacity, item -> null);
+  }
+
+  /**
+   * @param capacity maximum number of pending items; zero or less for no limit
+   * @param orderingKey gives the key of the items to hand out in order; null for unordered items
+   */
+  public WeightedTaskDispatcher(int capacity, Function<? super T, String> orderingKey) {
+    this.capacity = capacity;
+    this.orderingKey = orderingKey;
+    for (TaskPriority priority : TaskPriority.values()) {
+      pending.put(priority, new ArrayDeque<>());
+      counts.put(priority, 0);
+    }
+  }
+
+  /**
+   * Add an item, waiting for room if the dispatcher is full.
+   *
+   * @param priority the priority of the item
+   * @param item the item
+   * @throws InterruptedException if interrupted while waiting
+   */
+  public void put(TaskPriority priority, T item) throws InterruptedException {
+    lock.lockInterruptibly();
+    try {
+      while (isFull()) {
+        notFull.await();
+      }
+      add(priority, item);
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Add an item if there is room.
+   *
+   * @param priority the priority of the item
+   * @param item the item
+   * @return false if the dispatcher is full
+   */
+  public boolean offer(TaskPriority priority, T item) {
+    lock.lock();
+    try {
+      if (isFull()) {
+        return false;
+      }
+      add(priority, item);
+      return true;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Take the next item, waiting for one if none is pending.
+   *
+   * @return the next item, or empty once the dispatcher is closed and drained
+   * @throws InterruptedException if interrupted while waiting
+   */
+  public Optional<T> take() throws InterruptedException {
+    lock.lockInterruptibly();
+    try {
+      while (size == 0 && !closed) {
+        notEmpty.await();
+      }
+      return Optional.ofNullable(next());
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /** @return the next item, or null if none is pending */
+  public T poll() {
+    lock.lock();
+    try {
+      return next();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /** Stop waiting for items once the pending ones are taken. */
+  public void close() {
+    lock.lock();
+    try {
+      closed = true;
+      notEmpty.signalAll();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  public int size() {
+    lock.lock();
+    try {
+      return size;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  private boolean isFull() {
+    return capacity > 0 && size >= capacity;
+  }
+
+  private void add(TaskPriority priority, T item) {
+    Pending<T> entry = new Pending<>(item, priority, orderingKey.apply(item));
+    pending.get(priority).add(entry);
+    counts.merge(priority, 1, Integer::sum);
+    if (entry.key != null) {
+      pendingByKey.computeIfAbsent(entry.key, k -> new ArrayDeque<>()).add(entry);
+    }
+    size++;
+    notEmpty.signal();
+  }
+
+  private T next() {
+    if (size == 0) {
+      return null;
+    }
+    TaskPriority selected = null;
+    int totalWeight = 0;
+    for (TaskPriority priority : TaskPriority.values()) {
+      if (counts.get(priority) == 0) {
+        credits.remove(priority);
+        continue;
+      }
+      int credit = credits.merge(priority, priority.getWeight(), Integer::sum);
+      totalWeight += priority.getWeight();
+      if (selected == null || credit > credits.get(selected)) {
+        selected = priority;
+      }
+    }
+    credits.merge(selected, -totalWeight, Integer::sum);
+
+    Deque<Pending<T>> queue = pending.get(selected);
+    dropTaken(queue);
+    Pending<T> entry = queue.peekFirst();
+    if (entry.key != null) {
+      // Hand out the earliest pending item of the key, which may have a lower priority.
+      Deque<Pending<T>> keyed = pendingByKey.get(entry.key);
+      entry = keyed.pollFirst();
+      if (keyed.isEmpty()) {
+        pendingByKey.remove(entry.key);
+      }
+    }
+    // Items taken ahead of their priority are left in its queue until they reach its head.
+    entry.taken = true;
+    dropTaken(pending.get(entry.priority));
+    counts.merge(entry.priority, -1, Integer::sum);
+    size--;
+    notFull.signal();
+    return entry.item;
+  }
+
+  private static <T> void dropTaken(Deque<Pending<T>> queue) {
+    while (!queue.isEmpty() && queue.peekFirst().taken) {
+      queue.pollFirst();
+    }
+  }
+
+  /** A pending item, along with its priority and ordering key. */
+  private static class Pending<T> {
+    private final T item;
+    private final TaskPriority priority;
+    private final String key;
+    private boolean taken;
+
+    private Pending(T item, TaskPriority priority, String key) {
+      this.item = item;
+      this.priority = priority;
+      this.key = key;
+    }
+  }
+}
@@ -20,50 +20,139 @@
  */
 package org.candlepin.subscriptions.task.queue.inmemory;
 
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Metrics;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
 import java.util.Optional;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 import javax.annotation.PreDestroy;
 import org.candlepin.subscriptions.task.TaskDescriptor;
 import org.candlepin.subscriptions.task.TaskExecutionException;
 import org.candlepin.subscriptions.task.TaskFactory;
 import org.candlepin.subscriptions.task.TaskWorker;
 import org.candlepin.subscriptions.task.queue.TaskConsumer;
+import org.candlepin.subscriptions.task.queue.TaskKeys;
+import org.candlepin.subscriptions.task.queue.TaskWaitTimers;
+import org.candlepin.subscriptions.task.queue.inmemory.ExecutorTaskQueue.QueuedTask;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
 
 /**
  * Processor that is responsible for running queued tasks.
  *
  * <p>Uses a separate thread to convert TaskDescriptors into actual tasks.
  *
+ * <p>Tasks are run on a number of single-threaded lanes. Tasks sharing an ordering key (e.g. the
+ * same account) always go to the same lane, so they run one at a time in the order they were
+ * queued, while tasks for other keys run in parallel. At most {@link #LANE_BACKLOG} tasks per lane
+ * are dispatched ahead of execution. Tasks whose lane is full are parked for it rather than waited
+ * for, so that a busy lane doesn't hold back the tasks of the other lanes; each is handed to its
+ * lane, in order, as the lane frees up. Only once lanes x LANE_BACKLOG tasks are parked does the
+ * dispatcher wait, leaving further tasks in the queue, which in turn pushes back on producers. The
+ * lane backlog is kept short so that most pending tasks are still in the queue, where they are
+ * taken by priority.
+ *
  * @see ExecutorTaskQueue
  */
 public class ExecutorTaskProcessor implements TaskConsumer {
   private static final Logger log = LoggerFactory.getLogger(ExecutorTaskProcessor.class);
 
-  private final ExecutorService executor;
+  static final int LANE_BACKLOG = 10;
+
+  private final List<ExecutorService> lanes;
+  private final List<Semaphore> lanePermits;
+  private final List<Deque<QueuedTask>> parked;
+  private final int maxParked;
+  /** Guards parked and parkedCount. */
+  private final Object parkLock = new Object();
+
+  private int parkedCount;
   private final ExecutorTaskQueue queue;
   private final String queueId;
   private final TaskFactory taskFactory;
+  private final AtomicInteger nextLane = new AtomicInteger();
+  private final TaskWaitTimers waitTimers;
   private final Thread thread;
 
   public ExecutorTaskProcessor(
       ExecutorService executor, TaskFactory taskFactory, ExecutorTaskQueue queue, String queueId) {
-    this.executor = executor;
+    this(List.of(executor), taskFactory, queue, queueId, Metrics.globalRegistry);
+  }
+
+  /**
+   * Create a processor running tasks on the given number of lanes.
+   *
+   * @param threads number of lanes, i.e. of tasks run in parallel
+   * @param taskFactory factory of the tasks to run
+   * @param queue queue to take tasks from
+   * @param queueId id of the queue group to take tasks from
+   * @param meterRegistry registry of the wait time and in-flight metrics
+   */
+  public ExecutorTaskProcessor(
+      int threads,
+      TaskFactory taskFactory,
+      ExecutorTaskQueue queue,
+      String queueId,
+      MeterRegistry meterRegistry) {
+    this(createLanes(threads, queueId), taskFactory, queue, queueId, meterRegistry);
+  }
+
+  private ExecutorTaskProcessor(
+      List<ExecutorService> lanes,
+      TaskFactory taskFactory,
+      ExecutorTaskQueue queue,
+      String queueId,
+      MeterRegistry meterRegistry) {
+    this.lanes = lanes;
     this.taskFactory = taskFactory;
     this.queue = queue;
     this.queueId = queueId;
+    this.lanePermits =
+        lanes.stream().map(lane -> new Semaphore(LANE_BACKLOG)).collect(Collectors.toList());
+    this.parked =
+        lanes.stream().map(lane -> new ArrayDeque<QueuedTask>()).collect(Collectors.toList());
+    this.maxParked = lanes.size() * LANE_BACKLOG;
+    this.waitTimers = new TaskWaitTimers(meterRegistry, queueId);
+    int maxInFlight = lanes.size() * LANE_BACKLOG;
+    Gauge.builder(
+            "rhsm-subscriptions.tasks.queue.in_flight",
+            lanePermits,
+            permits ->
+                maxInFlight - permits.stream().mapToInt(Semaphore::availablePermits).sum())
+        .tag("queue", queueId)
+        .register(meterRegistry);
     this.thread = new Thread(this::run);
     this.thread.start();
   }
 
+  private static List<ExecutorService> createLanes(int threads, String queueId) {
+    return IntStream.range(0, Math.max(1, threads))
+        .mapToObj(
+            i ->
+                Executors.newSingleThreadExecutor(
+                    new CustomizableThreadFactory(queueId + "-lane-" + i + "-")))
+        .collect(Collectors.toList());
+  }
+
   private void processTask(TaskDescriptor taskDescriptor) {
     TaskWorker worker = new TaskWorker(taskFactory);
     try {
       worker.executeTask(taskDescriptor);
     } catch (TaskExecutionException e) {
       log.error("An error occurred running a task.", e);
+    } finally {
+      queue.completed(taskDescriptor);
     }
   }
 
@@ -84,17 +173,30 @@ public class ExecutorTaskProcessor implements TaskConsumer {
   public void shutdown(long timeout, TimeUnit timeUnit) throws InterruptedException {
     this.queue.shutdown();
     this.thread.join();
-    this.executor.shutdown();
-    this.executor.awaitTermination(timeout, timeUnit);
+    // Parked tasks are only handed to their lane as it frees up, so wait for them first.
+    long deadline = System.nanoTime() + timeUnit.toNanos(timeout);
+    synchronized (parkLock) {
+      while (parkedCount > 0) {
+        long remaining = deadline - System.nanoTime();
+        if (remaining <= 0) {
+          break;
+        }
+        TimeUnit.NANOSECONDS.timedWait(parkLock, remaining);
+      }
+    }
+    this.lanes.forEach(ExecutorService::shutdown);
+    for (ExecutorService lane : this.lanes) {
+      lane.awaitTermination(timeout, timeUnit);
+    }
   }
 
   private void run() {
     log.info("Starting in-memory task processor");
     while (true) {
       try {
-        Optional<TaskDescriptor> task = queue.take(queueId);
+        Optional<QueuedTask> task = queue.take(queueId);
         if (task.isPresent()) {
-          this.executor.execute(() -> this.processTask(task.get()));
+          dispatch(task.get());
         } else {
           log.info("Stopping in-memory task processor");
           break;
@@ -104,4 +206,65 @@ public class ExecutorTaskProcessor implements TaskConsumer {
       }
     }
   }
+
+  private void dispatch(QueuedTask task) throws InterruptedException {
+    int lane = laneFor(task.getTaskDescriptor());
+    Semaphore permits = lanePermits.get(lane);
+    synchronized (parkLock) {
+      Deque<QueuedTask> laneParked = parked.get(lane);
+      // Tasks already parked for the lane go first, to keep the order of the lane's tasks.
+      while (!laneParked.isEmpty() || !permits.tryAcquire()) {
+        if (parkedCount < maxParked) {
+          laneParked.addLast(task);
+          parkedCount++;
+          return;
+        }
+        parkLock.wait();
+      }
+    }
+    try {
+      lanes.get(lane).execute(() -> runDispatched(task, lane));
+    } catch (RuntimeException e) {
+      permits.release();
+      throw e;
+    }
+  }
+
+  private void runDispatched(QueuedTask task, int lane) {
+    try {
+      waitTimers.record(
+          task.getTaskDescriptor().getPriority(),
+          Duration.ofNanos(System.nanoTime() - task.getQueuedNanos()));
+      processTask(task.getTaskDescriptor());
+    } finally {
+      releaseLane(lane);
+    }
+  }
+
+  /**
+   * Hand the permit of a finished task to the next task parked for its lane, queued behind the
+   * lane's dispatched tasks, or release the permit if none is parked.
+   */
+  private void releaseLane(int lane) {
+    synchronized (parkLock) {
+      QueuedTask next = parked.get(lane).pollFirst();
+      if (next == null) {
+        lanePermits.get(lane).release();
+      } else {
+        parkedCount--;
+        lanes.get(lane).execute(() -> runDispatched(next, lane));
+      }
+      parkLock.notifyAll();
+    }
+  }
+
+  private int laneFor(TaskDescriptor taskDescriptor) {
+    if (lanes.size() == 1) {
+      return 0;
+    }
+    String key = TaskKeys.orderingKey(taskDescriptor);
+    return key == null
+        ? Math.floorMod(nextLane.getAndIncrement(), lanes.size())
+        : Math.floorMod(key.hashCode(), lanes.size());
+  }
 }
@@ -20,46 +20,70 @@
  */
 package org.candlepin.subscriptions.task.queue.inmemory;
 
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Metrics;
 import java.util.Map;
 import java.util.Optional;
-import java.util.concurrent.ArrayBlockingQueue;
-import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import javax.ws.rs.core.Response;
 import org.candlepin.subscriptions.exception.ErrorCode;
 import org.candlepin.subscriptions.exception.SubscriptionsException;
 import org.candlepin.subscriptions.task.TaskDescriptor;
+import org.candlepin.subscriptions.task.queue.TaskCoalescer;
+import org.candlepin.subscriptions.task.queue.TaskKeys;
 import org.candlepin.subscriptions.task.queue.TaskQueue;
+import org.candlepin.subscriptions.task.queue.WeightedTaskDispatcher;
 
 /**
- * An TaskQueue implementation that uses an {@link ExecutorService} to queue/execute tasks.
+ * An in-memory TaskQueue implementation, whose tasks are run by an {@link ExecutorTaskProcessor}.
  *
- * <p>The behavior of the TaskQueue is dependent on the {@link ExecutorService} instance that is
- * passed to the constructor.
+ * <p>Each task group has its own queue of pending tasks. Once a queue holds its capacity of tasks,
+ * enqueuing blocks until the processor catches up, unless spilling is enabled, in which case the
+ * queue is unbounded. Pending tasks are taken in a weighted round robin across their priorities,
+ * except that tasks sharing an ordering key (e.g. the same account) are always taken in the order
+ * they were queued. The depth of each queue is exposed as a gauge.
  *
- * <p>If configured with {@link Executors#newCachedThreadPool()}, the queuing is done by starting a
- * new thread for each queued task.
- *
- * <p>If configured with {@link Executors#newSingleThreadExecutor()}, then the task queue is backed
- * by an unbound queue.
- *
- * <p>Custom queuing mechanisms can be implemented by configuring a {@link
- * java.util.concurrent.ThreadPoolExecutor} with a custom implementation of {@link
- * java.util.concurrent.BlockingQueue}.
- *
- * @see ExecutorService
- * @see Executors
+ * @see WeightedTaskDispatcher
  */
 public class ExecutorTaskQueue implements TaskQueue {
-  private final Map<String, BlockingQueue<Optional<TaskDescriptor>>> queues =
-      new ConcurrentHashMap<>();
+  public static final int DEFAULT_CAPACITY = 1024;
+
+  private final Map<String, WeightedTaskDispatcher<QueuedTask>> queues = new ConcurrentHashMap<>();
+  private final TaskCoalescer taskCoalescer;
+  private final int capacity;
+  private final boolean spillEnabled;
+  private final MeterRegistry meterRegistry;
+
+  public ExecutorTaskQueue() {
+    this(null, DEFAULT_CAPACITY, false, Metrics.globalRegistry);
+  }
+
+  /**
+   * @param taskCoalescer drops tasks duplicating pending ones; null to queue every task
+   * @param capacity number of pending tasks per group before enqueuing blocks
+   * @param spillEnabled queue tasks beyond the capacity instead of blocking
+   * @param meterRegistry registry of the queue depth gauges
+   */
+  public ExecutorTaskQueue(
+      TaskCoalescer taskCoalescer,
+      int capacity,
+      boolean spillEnabled,
+      MeterRegistry meterRegistry) {
+    this.taskCoalescer = taskCoalescer;
+    this.capacity = capacity;
+    this.spillEnabled = spillEnabled;
+    this.meterRegistry = meterRegistry;
+  }
 
   @Override
   public void enqueue(TaskDescriptor taskDescriptor) {
+    if (taskCoalescer != null && !taskCoalescer.shouldEnqueue(taskDescriptor)) {
+      return;
+    }
     try {
-      getQueue(taskDescriptor.getGroupId()).put(Optional.of(taskDescriptor));
+      getQueue(taskDescriptor.getGroupId())
+          .put(taskDescriptor.getPriority(), new QueuedTask(taskDescriptor, System.nanoTime()));
     } catch (InterruptedException e) {
       Thread.currentThread().interrupt();
       throw new SubscriptionsException(
@@ -70,23 +94,52 @@ public class ExecutorTaskQueue implements TaskQueue {
     }
   }
 
-  private BlockingQueue<Optional<TaskDescriptor>> getQueue(String groupId) {
-    return queues.computeIfAbsent(groupId, k -> new ArrayBlockingQueue<>(1024));
+  private WeightedTaskDispatcher<QueuedTask> getQueue(String groupId) {
+    return queues.computeIfAbsent(groupId, this::createQueue);
+  }
+
+  private WeightedTaskDispatcher<QueuedTask> createQueue(String groupId) {
+    WeightedTaskDispatcher<QueuedTask> queue =
+        new WeightedTaskDispatcher<>(
+            spillEnabled ? 0 : capacity,
+            task -> TaskKeys.orderingKey(task.getTaskDescriptor()));
+    Gauge.builder("rhsm-subscriptions.tasks.queue.depth", queue, WeightedTaskDispatcher::size)
+        .tag("queue", groupId)
+        .register(meterRegistry);
+    return queue;
   }
 
-  Optional<TaskDescriptor> take(String queueId) throws InterruptedException {
+  Optional<QueuedTask> take(String queueId) throws InterruptedException {
     return getQueue(queueId).take();
   }
 
+  /** Report a task taken from this queue as finished, so that its duplicates are queued again. */
+  void completed(TaskDescriptor taskDescriptor) {
+    if (taskCoalescer != null) {
+      taskCoalescer.completed(taskDescriptor);
+    }
+  }
+
   void shutdown() {
-    queues.values().forEach(this::shutdownQueue);
+    queues.values().forEach(WeightedTaskDispatcher::close);
   }
 
-  private void shutdownQueue(BlockingQueue<Optional<TaskDescriptor>> queue) {
-    try {
-      queue.put(Optional.empty());
-    } catch (InterruptedException e) {
-      Thread.currentThread().interrupt();
+  /** A pending task, along with when it was queued. */
+  static class QueuedTask {
+    private final TaskDescriptor taskDescriptor;
+    private final long queuedNanos;
+
+    QueuedTask(TaskDescriptor taskDescriptor, long queuedNanos) {
+      this.taskDescriptor = taskDescriptor;
+      this.queuedNanos = queuedNanos;
+    }
+
+    TaskDescriptor getTaskDescriptor() {
+      return taskDescriptor;
+    }
+
+    long getQueuedNanos() {
+      return queuedNanos;
     }
   }
 }
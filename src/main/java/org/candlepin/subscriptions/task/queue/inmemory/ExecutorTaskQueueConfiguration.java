@@ -20,6 +20,9 @@
  */
 package org.candlepin.subscriptions.task.queue.inmemory;
 
+import io.micrometer.core.instrument.MeterRegistry;
+import org.candlepin.subscriptions.ApplicationProperties;
+import org.candlepin.subscriptions.task.queue.TaskCoalescer;
 import org.candlepin.subscriptions.task.queue.TaskConsumerConfiguration;
 import org.candlepin.subscriptions.task.queue.TaskQueue;
 import org.slf4j.Logger;
@@ -38,15 +41,22 @@ public class ExecutorTaskQueueConfiguration {
   /**
    * Creates an in-memory queue, implemented with {@link java.util.concurrent.ThreadPoolExecutor}.
    *
-   * <p>Does not block while executing a task. Spin up a new thread for each task, only practically
-   * bound by amount of memory available.
+   * <p>Does not block while executing a task. Pending tasks are held up to the configured
+   * capacity, beyond which queuing a task blocks, unless spilling is enabled.
    *
    * @see TaskConsumerConfiguration
    */
   @Bean
   @ConditionalOnMissingBean(TaskQueue.class)
-  ExecutorTaskQueue inMemoryQueue() {
+  ExecutorTaskQueue inMemoryQueue(
+      TaskCoalescer taskCoalescer,
+      ApplicationProperties applicationProperties,
+      MeterRegistry meterRegistry) {
     log.info("Configuring an in-memory task queue.");
-    return new ExecutorTaskQueue();
+    return new ExecutorTaskQueue(
+        taskCoalescer,
+        applicationProperties.getInMemoryTaskQueueCapacity(),
+        applicationProperties.isInMemoryTaskQueueSpillEnabled(),
+        meterRegistry);
   }
 }
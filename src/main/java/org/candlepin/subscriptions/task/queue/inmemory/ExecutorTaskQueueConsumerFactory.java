@@ -20,7 +20,7 @@
  */
 package org.candlepin.subscriptions.task.queue.inmemory;
 
-import java.util.concurrent.Executors;
+import io.micrometer.core.instrument.MeterRegistry;
 import org.candlepin.subscriptions.task.TaskFactory;
 import org.candlepin.subscriptions.task.TaskQueueProperties;
 import org.candlepin.subscriptions.task.queue.TaskConsumerFactory;
@@ -29,9 +29,12 @@ import org.candlepin.subscriptions.task.queue.TaskConsumerFactory;
 public class ExecutorTaskQueueConsumerFactory
     implements TaskConsumerFactory<ExecutorTaskProcessor> {
   private final ExecutorTaskQueue executorTaskQueue;
+  private final MeterRegistry meterRegistry;
 
-  public ExecutorTaskQueueConsumerFactory(ExecutorTaskQueue executorTaskQueue) {
+  public ExecutorTaskQueueConsumerFactory(
+      ExecutorTaskQueue executorTaskQueue, MeterRegistry meterRegistry) {
     this.executorTaskQueue = executorTaskQueue;
+    this.meterRegistry = meterRegistry;
   }
 
   @Override
@@ -39,9 +42,10 @@ public class ExecutorTaskQueueConsumerFactory
       TaskFactory taskFactory, TaskQueueProperties taskQueueProperties) {
 
     return new ExecutorTaskProcessor(
-        Executors.newFixedThreadPool(taskQueueProperties.getExecutorTaskQueueThreadLimit()),
+        taskQueueProperties.getExecutorTaskQueueThreadLimit(),
         taskFactory,
         executorTaskQueue,
-        taskQueueProperties.getTopic());
+        taskQueueProperties.getTopic(),
+        meterRegistry);
   }
 }
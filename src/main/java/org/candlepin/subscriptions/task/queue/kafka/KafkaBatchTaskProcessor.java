@@ -0,0 +1,242 @@
+/*
+ * Copyright Red Hat, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * Red Hat trademarks are not licensed under GPLv3. No permission is
+ * granted to use or replicate Red Hat trademarks that are incorporated
+ * in this software or its documentation.
+ */
+package org.candlepin.subscriptions.task.queue.kafka;
+
+import com.google.common.util.concurrent.Uninterruptibles;
+import io.micrometer.core.annotation.Timed;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import javax.annotation.PreDestroy;
+import lombok.Getter;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.candlepin.subscriptions.task.TaskDescriptor;
+import org.candlepin.subscriptions.task.TaskExecutionException;
+import org.candlepin.subscriptions.task.TaskFactory;
+import org.candlepin.subscriptions.task.TaskPriority;
+import org.candlepin.subscriptions.task.TaskQueueProperties;
+import org.candlepin.subscriptions.task.TaskWorker;
+import org.candlepin.subscriptions.task.queue.TaskCoalescer;
+import org.candlepin.subscriptions.task.queue.TaskConsumer;
+import org.candlepin.subscriptions.task.queue.TaskWaitTimers;
+import org.candlepin.subscriptions.task.queue.WeightedTaskDispatcher;
+import org.candlepin.subscriptions.task.queue.kafka.message.TaskMessage;
+import org.candlepin.subscriptions.util.ApplicationClock;
+import org.candlepin.subscriptions.util.KafkaConsumerRegistry;
+import org.candlepin.subscriptions.util.SeekableKafkaConsumer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.kafka.annotation.KafkaListener;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+/**
+ * Receives task messages from Kafka in batches of up to kafkaBatchSize records. Each thread can run
+ * kafkaMaxPollInterval / kafkaBatchMaxTaskDuration tasks before the consumer is considered failed
+ * and the batch is redelivered, so batches are capped at kafkaBatchThreads times that budget.
+ *
+ * <p>The records of a batch are split into lanes by message key, i.e. by account. Records without
+ * a key have no order to keep, so they are spread over kafkaBatchThreads lanes per partition. Lanes
+ * are executed in parallel on a pool of kafkaBatchThreads threads, and the records of a lane are
+ * executed in order. An account with more distinct tasks in a batch than a thread's budget can
+ * still make the batch outlast the poll interval, which is logged. The listener only returns once
+ * every lane is done, even when a lane fails, so the container commits the offsets of a batch only
+ * after all of its records were executed, and a redelivered batch never runs alongside the lanes
+ * of its previous delivery.
+ *
+ * <p>Duplicate tasks of a batch are collapsed by the {@link TaskCoalescer} before execution, even
+ * across lanes (e.g. an account of a bulk task and a task for that account alone); a merged task
+ * runs in the lane of its last duplicate.
+ * Lanes are then started in a weighted round robin across the highest priority of their tasks, so
+ * that latency sensitive tasks of a batch are not stuck behind bulk ones.
+ */
+public class KafkaBatchTaskProcessor extends SeekableKafkaConsumer implements TaskConsumer {
+  private static final Logger log = LoggerFactory.getLogger(KafkaBatchTaskProcessor.class);
+
+  private final TaskWorker worker;
+  private final TaskCoalescer taskCoalescer;
+  private final TaskWaitTimers waitTimers;
+  private final ApplicationClock clock;
+  @Getter private final int batchSize;
+  private final int threads;
+  private final long laneBudget;
+  private final ExecutorService executor;
+
+  public KafkaBatchTaskProcessor(
+      TaskFactory taskFactory,
+      TaskQueueProperties taskQueueProperties,
+      KafkaConsumerRegistry kafkaConsumerRegistry,
+      TaskCoalescer taskCoalescer,
+      MeterRegistry meterRegistry,
+      ApplicationClock clock) {
+    super(taskQueueProperties, kafkaConsumerRegistry);
+    worker = new TaskWorker(taskFactory);
+    this.taskCoalescer = taskCoalescer;
+    this.clock = clock;
+    waitTimers = new TaskWaitTimers(meterRegistry, taskQueueProperties.getTopic());
+    threads = Math.max(1, taskQueueProperties.getKafkaBatchThreads());
+    laneBudget = getLaneBudget(taskQueueProperties);
+    batchSize = getMaxBatchSize(taskQueueProperties, threads, laneBudget);
+    executor =
+        threads > 1
+            ? Executors.newFixedThreadPool(
+                threads, new CustomizableThreadFactory(taskQueueProperties.getTopic() + "-batch-"))
+            : null;
+  }
+
+  /** Number of tasks a single thread can run one after another within the max poll interval. */
+  private static long getLaneBudget(TaskQueueProperties taskQueueProperties) {
+    return Math.max(
+        1,
+        taskQueueProperties.getKafkaMaxPollInterval().toMillis()
+            / Math.max(1, taskQueueProperties.getKafkaBatchMaxTaskDuration().toMillis()));
+  }
+
+  private static int getMaxBatchSize(
+      TaskQueueProperties taskQueueProperties, int threads, long laneBudget) {
+    int maxBatchSize =
+        (int) Math.max(1, Math.min(taskQueueProperties.getKafkaBatchSize(), threads * laneBudget));
+    if (maxBatchSize < taskQueueProperties.getKafkaBatchSize()) {
+      log.warn(
+          "Capping kafka batches of topic {} to {} messages, so that they complete within the max "
+              + "poll interval of {}.",
+          taskQueueProperties.getTopic(),
+          maxBatchSize,
+          taskQueueProperties.getKafkaMaxPollInterval());
+    }
+    return maxBatchSize;
+  }
+
+  @PreDestroy
+  public void destroy() {
+    if (executor != null) {
+      executor.shutdown();
+    }
+  }
+
+  @KafkaListener(
+      id = "#{__listener.groupId}",
+      topics = "#{__listener.topic}",
+      containerFactory = "kafkaBatchListenerContainerFactory",
+      properties = "max.poll.records=#{__listener.batchSize}")
+  @Timed("rhsm-subscriptions.task.batch.execution")
+  public void receive(List<ConsumerRecord<String, TaskMessage>> records) {
+    log.info("Received batch of {} messages from kafka", records.size());
+    List<Map.Entry<String, TaskDescriptor>> tasks = new ArrayList<>(records.size());
+    int keyless = 0;
+    for (ConsumerRecord<String, TaskMessage> record : records) {
+      TaskDescriptor task = describe(record.value());
+      if (task != null) {
+        KafkaTaskProcessor.recordWait(waitTimers, clock, task, record);
+        String laneKey =
+            record.key() != null
+                ? record.key()
+                : "partition-" + record.partition() + "-" + keyless++ % threads;
+        tasks.add(Map.entry(laneKey, task));
+      }
+    }
+    Map<String, List<TaskDescriptor>> lanes = taskCoalescer.coalesceLanes(tasks);
+    lanes.forEach(
+        (laneKey, lane) -> {
+          if (lane.size() > laneBudget) {
+            log.warn(
+                "Lane {} has {} tasks, more than the {} a thread runs within the poll interval.",
+                laneKey,
+                lane.size(),
+                laneBudget);
+          }
+        });
+
+    WeightedTaskDispatcher<List<TaskDescriptor>> dispatcher = new WeightedTaskDispatcher<>();
+    lanes.values().forEach(lane -> dispatcher.offer(getPriority(lane), lane));
+    if (executor == null) {
+      for (List<TaskDescriptor> lane = dispatcher.poll(); lane != null; lane = dispatcher.poll()) {
+        executeLane(lane);
+      }
+      return;
+    }
+    List<Future<?>> futures = new ArrayList<>(lanes.size());
+    for (List<TaskDescriptor> lane = dispatcher.poll(); lane != null; lane = dispatcher.poll()) {
+      List<TaskDescriptor> next = lane;
+      futures.add(executor.submit(() -> executeLane(next)));
+    }
+    // Wait for every lane even if one fails, so that a redelivery of the batch doesn't execute
+    // tasks alongside the lanes still running.
+    RuntimeException failure = null;
+    for (Future<?> future : futures) {
+      RuntimeException laneFailure = awaitLane(future);
+      if (failure == null) {
+        failure = laneFailure;
+      }
+    }
+    if (failure != null) {
+      throw failure;
+    }
+  }
+
+  private TaskDescriptor describe(TaskMessage taskMessage) {
+    try {
+      log.info("Message received from kafka: {}", taskMessage);
+      return KafkaTaskProcessor.describe(taskMessage);
+    } catch (TaskExecutionException e) {
+      log.error("Failed to execute task: {}", taskMessage, e);
+      return null;
+    }
+  }
+
+  private static TaskPriority getPriority(List<TaskDescriptor> lane) {
+    return lane.stream()
+        .map(TaskDescriptor::getPriority)
+        .min(Comparator.naturalOrder())
+        .orElse(TaskPriority.BULK);
+  }
+
+  private void executeLane(List<TaskDescriptor> lane) {
+    for (TaskDescriptor task : lane) {
+      try {
+        worker.executeTask(task);
+      } catch (TaskExecutionException e) {
+        // If a task fails to execute for any reason, it is logged and will
+        // not get retried.
+        log.error("Failed to execute task: {}", task, e);
+      } finally {
+        taskCoalescer.completed(task);
+      }
+    }
+  }
+
+  private static RuntimeException awaitLane(Future<?> future) {
+    try {
+      Uninterruptibles.getUninterruptibly(future);
+      return null;
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof RuntimeException) {
+        return (RuntimeException) e.getCause();
+      }
+      return new IllegalStateException("Unable to execute task messages", e.getCause());
+    }
+  }
+}
@@ -104,6 +104,23 @@ public class KafkaConfigurator {
   public KafkaListenerContainerFactory<ConcurrentMessageListenerContainer<String, TaskMessage>>
       defaultListenerContainerFactory(
           ConsumerFactory<String, TaskMessage> consumerFactory, KafkaProperties kafkaProperties) {
+    return taskMessageListenerContainerFactory(consumerFactory, kafkaProperties);
+  }
+
+  public KafkaListenerContainerFactory<ConcurrentMessageListenerContainer<String, TaskMessage>>
+      batchListenerContainerFactory(
+          ConsumerFactory<String, TaskMessage> consumerFactory, KafkaProperties kafkaProperties) {
+    ConcurrentKafkaListenerContainerFactory<String, TaskMessage> factory =
+        taskMessageListenerContainerFactory(consumerFactory, kafkaProperties);
+    factory.setBatchListener(true);
+    // commit the offsets of a batch once the listener has executed all of its records
+    factory.getContainerProperties().setAckMode(AckMode.BATCH);
+    return factory;
+  }
+
+  private ConcurrentKafkaListenerContainerFactory<String, TaskMessage>
+      taskMessageListenerContainerFactory(
+          ConsumerFactory<String, TaskMessage> consumerFactory, KafkaProperties kafkaProperties) {
     ConcurrentKafkaListenerContainerFactory<String, TaskMessage> factory =
         new ConcurrentKafkaListenerContainerFactory<>();
     factory.setConsumerFactory(consumerFactory);
@@ -60,4 +60,12 @@ public class KafkaTaskConsumerConfiguration {
 
     return kafkaConfigurator.defaultListenerContainerFactory(consumerFactory, kafkaProperties);
   }
+
+  @Bean
+  KafkaListenerContainerFactory<ConcurrentMessageListenerContainer<String, TaskMessage>>
+      kafkaBatchListenerContainerFactory(
+          ConsumerFactory<String, TaskMessage> consumerFactory, KafkaProperties kafkaProperties) {
+
+    return kafkaConfigurator.batchListenerContainerFactory(consumerFactory, kafkaProperties);
+  }
 }
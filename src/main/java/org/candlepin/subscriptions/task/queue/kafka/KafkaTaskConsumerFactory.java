@@ -20,24 +20,89 @@
  */
 package org.candlepin.subscriptions.task.queue.kafka;
 
+import io.micrometer.core.instrument.MeterRegistry;
 import org.candlepin.subscriptions.task.TaskFactory;
 import org.candlepin.subscriptions.task.TaskQueueProperties;
+import org.candlepin.subscriptions.task.queue.TaskCoalescer;
+import org.candlepin.subscriptions.task.queue.TaskConsumer;
 import org.candlepin.subscriptions.task.queue.TaskConsumerFactory;
+import org.candlepin.subscriptions.util.ApplicationClock;
 import org.candlepin.subscriptions.util.KafkaConsumerRegistry;
 
-/** Task consumer factory that creates consumers that read tasks from a kafka topic. */
-public class KafkaTaskConsumerFactory implements TaskConsumerFactory<KafkaTaskProcessor> {
+/**
+ * Task consumer factory that creates consumers that read tasks from a kafka topic.
+ *
+ * <p>Creates a {@link KafkaBatchTaskProcessor} when the queue's kafkaBatchSize is greater than 1,
+ * and a {@link KafkaTaskProcessor} otherwise. Only the former orders tasks by priority, and only
+ * within a batch. Queues with a priority topic get a second consumer for it, see {@link
+ * #createPriorityTaskConsumer(TaskFactory, TaskQueueProperties)}.
+ */
+public class KafkaTaskConsumerFactory implements TaskConsumerFactory<TaskConsumer> {
 
   private final KafkaConsumerRegistry kafkaConsumerRegistry;
+  private final TaskCoalescer taskCoalescer;
+  private final MeterRegistry meterRegistry;
+  private final ApplicationClock clock;
 
-  public KafkaTaskConsumerFactory(KafkaConsumerRegistry kafkaConsumerRegistry) {
+  public KafkaTaskConsumerFactory(
+      KafkaConsumerRegistry kafkaConsumerRegistry,
+      TaskCoalescer taskCoalescer,
+      MeterRegistry meterRegistry,
+      ApplicationClock clock) {
     this.kafkaConsumerRegistry = kafkaConsumerRegistry;
+    this.taskCoalescer = taskCoalescer;
+    this.meterRegistry = meterRegistry;
+    this.clock = clock;
   }
 
   @Override
-  public KafkaTaskProcessor createTaskConsumer(
+  public TaskConsumer createTaskConsumer(
       TaskFactory taskFactory, TaskQueueProperties taskQueueProperties) {
 
-    return new KafkaTaskProcessor(taskFactory, taskQueueProperties, kafkaConsumerRegistry);
+    if (taskQueueProperties.getKafkaBatchSize() > 1) {
+      return new KafkaBatchTaskProcessor(
+          taskFactory,
+          taskQueueProperties,
+          kafkaConsumerRegistry,
+          taskCoalescer,
+          meterRegistry,
+          clock);
+    }
+    return new KafkaTaskProcessor(
+        taskFactory,
+        taskQueueProperties,
+        kafkaConsumerRegistry,
+        taskCoalescer,
+        meterRegistry,
+        clock);
+  }
+
+  /**
+   * Create the consumer of the priority topic of a queue. It reads one message at a time, in a
+   * consumer group of its own, so that tasks above BULK priority are executed as they arrive,
+   * whatever the backlog of the queue's topic.
+   *
+   * @param taskFactory the factory of the tasks of the queue
+   * @param taskQueueProperties the properties of the queue, with priorityTopicEnabled
+   * @return the consumer of the queue's priority topic
+   */
+  public TaskConsumer createPriorityTaskConsumer(
+      TaskFactory taskFactory, TaskQueueProperties taskQueueProperties) {
+    if (!taskQueueProperties.isPriorityTopicEnabled()) {
+      throw new IllegalStateException(
+          "No priority topic enabled for topic " + taskQueueProperties.getTopic());
+    }
+    TaskQueueProperties priorityProperties = new TaskQueueProperties();
+    priorityProperties.setTopic(taskQueueProperties.getPriorityTopic());
+    priorityProperties.setKafkaGroupId(taskQueueProperties.getKafkaGroupId() + "-priority");
+    priorityProperties.setSeekOverrideEnd(taskQueueProperties.isSeekOverrideEnd());
+    priorityProperties.setSeekOverrideTimestamp(taskQueueProperties.getSeekOverrideTimestamp());
+    return new KafkaTaskProcessor(
+        taskFactory,
+        priorityProperties,
+        kafkaConsumerRegistry,
+        taskCoalescer,
+        meterRegistry,
+        clock);
   }
 }
@@ -21,55 +21,99 @@
 package org.candlepin.subscriptions.task.queue.kafka;
 
 import io.micrometer.core.annotation.Timed;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.time.Duration;
+import java.time.Instant;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
 import org.candlepin.subscriptions.task.TaskDescriptor;
 import org.candlepin.subscriptions.task.TaskExecutionException;
 import org.candlepin.subscriptions.task.TaskFactory;
+import org.candlepin.subscriptions.task.TaskPriority;
 import org.candlepin.subscriptions.task.TaskQueueProperties;
 import org.candlepin.subscriptions.task.TaskType;
 import org.candlepin.subscriptions.task.TaskWorker;
+import org.candlepin.subscriptions.task.queue.TaskCoalescer;
 import org.candlepin.subscriptions.task.queue.TaskConsumer;
+import org.candlepin.subscriptions.task.queue.TaskWaitTimers;
 import org.candlepin.subscriptions.task.queue.kafka.message.TaskMessage;
+import org.candlepin.subscriptions.util.ApplicationClock;
 import org.candlepin.subscriptions.util.KafkaConsumerRegistry;
 import org.candlepin.subscriptions.util.SeekableKafkaConsumer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.kafka.annotation.KafkaListener;
 
-/** Responsible for receiving task messages from Kafka when they become available. */
+/**
+ * Responsible for receiving task messages from Kafka when they become available.
+ *
+ * <p>Messages are executed one at a time in the order they were received, so task priorities are
+ * ignored; see {@link KafkaBatchTaskProcessor} for priority ordering within a batch. The consumer
+ * of a priority topic is one of these, in a consumer group of its own.
+ */
 public class KafkaTaskProcessor extends SeekableKafkaConsumer implements TaskConsumer {
   private static final Logger log = LoggerFactory.getLogger(KafkaTaskProcessor.class);
 
   private final TaskWorker worker;
+  private final TaskCoalescer taskCoalescer;
+  private final TaskWaitTimers waitTimers;
+  private final ApplicationClock clock;
 
   public KafkaTaskProcessor(
       TaskFactory taskFactory,
       TaskQueueProperties taskQueueProperties,
-      KafkaConsumerRegistry kafkaConsumerRegistry) {
+      KafkaConsumerRegistry kafkaConsumerRegistry,
+      TaskCoalescer taskCoalescer,
+      MeterRegistry meterRegistry,
+      ApplicationClock clock) {
     super(taskQueueProperties, kafkaConsumerRegistry);
     worker = new TaskWorker(taskFactory);
+    this.taskCoalescer = taskCoalescer;
+    this.clock = clock;
+    waitTimers = new TaskWaitTimers(meterRegistry, taskQueueProperties.getTopic());
   }
 
   @KafkaListener(id = "#{__listener.groupId}", topics = "#{__listener.topic}")
   @Timed("rhsm-subscriptions.task.execution")
-  public void receive(TaskMessage taskMessage) {
+  public void receive(ConsumerRecord<String, TaskMessage> record) {
+    TaskMessage taskMessage = record.value();
+    TaskDescriptor task = null;
     try {
       log.info("Message received from kafka: {}", taskMessage);
-      worker.executeTask(describe(taskMessage));
+      task = describe(taskMessage);
+      recordWait(waitTimers, clock, task, record);
+      worker.executeTask(task);
     } catch (TaskExecutionException e) {
       // If a task fails to execute for any reason, it is logged and will
       // not get retried.
       log.error("Failed to execute task: {}", taskMessage, e);
+    } finally {
+      if (task != null) {
+        taskCoalescer.completed(task);
+      }
     }
   }
 
-  private TaskDescriptor describe(TaskMessage message) throws TaskExecutionException {
+  static TaskDescriptor describe(TaskMessage message) throws TaskExecutionException {
     try {
       return TaskDescriptor.builder(TaskType.valueOf(message.getType()), message.getGroupId())
           .setArgs(message.getArgs())
+          .setPriority(TaskPriority.fromString(message.getPriority()))
           .build();
     } catch (IllegalArgumentException | NullPointerException e) {
       throw new TaskExecutionException(
           String.format("Unknown TaskType received from message: %s", message.getType()));
     }
   }
+
+  static void recordWait(
+      TaskWaitTimers waitTimers,
+      ApplicationClock clock,
+      TaskDescriptor task,
+      ConsumerRecord<String, TaskMessage> record) {
+    if (record.timestamp() >= 0) {
+      waitTimers.record(
+          task.getPriority(),
+          Duration.between(Instant.ofEpochMilli(record.timestamp()), clock.now().toInstant()));
+    }
+  }
 }
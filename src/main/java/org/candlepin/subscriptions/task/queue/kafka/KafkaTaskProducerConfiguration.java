@@ -20,12 +20,17 @@
  */
 package org.candlepin.subscriptions.task.queue.kafka;
 
+import java.util.HashMap;
 import java.util.Map;
 import org.apache.kafka.clients.producer.ProducerConfig;
 import org.apache.kafka.common.serialization.StringSerializer;
+import org.candlepin.subscriptions.ApplicationProperties;
 import org.candlepin.subscriptions.json.TallySummary;
+import org.candlepin.subscriptions.task.TaskQueueProperties;
+import org.candlepin.subscriptions.task.queue.TaskCoalescer;
 import org.candlepin.subscriptions.task.queue.TaskQueue;
 import org.candlepin.subscriptions.task.queue.kafka.message.TaskMessage;
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.autoconfigure.kafka.KafkaProperties;
 import org.springframework.context.annotation.Bean;
@@ -65,12 +70,18 @@ public class KafkaTaskProducerConfiguration {
 
   @Bean
   public ProducerFactory<String, TallySummary> tallySummaryProducerFactory(
-      KafkaProperties kafkaProperties) {
+      KafkaProperties kafkaProperties, ApplicationProperties applicationProperties) {
+    // TallySummary JSON is highly repetitive, so compressing and lingering to fill batches keeps
+    // the record count and size down after a retally
     Map<String, Object> configProps =
         Map.of(
             ProducerConfig.BOOTSTRAP_SERVERS_CONFIG, kafkaProperties.getBootstrapServers(),
             ProducerConfig.KEY_SERIALIZER_CLASS_CONFIG, StringSerializer.class,
-            ProducerConfig.VALUE_SERIALIZER_CLASS_CONFIG, JsonSerializer.class);
+            ProducerConfig.VALUE_SERIALIZER_CLASS_CONFIG, JsonSerializer.class,
+            ProducerConfig.COMPRESSION_TYPE_CONFIG,
+                applicationProperties.getTallySummaryCompressionType(),
+            ProducerConfig.LINGER_MS_CONFIG,
+                applicationProperties.getTallySummaryLinger().toMillis());
 
     return new DefaultKafkaProducerFactory<>(configProps);
   }
@@ -82,7 +93,17 @@ public class KafkaTaskProducerConfiguration {
   }
 
   @Bean
-  public TaskQueue kafkaTaskQueue(KafkaTemplate<String, TaskMessage> producer) {
-    return new KafkaTaskQueue(producer);
+  public TaskQueue kafkaTaskQueue(
+      KafkaTemplate<String, TaskMessage> producer,
+      TaskCoalescer taskCoalescer,
+      ObjectProvider<TaskQueueProperties> taskQueues) {
+    Map<String, String> priorityTopics = new HashMap<>();
+    taskQueues.forEach(
+        taskQueue -> {
+          if (taskQueue.isPriorityTopicEnabled()) {
+            priorityTopics.put(taskQueue.getTopic(), taskQueue.getPriorityTopic());
+          }
+        });
+    return new KafkaTaskQueue(producer, taskCoalescer, priorityTopics);
   }
 }
@@ -20,7 +20,11 @@
  */
 package org.candlepin.subscriptions.task.queue.kafka;
 
+import java.util.Map;
 import org.candlepin.subscriptions.task.TaskDescriptor;
+import org.candlepin.subscriptions.task.TaskPriority;
+import org.candlepin.subscriptions.task.queue.TaskCoalescer;
+import org.candlepin.subscriptions.task.queue.TaskKeys;
 import org.candlepin.subscriptions.task.queue.TaskQueue;
 import org.candlepin.subscriptions.task.queue.kafka.message.TaskMessage;
 import org.slf4j.Logger;
@@ -29,22 +33,43 @@ import org.springframework.kafka.core.KafkaTemplate;
 
 /**
  * A task queue implementation that is backed by a kafka. Messages are sent to kafka when queued.
- * The topic that a task is published on is defined by TaskDescriptor.groupId.
+ * The topic that a task is published on is defined by TaskDescriptor.groupId, and messages are
+ * keyed by the account the task works on, when known.
+ *
+ * <p>Tasks above BULK priority are sent to the priority topic of their group instead, when it has
+ * one. That topic has a consumer of its own, so these tasks do not wait behind a bulk fan-out;
+ * tasks of an account keep their order within a priority topic, but not across the two topics.
  */
 public class KafkaTaskQueue implements TaskQueue {
 
   private static final Logger log = LoggerFactory.getLogger(KafkaTaskQueue.class);
 
   private final KafkaTemplate<String, TaskMessage> producer;
+  private final TaskCoalescer taskCoalescer;
+  private final Map<String, String> priorityTopics;
 
-  public KafkaTaskQueue(KafkaTemplate<String, TaskMessage> producer) {
+  /**
+   * @param producer the template sending the task messages
+   * @param taskCoalescer drops tasks duplicating a pending one
+   * @param priorityTopics the priority topic of each topic that has one
+   */
+  public KafkaTaskQueue(
+      KafkaTemplate<String, TaskMessage> producer,
+      TaskCoalescer taskCoalescer,
+      Map<String, String> priorityTopics) {
     this.producer = producer;
+    this.taskCoalescer = taskCoalescer;
+    this.priorityTopics = Map.copyOf(priorityTopics);
     log.info("Creating Kafka task queue...");
   }
 
   @SuppressWarnings("squid:S4449")
   @Override
   public void enqueue(TaskDescriptor taskDescriptor) {
+    if (!taskCoalescer.shouldEnqueue(taskDescriptor)) {
+      log.info("Skipping duplicate task: {}", taskDescriptor);
+      return;
+    }
     log.info("Queuing task: {}", taskDescriptor);
 
     TaskMessage message =
@@ -52,9 +77,14 @@ public class KafkaTaskQueue implements TaskQueue {
             .setType(taskDescriptor.getTaskType().name())
             .setGroupId(taskDescriptor.getGroupId())
             .setArgs(taskDescriptor.getTaskArgs())
+            .setPriority(taskDescriptor.getPriority().name())
             .build();
 
-    // Message key is auto-generated.
-    producer.send(taskDescriptor.getGroupId(), null, message);
+    String topic = taskDescriptor.getGroupId();
+    if (taskDescriptor.getPriority() != TaskPriority.BULK) {
+      topic = priorityTopics.getOrDefault(topic, topic);
+    }
+    // Tasks of the same account share a key, so they land on the same partition in order.
+    producer.send(topic, TaskKeys.orderingKey(taskDescriptor), message);
   }
 }
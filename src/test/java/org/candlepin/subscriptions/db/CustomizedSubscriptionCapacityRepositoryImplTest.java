@@ -0,0 +1,142 @@
+/*
+ * Copyright Red Hat, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * Red Hat trademarks are not licensed under GPLv3. No permission is
+ * granted to use or replicate Red Hat trademarks that are incorporated
+ * in this software or its documentation.
+ */
+package org.candlepin.subscriptions.db;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.List;
+import javax.persistence.EntityManager;
+import org.candlepin.subscriptions.db.model.CapacityTotals;
+import org.candlepin.subscriptions.db.model.Granularity;
+import org.candlepin.subscriptions.db.model.ServiceLevel;
+import org.candlepin.subscriptions.db.model.Usage;
+import org.hibernate.Session;
+import org.hibernate.jdbc.ReturningWork;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+/** Covers the PostgreSQL statement, which the HSQLDB backed repository tests cannot run. */
+@ExtendWith(MockitoExtension.class)
+class CustomizedSubscriptionCapacityRepositoryImplTest {
+
+  private static final OffsetDateTime START =
+      OffsetDateTime.of(2021, 1, 1, 0, 0, 0, 0, ZoneOffset.UTC);
+
+  @Mock private EntityManager em;
+  @Mock private Session session;
+  @Mock private Connection connection;
+  @Mock private DatabaseMetaData metaData;
+  @Mock private PreparedStatement statement;
+  @Mock private ResultSet resultSet;
+
+  private CustomizedSubscriptionCapacityRepositoryImpl repository;
+
+  @BeforeEach
+  void setup() throws SQLException {
+    when(em.unwrap(Session.class)).thenReturn(session);
+    when(session.doReturningWork(any()))
+        .thenAnswer(invocation -> invocation.<ReturningWork<?>>getArgument(0).execute(connection));
+    when(connection.getMetaData()).thenReturn(metaData);
+    when(metaData.getDatabaseProductName()).thenReturn("PostgreSQL");
+    when(connection.prepareStatement(anyString())).thenReturn(statement);
+    when(statement.executeQuery()).thenReturn(resultSet);
+    repository = new CustomizedSubscriptionCapacityRepositoryImpl(em);
+  }
+
+  @Test
+  void sumsCapacityOfEachPeriodInTheDatabase() throws SQLException {
+    when(resultSet.next()).thenReturn(true, false);
+    when(resultSet.getObject(1, OffsetDateTime.class)).thenReturn(START);
+    when(resultSet.getInt(2)).thenReturn(1);
+    when(resultSet.getInt(3)).thenReturn(2);
+    when(resultSet.getInt(4)).thenReturn(3);
+    when(resultSet.getInt(5)).thenReturn(4);
+
+    List<CapacityTotals> totals =
+        repository.sumCapacityByPeriod(
+            "owner",
+            "product",
+            ServiceLevel.PREMIUM,
+            Usage._ANY,
+            Granularity.DAILY,
+            START,
+            START.plusDays(2));
+
+    assertEquals(List.of(new CapacityTotals(START, 1, 2, 3, 4)), totals);
+    ArgumentCaptor<String> sql = ArgumentCaptor.forClass(String.class);
+    verify(connection).prepareStatement(sql.capture());
+    assertEquals(
+        "select p.period_start,"
+            + " coalesce(sum(c.physical_sockets), 0), coalesce(sum(c.virtual_sockets), 0),"
+            + " coalesce(sum(c.physical_cores), 0), coalesce(sum(c.virtual_cores), 0)"
+            + " from generate_series(cast(? as timestamptz), cast(? as timestamptz),"
+            + " cast(? as interval)) as p(period_start)"
+            + " left join subscription_capacity c on c.owner_id = ? and c.product_id = ?"
+            + " and (cast(? as varchar) is null or c.sla = ?)"
+            + " and (cast(? as varchar) is null or c.usage = ?)"
+            + " and c.begin_date < p.period_start and c.end_date > p.period_start"
+            + " group by p.period_start order by p.period_start",
+        sql.getValue());
+    verify(statement).setObject(1, START);
+    verify(statement).setObject(2, START.plusDays(2));
+    verify(statement).setString(3, "P1D");
+    verify(statement).setString(4, "owner");
+    verify(statement).setString(5, "product");
+    verify(statement).setString(6, "Premium");
+    verify(statement).setString(7, "Premium");
+    verify(statement).setString(8, null);
+    verify(statement).setString(9, null);
+  }
+
+  @ParameterizedTest
+  @CsvSource({
+    "HOURLY, PT1H",
+    "DAILY, P1D",
+    "WEEKLY, P7D",
+    "MONTHLY, P1M",
+    "QUARTERLY, P3M",
+    "YEARLY, P1Y"
+  })
+  void bindsIsoIntervalOfGranularity(Granularity granularity, String interval)
+      throws SQLException {
+    repository.sumCapacityByPeriod(
+        "owner", "product", null, null, granularity, START, START.plusYears(1));
+
+    verify(statement).setString(3, interval);
+  }
+}
@@ -0,0 +1,187 @@
+/*
+ * Copyright Red Hat, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * Red Hat trademarks are not licensed under GPLv3. No permission is
+ * granted to use or replicate Red Hat trademarks that are incorporated
+ * in this software or its documentation.
+ */
+package org.candlepin.subscriptions.db;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.startsWith;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.List;
+import java.util.UUID;
+import javax.persistence.EntityManager;
+import org.candlepin.subscriptions.db.model.Granularity;
+import org.candlepin.subscriptions.db.model.HardwareMeasurementType;
+import org.candlepin.subscriptions.db.model.ServiceLevel;
+import org.candlepin.subscriptions.db.model.TallySnapshot;
+import org.candlepin.subscriptions.db.model.Usage;
+import org.candlepin.subscriptions.json.Measurement.Uom;
+import org.hibernate.Session;
+import org.hibernate.jdbc.ReturningWork;
+import org.hibernate.jdbc.Work;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+/** Covers the PostgreSQL statements, which the HSQLDB backed repository tests cannot run. */
+@ExtendWith(MockitoExtension.class)
+class CustomizedTallySnapshotRepositoryImplTest {
+
+  private static final OffsetDateTime SNAPSHOT_DATE =
+      OffsetDateTime.of(2021, 1, 1, 0, 0, 0, 0, ZoneOffset.UTC);
+
+  @Mock private EntityManager em;
+  @Mock private Session session;
+  @Mock private Connection connection;
+  @Mock private DatabaseMetaData metaData;
+  @Mock private PreparedStatement snapshotStatement;
+  @Mock private PreparedStatement deleteStatement;
+  @Mock private PreparedStatement measurementStatement;
+  @Mock private ResultSet written;
+
+  private CustomizedTallySnapshotRepositoryImpl repository;
+
+  @BeforeEach
+  void setup() throws SQLException {
+    when(em.unwrap(Session.class)).thenReturn(session);
+    when(session.doReturningWork(any()))
+        .thenAnswer(invocation -> invocation.<ReturningWork<?>>getArgument(0).execute(connection));
+    when(connection.getMetaData()).thenReturn(metaData);
+    when(metaData.getDatabaseProductName()).thenReturn("PostgreSQL");
+    repository = new CustomizedTallySnapshotRepositoryImpl(em, 100);
+  }
+
+  @Test
+  void upsertsSnapshotsAndReplacesTheirMeasurements() throws SQLException {
+    UUID existingId = UUID.randomUUID();
+    stubStatements(existingId);
+    TallySnapshot snapshot = snapshot();
+
+    List<TallySnapshot> result = repository.upsertAll(List.of(snapshot));
+
+    assertEquals(List.of(snapshot), result);
+    assertEquals(existingId, snapshot.getId());
+
+    ArgumentCaptor<String> snapshotSql = ArgumentCaptor.forClass(String.class);
+    verify(connection).prepareStatement(snapshotSql.capture(), any(String[].class));
+    assertEquals(
+        "insert into tally_snapshots "
+            + "(id, account_number, owner_id, product_id, granularity, sla, usage, snapshot_date) "
+            + "values (?, ?, ?, ?, ?, ?, ?, ?) "
+            + "on conflict (account_number, product_id, granularity, sla, usage, snapshot_date) "
+            + "do update set owner_id = excluded.owner_id",
+        snapshotSql.getValue());
+    verify(snapshotStatement).setString(2, "account");
+    verify(snapshotStatement).setString(3, "owner");
+    verify(snapshotStatement).setString(4, "RHEL");
+    verify(snapshotStatement).setString(5, "DAILY");
+    verify(snapshotStatement).setString(6, "Premium");
+    verify(snapshotStatement).setString(7, "Production");
+    verify(snapshotStatement).setObject(8, SNAPSHOT_DATE);
+    verify(snapshotStatement).executeBatch();
+
+    verify(connection).prepareStatement("delete from tally_measurements where snapshot_id = ?");
+    verify(deleteStatement).setObject(1, existingId);
+    verify(deleteStatement).executeBatch();
+
+    verify(connection)
+        .prepareStatement(
+            "insert into tally_measurements (snapshot_id, measurement_type, uom, value) "
+                + "select id, ?, ?, ? from tally_snapshots "
+                + "where account_number = ? and product_id = ? and granularity = ? and sla = ? "
+                + "and usage = ? and snapshot_date = ? "
+                + "on conflict (snapshot_id, measurement_type, uom) "
+                + "do update set value = excluded.value");
+    verify(measurementStatement).setString(1, "PHYSICAL");
+    verify(measurementStatement).setString(2, "CORES");
+    verify(measurementStatement).setDouble(3, 4.0);
+    verify(measurementStatement).setString(4, "account");
+    verify(measurementStatement).setString(5, "RHEL");
+    verify(measurementStatement).setString(6, "DAILY");
+    verify(measurementStatement).setString(7, "Premium");
+    verify(measurementStatement).setString(8, "Production");
+    verify(measurementStatement).setObject(9, SNAPSHOT_DATE);
+    verify(measurementStatement).executeBatch();
+  }
+
+  @Test
+  void savesSnapshotsWithTheEntityManagerWithoutPostgreSql() {
+    when(metaData.getDatabaseProductName()).thenReturn("HSQL Database Engine");
+    TallySnapshot snapshot = snapshot();
+
+    repository.upsertAll(List.of(snapshot));
+
+    verify(em).persist(snapshot);
+    verify(session, never()).doWork(any());
+  }
+
+  private void stubStatements(UUID existingId) throws SQLException {
+    when(session.doWork(any()))
+        .thenAnswer(
+            invocation -> {
+              invocation.<Work>getArgument(0).execute(connection);
+              return null;
+            });
+    when(connection.prepareStatement(
+            startsWith("insert into tally_snapshots"), any(String[].class)))
+        .thenReturn(snapshotStatement);
+    when(connection.prepareStatement(startsWith("delete"))).thenReturn(deleteStatement);
+    when(connection.prepareStatement(startsWith("insert into tally_measurements")))
+        .thenReturn(measurementStatement);
+    when(snapshotStatement.getGeneratedKeys()).thenReturn(written);
+    when(written.next()).thenReturn(true, false);
+    when(written.getString("account_number")).thenReturn("account");
+    when(written.getString("product_id")).thenReturn("RHEL");
+    when(written.getString("granularity")).thenReturn("DAILY");
+    when(written.getString("sla")).thenReturn("Premium");
+    when(written.getString("usage")).thenReturn("Production");
+    when(written.getObject("snapshot_date", OffsetDateTime.class)).thenReturn(SNAPSHOT_DATE);
+    when(written.getObject(eq("id"), eq(UUID.class))).thenReturn(existingId);
+  }
+
+  private TallySnapshot snapshot() {
+    TallySnapshot snapshot =
+        TallySnapshot.builder()
+            .accountNumber("account")
+            .ownerId("owner")
+            .productId("RHEL")
+            .granularity(Granularity.DAILY)
+            .serviceLevel(ServiceLevel.PREMIUM)
+            .usage(Usage.PRODUCTION)
+            .snapshotDate(SNAPSHOT_DATE)
+            .build();
+    snapshot.setMeasurement(HardwareMeasurementType.PHYSICAL, Uom.CORES, 4.0);
+    return snapshot;
+  }
+}
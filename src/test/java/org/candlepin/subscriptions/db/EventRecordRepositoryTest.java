@@ -30,6 +30,7 @@ import java.util.Optional;
 import java.util.UUID;
 import java.util.stream.Collectors;
 import org.candlepin.subscriptions.FixedClockConfiguration;
+import org.candlepin.subscriptions.db.model.EventKey;
 import org.candlepin.subscriptions.db.model.EventRecord;
 import org.candlepin.subscriptions.json.Event;
 import org.junit.jupiter.api.Test;
@@ -156,6 +157,29 @@ class EventRecordRepositoryTest {
     assertEquals(e1, found.get(0));
   }
 
+  @Test
+  void streamsEventsOfServiceTypeInTimestampOrder() {
+    OffsetDateTime now = OffsetDateTime.now(CLOCK);
+    Event later = event("account123", "SOURCE", "TYPE", "INSTANCE", now.plusHours(1));
+    Event earlier = event("account123", "SOURCE", "TYPE", "INSTANCE", now);
+    Event otherServiceType = event("account123", "SOURCE", "TYPE", "OTHER", now);
+    otherServiceType.setServiceType("OTHER_SERVICE_TYPE");
+
+    repository.saveAll(
+        List.of(
+            new EventRecord(later), new EventRecord(earlier), new EventRecord(otherServiceType)));
+    repository.flush();
+
+    List<UUID> found =
+        repository
+            .streamEventsInTimeRangeByServiceType(
+                "account123", "SERVICE_TYPE", now.minusYears(1), now.plusYears(1))
+            .map(Event::getEventId)
+            .collect(Collectors.toList());
+
+    assertEquals(List.of(earlier.getEventId(), later.getEventId()), found);
+  }
+
   @Test
   void testUniqueConstraints() {
     EventRecord e1 =
@@ -197,6 +221,58 @@ class EventRecordRepositoryTest {
     assertEquals(1, results.size());
   }
 
+  @Test
+  void upsertAllUpdatesEventsByNaturalKey() {
+    OffsetDateTime now = OffsetDateTime.now(CLOCK);
+    Event existing = event("account123", "SOURCE", "TYPE", "INSTANCE", now);
+    repository.saveAndFlush(new EventRecord(existing));
+
+    Event updated = event("account123", "SOURCE", "TYPE", "INSTANCE", now);
+    updated.setServiceType("UPDATED_SERVICE_TYPE");
+    Event created = event("account123", "SOURCE", "TYPE", "INSTANCE", now.plusHours(1));
+    created.setEventId(null);
+
+    repository.upsertAll(List.of(updated, created));
+    repository.flush();
+
+    assertEquals(existing.getEventId(), updated.getEventId());
+    assertNotNull(created.getEventId());
+    assertEquals(2, repository.count());
+    assertEquals(
+        "UPDATED_SERVICE_TYPE",
+        repository.findById(existing.getEventId()).orElseThrow().getEvent().getServiceType());
+  }
+
+  @Test
+  void deleteInTimeRangeExceptKeepsGivenEvents() {
+    OffsetDateTime now = OffsetDateTime.now(CLOCK);
+    Event kept = event("account123", "SOURCE", "TYPE", "INSTANCE", now);
+    Event stale = event("account123", "SOURCE", "TYPE", "INSTANCE", now.plusHours(1));
+    Event outOfRange = event("account123", "SOURCE", "TYPE", "INSTANCE", now.plusHours(2));
+    Event otherType = event("account123", "SOURCE", "OTHER_TYPE", "INSTANCE", now);
+    repository.saveAll(
+        List.of(
+            new EventRecord(kept),
+            new EventRecord(stale),
+            new EventRecord(outOfRange),
+            new EventRecord(otherType)));
+    repository.flush();
+
+    int deleted =
+        repository.deleteInTimeRangeExcept(
+            "account123",
+            "SOURCE",
+            "TYPE",
+            now,
+            now.plusHours(2),
+            List.of(EventKey.fromEvent(kept)));
+    repository.flush();
+
+    assertEquals(1, deleted);
+    assertFalse(repository.findById(stale.getEventId()).isPresent());
+    assertEquals(3, repository.count());
+  }
+
   private Event event(
       String account, String source, String type, String instanceId, OffsetDateTime time) {
     UUID eventId = UUID.randomUUID();
@@ -31,6 +31,7 @@ import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
 import java.util.UUID;
 import java.util.function.Function;
 import java.util.stream.Collectors;
@@ -38,6 +39,7 @@ import org.candlepin.subscriptions.db.model.HardwareMeasurementType;
 import org.candlepin.subscriptions.db.model.Host;
 import org.candlepin.subscriptions.db.model.HostHardwareType;
 import org.candlepin.subscriptions.db.model.HostTallyBucket;
+import org.candlepin.subscriptions.db.model.InstanceMonthlyTotalKey;
 import org.candlepin.subscriptions.db.model.ServiceLevel;
 import org.candlepin.subscriptions.db.model.TallyHostView;
 import org.candlepin.subscriptions.db.model.Usage;
@@ -420,6 +422,51 @@ class HostRepositoryTest {
     assertEquals("INSIGHTS_guest", guests.getContent().get(0).getInsightsId());
   }
 
+  @Transactional
+  @Test
+  void testFindsAndClearsInstancesOfServiceTypeWithoutLoadingAccount() {
+    String account = "instanceStoreTest";
+    OffsetDateTime january =
+        OffsetDateTime.of(LocalDateTime.of(2021, 1, 1, 0, 0, 0), ZoneOffset.UTC);
+    OffsetDateTime february = january.plusMonths(1);
+
+    Host referenced = createHost("referenced", account);
+    referenced.setInstanceType("OpenShift Cluster");
+    referenced.setInstanceId("cluster1");
+    referenced.setLastSeen(january);
+    referenced.addToMonthlyTotal(january, Uom.CORES, 1.0);
+    referenced.addToMonthlyTotal(february, Uom.CORES, 1.0);
+
+    Host untouched = createHost("untouched", account);
+    untouched.setInstanceType("OpenShift Cluster");
+    untouched.setInstanceId("cluster2");
+    untouched.setLastSeen(february);
+    untouched.addToMonthlyTotal(january, Uom.CORES, 1.0);
+
+    Host otherType = createHost("otherType", account);
+    otherType.setInstanceType("HBI_HOST");
+    otherType.setInstanceId("cluster3");
+    otherType.setLastSeen(february.plusDays(1));
+    otherType.addToMonthlyTotal(january, Uom.CORES, 1.0);
+
+    persistHosts(referenced, untouched, otherType);
+
+    List<Host> found =
+        repo.findByAccountNumberAndInstanceIdIn(
+            account, List.of("cluster1", "cluster3", "missing"));
+    assertEquals(
+        Set.of("referenced", "otherType"),
+        found.stream().map(Host::getInventoryId).collect(Collectors.toSet()));
+    assertEquals(february, repo.findMaxLastSeen(account, "OpenShift Cluster"));
+    assertNull(repo.findMaxLastSeen(account, "unknown"));
+    assertEquals(
+        2,
+        repo.deleteMonthlyTotals(
+            account,
+            "OpenShift Cluster",
+            List.of(InstanceMonthlyTotalKey.formatMonthId(january))));
+  }
+
   @Transactional
   @Test
   void testCanSortByIdForImplicitSort() {
@@ -28,6 +28,8 @@ import java.time.ZoneId;
 import java.time.ZoneOffset;
 import java.util.Arrays;
 import java.util.List;
+import org.candlepin.subscriptions.db.model.CapacityTotals;
+import org.candlepin.subscriptions.db.model.Granularity;
 import org.candlepin.subscriptions.db.model.ServiceLevel;
 import org.candlepin.subscriptions.db.model.SubscriptionCapacity;
 import org.candlepin.subscriptions.db.model.Usage;
@@ -367,6 +369,36 @@ class SubscriptionCapacityRepositoryTest {
     assertEquals(3, found.size());
   }
 
+  @Test
+  void testShouldSumCapacityOfSubscriptionsActiveAtEachPeriodStart() {
+    SubscriptionCapacity first = createUnpersisted(NOWISH.minusDays(1), NOWISH.plusDays(2));
+    SubscriptionCapacity second = createUnpersisted(NOWISH.plusHours(12), FAR_FUTURE);
+    second.setSubscriptionId("subscription2");
+    SubscriptionCapacity otherSla = createUnpersisted(NOWISH.minusDays(1), FAR_FUTURE);
+    otherSla.setSubscriptionId("subscription3");
+    otherSla.setServiceLevel(ServiceLevel.STANDARD);
+    repository.saveAll(Arrays.asList(first, second, otherSla));
+    repository.flush();
+
+    List<CapacityTotals> totals =
+        repository.sumCapacityByPeriod(
+            "ownerId",
+            "product",
+            ServiceLevel.PREMIUM,
+            null,
+            Granularity.DAILY,
+            NOWISH,
+            NOWISH.plusDays(3));
+
+    assertEquals(
+        Arrays.asList(
+            new CapacityTotals(NOWISH, 4, 20, 8, 40),
+            new CapacityTotals(NOWISH.plusDays(1), 8, 40, 16, 80),
+            new CapacityTotals(NOWISH.plusDays(2), 4, 20, 8, 40),
+            new CapacityTotals(NOWISH.plusDays(3), 4, 20, 8, 40)),
+        totals);
+  }
+
   private SubscriptionCapacity createUnpersisted(OffsetDateTime begin, OffsetDateTime end) {
     SubscriptionCapacity capacity = new SubscriptionCapacity();
     capacity.setAccountNumber("account");
@@ -230,6 +230,28 @@ public class TallySnapshotRepositoryTest {
         expected.getMeasurement(HardwareMeasurementType.TOTAL, Measurement.Uom.CORES));
   }
 
+  @Test
+  void testUpsertAllInsertsNewAndUpdatesExistingSnapshots() {
+    TallySnapshot existing =
+        repository.saveAndFlush(
+            createUnpersisted("Hello", "World", Granularity.HOURLY, 2, 3, 4, NOWISH));
+    existing.setMeasurement(HardwareMeasurementType.TOTAL, Measurement.Uom.CORES, 20.0);
+    TallySnapshot created = createUnpersisted("Hello", "World", Granularity.DAILY, 5, 6, 7, NOWISH);
+
+    List<TallySnapshot> written = repository.upsertAll(List.of(existing, created));
+    repository.flush();
+
+    assertEquals(2, written.size());
+    assertNotNull(created.getId());
+    assertEquals(
+        Double.valueOf(20.0),
+        repository
+            .findById(existing.getId())
+            .orElseThrow()
+            .getMeasurement(HardwareMeasurementType.TOTAL, Measurement.Uom.CORES));
+    assertTrue(repository.findById(created.getId()).isPresent());
+  }
+
   private TallySnapshot createUnpersisted(
       String account,
       String product,
@@ -0,0 +1,127 @@
+/*
+ * Copyright Red Hat, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * Red Hat trademarks are not licensed under GPLv3. No permission is
+ * granted to use or replicate Red Hat trademarks that are incorporated
+ * in this software or its documentation.
+ */
+package org.candlepin.subscriptions.db.model;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+
+class CapacityTimelineTest {
+
+  private static final OffsetDateTime START =
+      OffsetDateTime.of(2021, 1, 1, 0, 0, 0, 0, ZoneOffset.UTC);
+
+  @Test
+  void countsSubscriptionsStrictlyBetweenBeginAndEnd() {
+    SubscriptionCapacity capacity = capacity(START.plusDays(1), START.plusDays(3), 2, 4);
+
+    List<CapacityTotals> totals = new CapacityTimeline(List.of(capacity)).totals(days(5));
+
+    assertEquals(List.of(0, 0, 6, 0, 0), sockets(totals));
+    assertEquals(new CapacityTotals(START.plusDays(2), 2, 4, 4, 8), totals.get(2));
+  }
+
+  @Test
+  void ignoresSubscriptionsEndingBeforeTheyBegin() {
+    SubscriptionCapacity capacity = capacity(START.plusDays(3), START.plusDays(1), 2, 4);
+
+    List<CapacityTotals> totals = new CapacityTimeline(List.of(capacity)).totals(days(5));
+
+    assertEquals(List.of(0, 0, 0, 0, 0), sockets(totals));
+  }
+
+  @Test
+  void treatsMissingCapacityAsZero() {
+    SubscriptionCapacity capacity = new SubscriptionCapacity();
+    capacity.setBeginDate(START.minusDays(1));
+    capacity.setEndDate(START.plusDays(1));
+    capacity.setPhysicalSockets(3);
+
+    CapacityTotals total = new CapacityTimeline(List.of(capacity)).totals(List.of(START)).get(0);
+
+    assertEquals(new CapacityTotals(START, 3, 0, 0, 0), total);
+  }
+
+  @Test
+  void matchesCapacitySummedPerDate() {
+    Random random = new Random(42);
+    List<SubscriptionCapacity> capacities = new ArrayList<>();
+    for (int i = 0; i < 200; i++) {
+      OffsetDateTime begin = START.plusHours(random.nextInt(24 * 40) - 24 * 5L);
+      OffsetDateTime end = begin.plusHours(random.nextInt(24 * 20));
+      capacities.add(capacity(begin, end, random.nextInt(8), random.nextInt(8)));
+    }
+    List<OffsetDateTime> dates = days(30);
+
+    List<CapacityTotals> totals = new CapacityTimeline(capacities).totals(dates);
+
+    for (int i = 0; i < dates.size(); i++) {
+      OffsetDateTime date = dates.get(i);
+      int expectedSockets = 0;
+      int expectedCores = 0;
+      for (SubscriptionCapacity capacity : capacities) {
+        if (capacity.getBeginDate().isBefore(date) && capacity.getEndDate().isAfter(date)) {
+          expectedSockets += capacity.getPhysicalSockets() + capacity.getVirtualSockets();
+          expectedCores += capacity.getPhysicalCores() + capacity.getVirtualCores();
+        }
+      }
+      CapacityTotals total = totals.get(i);
+      assertEquals(date, total.getDate());
+      assertEquals(
+          expectedSockets,
+          total.getPhysicalSockets() + total.getVirtualSockets(),
+          "sockets at " + date);
+      assertEquals(
+          expectedCores, total.getPhysicalCores() + total.getVirtualCores(), "cores at " + date);
+    }
+  }
+
+  private SubscriptionCapacity capacity(
+      OffsetDateTime begin, OffsetDateTime end, int physicalSockets, int virtualSockets) {
+    SubscriptionCapacity capacity = new SubscriptionCapacity();
+    capacity.setBeginDate(begin);
+    capacity.setEndDate(end);
+    capacity.setPhysicalSockets(physicalSockets);
+    capacity.setVirtualSockets(virtualSockets);
+    capacity.setPhysicalCores(physicalSockets * 2);
+    capacity.setVirtualCores(virtualSockets * 2);
+    return capacity;
+  }
+
+  private List<OffsetDateTime> days(int count) {
+    List<OffsetDateTime> dates = new ArrayList<>();
+    for (int i = 0; i < count; i++) {
+      dates.add(START.plusDays(i));
+    }
+    return dates;
+  }
+
+  private List<Integer> sockets(List<CapacityTotals> totals) {
+    List<Integer> sockets = new ArrayList<>();
+    totals.forEach(total -> sockets.add(total.getPhysicalSockets() + total.getVirtualSockets()));
+    return sockets;
+  }
+}
@@ -0,0 +1,69 @@
+/*
+ * Copyright Red Hat, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * Red Hat trademarks are not licensed under GPLv3. No permission is
+ * granted to use or replicate Red Hat trademarks that are incorporated
+ * in this software or its documentation.
+ */
+package org.candlepin.subscriptions.db.model;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import org.junit.jupiter.api.Test;
+
+class EventPartitionTest {
+
+  private static final OffsetDateTime APRIL =
+      OffsetDateTime.of(2021, 4, 1, 0, 0, 0, 0, ZoneOffset.UTC);
+
+  @Test
+  void nameRoundTripsBounds() {
+    EventPartition partition = new EventPartition(APRIL, APRIL.plusMonths(1));
+    assertEquals("events_20210401_20210501", partition.getName());
+
+    EventPartition parsed = EventPartition.fromName(partition.getName()).orElseThrow();
+    assertEquals(APRIL, parsed.getStart());
+    assertEquals(APRIL.plusMonths(1), parsed.getEnd());
+  }
+
+  @Test
+  void defaultPartitionIsNotARangePartition() {
+    assertTrue(EventPartition.fromName("events_default").isEmpty());
+  }
+
+  @Test
+  void boundsMustBeMidnightUtc() {
+    OffsetDateTime notMidnight = APRIL.plusHours(1);
+    OffsetDateTime end = APRIL.plusDays(1);
+    assertThrows(IllegalArgumentException.class, () -> new EventPartition(notMidnight, end));
+  }
+
+  @Test
+  void testOverlaps() {
+    EventPartition month = new EventPartition(APRIL, APRIL.plusMonths(1));
+    EventPartition day = new EventPartition(APRIL.plusDays(3), APRIL.plusDays(4));
+    EventPartition nextMonth = new EventPartition(APRIL.plusMonths(1), APRIL.plusMonths(2));
+
+    assertTrue(month.overlaps(day));
+    assertTrue(day.overlaps(month));
+    assertFalse(month.overlaps(nextMonth));
+  }
+}
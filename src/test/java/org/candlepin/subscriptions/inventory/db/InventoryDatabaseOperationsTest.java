@@ -0,0 +1,166 @@
+/*
+ * Copyright Red Hat, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * Red Hat trademarks are not licensed under GPLv3. No permission is
+ * granted to use or replicate Red Hat trademarks that are incorporated
+ * in this software or its documentation.
+ */
+package org.candlepin.subscriptions.inventory.db;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.stream.Stream;
+import org.candlepin.subscriptions.ApplicationProperties;
+import org.candlepin.subscriptions.inventory.db.model.InventoryHostFacts;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.transaction.PlatformTransactionManager;
+
+@ExtendWith(MockitoExtension.class)
+class InventoryDatabaseOperationsTest {
+
+  private static final List<String> ACCOUNTS = List.of("A1");
+
+  @Mock InventoryRepository repo;
+  @Mock PlatformTransactionManager transactionManager;
+
+  @Test
+  void streamsAllHostsInSingleTransactionWhenPagingDisabled() {
+    InventoryHostFacts host = hostFacts(new UUID(0L, 1L));
+    when(repo.getFacts(ACCOUNTS, 14)).thenReturn(Stream.of(host));
+
+    List<InventoryHostFacts> processed = new ArrayList<>();
+    operations(0).processHostFacts(ACCOUNTS, 14, processed::add);
+
+    assertEquals(List.of(host), processed);
+    verify(transactionManager, times(1)).getTransaction(any());
+    verify(repo, never()).getFactsPage(any(), anyInt(), any(), anyInt());
+  }
+
+  @Test
+  void readsPagesAfterLastInventoryIdInSeparateTransactions() {
+    InventoryHostFacts host1 = hostFacts(new UUID(0L, 1L));
+    InventoryHostFacts host2 = hostFacts(new UUID(0L, 2L));
+    InventoryHostFacts host3 = hostFacts(new UUID(0L, 3L));
+    when(repo.getFactsPage(ACCOUNTS, 14, new UUID(0L, 0L).toString(), 2))
+        .thenReturn(List.of(host1, host2));
+    when(repo.getFactsPage(ACCOUNTS, 14, host2.getInventoryId().toString(), 2))
+        .thenReturn(List.of(host3));
+
+    List<InventoryHostFacts> processed = new ArrayList<>();
+    operations(2).processHostFacts(ACCOUNTS, 14, processed::add);
+
+    assertEquals(List.of(host1, host2, host3), processed);
+    verify(transactionManager, times(2)).getTransaction(any());
+    verify(repo, never()).getFacts(any(), anyInt());
+  }
+
+  @Test
+  void stopsOnEmptyPage() {
+    InventoryHostFacts host1 = hostFacts(new UUID(0L, 1L));
+    when(repo.getFactsPage(ACCOUNTS, 14, new UUID(0L, 0L).toString(), 1))
+        .thenReturn(List.of(host1));
+    when(repo.getFactsPage(ACCOUNTS, 14, host1.getInventoryId().toString(), 1))
+        .thenReturn(List.of());
+
+    List<InventoryHostFacts> processed = new ArrayList<>();
+    operations(1).processHostFacts(ACCOUNTS, 14, processed::add);
+
+    assertEquals(List.of(host1), processed);
+    verify(repo, times(2)).getFactsPage(any(), anyInt(), any(), anyInt());
+  }
+
+  @Test
+  void bindsHostIdsAsSingleUuidArray() {
+    InventoryHostFacts host1 = hostFacts(new UUID(0L, 1L));
+    InventoryHostFacts host2 = hostFacts(new UUID(0L, 2L));
+    List<String> ids =
+        List.of(host1.getInventoryId().toString(), host2.getInventoryId().toString());
+    when(repo.getFactsByIds("A1", ids, 14)).thenCallRealMethod();
+    when(repo.getFactsByIdArray(
+            "A1",
+            "{00000000-0000-0000-0000-000000000001,00000000-0000-0000-0000-000000000002}",
+            14))
+        .thenReturn(Stream.of(host1, host2));
+
+    List<InventoryHostFacts> processed = new ArrayList<>();
+    operations(0).processHostFacts("A1", ids, 14, processed::add);
+
+    assertEquals(List.of(host1, host2), processed);
+  }
+
+  @Test
+  void readsChangedHostsInPages() {
+    OffsetDateTime since = OffsetDateTime.parse("2021-04-20T10:00:00Z");
+    InventoryHostFacts host1 = hostFacts(new UUID(0L, 1L));
+    InventoryHostFacts host2 = hostFacts(new UUID(0L, 2L));
+    when(repo.getChangedFactsPage("A1", since, 14, new UUID(0L, 0L).toString(), 1))
+        .thenReturn(List.of(host1));
+    when(repo.getChangedFactsPage("A1", since, 14, host1.getInventoryId().toString(), 1))
+        .thenReturn(List.of(host2));
+    when(repo.getChangedFactsPage("A1", since, 14, host2.getInventoryId().toString(), 1))
+        .thenReturn(List.of());
+
+    List<InventoryHostFacts> processed = new ArrayList<>();
+    operations(1).processChangedHostFacts("A1", since, 14, processed::add);
+
+    assertEquals(List.of(host1, host2), processed);
+    verify(transactionManager, times(3)).getTransaction(any());
+    verify(repo, never()).getChangedFacts(any(), any(), anyInt());
+  }
+
+  @Test
+  void readsHostsByIdInPages() {
+    InventoryHostFacts host1 = hostFacts(new UUID(0L, 1L));
+    InventoryHostFacts host2 = hostFacts(new UUID(0L, 2L));
+    List<String> ids =
+        List.of(host1.getInventoryId().toString(), host2.getInventoryId().toString());
+    String idArray =
+        "{00000000-0000-0000-0000-000000000001,00000000-0000-0000-0000-000000000002}";
+    when(repo.getFactsByIdArrayPage("A1", idArray, 14, new UUID(0L, 0L).toString(), 2))
+        .thenReturn(List.of(host1, host2));
+    when(repo.getFactsByIdArrayPage("A1", idArray, 14, host2.getInventoryId().toString(), 2))
+        .thenReturn(List.of());
+
+    List<InventoryHostFacts> processed = new ArrayList<>();
+    operations(2).processHostFacts("A1", ids, 14, processed::add);
+
+    assertEquals(List.of(host1, host2), processed);
+    verify(transactionManager, times(2)).getTransaction(any());
+    verify(repo, never()).getFactsByIds(any(), any(), anyInt());
+  }
+
+  private InventoryDatabaseOperations operations(int pageSize) {
+    ApplicationProperties props = new ApplicationProperties();
+    props.setHostFactsPageSize(pageSize);
+    return new InventoryDatabaseOperations(repo, transactionManager, props);
+  }
+
+  private InventoryHostFacts hostFacts(UUID inventoryId) {
+    InventoryHostFacts facts = new InventoryHostFacts();
+    facts.setInventoryId(inventoryId);
+    facts.setAccount("A1");
+    return facts;
+  }
+}
@@ -26,8 +26,12 @@ import static org.mockito.Mockito.*;
 
 import java.math.BigDecimal;
 import java.time.OffsetDateTime;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
 import java.util.UUID;
 import java.util.function.Function;
 import java.util.stream.Collectors;
@@ -494,6 +498,218 @@ class PrometheusMeteringControllerTest {
     assertTrue(saveCaptor.getValue().containsAll(expectedEvents));
   }
 
+  @Test
+  void fetchMetricsByAccountSplitsResultsOfASingleQuery() {
+    QueryResult data =
+        new QueryResult()
+            .status(StatusType.SUCCESS)
+            .data(
+                new QueryResultData()
+                    .resultType(ResultType.MATRIX)
+                    .addResultItem(accountResult("a1", "C1"))
+                    .addResultItem(accountResult("a2", "C2"))
+                    .addResultItem(accountResult("a1", "C3")));
+    when(service.runRangeQuery(
+            eq(queries.expectedMultiAccountQuery("OpenShift-metrics")), any(), any(), any(), any()))
+        .thenReturn(data);
+
+    OffsetDateTime start = clock.startOfCurrentHour();
+    OffsetDateTime end = clock.endOfHour(start);
+    Map<String, List<QueryResultDataResult>> results =
+        controller.fetchMetricsByAccount("OpenShift-metrics", Uom.CORES, start, end);
+
+    assertEquals(Set.of("a1", "a2"), results.keySet());
+    assertEquals(2, results.get("a1").size());
+    assertEquals(1, results.get("a2").size());
+    verify(service, times(1)).runRangeQuery(anyString(), any(), any(), any(), any());
+  }
+
+  @Test
+  void findAccountsWithEventsLooksUpTheRangeOfTheEvents() {
+    OffsetDateTime start = clock.startOfCurrentHour();
+    OffsetDateTime end = clock.endOfHour(start);
+    when(eventController.fetchAccountNumbersInTimeRange(
+            MeteringEventFactory.EVENT_SOURCE,
+            MeteringEventFactory.getEventType(expectedMetricId),
+            start.minusSeconds(promProps.getOpenshift().getStep()),
+            end.minusSeconds(promProps.getOpenshift().getStep())))
+        .thenReturn(List.of("a1"));
+
+    assertEquals(
+        List.of("a1"),
+        controller.findAccountsWithEvents("OpenShift-metrics", Uom.CORES, start, end));
+  }
+
+  @Test
+  void updateAccountMetricsWithoutResultsDeletesTheEventsOfTheRange() {
+    OffsetDateTime start = clock.startOfCurrentHour();
+    OffsetDateTime end = clock.endOfHour(start);
+    Event staleEvent =
+        MeteringEventFactory.createMetricEvent(
+            "a1",
+            expectedMetricId,
+            expectedClusterId,
+            expectedSla,
+            expectedUsage,
+            expectedRole,
+            start.minusSeconds(promProps.getOpenshift().getStep()),
+            start,
+            expectedServiceType,
+            expectedUom,
+            4.0);
+    when(eventController.mapEventsInTimeRange(
+            "a1",
+            MeteringEventFactory.EVENT_SOURCE,
+            MeteringEventFactory.getEventType(expectedMetricId),
+            start.minusSeconds(promProps.getOpenshift().getStep()),
+            end.minusSeconds(promProps.getOpenshift().getStep())))
+        .thenReturn(Map.of(EventKey.fromEvent(staleEvent), staleEvent));
+
+    ArgumentCaptor<Collection> purgeCaptor = ArgumentCaptor.forClass(Collection.class);
+    doNothing().when(eventController).deleteEvents(purgeCaptor.capture());
+
+    controller.updateAccountMetrics("OpenShift-metrics", Uom.CORES, "a1", start, end, List.of());
+
+    verify(eventController, never()).saveAll(any());
+    assertEquals(1, purgeCaptor.getValue().size());
+    assertTrue(purgeCaptor.getValue().contains(staleEvent));
+  }
+
+  @Test
+  void updateAccountMetricsPersistsEventsOfTheAccount() {
+    OffsetDateTime start = clock.startOfCurrentHour();
+    OffsetDateTime end = clock.endOfHour(start);
+
+    ArgumentCaptor<Collection> saveCaptor = ArgumentCaptor.forClass(Collection.class);
+    doNothing().when(eventController).saveAll(saveCaptor.capture());
+
+    controller.updateAccountMetrics(
+        "OpenShift-metrics", Uom.CORES, "a1", start, end, List.of(accountResult("a1", "C1")));
+
+    verify(optInController).optInByAccountNumber("a1", OptInType.PROMETHEUS, true, true, true);
+    assertEquals(1, saveCaptor.getValue().size());
+    Event event = (Event) saveCaptor.getValue().iterator().next();
+    assertEquals("a1", event.getAccountNumber());
+    assertEquals("C1", event.getInstanceId());
+  }
+
+  @Test
+  void streamedResultsArePersistedAsEvents() {
+    OffsetDateTime start = clock.startOfCurrentHour();
+    OffsetDateTime end = clock.endOfHour(start);
+    BigDecimal time = BigDecimal.valueOf(1616787308L);
+
+    doAnswer(
+            invocation -> {
+              PrometheusQueryResultReader.SampleHandler handler = invocation.getArgument(5);
+              handler.accept(
+                  accountResult(expectedAccount, expectedClusterId).getMetric(),
+                  time,
+                  BigDecimal.valueOf(4.0));
+              return new QueryResult().status(StatusType.SUCCESS);
+            })
+        .when(service)
+        .streamRangeQuery(anyString(), any(), any(), any(), any(), any());
+    ArgumentCaptor<Collection> saveCaptor = ArgumentCaptor.forClass(Collection.class);
+    doNothing().when(eventController).saveAll(saveCaptor.capture());
+
+    promProps.setStreamResultsEnabled(true);
+    try {
+      controller.collectMetrics("OpenShift-metrics", Uom.CORES, expectedAccount, start, end);
+    } finally {
+      promProps.setStreamResultsEnabled(false);
+    }
+
+    verify(service, never()).runRangeQuery(anyString(), any(), any(), any(), any());
+    assertEquals(1, saveCaptor.getValue().size());
+    Event event = (Event) saveCaptor.getValue().iterator().next();
+    assertEquals(expectedClusterId, event.getInstanceId());
+    assertEquals(Optional.of(clock.dateFromUnix(time)), event.getExpiration());
+  }
+
+  @Test
+  void upsertedEventsReplaceEventsOfTheRange() {
+    OffsetDateTime start = clock.startOfCurrentHour();
+    OffsetDateTime end = clock.endOfHour(start);
+    int step = promProps.getOpenshift().getStep();
+
+    ArgumentCaptor<Collection> upsertCaptor = ArgumentCaptor.forClass(Collection.class);
+    doNothing().when(eventController).upsertAll(upsertCaptor.capture());
+    ArgumentCaptor<Collection> keepCaptor = ArgumentCaptor.forClass(Collection.class);
+    when(eventController.deleteEventsInTimeRangeExcept(
+            eq("a1"),
+            eq(MeteringEventFactory.EVENT_SOURCE),
+            eq(MeteringEventFactory.getEventType(expectedMetricId)),
+            eq(start.minusSeconds(step)),
+            eq(end.minusSeconds(step)),
+            keepCaptor.capture()))
+        .thenReturn(0);
+
+    promProps.setEventUpsertEnabled(true);
+    try {
+      controller.updateAccountMetrics(
+          "OpenShift-metrics", Uom.CORES, "a1", start, end, List.of(accountResult("a1", "C1")));
+    } finally {
+      promProps.setEventUpsertEnabled(false);
+    }
+
+    verify(eventController, never())
+        .mapEventsInTimeRange(anyString(), anyString(), anyString(), any(), any());
+    verify(eventController, never()).saveAll(any());
+    verify(eventController, never()).deleteEvents(any());
+    assertEquals(1, upsertCaptor.getValue().size());
+    Event event = (Event) upsertCaptor.getValue().iterator().next();
+    assertEquals("C1", event.getInstanceId());
+    assertEquals(Set.of(EventKey.fromEvent(event)), Set.copyOf(keepCaptor.getValue()));
+  }
+
+  @Test
+  void upsertedEventsAreWrittenInBatches() {
+    OffsetDateTime start = clock.startOfCurrentHour();
+    OffsetDateTime end = clock.endOfHour(start);
+    List<Integer> batchSizes = new ArrayList<>();
+    doAnswer(
+            invocation -> {
+              batchSizes.add(invocation.getArgument(0, Collection.class).size());
+              return null;
+            })
+        .when(eventController)
+        .upsertAll(any());
+    ArgumentCaptor<Collection> keepCaptor = ArgumentCaptor.forClass(Collection.class);
+    when(eventController.deleteEventsInTimeRangeExcept(
+            anyString(), anyString(), anyString(), any(), any(), keepCaptor.capture()))
+        .thenReturn(0);
+    List<QueryResultDataResult> results =
+        List.of(
+            accountResult("a1", "C1"),
+            accountResult("a1", "C2"),
+            accountResult("a1", "C3"),
+            accountResult("a1", "C3"),
+            accountResult("a1", "C4"),
+            accountResult("a1", "C5"));
+
+    promProps.setEventUpsertEnabled(true);
+    promProps.setEventBatchSize(2);
+    try {
+      controller.updateAccountMetrics("OpenShift-metrics", Uom.CORES, "a1", start, end, results);
+    } finally {
+      promProps.setEventUpsertEnabled(false);
+      promProps.setEventBatchSize(1000);
+    }
+
+    assertEquals(List.of(2, 2, 1), batchSizes);
+    assertEquals(5, keepCaptor.getValue().size());
+  }
+
+  private QueryResultDataResult accountResult(String account, String clusterId) {
+    return new QueryResultDataResult()
+        .putMetricItem("_id", clusterId)
+        .putMetricItem("support", expectedSla)
+        .putMetricItem("usage", expectedUsage)
+        .putMetricItem("ebs_account", account)
+        .addValuesItem(List.of(BigDecimal.valueOf(1616787308L), BigDecimal.valueOf(4.0)));
+  }
+
   private QueryResult buildOpenShiftClusterQueryResult(
       String account,
       String clusterId,
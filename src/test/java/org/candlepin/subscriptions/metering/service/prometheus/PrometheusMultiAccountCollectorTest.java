@@ -0,0 +1,92 @@
+/*
+ * Copyright Red Hat, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * Red Hat trademarks are not licensed under GPLv3. No permission is
+ * granted to use or replicate Red Hat trademarks that are incorporated
+ * in this software or its documentation.
+ */
+package org.candlepin.subscriptions.metering.service.prometheus;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.time.OffsetDateTime;
+import java.util.List;
+import java.util.Map;
+import org.candlepin.subscriptions.json.Measurement.Uom;
+import org.candlepin.subscriptions.metering.MeteringException;
+import org.candlepin.subscriptions.prometheus.model.QueryResultDataResult;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+@ExtendWith(MockitoExtension.class)
+class PrometheusMultiAccountCollectorTest {
+
+  @Mock PrometheusMeteringController controller;
+
+  @Mock PrometheusMetricsProperties metricsProperties;
+
+  @Test
+  void testFallsBackToPerAccountCollectionWhenAnAccountFails() {
+    OffsetDateTime end = OffsetDateTime.parse("2021-06-01T12:00Z");
+    OffsetDateTime start = end.minusHours(1);
+    List<QueryResultDataResult> a1Results = List.of(new QueryResultDataResult());
+    List<QueryResultDataResult> a2Results = List.of(new QueryResultDataResult());
+    when(metricsProperties.getCollectionThreads()).thenReturn(2);
+    when(controller.fetchMetricsByAccount("OpenShift", Uom.CORES, start, end))
+        .thenReturn(Map.of("a1", a1Results, "a2", a2Results));
+    doThrow(new MeteringException("Forced!"))
+        .when(controller)
+        .updateAccountMetrics("OpenShift", Uom.CORES, "a2", start, end, a2Results);
+
+    PrometheusMultiAccountCollector collector =
+        new PrometheusMultiAccountCollector(controller, metricsProperties);
+    try {
+      collector.collectMetrics("OpenShift", Uom.CORES, start, end);
+    } finally {
+      collector.destroy();
+    }
+
+    verify(controller).updateAccountMetrics("OpenShift", Uom.CORES, "a1", start, end, a1Results);
+    verify(controller, never()).collectMetrics(eq("OpenShift"), any(), eq("a1"), any(), any());
+    verify(controller).collectMetrics("OpenShift", Uom.CORES, "a2", start, end);
+  }
+
+  @Test
+  void testUpdatesAccountsWithEventsButNoResultsToRemoveTheirStaleEvents() {
+    OffsetDateTime end = OffsetDateTime.parse("2021-06-01T12:00Z");
+    OffsetDateTime start = end.minusHours(1);
+    List<QueryResultDataResult> a1Results = List.of(new QueryResultDataResult());
+    when(metricsProperties.getCollectionThreads()).thenReturn(1);
+    when(controller.fetchMetricsByAccount("OpenShift", Uom.CORES, start, end))
+        .thenReturn(Map.of("a1", a1Results));
+    when(controller.findAccountsWithEvents("OpenShift", Uom.CORES, start, end))
+        .thenReturn(List.of("a1", "a2"));
+
+    PrometheusMultiAccountCollector collector =
+        new PrometheusMultiAccountCollector(controller, metricsProperties);
+    collector.collectMetrics("OpenShift", Uom.CORES, start, end);
+
+    verify(controller).updateAccountMetrics("OpenShift", Uom.CORES, "a1", start, end, a1Results);
+    verify(controller).updateAccountMetrics("OpenShift", Uom.CORES, "a2", start, end, List.of());
+  }
+}
@@ -0,0 +1,253 @@
+/*
+ * Copyright Red Hat, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * Red Hat trademarks are not licensed under GPLv3. No permission is
+ * granted to use or replicate Red Hat trademarks that are incorporated
+ * in this software or its documentation.
+ */
+package org.candlepin.subscriptions.metering.service.prometheus;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import org.candlepin.subscriptions.prometheus.model.QueryResult;
+import org.candlepin.subscriptions.prometheus.model.QueryResultData;
+import org.candlepin.subscriptions.prometheus.model.QueryResultDataResult;
+import org.candlepin.subscriptions.prometheus.model.ResultType;
+import org.candlepin.subscriptions.prometheus.model.StatusType;
+import org.junit.jupiter.api.Test;
+
+class PrometheusQueryResultReaderTest {
+
+  private static final String MATRIX_RESPONSE =
+      "{\"status\":\"success\",\"data\":{\"resultType\":\"matrix\",\"result\":["
+          + "{\"metric\":{\"_id\":\"C1\",\"support\":\"Premium\"},"
+          + "\"values\":[[1616787308,\"4.5\"],[1616790908,\"5\"]]},"
+          + "{\"values\":[[1616787308.5,\"1\"]],\"metric\":{\"_id\":\"C2\"}}]}}";
+
+  @Test
+  void readsSamplesOfEverySeries() throws Exception {
+    List<Sample> samples = new ArrayList<>();
+    QueryResult result = read(MATRIX_RESPONSE, samples);
+
+    assertEquals(StatusType.SUCCESS, result.getStatus());
+    assertNull(result.getData());
+    assertEquals(
+        List.of(
+            new Sample(Map.of("_id", "C1", "support", "Premium"), "1616787308", "4.5"),
+            new Sample(Map.of("_id", "C1", "support", "Premium"), "1616790908", "5"),
+            new Sample(Map.of("_id", "C2"), "1616787308.5", "1")),
+        samples);
+  }
+
+  @Test
+  void readsErrorResponse() throws Exception {
+    List<Sample> samples = new ArrayList<>();
+    QueryResult result =
+        read(
+            "{\"status\":\"error\",\"errorType\":\"timeout\",\"error\":\"query timed out\"}",
+            samples);
+
+    assertEquals(StatusType.ERROR, result.getStatus());
+    assertEquals("timeout", result.getErrorType());
+    assertEquals("query timed out", result.getError());
+    assertTrue(samples.isEmpty());
+  }
+
+  @Test
+  void readsSameSamplesAsQueryResultModel() throws Exception {
+    QueryResult model =
+        new QueryResult()
+            .status(StatusType.SUCCESS)
+            .data(
+                new QueryResultData()
+                    .resultType(ResultType.MATRIX)
+                    .addResultItem(
+                        new QueryResultDataResult()
+                            .putMetricItem("_id", "C1")
+                            .putMetricItem("usage", "Production")
+                            .addValuesItem(
+                                List.of(BigDecimal.valueOf(1616787308L), new BigDecimal("4.0")))
+                            .addValuesItem(
+                                List.of(BigDecimal.valueOf(1616790908L), new BigDecimal("2.5"))))
+                    .addResultItem(
+                        new QueryResultDataResult()
+                            .putMetricItem("_id", "C2")
+                            .addValuesItem(
+                                List.of(BigDecimal.valueOf(1616787308L), BigDecimal.ONE))));
+
+    List<Sample> expected = new ArrayList<>();
+    for (QueryResultDataResult r : model.getData().getResult()) {
+      for (List<BigDecimal> measurement : r.getValues()) {
+        expected.add(new Sample(r.getMetric(), measurement.get(0), measurement.get(1)));
+      }
+    }
+
+    List<Sample> samples = new ArrayList<>();
+    read(new ObjectMapper().writeValueAsString(model), samples);
+    assertEquals(expected, samples);
+  }
+
+  @Test
+  void allocatesLessThanTheQueryResultModelForALargeResponse() throws Exception {
+    com.sun.management.ThreadMXBean threads =
+        (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    assumeTrue(threads.isThreadAllocatedMemorySupported());
+    threads.setThreadAllocatedMemoryEnabled(true);
+    // A month of hourly samples for 300 clusters, as returned by the multi-account range query.
+    byte[] response = largeResponse(300, 720);
+    ObjectMapper mapper =
+        new ObjectMapper().configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+    long threadId = Thread.currentThread().getId();
+
+    // Warm up both readers, so that class loading doesn't count towards either.
+    countModelSamples(mapper, response);
+    countStreamedSamples(response);
+
+    long before = threads.getThreadAllocatedBytes(threadId);
+    long start = System.nanoTime();
+    long modelSamples = countModelSamples(mapper, response);
+    long modelNanos = System.nanoTime() - start;
+    long modelBytes = threads.getThreadAllocatedBytes(threadId) - before;
+
+    before = threads.getThreadAllocatedBytes(threadId);
+    start = System.nanoTime();
+    long streamedSamples = countStreamedSamples(response);
+    long streamedNanos = System.nanoTime() - start;
+    long streamedBytes = threads.getThreadAllocatedBytes(threadId) - before;
+
+    assertEquals(300L * 720, modelSamples);
+    assertEquals(modelSamples, streamedSamples);
+    assertTrue(
+        streamedBytes < modelBytes,
+        String.format(
+            "Streaming allocated %d bytes in %d ms, the model %d bytes in %d ms",
+            streamedBytes, streamedNanos / 1_000_000, modelBytes, modelNanos / 1_000_000));
+  }
+
+  @Test
+  void rejectsMalformedSample() {
+    String response = "{\"status\":\"success\",\"data\":{\"result\":[{\"values\":[[1,2,3]]}]}}";
+    List<Sample> samples = new ArrayList<>();
+    assertThrows(IOException.class, () -> read(response, samples));
+  }
+
+  /** Counts the samples of a response the way runRangeQuery results are consumed. */
+  private long countModelSamples(ObjectMapper mapper, byte[] response) throws IOException {
+    long count = 0;
+    QueryResult result = mapper.readValue(response, QueryResult.class);
+    for (QueryResultDataResult r : result.getData().getResult()) {
+      count += r.getValues().size();
+    }
+    return count;
+  }
+
+  private long countStreamedSamples(byte[] response) throws IOException {
+    AtomicLong count = new AtomicLong();
+    try (InputStream stream = new ByteArrayInputStream(response)) {
+      PrometheusQueryResultReader.read(stream, (labels, time, value) -> count.incrementAndGet());
+    }
+    return count.get();
+  }
+
+  private static byte[] largeResponse(int series, int samplesPerSeries) {
+    StringBuilder response =
+        new StringBuilder(
+            "{\"status\":\"success\",\"data\":{\"resultType\":\"matrix\",\"result\":[");
+    for (int i = 0; i < series; i++) {
+      if (i > 0) {
+        response.append(',');
+      }
+      response
+          .append("{\"metric\":{\"_id\":\"C")
+          .append(i)
+          .append("\",\"support\":\"Premium\",\"usage\":\"Production\",")
+          .append("\"product\":\"ocp\",\"ebs_account\":\"A")
+          .append(i % 50)
+          .append("\"},\"values\":[");
+      for (int j = 0; j < samplesPerSeries; j++) {
+        if (j > 0) {
+          response.append(',');
+        }
+        response.append('[').append(1616787308L + j * 3600L).append(",\"").append(j % 16);
+        response.append(".25\"]");
+      }
+      response.append("]}");
+    }
+    return response.append("]}}").toString().getBytes(StandardCharsets.UTF_8);
+  }
+
+  private QueryResult read(String response, List<Sample> samples) throws IOException {
+    try (InputStream stream =
+        new ByteArrayInputStream(response.getBytes(StandardCharsets.UTF_8))) {
+      return PrometheusQueryResultReader.read(
+          stream, (labels, time, value) -> samples.add(new Sample(labels, time, value)));
+    }
+  }
+
+  /** A sample, compared by numeric value rather than by scale. */
+  private static class Sample {
+    private final Map<String, String> labels;
+    private final BigDecimal time;
+    private final BigDecimal value;
+
+    Sample(Map<String, String> labels, String time, String value) {
+      this(labels, new BigDecimal(time), new BigDecimal(value));
+    }
+
+    Sample(Map<String, String> labels, BigDecimal time, BigDecimal value) {
+      this.labels = labels;
+      this.time = time.stripTrailingZeros();
+      this.value = value.stripTrailingZeros();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (!(o instanceof Sample)) {
+        return false;
+      }
+      Sample other = (Sample) o;
+      return labels.equals(other.labels)
+          && time.compareTo(other.time) == 0
+          && value.compareTo(other.value) == 0;
+    }
+
+    @Override
+    public int hashCode() {
+      return labels.hashCode();
+    }
+
+    @Override
+    public String toString() {
+      return labels + "@" + time + "=" + value;
+    }
+  }
+}
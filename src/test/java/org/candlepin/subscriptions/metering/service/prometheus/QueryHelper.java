@@ -47,4 +47,12 @@ public class QueryHelper {
     descriptor.addRuntimeVar("account", account);
     return queryBuilder.build(descriptor);
   }
+
+  public String expectedMultiAccountQuery(String productTag) {
+    Optional<TagMetric> tag = props.getTagMetric(productTag, Uom.CORES);
+    if (tag.isEmpty()) {
+      throw new RuntimeException("Bad test configuration! Could not find TagMetric!");
+    }
+    return queryBuilder.buildMultiAccountQuery(new QueryDescriptor(tag.get()));
+  }
 }
@@ -22,7 +22,10 @@ package org.candlepin.subscriptions.metering.service.prometheus.promql;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTimeout;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
+import java.time.Duration;
 import java.util.HashMap;
 import java.util.Map;
 import org.candlepin.subscriptions.files.TagMetric;
@@ -107,4 +110,101 @@ class QueryBuilderTest {
     String query = builder.build(queryDesc);
     assertEquals(String.format("Account: %s Metric ID: %s", account, metricId), query);
   }
+
+  @Test
+  void reusesCompiledTemplateForEachAccount() {
+    String templateKey = "test_template";
+    PrometheusMetricsProperties props = new PrometheusMetricsProperties(new TagProfile());
+    props
+        .getQueryTemplates()
+        .put(templateKey, "#{metric.metricId} #{runtime[account]} #{runtime[missing]}|");
+
+    TagMetric tagMetric = TagMetric.builder().queryKey(templateKey).metricId("CORES").build();
+    QueryBuilder builder = new QueryBuilder(props);
+
+    QueryDescriptor first = new QueryDescriptor(tagMetric);
+    first.addRuntimeVar("account", "a1");
+    QueryDescriptor second = new QueryDescriptor(tagMetric);
+    second.addRuntimeVar("account", "a2");
+
+    assertEquals("CORES a1 |", builder.build(first));
+    assertEquals("CORES a2 |", builder.build(second));
+  }
+
+  @Test
+  void recompilesQueryOfMetricChangedAfterCompilation() {
+    String templateKey = "test_template";
+    PrometheusMetricsProperties props = new PrometheusMetricsProperties(new TagProfile());
+    props.getQueryTemplates().put(templateKey, "#{metric.metricId} #{metric.queryParams[p1]}");
+
+    Map<String, String> params = new HashMap<>();
+    params.put("p1", "first");
+    TagMetric tagMetric =
+        TagMetric.builder().queryKey(templateKey).metricId("CORES").queryParams(params).build();
+    QueryBuilder builder = new QueryBuilder(props);
+    assertEquals("CORES first", builder.build(new QueryDescriptor(tagMetric)));
+
+    tagMetric.setMetricId("SOCKETS");
+    params.put("p1", "second");
+    assertEquals("SOCKETS second", builder.build(new QueryDescriptor(tagMetric)));
+  }
+
+  @Test
+  void rendersQueriesOfEachAccountQuickly() {
+    String templateKey = "test_template";
+    PrometheusMetricsProperties props = new PrometheusMetricsProperties(new TagProfile());
+    props
+        .getQueryTemplates()
+        .put(
+            templateKey,
+            "sum_over_time(#{metric.queryParams[prometheusMetric]}"
+                + "{product=\"#{metric.queryParams[product]}\", "
+                + "ebs_account=\"#{runtime[account]}\"}[1h])");
+
+    Map<String, String> params = new HashMap<>();
+    params.put("prometheusMetric", "cluster:usage:workload:capacity_physical_cpu_cores:max:5m");
+    params.put("product", "ocp");
+    TagMetric tagMetric =
+        TagMetric.builder().queryKey(templateKey).metricId("CORES").queryParams(params).build();
+    QueryBuilder builder = new QueryBuilder(props);
+
+    assertTimeout(
+        Duration.ofSeconds(5),
+        () -> {
+          for (int i = 0; i < 100_000; i++) {
+            QueryDescriptor descriptor = new QueryDescriptor(tagMetric);
+            descriptor.addRuntimeVar("account", "a" + i);
+            builder.build(descriptor);
+          }
+        });
+    QueryDescriptor last = new QueryDescriptor(tagMetric);
+    last.addRuntimeVar("account", "a1");
+    assertEquals(
+        "sum_over_time(cluster:usage:workload:capacity_physical_cpu_cores:max:5m"
+            + "{product=\"ocp\", ebs_account=\"a1\"}[1h])",
+        builder.build(last));
+  }
+
+  @Test
+  void runtimeVariablesAreRenderedAsPlainValues() {
+    String templateKey = "test_template";
+    PrometheusMetricsProperties props = new PrometheusMetricsProperties(new TagProfile());
+    props.getQueryTemplates().put(templateKey, "account=\"#{runtime[account]}\"");
+
+    QueryDescriptor descriptor =
+        new QueryDescriptor(TagMetric.builder().queryKey(templateKey).metricId("CORES").build());
+    descriptor.addRuntimeVar("account", "#{metric.metricId}");
+
+    assertEquals("account=\"#{metric.metricId}\"", new QueryBuilder(props).build(descriptor));
+  }
+
+  @Test
+  void invalidTemplateFailsOnStartup() {
+    PrometheusMetricsProperties props = new PrometheusMetricsProperties(new TagProfile());
+    props.getQueryTemplates().put("broken", "sum(#{metric.queryParams[prometheusMetric]");
+
+    QueryBuilder builder = new QueryBuilder(props);
+    Throwable e = assertThrows(IllegalStateException.class, builder::compileTemplates);
+    assertTrue(e.getMessage().startsWith("Invalid query template for key broken"));
+  }
 }
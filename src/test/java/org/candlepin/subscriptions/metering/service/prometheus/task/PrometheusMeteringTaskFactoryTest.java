@@ -30,6 +30,8 @@ import java.time.OffsetDateTime;
 import org.candlepin.subscriptions.FixedClockConfiguration;
 import org.candlepin.subscriptions.json.Measurement.Uom;
 import org.candlepin.subscriptions.metering.service.prometheus.PrometheusMeteringController;
+import org.candlepin.subscriptions.metering.service.prometheus.PrometheusMultiAccountCollector;
+import org.candlepin.subscriptions.metering.task.AllAccountsMetricsTask;
 import org.candlepin.subscriptions.metering.task.MetricsTask;
 import org.candlepin.subscriptions.task.Task;
 import org.candlepin.subscriptions.task.TaskDescriptor;
@@ -46,11 +48,13 @@ class PrometheusMeteringTaskFactoryTest {
 
   @Mock private PrometheusMeteringController controller;
 
+  @Mock private PrometheusMultiAccountCollector multiAccountCollector;
+
   private PrometheusMeteringTaskFactory factory;
 
   @BeforeEach
   void before() {
-    this.factory = new PrometheusMeteringTaskFactory(controller);
+    this.factory = new PrometheusMeteringTaskFactory(controller, multiAccountCollector);
   }
 
   @Test
@@ -82,6 +86,26 @@ class PrometheusMeteringTaskFactoryTest {
     verify(controller).collectMetrics("OpenShift", Uom.CORES, "12234", start, end);
   }
 
+  @Test
+  void testOpenshiftAllAccountsMetricsTaskCreation() {
+    ApplicationClock clock = new FixedClockConfiguration().fixedClock();
+    OffsetDateTime end = clock.now();
+    OffsetDateTime start = end.minusHours(1);
+
+    Task task =
+        factory.build(
+            TaskDescriptor.builder(TaskType.METRICS_COLLECTION_ALL_ACCOUNTS, "a-group")
+                .setSingleValuedArg("productTag", "OpenShift")
+                .setSingleValuedArg("metric", "Cores")
+                .setSingleValuedArg("start", start.toString())
+                .setSingleValuedArg("end", end.toString())
+                .build());
+    assertTrue(task instanceof AllAccountsMetricsTask);
+
+    task.execute();
+    verify(multiAccountCollector).collectMetrics("OpenShift", Uom.CORES, start, end);
+  }
+
   @Test
   void testOpenshiftMetricsTaskMissingAccount() {
     TaskDescriptor descriptor =
@@ -116,4 +116,23 @@ class PrometheusMetricsTaskManagerTest {
     verify(queue).enqueue(account2Task);
     verifyNoMoreInteractions(queue);
   }
+
+  @Test
+  void updateForAllAccountsWithASingleQueryWhenEnabled() {
+    OffsetDateTime end = OffsetDateTime.now();
+    OffsetDateTime start = end.minusDays(1);
+
+    when(prometheusMetricsProperties.isMultiAccountQueryEnabled()).thenReturn(true);
+    TaskDescriptor allAccountsTask =
+        TaskDescriptor.builder(TaskType.METRICS_COLLECTION_ALL_ACCOUNTS, TASK_TOPIC)
+            .setSingleValuedArg("productTag", TEST_PROFILE_ID)
+            .setSingleValuedArg("metric", "Cores")
+            .setSingleValuedArg("start", start.toString())
+            .setSingleValuedArg("end", end.toString())
+            .build();
+
+    manager.updateMetricsForAllAccounts(TEST_PROFILE_ID, start, end);
+    verify(queue).enqueue(allAccountsTask);
+    verifyNoMoreInteractions(queue, accountSource);
+  }
 }
@@ -30,16 +30,20 @@ import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import javax.ws.rs.core.Response;
+import org.candlepin.subscriptions.ApplicationProperties;
 import org.candlepin.subscriptions.db.AccountListSource;
 import org.candlepin.subscriptions.db.SubscriptionCapacityRepository;
+import org.candlepin.subscriptions.db.model.CapacityTotals;
 import org.candlepin.subscriptions.db.model.Granularity;
 import org.candlepin.subscriptions.db.model.ServiceLevel;
 import org.candlepin.subscriptions.db.model.SubscriptionCapacity;
 import org.candlepin.subscriptions.db.model.Usage;
 import org.candlepin.subscriptions.exception.SubscriptionsException;
+import org.candlepin.subscriptions.files.ProductProfileRegistry;
 import org.candlepin.subscriptions.resteasy.PageLinkCreator;
 import org.candlepin.subscriptions.security.WithMockRedHatPrincipal;
 import org.candlepin.subscriptions.tally.AccountListSourceException;
+import org.candlepin.subscriptions.util.ApplicationClock;
 import org.candlepin.subscriptions.utilization.api.model.CapacityReport;
 import org.candlepin.subscriptions.utilization.api.model.CapacitySnapshot;
 import org.candlepin.subscriptions.utilization.api.model.GranularityType;
@@ -69,6 +73,10 @@ class CapacityResourceTest {
 
   @Autowired CapacityResource resource;
 
+  @Autowired ApplicationClock clock;
+
+  @Autowired ProductProfileRegistry productProfileRegistry;
+
   @BeforeEach
   public void setupTests() throws AccountListSourceException {
     when(accountListSource.containsReportingAccount(eq("account123456"))).thenReturn(true);
@@ -250,6 +258,31 @@ class CapacityResourceTest {
         report.getData().get(0).getDate());
   }
 
+  @Test
+  void testShouldSumOnlyRequestedPageInDatabaseWhenEnabled() {
+    ApplicationProperties props = new ApplicationProperties();
+    props.setCapacityDbAggregationEnabled(true);
+    CapacityResource dbResource =
+        new CapacityResource(repository, pageLinkCreator, clock, productProfileRegistry, props);
+    OffsetDateTime pageDate = OffsetDateTime.now().minusDays(3).truncatedTo(ChronoUnit.DAYS);
+
+    when(repository.sumCapacityByPeriod(
+            "owner123456", RHEL.toString(), null, null, Granularity.DAILY, pageDate, pageDate))
+        .thenReturn(List.of(new CapacityTotals(pageDate, 2, 5, 8, 20)));
+
+    CapacityReport report =
+        dbResource.getCapacityReport(RHEL, GranularityType.DAILY, min, max, 1, 1, null, null);
+
+    assertEquals(1, report.getData().size());
+    CapacitySnapshot snapshot = report.getData().get(0);
+    assertEquals(pageDate, snapshot.getDate());
+    assertEquals(7, snapshot.getSockets().intValue());
+    assertEquals(5, snapshot.getHypervisorSockets().intValue());
+    assertEquals(28, snapshot.getCores().intValue());
+    assertEquals(8, snapshot.getPhysicalCores().intValue());
+    verify(repository, never()).findByOwnerAndProductId(any(), any(), any(), any(), any(), any());
+  }
+
   @Test
   @WithMockRedHatPrincipal("1111")
   public void testAccessDeniedWhenAccountIsNotWhitelisted() {
@@ -0,0 +1,187 @@
+/*
+ * Copyright Red Hat, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * Red Hat trademarks are not licensed under GPLv3. No permission is
+ * granted to use or replicate Red Hat trademarks that are incorporated
+ * in this software or its documentation.
+ */
+package org.candlepin.subscriptions.resource;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.candlepin.subscriptions.ApplicationProperties;
+import org.candlepin.subscriptions.db.AccountTallyStateRepository;
+import org.candlepin.subscriptions.tally.TallySnapshotsCommittedEvent;
+import org.candlepin.subscriptions.utilization.api.model.GranularityType;
+import org.candlepin.subscriptions.utilization.api.model.ProductId;
+import org.candlepin.subscriptions.utilization.api.model.TallyReport;
+import org.candlepin.subscriptions.utilization.api.model.TallySnapshot;
+import org.junit.jupiter.api.Test;
+
+class TallyReportCacheTest {
+
+  private static final OffsetDateTime BEGINNING =
+      OffsetDateTime.of(2021, 5, 1, 0, 0, 0, 0, ZoneOffset.UTC);
+  private static final OffsetDateTime ENDING = BEGINNING.plusDays(30);
+
+  private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+  private final AtomicInteger loads = new AtomicInteger();
+  private final AccountTallyStateRepository stateRepository =
+      mock(AccountTallyStateRepository.class);
+
+  @Test
+  void loadsEveryReportWhenDisabled() {
+    TallyReportCache cache = createCache(false, 100);
+
+    cache.get(key("A1", 0), () -> load(1));
+    cache.get(key("A1", 0), () -> load(1));
+
+    assertEquals(2, loads.get());
+    assertNull(meterRegistry.find("cache.gets").meter());
+  }
+
+  @Test
+  void servesCachedReportOfSameRequest() {
+    TallyReportCache cache = createCache(true, 100);
+
+    TallyReportCache.Entry first = cache.get(key("A1", 0), () -> load(1));
+    TallyReportCache.Entry second = cache.get(key("A1", 0), () -> load(1));
+    cache.get(key("A1", 10), () -> load(1));
+
+    assertSame(first, second);
+    assertEquals(2, loads.get());
+    assertEquals(
+        1.0,
+        meterRegistry
+            .get("cache.gets")
+            .tag("cache", TallyReportCache.CACHE_NAME)
+            .tag("result", "hit")
+            .functionCounter()
+            .count());
+    assertEquals(
+        2.0,
+        meterRegistry
+            .get("cache.gets")
+            .tag("cache", TallyReportCache.CACHE_NAME)
+            .tag("result", "miss")
+            .functionCounter()
+            .count());
+  }
+
+  @Test
+  void committedSnapshotsInvalidateOnlyTheirAccount() {
+    TallyReportCache cache = createCache(true, 100);
+    cache.get(key("A1", 0), () -> load(1));
+    cache.get(key("A1", 10), () -> load(1));
+    cache.get(key("A2", 0), () -> load(1));
+
+    cache.onSnapshotsCommitted(new TallySnapshotsCommittedEvent(List.of("A1")));
+    cache.get(key("A1", 0), () -> load(1));
+    cache.get(key("A1", 10), () -> load(1));
+    cache.get(key("A2", 0), () -> load(1));
+
+    assertEquals(5, loads.get());
+  }
+
+  @Test
+  void reloadsReportsOfAccountsWhoseSnapshotsWereWrittenElsewhere() {
+    TallyReportCache cache = createCache(true, 100);
+    when(stateRepository.findSnapshotsUpdatedOn("A1")).thenReturn(Optional.of(BEGINNING));
+    TallyReportCache.Entry first = cache.get(key("A1", 0), () -> load(1));
+    assertSame(first, cache.get(key("A1", 0), () -> load(1)));
+
+    when(stateRepository.findSnapshotsUpdatedOn("A1"))
+        .thenReturn(Optional.of(BEGINNING.plusHours(1)));
+    TallyReportCache.Entry reloaded = cache.get(key("A1", 0), () -> load(1));
+
+    assertNotSame(first, reloaded);
+    assertSame(reloaded, cache.get(key("A1", 0), () -> load(1)));
+    assertEquals(2, loads.get());
+  }
+
+  @Test
+  void doesNotCacheReportLoadedDuringInvalidation() {
+    TallyReportCache cache = createCache(true, 100);
+
+    cache.get(
+        key("A1", 0),
+        () -> {
+          TallyReportCache.Entry entry = load(1);
+          cache.invalidate(Set.of("A1"));
+          return entry;
+        });
+    cache.get(key("A1", 0), () -> load(1));
+
+    assertEquals(2, loads.get());
+  }
+
+  @Test
+  void evictsReportsBeyondMaximumSnapshots() {
+    TallyReportCache cache = createCache(true, 10);
+
+    cache.get(key("A1", 0), () -> load(8));
+    cache.get(key("A1", 10), () -> load(8));
+    cache.get(key("A1", 0), () -> load(8));
+    cache.get(key("A1", 10), () -> load(8));
+
+    assertTrue(loads.get() > 2);
+    assertTrue(
+        meterRegistry
+                .get("cache.evictions")
+                .tag("cache", TallyReportCache.CACHE_NAME)
+                .functionCounter()
+                .count()
+            > 0);
+  }
+
+  private TallyReportCache createCache(boolean enabled, long maxSnapshots) {
+    ApplicationProperties props = new ApplicationProperties();
+    props.setTallyReportCacheEnabled(enabled);
+    props.setTallyReportCacheMaxSnapshots(maxSnapshots);
+    return new TallyReportCache(props, stateRepository, meterRegistry);
+  }
+
+  private TallyReportCache.Key key(String account, Integer offset) {
+    return new TallyReportCache.Key(
+        account,
+        ProductId.RHEL,
+        GranularityType.DAILY,
+        null,
+        null,
+        BEGINNING,
+        ENDING,
+        offset,
+        10,
+        false);
+  }
+
+  private TallyReportCache.Entry load(int snapshots) {
+    loads.incrementAndGet();
+    List<TallySnapshot> data = new ArrayList<>(Collections.nCopies(snapshots, new TallySnapshot()));
+    return new TallyReportCache.Entry(new TallyReport().data(data), null);
+  }
+}
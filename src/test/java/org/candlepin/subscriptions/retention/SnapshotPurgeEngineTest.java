@@ -0,0 +1,157 @@
+/*
+ * Copyright Red Hat, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * Red Hat trademarks are not licensed under GPLv3. No permission is
+ * granted to use or replicate Red Hat trademarks that are incorporated
+ * in this software or its documentation.
+ */
+package org.candlepin.subscriptions.retention;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.List;
+import java.util.UUID;
+import java.util.stream.Collectors;
+import org.candlepin.subscriptions.db.SnapshotPurgeCheckpointRepository;
+import org.candlepin.subscriptions.db.TallySnapshotRepository;
+import org.candlepin.subscriptions.db.model.Granularity;
+import org.candlepin.subscriptions.db.model.HardwareMeasurementType;
+import org.candlepin.subscriptions.db.model.SnapshotPurgeCheckpoint;
+import org.candlepin.subscriptions.db.model.TallySnapshot;
+import org.candlepin.subscriptions.json.Measurement;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.transaction.PlatformTransactionManager;
+
+// Not transactional: the engine commits each chunk in its own transaction.
+@SpringBootTest
+@ActiveProfiles("test")
+class SnapshotPurgeEngineTest {
+  private static final String ACCOUNT_PREFIX = "purge-test-";
+  private static final OffsetDateTime CUTOFF =
+      OffsetDateTime.of(2019, 6, 23, 0, 0, 0, 0, ZoneOffset.UTC);
+
+  @Autowired private TallySnapshotRepository snapshotRepository;
+  @Autowired private SnapshotPurgeCheckpointRepository checkpointRepository;
+
+  @Autowired
+  @Qualifier("rhsmSubscriptionsTransactionManager")
+  private PlatformTransactionManager transactionManager;
+
+  private final MeterRegistry meterRegistry = new SimpleMeterRegistry();
+  private SnapshotPurgeEngine engine;
+
+  @BeforeEach
+  void setup() {
+    TallyRetentionPolicy policy = mock(TallyRetentionPolicy.class);
+    when(policy.getCutoffDate(Granularity.DAILY)).thenReturn(CUTOFF);
+    SnapshotPurgeProperties properties = new SnapshotPurgeProperties();
+    properties.setChunkSize(2);
+    engine =
+        new SnapshotPurgeEngine(
+            snapshotRepository,
+            checkpointRepository,
+            policy,
+            properties,
+            transactionManager,
+            meterRegistry);
+  }
+
+  @AfterEach
+  void cleanup() {
+    snapshotRepository.deleteAll(
+        snapshotRepository.findAll().stream()
+            .filter(s -> s.getAccountNumber().startsWith(ACCOUNT_PREFIX))
+            .collect(Collectors.toList()));
+    checkpointRepository.deleteAll();
+  }
+
+  @Test
+  void purgesExpiredSnapshotsOfAllAccountsInChunks() {
+    for (int i = 0; i < 5; i++) {
+      save(ACCOUNT_PREFIX + (i % 2), Granularity.DAILY, CUTOFF.minusDays(i + 1L));
+    }
+    TallySnapshot current = save(ACCOUNT_PREFIX + "0", Granularity.DAILY, CUTOFF);
+    TallySnapshot otherGranularity =
+        save(ACCOUNT_PREFIX + "0", Granularity.MONTHLY, CUTOFF.minusYears(1));
+
+    engine.purge();
+
+    List<UUID> expected =
+        List.of(current.getId(), otherGranularity.getId()).stream()
+            .sorted()
+            .collect(Collectors.toList());
+    assertEquals(expected, testSnapshotIds());
+    assertEquals(
+        5.0,
+        meterRegistry
+            .counter("rhsm-subscriptions.retention.snapshots.purged", "granularity", "DAILY")
+            .count());
+    assertFalse(checkpointRepository.findById(Granularity.DAILY).isPresent());
+  }
+
+  @Test
+  void resumesFromCheckpoint() {
+    for (int i = 0; i < 3; i++) {
+      save(ACCOUNT_PREFIX + i, Granularity.DAILY, CUTOFF.minusDays(1));
+    }
+    // The first snapshot in the database's ID order was purged before an interruption.
+    UUID checkpointed =
+        snapshotRepository
+            .findIdsByGranularityAndSnapshotDateBefore(
+                Granularity.DAILY, CUTOFF, new UUID(0L, 0L), PageRequest.of(0, 1))
+            .get(0);
+    checkpointRepository.save(new SnapshotPurgeCheckpoint(Granularity.DAILY, CUTOFF, checkpointed));
+
+    engine.purge();
+
+    assertEquals(List.of(checkpointed), testSnapshotIds());
+    assertTrue(checkpointRepository.findById(Granularity.DAILY).isEmpty());
+  }
+
+  private List<UUID> testSnapshotIds() {
+    return snapshotRepository.findAll().stream()
+        .filter(s -> s.getAccountNumber().startsWith(ACCOUNT_PREFIX))
+        .map(TallySnapshot::getId)
+        .sorted()
+        .collect(Collectors.toList());
+  }
+
+  private TallySnapshot save(String account, Granularity granularity, OffsetDateTime date) {
+    TallySnapshot snapshot = new TallySnapshot();
+    snapshot.setAccountNumber(account);
+    snapshot.setProductId("RHEL");
+    snapshot.setOwnerId("N/A");
+    snapshot.setGranularity(granularity);
+    snapshot.setSnapshotDate(date);
+    snapshot.setMeasurement(HardwareMeasurementType.TOTAL, Measurement.Uom.CORES, 4.0);
+    return snapshotRepository.save(snapshot);
+  }
+}
@@ -20,15 +20,23 @@
  */
 package org.candlepin.subscriptions.retention;
 
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.Mockito.*;
 
 import java.time.Instant;
 import java.time.OffsetDateTime;
 import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.time.temporal.ChronoUnit;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Stream;
 import org.candlepin.subscriptions.db.AccountListSource;
+import org.candlepin.subscriptions.db.EventRecordRepository;
 import org.candlepin.subscriptions.db.TallySnapshotRepository;
+import org.candlepin.subscriptions.db.model.EventPartition;
 import org.candlepin.subscriptions.db.model.Granularity;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -37,6 +45,7 @@ import org.springframework.boot.test.context.TestConfiguration;
 import org.springframework.boot.test.mock.mockito.MockBean;
 import org.springframework.context.annotation.ComponentScan;
 import org.springframework.test.context.ActiveProfiles;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 @SpringBootTest
 @ActiveProfiles("test")
@@ -50,8 +59,11 @@ class TallyRetentionControllerTest {
   @MockBean private TallyRetentionPolicy policy;
   @MockBean private TallySnapshotRepository repository;
   @MockBean private AccountListSource accountListSource;
+  @MockBean private EventRecordRepository eventRecordRepository;
+  @MockBean private SnapshotPurgeEngine snapshotPurgeEngine;
 
   @Autowired private TallyRetentionController controller;
+  @Autowired private SnapshotPurgeProperties snapshotPurgeProperties;
 
   @Test
   void retentionControllerShouldRemoveSnapshotsForGranularitiesConfigured() throws Exception {
@@ -85,4 +97,93 @@ class TallyRetentionControllerTest {
         .deleteAllByAccountNumberAndGranularityAndSnapshotDateBefore(
             anyString(), eq(Granularity.DAILY), eq(cutoff));
   }
+
+  @Test
+  void testPurgeSnapshotsOfEachAccountInATransaction() throws Exception {
+    when(policy.getCutoffDate(Granularity.DAILY)).thenReturn(OffsetDateTime.now());
+    when(accountListSource.purgeReportAccounts()).thenReturn(Stream.of("1"));
+    AtomicBoolean inTransaction = new AtomicBoolean(false);
+    doAnswer(
+            invocation -> {
+              inTransaction.set(TransactionSynchronizationManager.isActualTransactionActive());
+              return null;
+            })
+        .when(repository)
+        .deleteAllByAccountNumberAndGranularityAndSnapshotDateBefore(any(), any(), any());
+
+    controller.purgeSnapshots();
+
+    assertTrue(inTransaction.get());
+  }
+
+  @Test
+  void testChunkedPurgeSnapshotsRunsOutsideOfATransaction() throws Exception {
+    AtomicBoolean inTransaction = new AtomicBoolean(true);
+    doAnswer(
+            invocation -> {
+              inTransaction.set(TransactionSynchronizationManager.isActualTransactionActive());
+              return null;
+            })
+        .when(snapshotPurgeEngine)
+        .purge();
+
+    snapshotPurgeProperties.setChunked(true);
+    try {
+      controller.purgeSnapshots();
+    } finally {
+      snapshotPurgeProperties.setChunked(false);
+    }
+
+    verify(snapshotPurgeEngine).purge();
+    assertFalse(inTransaction.get());
+    verifyZeroInteractions(accountListSource);
+  }
+
+  @Test
+  void purgeOldEventRecordsDeletesRowsWhenEventsAreNotPartitioned() {
+    when(eventRecordRepository.isPartitioned()).thenReturn(false);
+
+    controller.purgeOldEventRecords();
+
+    verify(eventRecordRepository).deleteEventRecordsByTimestampBefore(any());
+    verify(eventRecordRepository, never()).createPartition(any());
+    verify(eventRecordRepository, never()).dropPartition(any());
+  }
+
+  @Test
+  void purgeOldEventRecordsDropsPartitionsBeforeCutoff() {
+    OffsetDateTime thisMonth =
+        OffsetDateTime.now(ZoneOffset.UTC).truncatedTo(ChronoUnit.DAYS).withDayOfMonth(1);
+    EventPartition expired =
+        new EventPartition(thisMonth.minusYears(1), thisMonth.minusYears(1).plusMonths(1));
+    EventPartition current = new EventPartition(thisMonth, thisMonth.plusMonths(1));
+    when(eventRecordRepository.isPartitioned()).thenReturn(true);
+    when(eventRecordRepository.findPartitions()).thenReturn(List.of(expired, current));
+
+    controller.purgeOldEventRecords();
+
+    verify(eventRecordRepository).dropPartition(expired);
+    verify(eventRecordRepository, never()).dropPartition(current);
+    verify(eventRecordRepository, never()).createPartition(current);
+    // The default is three months ahead of the current one.
+    verify(eventRecordRepository, times(3)).createPartition(any());
+    verify(eventRecordRepository).deleteEventRecordsByTimestampBefore(any());
+  }
+
+  @Test
+  void purgeOldEventRecordsMovesDefaultPartitionEventsIntoNewPartitions() {
+    OffsetDateTime thisMonth =
+        OffsetDateTime.now(ZoneOffset.UTC).truncatedTo(ChronoUnit.DAYS).withDayOfMonth(1);
+    EventPartition missed = new EventPartition(thisMonth, thisMonth.plusMonths(1));
+    when(eventRecordRepository.isPartitioned()).thenReturn(true);
+    when(eventRecordRepository.findPartitions()).thenReturn(List.of());
+    when(eventRecordRepository.hasDefaultPartitionEvents(any())).thenReturn(false);
+    when(eventRecordRepository.hasDefaultPartitionEvents(missed)).thenReturn(true);
+
+    controller.purgeOldEventRecords();
+
+    verify(eventRecordRepository).createPartitionFromDefault(missed);
+    verify(eventRecordRepository, never()).createPartition(missed);
+    verify(eventRecordRepository, times(3)).createPartition(any());
+  }
 }
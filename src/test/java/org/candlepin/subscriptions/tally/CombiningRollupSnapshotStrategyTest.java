@@ -27,12 +27,12 @@ import static org.mockito.Mockito.*;
 import static org.mockito.Mockito.any;
 
 import java.time.OffsetDateTime;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.UUID;
-import java.util.stream.Stream;
 import org.candlepin.subscriptions.db.TallySnapshotRepository;
 import org.candlepin.subscriptions.db.model.Granularity;
 import org.candlepin.subscriptions.db.model.HardwareMeasurementType;
@@ -44,9 +44,11 @@ import org.candlepin.subscriptions.files.ProductProfileRegistry;
 import org.candlepin.subscriptions.json.Measurement;
 import org.junit.jupiter.api.Test;
 import org.mockito.ArgumentCaptor;
+import org.mockito.Captor;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.data.jpa.domain.Specification;
 import org.springframework.test.context.ActiveProfiles;
 
 @SpringBootTest
@@ -63,14 +65,14 @@ class CombiningRollupSnapshotStrategyTest {
 
   @MockBean SnapshotSummaryProducer producer;
 
+  @Captor ArgumentCaptor<Collection<TallySnapshot>> talliesSavedCaptor;
+
   @Test
   void testConsecutiveHoursAddedTogether() {
-    when(repo.findByAccountNumberInAndProductIdInAndGranularityAndSnapshotDateBetween(
-            any(), any(), any(), any(), any()))
-        .then(invocation -> Stream.empty());
+    when(repo.findAll(any(Specification.class))).thenReturn(List.of());
     UsageCalculation.Key usageKey =
         new UsageCalculation.Key(OPEN_SHIFT_HOURLY, ServiceLevel.PREMIUM, Usage.PRODUCTION);
-    when(repo.save(any())).then(invocation -> invocation.getArgument(0));
+    when(repo.upsertAll(any())).then(invocation -> List.copyOf(invocation.getArgument(0)));
     AccountUsageCalculation noonUsage = createAccountUsageCalculation(usageKey, 4.0);
     AccountUsageCalculation afternoonUsage = createAccountUsageCalculation(usageKey, 3.0);
     combiningRollupSnapshotStrategy.produceSnapshotsFromCalculations(
@@ -90,9 +92,9 @@ class CombiningRollupSnapshotStrategyTest {
     TallySnapshot dailySnapshot =
         createTallySnapshot(Granularity.DAILY, "2021-02-25T00:00:00Z", 7.0);
 
-    ArgumentCaptor<TallySnapshot> talliesSavedCaptor = ArgumentCaptor.forClass(TallySnapshot.class);
-    verify(repo, times(3)).save(talliesSavedCaptor.capture());
-    List<TallySnapshot> talliesSaved = talliesSavedCaptor.getAllValues();
+    verify(repo).upsertAll(talliesSavedCaptor.capture());
+    List<TallySnapshot> talliesSaved = List.copyOf(talliesSavedCaptor.getValue());
+    assertEquals(3, talliesSaved.size());
     TallySnapshot actual =
         talliesSaved.stream()
             .filter(s -> s.getGranularity() == Granularity.DAILY)
@@ -110,12 +112,10 @@ class CombiningRollupSnapshotStrategyTest {
     OffsetDateTime hourlyTimestamp2 = OffsetDateTime.parse("2021-02-26T11:00:00Z");
     OffsetDateTime dailyTimestamp1 = OffsetDateTime.parse("2021-02-25T00:00:00Z");
     OffsetDateTime dailyTimestamp2 = OffsetDateTime.parse("2021-02-26T00:00:00Z");
-    when(repo.findByAccountNumberInAndProductIdInAndGranularityAndSnapshotDateBetween(
-            any(), any(), any(), any(), any()))
-        .then(invocation -> Stream.empty());
+    when(repo.findAll(any(Specification.class))).thenReturn(List.of());
     UsageCalculation.Key usageKey =
         new UsageCalculation.Key(OPEN_SHIFT_HOURLY, ServiceLevel.PREMIUM, Usage.PRODUCTION);
-    when(repo.save(any())).then(invocation -> invocation.getArgument(0));
+    when(repo.upsertAll(any())).then(invocation -> List.copyOf(invocation.getArgument(0)));
     AccountUsageCalculation day1Usage = createAccountUsageCalculation(usageKey, 4.0);
     AccountUsageCalculation day2Usage = createAccountUsageCalculation(usageKey, 3.0);
     combiningRollupSnapshotStrategy.produceSnapshotsFromCalculations(
@@ -131,9 +131,9 @@ class CombiningRollupSnapshotStrategyTest {
     TallySnapshot dailySnapshot1 = createTallySnapshot(Granularity.DAILY, dailyTimestamp1, 4.0);
     TallySnapshot dailySnapshot2 = createTallySnapshot(Granularity.DAILY, dailyTimestamp2, 3.0);
 
-    ArgumentCaptor<TallySnapshot> talliesSavedCaptor = ArgumentCaptor.forClass(TallySnapshot.class);
-    verify(repo, times(4)).save(talliesSavedCaptor.capture());
-    List<TallySnapshot> talliesSaved = talliesSavedCaptor.getAllValues();
+    verify(repo).upsertAll(talliesSavedCaptor.capture());
+    List<TallySnapshot> talliesSaved = List.copyOf(talliesSavedCaptor.getValue());
+    assertEquals(4, talliesSaved.size());
     TallySnapshot actual1 =
         talliesSaved.stream()
             .filter(
@@ -166,15 +166,10 @@ class CombiningRollupSnapshotStrategyTest {
     TallySnapshot noonSnapshot =
         createTallySnapshot(Granularity.HOURLY, "2021-02-25T12:00:00Z", 4.0);
     noonSnapshot.setId(UUID.randomUUID());
-    when(repo.findByAccountNumberInAndProductIdInAndGranularityAndSnapshotDateBetween(
-            any(), any(), eq(Granularity.HOURLY), any(), any()))
-        .thenReturn(Stream.of(noonSnapshot));
-    when(repo.findByAccountNumberInAndProductIdInAndGranularityAndSnapshotDateBetween(
-            any(), any(), eq(Granularity.DAILY), any(), any()))
-        .thenReturn(Stream.empty());
+    when(repo.findAll(any(Specification.class))).thenReturn(List.of(noonSnapshot));
     UsageCalculation.Key usageKey =
         new UsageCalculation.Key(OPEN_SHIFT_HOURLY, ServiceLevel.PREMIUM, Usage.PRODUCTION);
-    when(repo.save(any())).then(invocation -> invocation.getArgument(0));
+    when(repo.upsertAll(any())).then(invocation -> List.copyOf(invocation.getArgument(0)));
     AccountUsageCalculation noonUsage = createAccountUsageCalculation(usageKey, 4.0);
     AccountUsageCalculation afternoonUsage = createAccountUsageCalculation(usageKey, 3.0);
     combiningRollupSnapshotStrategy.produceSnapshotsFromCalculations(
@@ -192,9 +187,9 @@ class CombiningRollupSnapshotStrategyTest {
     TallySnapshot dailySnapshot =
         createTallySnapshot(Granularity.DAILY, "2021-02-25T00:00:00Z", 7.0);
 
-    ArgumentCaptor<TallySnapshot> talliesSavedCaptor = ArgumentCaptor.forClass(TallySnapshot.class);
-    verify(repo, times(3)).save(talliesSavedCaptor.capture());
-    List<TallySnapshot> talliesSaved = talliesSavedCaptor.getAllValues();
+    verify(repo).upsertAll(talliesSavedCaptor.capture());
+    List<TallySnapshot> talliesSaved = List.copyOf(talliesSavedCaptor.getValue());
+    assertEquals(3, talliesSaved.size());
     TallySnapshot actual =
         talliesSaved.stream()
             .filter(s -> Objects.equals(noonSnapshot.getId(), s.getId()))
@@ -209,15 +204,10 @@ class CombiningRollupSnapshotStrategyTest {
     TallySnapshot dailySnapshot =
         createTallySnapshot(Granularity.DAILY, "2021-02-25T00:00:00Z", 7.0);
     dailySnapshot.setId(UUID.randomUUID());
-    when(repo.findByAccountNumberInAndProductIdInAndGranularityAndSnapshotDateBetween(
-            any(), any(), eq(Granularity.HOURLY), any(), any()))
-        .thenReturn(Stream.empty());
-    when(repo.findByAccountNumberInAndProductIdInAndGranularityAndSnapshotDateBetween(
-            any(), any(), eq(Granularity.DAILY), any(), any()))
-        .thenReturn(Stream.of(dailySnapshot));
+    when(repo.findAll(any(Specification.class))).thenReturn(List.of(dailySnapshot));
     UsageCalculation.Key usageKey =
         new UsageCalculation.Key(OPEN_SHIFT_HOURLY, ServiceLevel.PREMIUM, Usage.PRODUCTION);
-    when(repo.save(any())).then(invocation -> invocation.getArgument(0));
+    when(repo.upsertAll(any())).then(invocation -> List.copyOf(invocation.getArgument(0)));
 
     AccountUsageCalculation noonUsage = createAccountUsageCalculation(usageKey, 4.0);
     AccountUsageCalculation afternoonUsage = createAccountUsageCalculation(usageKey, 3.0);
@@ -237,9 +227,9 @@ class CombiningRollupSnapshotStrategyTest {
     TallySnapshot afternoonSnapshot =
         createTallySnapshot(Granularity.HOURLY, "2021-02-25T13:00:00Z", 3.0);
 
-    ArgumentCaptor<TallySnapshot> talliesSavedCaptor = ArgumentCaptor.forClass(TallySnapshot.class);
-    verify(repo, times(3)).save(talliesSavedCaptor.capture());
-    List<TallySnapshot> talliesSaved = talliesSavedCaptor.getAllValues();
+    verify(repo).upsertAll(talliesSavedCaptor.capture());
+    List<TallySnapshot> talliesSaved = List.copyOf(talliesSavedCaptor.getValue());
+    assertEquals(3, talliesSaved.size());
     TallySnapshot actual =
         talliesSaved.stream()
             .filter(s -> Objects.equals(dailySnapshot.getId(), s.getId()))
@@ -0,0 +1,197 @@
+/*
+ * Copyright Red Hat, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * Red Hat trademarks are not licensed under GPLv3. No permission is
+ * granted to use or replicate Red Hat trademarks that are incorporated
+ * in this software or its documentation.
+ */
+package org.candlepin.subscriptions.tally;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
+import org.candlepin.subscriptions.ApplicationProperties;
+import org.candlepin.subscriptions.inventory.db.InventoryDatabaseOperations;
+import org.candlepin.subscriptions.util.ApplicationClock;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+@ExtendWith(MockitoExtension.class)
+class HypervisorMappingCacheTest {
+
+  @Mock InventoryDatabaseOperations inventory;
+
+  @BeforeEach
+  void setupInventory() {
+    lenient()
+        .doAnswer(
+            invocation -> {
+              List<String> accounts = invocation.getArgument(0);
+              Consumer<Object[]> consumer = invocation.getArgument(1);
+              if (accounts.contains("A1")) {
+                consumer.accept(new Object[] {"hyp1", "hyp1", "A1"});
+                consumer.accept(new Object[] {"hyp2", null, "A1"});
+              }
+              if (accounts.contains("A2")) {
+                consumer.accept(new Object[] {"hyp3", "hyp3", "A2"});
+              }
+              return null;
+            })
+        .when(inventory)
+        .reportedHypervisors(any(), any());
+    lenient()
+        .doAnswer(
+            invocation -> {
+              Collection<String> accounts = invocation.getArgument(0);
+              Consumer<Object[]> consumer = invocation.getArgument(2);
+              if (accounts.contains("A1")) {
+                consumer.accept(new Object[] {"hyp2", "hyp2", "A1"});
+              }
+              return null;
+            })
+        .when(inventory)
+        .reportedHypervisorsChangedSince(any(), any(), any());
+  }
+
+  @Test
+  void returnsMappingOfAllAccountsWithUnreportedHypervisorsAsNull() {
+    HypervisorMappingCache cache = createCache(Duration.ofMinutes(5));
+    Map<String, String> mapping = cache.getMapping(List.of("A1", "A2"));
+
+    Map<String, String> expected = new HashMap<>();
+    expected.put("hyp1", "hyp1");
+    expected.put("hyp2", null);
+    expected.put("hyp3", "hyp3");
+    assertEquals(expected, mapping);
+    assertTrue(mapping.containsKey("hyp2"));
+  }
+
+  @Test
+  void onlyLoadsAccountsNotCached() {
+    HypervisorMappingCache cache = createCache(Duration.ofHours(24));
+    cache.getMapping(List.of("A1"));
+    Map<String, String> mapping = cache.getMapping(List.of("A1", "A2"));
+
+    assertEquals(3, mapping.size());
+    verify(inventory).reportedHypervisors(eq(List.of("A1")), any());
+    verify(inventory).reportedHypervisors(eq(List.of("A2")), any());
+    verify(inventory).reportedHypervisorsChangedSince(eq(Set.of("A1")), any(), any());
+    verifyNoMoreInteractions(inventory);
+  }
+
+  @Test
+  void refreshesCachedAccountsWithMappingsChangedSincePreviousTally() {
+    MutableClock clock = new MutableClock(Instant.EPOCH);
+    HypervisorMappingCache cache = createCache(Duration.ofHours(24), clock);
+    assertNull(cache.getMapping(List.of("A1")).get("hyp2"));
+
+    clock.advance(Duration.ofHours(1));
+    Map<String, String> mapping = cache.getMapping(List.of("A1"));
+
+    assertEquals(Map.of("hyp1", "hyp1", "hyp2", "hyp2"), mapping);
+    OffsetDateTime previousTally = OffsetDateTime.ofInstant(Instant.EPOCH, ZoneOffset.UTC);
+    verify(inventory)
+        .reportedHypervisorsChangedSince(
+            eq(Set.of("A1")), eq(previousTally.minusMinutes(5)), any());
+    verify(inventory, times(1)).reportedHypervisors(any(), any());
+  }
+
+  @Test
+  void reloadsAccountsInFullOnceTtlExpires() {
+    MutableClock clock = new MutableClock(Instant.EPOCH);
+    HypervisorMappingCache cache = createCache(Duration.ofHours(24), clock);
+    cache.getMapping(List.of("A1"));
+
+    clock.advance(Duration.ofHours(24));
+    cache.getMapping(List.of("A1"));
+
+    verify(inventory, times(2)).reportedHypervisors(eq(List.of("A1")), any());
+    verify(inventory, never()).reportedHypervisorsChangedSince(any(), any(), any());
+  }
+
+  @Test
+  void reloadsEvictedAccounts() {
+    HypervisorMappingCache cache = createCache(Duration.ofHours(24));
+    cache.getMapping(List.of("A1"));
+    cache.evict("A1");
+    cache.getMapping(List.of("A1"));
+
+    verify(inventory, times(2)).reportedHypervisors(eq(List.of("A1")), any());
+    verify(inventory, never()).reportedHypervisorsChangedSince(any(), any(), any());
+  }
+
+  @Test
+  void zeroTtlDisablesCaching() {
+    HypervisorMappingCache cache = createCache(Duration.ZERO);
+    cache.getMapping(List.of("A1"));
+    cache.getMapping(List.of("A1"));
+
+    verify(inventory, times(2)).reportedHypervisors(eq(List.of("A1")), any());
+  }
+
+  private HypervisorMappingCache createCache(Duration ttl) {
+    return createCache(ttl, Clock.fixed(Instant.EPOCH, ZoneOffset.UTC));
+  }
+
+  private HypervisorMappingCache createCache(Duration ttl, Clock clock) {
+    ApplicationProperties props = new ApplicationProperties();
+    props.setHypervisorMappingCacheTtl(ttl);
+    return new HypervisorMappingCache(inventory, new ApplicationClock(clock), props);
+  }
+
+  private static class MutableClock extends Clock {
+    private Instant instant;
+
+    private MutableClock(Instant instant) {
+      this.instant = instant;
+    }
+
+    void advance(Duration duration) {
+      instant = instant.plus(duration);
+    }
+
+    @Override
+    public ZoneId getZone() {
+      return ZoneOffset.UTC;
+    }
+
+    @Override
+    public Clock withZone(ZoneId zone) {
+      return this;
+    }
+
+    @Override
+    public Instant instant() {
+      return instant;
+    }
+  }
+}
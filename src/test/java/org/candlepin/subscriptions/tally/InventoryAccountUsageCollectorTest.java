@@ -31,6 +31,7 @@ import io.micrometer.core.instrument.MeterRegistry;
 import java.io.IOException;
 import java.time.OffsetDateTime;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -38,16 +39,23 @@ import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.UUID;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 import java.util.stream.Stream.Builder;
+import java.util.stream.StreamSupport;
+import org.candlepin.subscriptions.ApplicationProperties;
+import org.candlepin.subscriptions.db.AccountTallyStateRepository;
 import org.candlepin.subscriptions.db.HostRepository;
+import org.candlepin.subscriptions.db.model.AccountTallyState;
 import org.candlepin.subscriptions.db.model.HardwareMeasurementType;
 import org.candlepin.subscriptions.db.model.Host;
 import org.candlepin.subscriptions.db.model.ServiceLevel;
 import org.candlepin.subscriptions.db.model.Usage;
+import org.candlepin.subscriptions.inventory.db.InventoryDatabaseOperations;
 import org.candlepin.subscriptions.inventory.db.InventoryRepository;
 import org.candlepin.subscriptions.inventory.db.model.InventoryHostFacts;
+import org.candlepin.subscriptions.tally.facts.FactNormalizer;
 import org.hamcrest.Matchers;
 import org.junit.jupiter.api.Test;
 import org.mockito.ArgumentCaptor;
@@ -56,6 +64,7 @@ import org.springframework.boot.info.BuildProperties;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.boot.test.mock.mockito.MockBean;
 import org.springframework.test.context.ActiveProfiles;
+import org.springframework.transaction.annotation.Transactional;
 
 @SpringBootTest
 @ActiveProfiles({"worker", "test"})
@@ -74,6 +83,10 @@ public class InventoryAccountUsageCollectorTest {
   @MockBean private HostRepository hostRepo;
   @Autowired private InventoryAccountUsageCollector collector;
   @Autowired private MeterRegistry meterRegistry;
+  @Autowired private FactNormalizer factNormalizer;
+  @Autowired private InventoryDatabaseOperations inventoryDatabaseOperations;
+  @Autowired private HypervisorMappingCache hypervisorMappingCache;
+  @Autowired private AccountTallyStateRepository tallyStateRepo;
 
   @Test
   public void hypervisorCountsIgnoredForNonRhelProduct() {
@@ -527,20 +540,17 @@ public class InventoryAccountUsageCollectorTest {
     assertEquals(1, calcs.size());
     assertThat(calcs, Matchers.hasKey("A1"));
 
-    ArgumentCaptor<Host> guestSaves = ArgumentCaptor.forClass(Host.class);
-    verify(hostRepo, times(2)).save(guestSaves.capture());
+    ArgumentCaptor<Iterable<Host>> hostSaves = ArgumentCaptor.forClass(Iterable.class);
+    verify(hostRepo).saveAll(hostSaves.capture());
 
-    Map<String, Host> savedGuests =
-        guestSaves.getAllValues().stream()
+    Map<String, Host> savedHosts =
+        StreamSupport.stream(hostSaves.getValue().spliterator(), false)
             .collect(Collectors.toMap(Host::getInventoryId, host -> host));
-    assertEquals(2, savedGuests.size());
-    assertTrue(savedGuests.containsKey(guest1.getInventoryId().toString()));
-    assertTrue(savedGuests.containsKey(guest2.getInventoryId().toString()));
+    assertEquals(3, savedHosts.size());
+    assertTrue(savedHosts.containsKey(guest1.getInventoryId().toString()));
+    assertTrue(savedHosts.containsKey(guest2.getInventoryId().toString()));
 
-    ArgumentCaptor<Iterable<Host>> hypervisorSaves = ArgumentCaptor.forClass(Iterable.class);
-    verify(hostRepo).saveAll(hypervisorSaves.capture());
-
-    Host savedHypervisor = hypervisorSaves.getValue().iterator().next();
+    Host savedHypervisor = savedHosts.get(hypervisor.getInventoryId().toString());
     assertEquals(hypervisor.getSubscriptionManagerId(), savedHypervisor.getSubscriptionManagerId());
     assertEquals(2, savedHypervisor.getNumOfGuests().intValue());
   }
@@ -616,6 +626,395 @@ public class InventoryAccountUsageCollectorTest {
     verify(hostRepo).delete(dupe);
   }
 
+  @Test
+  void parallelCollectionMatchesSerialCollection() {
+    List<String> targetAccounts = Arrays.asList("A1", "A2");
+
+    InventoryHostFacts hypervisor = createHypervisor("A1", "O1", TEST_PRODUCT_ID, 12, 3);
+    InventoryHostFacts guest1 =
+        createGuest(hypervisor.getSubscriptionManagerId(), "A1", "O1", TEST_PRODUCT_ID, 12, 3);
+    InventoryHostFacts guest2 =
+        createGuest(hypervisor.getSubscriptionManagerId(), "A1", "O1", TEST_PRODUCT_ID, 8, 2);
+    InventoryHostFacts unmappedGuest = createGuest(null, "A2", "O2", TEST_PRODUCT_ID, 4, 1);
+    InventoryHostFacts physical1 =
+        createRhsmHost("A1", "O1", List.of(TEST_PRODUCT_ID), 6, 2, "", OffsetDateTime.now());
+    InventoryHostFacts physical2 =
+        createRhsmHost("A2", "O2", List.of(TEST_PRODUCT_ID), 10, 5, "", OffsetDateTime.now());
+    List<InventoryHostFacts> hosts =
+        List.of(hypervisor, physical1, guest1, unmappedGuest, guest2, physical2);
+
+    when(inventoryRepo.getReportedHypervisors(eq(targetAccounts)))
+        .thenAnswer(
+            invocation ->
+                Stream.of(
+                    new Object[] {
+                      hypervisor.getSubscriptionManagerId(),
+                      hypervisor.getSubscriptionManagerId(),
+                      "A1"
+                    },
+                    new Object[] {unmappedGuest.getHypervisorUuid(), null, "A2"}));
+    when(inventoryRepo.getFacts(eq(targetAccounts), anyInt()))
+        .thenAnswer(invocation -> hosts.stream());
+
+    ApplicationProperties props = new ApplicationProperties();
+    props.setHostProcessingThreads(3);
+    props.setHostProcessingShardSize(1);
+    InventoryAccountUsageCollector parallelCollector =
+        new InventoryAccountUsageCollector(
+            factNormalizer,
+            inventoryDatabaseOperations,
+            hypervisorMappingCache,
+            hostRepo,
+            tallyStateRepo,
+            props,
+            meterRegistry);
+
+    Map<String, AccountUsageCalculation> serialCalcs =
+        collector.collect(RHEL_PRODUCTS, targetAccounts);
+    Map<String, AccountUsageCalculation> parallelCalcs;
+    try {
+      parallelCalcs = parallelCollector.collect(RHEL_PRODUCTS, targetAccounts);
+    } finally {
+      parallelCollector.destroy();
+    }
+
+    assertSameCalculations(serialCalcs, parallelCalcs);
+  }
+
+  @Test
+  void unchangedHostsAreNotSaved() {
+    List<String> targetAccounts = Arrays.asList("A1");
+    InventoryHostFacts hostFacts =
+        createRhsmHost("A1", "O1", List.of(TEST_PRODUCT_ID), 12, 3, "", OffsetDateTime.now());
+    mockReportedHypervisors(targetAccounts, new HashMap<>());
+    when(inventoryRepo.getFacts(eq(targetAccounts), anyInt()))
+        .thenAnswer(invocation -> Stream.of(hostFacts));
+
+    collector.collect(RHEL_PRODUCTS, targetAccounts);
+    ArgumentCaptor<Iterable<Host>> firstSaves = ArgumentCaptor.forClass(Iterable.class);
+    verify(hostRepo).saveAll(firstSaves.capture());
+    Host persisted = firstSaves.getValue().iterator().next();
+    persisted.setId(UUID.randomUUID());
+    persisted.getBuckets().forEach(bucket -> bucket.setHost(persisted));
+
+    reset(hostRepo);
+    when(hostRepo.findByAccountNumber("A1")).thenReturn(List.of(persisted));
+    mockReportedHypervisors(targetAccounts, new HashMap<>());
+    Map<String, AccountUsageCalculation> calcs = collector.collect(RHEL_PRODUCTS, targetAccounts);
+
+    verify(hostRepo, never()).saveAll(any());
+    checkTotalsCalculation(calcs.get("A1"), "A1", "O1", TEST_PRODUCT, 12, 4, 1);
+  }
+
+  @Test
+  void changedHostsAreUpdatedInPlace() {
+    List<String> targetAccounts = Arrays.asList("A1");
+    InventoryHostFacts hostFacts =
+        createRhsmHost("A1", "O1", List.of(TEST_PRODUCT_ID), 12, 3, "", OffsetDateTime.now());
+    Host persisted = new Host(hostFacts.getInventoryId().toString(), null, "A1", "O1", null);
+    persisted.setId(UUID.randomUUID());
+    persisted.setDisplayName("old name");
+
+    when(hostRepo.findByAccountNumber("A1")).thenReturn(List.of(persisted));
+    mockReportedHypervisors(targetAccounts, new HashMap<>());
+    when(inventoryRepo.getFacts(eq(targetAccounts), anyInt())).thenReturn(Stream.of(hostFacts));
+
+    collector.collect(RHEL_PRODUCTS, targetAccounts);
+
+    ArgumentCaptor<Iterable<Host>> saves = ArgumentCaptor.forClass(Iterable.class);
+    verify(hostRepo).saveAll(saves.capture());
+    Host saved = saves.getValue().iterator().next();
+    assertSame(persisted, saved);
+    assertEquals(hostFacts.getDisplayName(), saved.getDisplayName());
+    assertFalse(saved.getBuckets().isEmpty());
+  }
+
+  @Test
+  @Transactional
+  void incrementalTallyOnlyProcessesChangedHosts() {
+    List<String> targetAccounts = Arrays.asList("A1");
+    OffsetDateTime lastModified = OffsetDateTime.parse("2021-04-20T10:00:00Z");
+    AccountTallyState tallyState = new AccountTallyState("A1");
+    tallyState.setHostModifiedOn(lastModified);
+    tallyState.setLastFullTally(OffsetDateTime.now().minusHours(1));
+    tallyStateRepo.saveAndFlush(tallyState);
+
+    Host unchanged = new Host(UUID.randomUUID().toString(), null, "A1", "O1", null);
+    unchanged.setId(UUID.randomUUID());
+    for (ServiceLevel sla : List.of(ServiceLevel.EMPTY, ServiceLevel._ANY)) {
+      for (Usage usage : List.of(Usage.EMPTY, Usage._ANY)) {
+        unchanged.addBucket(TEST_PRODUCT, sla, usage, true, 2, 4, HardwareMeasurementType.PHYSICAL);
+      }
+    }
+    Host culled = new Host(UUID.randomUUID().toString(), null, "A1", "O1", null);
+    culled.setId(UUID.randomUUID());
+    when(hostRepo.findByAccountNumber("A1")).thenReturn(List.of(unchanged, culled));
+
+    InventoryHostFacts changed =
+        createRhsmHost("A1", "O1", List.of(TEST_PRODUCT_ID), 6, 2, "", OffsetDateTime.now());
+    changed.setModifiedOn(lastModified.plusHours(1));
+    mockReportedHypervisors(targetAccounts, new HashMap<>());
+    when(inventoryRepo.getChangedFacts(eq("A1"), any(), anyInt())).thenReturn(Stream.of(changed));
+    when(inventoryRepo.getActiveHostIds(eq("A1"), anyInt()))
+        .thenReturn(Stream.of(unchanged.getInventoryId(), changed.getInventoryId().toString()));
+
+    Map<String, AccountUsageCalculation> calcs =
+        createIncrementalCollector().collect(RHEL_PRODUCTS, targetAccounts);
+
+    verify(inventoryRepo, never()).getFacts(any(), anyInt());
+    checkTotalsCalculation(calcs.get("A1"), "A1", "O1", TEST_PRODUCT, 10, 4, 2);
+    checkPhysicalTotalsCalculation(calcs.get("A1"), "A1", "O1", TEST_PRODUCT, 10, 4, 2);
+
+    ArgumentCaptor<Iterable<Host>> deleted = ArgumentCaptor.forClass(Iterable.class);
+    verify(hostRepo).deleteAll(deleted.capture());
+    assertThat(deleted.getValue(), Matchers.contains(culled));
+
+    AccountTallyState updated = tallyStateRepo.findById("A1").orElseThrow();
+    assertTrue(updated.getHostModifiedOn().isEqual(changed.getModifiedOn()));
+  }
+
+  @Test
+  @Transactional
+  void fullTallyWhenIntervalElapsed() {
+    List<String> targetAccounts = Arrays.asList("A1");
+    AccountTallyState tallyState = new AccountTallyState("A1");
+    tallyState.setHostModifiedOn(OffsetDateTime.now().minusDays(8));
+    tallyState.setLastFullTally(OffsetDateTime.now().minusDays(8));
+    tallyStateRepo.saveAndFlush(tallyState);
+
+    InventoryHostFacts hostFacts =
+        createRhsmHost("A1", "O1", List.of(TEST_PRODUCT_ID), 6, 2, "", OffsetDateTime.now());
+    hostFacts.setModifiedOn(OffsetDateTime.now().minusDays(1));
+    mockReportedHypervisors(targetAccounts, new HashMap<>());
+    when(inventoryRepo.getFacts(eq(targetAccounts), anyInt())).thenReturn(Stream.of(hostFacts));
+
+    OffsetDateTime tallyStart = OffsetDateTime.now();
+    Map<String, AccountUsageCalculation> calcs =
+        createIncrementalCollector().collect(RHEL_PRODUCTS, targetAccounts);
+
+    verify(inventoryRepo, never()).getChangedFacts(any(), any(), anyInt());
+    checkTotalsCalculation(calcs.get("A1"), "A1", "O1", TEST_PRODUCT, 6, 2, 1);
+    AccountTallyState updated = tallyStateRepo.findById("A1").orElseThrow();
+    assertFalse(updated.getLastFullTally().isBefore(tallyStart.minusSeconds(1)));
+    assertTrue(updated.getHostModifiedOn().isEqual(hostFacts.getModifiedOn()));
+  }
+
+  @Test
+  @Transactional
+  void incrementalTallyMatchesFullTally() {
+    List<String> targetAccounts = Arrays.asList("A1");
+    Set<String> products = Set.of(TEST_PRODUCT, NON_RHEL);
+    OffsetDateTime lastModified = OffsetDateTime.parse("2021-04-20T10:00:00Z");
+
+    InventoryHostFacts hypervisor = createHypervisor("A1", "O1", TEST_PRODUCT_ID, 12, 3);
+    InventoryHostFacts guest =
+        createGuest(hypervisor.getSubscriptionManagerId(), "A1", "O1", TEST_PRODUCT_ID, 4, 1);
+    InventoryHostFacts premium =
+        createRhsmHost(
+            "A1",
+            "O1",
+            TEST_PRODUCT_ID.toString(),
+            ServiceLevel.PREMIUM,
+            Usage.PRODUCTION,
+            6,
+            2,
+            "",
+            OffsetDateTime.now());
+    InventoryHostFacts standard =
+        createRhsmHost(
+            "A1",
+            "O1",
+            NON_RHEL_PRODUCT_ID.toString(),
+            ServiceLevel.STANDARD,
+            Usage.DEVELOPMENT_TEST,
+            8,
+            4,
+            "",
+            OffsetDateTime.now());
+    InventoryHostFacts withoutProducts =
+        createRhsmHost(
+            "A1",
+            "O1",
+            "",
+            ServiceLevel.SELF_SUPPORT,
+            Usage.DISASTER_RECOVERY,
+            2,
+            1,
+            "",
+            OffsetDateTime.now());
+    InventoryHostFacts changed =
+        createRhsmHost("A1", "O1", List.of(TEST_PRODUCT_ID), 10, 5, "", OffsetDateTime.now());
+    List<InventoryHostFacts> hosts =
+        List.of(hypervisor, guest, premium, standard, withoutProducts, changed);
+    hosts.forEach(host -> host.setModifiedOn(lastModified.minusDays(1)));
+    changed.setModifiedOn(lastModified.plusHours(1));
+
+    Map<String, String> hypervisorMapping =
+        Map.of(hypervisor.getSubscriptionManagerId(), hypervisor.getSubscriptionManagerId());
+    mockReportedHypervisors(targetAccounts, hypervisorMapping);
+    when(inventoryRepo.getFacts(eq(targetAccounts), anyInt()))
+        .thenAnswer(invocation -> hosts.stream());
+    Map<String, AccountUsageCalculation> fullCalcs = collector.collect(products, targetAccounts);
+
+    ArgumentCaptor<Iterable<Host>> saves = ArgumentCaptor.forClass(Iterable.class);
+    verify(hostRepo, atLeastOnce()).saveAll(saves.capture());
+    List<Host> persisted =
+        saves.getAllValues().stream()
+            .flatMap(saved -> StreamSupport.stream(saved.spliterator(), false))
+            .collect(Collectors.toList());
+    persisted.forEach(
+        host -> {
+          host.setId(UUID.randomUUID());
+          host.getBuckets().forEach(bucket -> bucket.setHost(host));
+        });
+
+    AccountTallyState tallyState = new AccountTallyState("A1");
+    tallyState.setHostModifiedOn(lastModified);
+    tallyState.setLastFullTally(OffsetDateTime.now().minusHours(1));
+    tallyStateRepo.saveAndFlush(tallyState);
+
+    reset(hostRepo);
+    when(hostRepo.findByAccountNumber("A1")).thenReturn(persisted);
+    mockReportedHypervisors(targetAccounts, hypervisorMapping);
+    when(inventoryRepo.getChangedFacts(eq("A1"), any(), anyInt()))
+        .thenReturn(Stream.of(hypervisor, guest, changed));
+    when(inventoryRepo.getActiveHostIds(eq("A1"), anyInt()))
+        .thenReturn(hosts.stream().map(host -> host.getInventoryId().toString()));
+    when(inventoryRepo.getFactsByIds(
+            eq("A1"), eq(List.of(withoutProducts.getInventoryId().toString())), anyInt()))
+        .thenReturn(Stream.of(withoutProducts));
+
+    Map<String, AccountUsageCalculation> incrementalCalcs =
+        createIncrementalCollector().collect(products, targetAccounts);
+
+    verify(inventoryRepo, never()).getFacts(any(), anyInt());
+    ArgumentCaptor<Iterable<Host>> deleted = ArgumentCaptor.forClass(Iterable.class);
+    verify(hostRepo).deleteAll(deleted.capture());
+    assertThat(deleted.getValue(), Matchers.emptyIterable());
+    assertSameCalculations(fullCalcs, incrementalCalcs);
+  }
+
+  @Test
+  @Transactional
+  void incrementalTallyRegroupsFormerHypervisorOfMovedGuest() {
+    List<String> targetAccounts = Arrays.asList("A1");
+    Set<String> products = Set.of(TEST_PRODUCT);
+    OffsetDateTime lastModified = OffsetDateTime.parse("2021-04-20T10:00:00Z");
+
+    InventoryHostFacts formerHypervisor = createHypervisor("A1", "O1", TEST_PRODUCT_ID, 12, 3);
+    InventoryHostFacts newHypervisor = createHypervisor("A1", "O1", TEST_PRODUCT_ID, 8, 2);
+    InventoryHostFacts staying =
+        createGuest(
+            formerHypervisor.getSubscriptionManagerId(), "A1", "O1", TEST_PRODUCT_ID, 4, 1);
+    InventoryHostFacts moving =
+        createGuest(
+            formerHypervisor.getSubscriptionManagerId(), "A1", "O1", TEST_PRODUCT_ID, 4, 1);
+    moving.setSyspurposeSla(ServiceLevel.PREMIUM.getValue());
+    List<InventoryHostFacts> hosts = List.of(formerHypervisor, newHypervisor, staying, moving);
+    hosts.forEach(host -> host.setModifiedOn(lastModified.minusDays(1)));
+
+    mockReportedHypervisors(
+        targetAccounts,
+        Map.of(
+            formerHypervisor.getSubscriptionManagerId(),
+            formerHypervisor.getSubscriptionManagerId()));
+    when(inventoryRepo.getFacts(eq(targetAccounts), anyInt()))
+        .thenAnswer(invocation -> hosts.stream());
+    collector.collect(products, targetAccounts);
+
+    ArgumentCaptor<Iterable<Host>> saves = ArgumentCaptor.forClass(Iterable.class);
+    verify(hostRepo, atLeastOnce()).saveAll(saves.capture());
+    List<Host> persisted =
+        saves.getAllValues().stream()
+            .flatMap(saved -> StreamSupport.stream(saved.spliterator(), false))
+            .collect(Collectors.toList());
+    persisted.forEach(
+        host -> {
+          host.setId(UUID.randomUUID());
+          host.getBuckets().forEach(bucket -> bucket.setHost(host));
+        });
+
+    // The PREMIUM guest moves to the other hypervisor, which only the guest's change reports.
+    moving.setHypervisorUuid(newHypervisor.getSubscriptionManagerId());
+    moving.setModifiedOn(lastModified.plusHours(1));
+    Map<String, String> hypervisorMapping =
+        Map.of(
+            formerHypervisor.getSubscriptionManagerId(),
+            formerHypervisor.getSubscriptionManagerId(),
+            newHypervisor.getSubscriptionManagerId(),
+            newHypervisor.getSubscriptionManagerId());
+    mockReportedHypervisors(targetAccounts, hypervisorMapping);
+    Map<String, AccountUsageCalculation> fullCalcs = collector.collect(products, targetAccounts);
+
+    AccountTallyState tallyState = new AccountTallyState("A1");
+    tallyState.setHostModifiedOn(lastModified);
+    tallyState.setLastFullTally(OffsetDateTime.now().minusHours(1));
+    tallyStateRepo.saveAndFlush(tallyState);
+
+    reset(hostRepo);
+    when(hostRepo.findByAccountNumber("A1")).thenReturn(persisted);
+    mockReportedHypervisors(targetAccounts, hypervisorMapping);
+    when(inventoryRepo.getChangedFacts(eq("A1"), any(), anyInt()))
+        .thenReturn(Stream.of(newHypervisor, moving));
+    when(inventoryRepo.getActiveHostIds(eq("A1"), anyInt()))
+        .thenReturn(hosts.stream().map(host -> host.getInventoryId().toString()));
+    when(inventoryRepo.getFactsByIds(eq("A1"), anyCollection(), anyInt()))
+        .thenAnswer(
+            invocation -> {
+              Collection<String> ids = invocation.getArgument(1);
+              return hosts.stream()
+                  .filter(host -> ids.contains(host.getInventoryId().toString()));
+            });
+
+    Map<String, AccountUsageCalculation> incrementalCalcs =
+        createIncrementalCollector().collect(products, targetAccounts);
+
+    verify(inventoryRepo)
+        .getFactsByIds(
+            eq("A1"),
+            argThat(
+                ids ->
+                    ids.contains(formerHypervisor.getInventoryId().toString())
+                        && ids.contains(staying.getInventoryId().toString())),
+            anyInt());
+    assertSameCalculations(fullCalcs, incrementalCalcs);
+  }
+
+  private void assertSameCalculations(
+      Map<String, AccountUsageCalculation> expectedCalcs,
+      Map<String, AccountUsageCalculation> actualCalcs) {
+    assertEquals(expectedCalcs.keySet(), actualCalcs.keySet());
+    expectedCalcs.forEach(
+        (account, expectedCalc) -> {
+          AccountUsageCalculation actualCalc = actualCalcs.get(account);
+          assertEquals(expectedCalc.getOwner(), actualCalc.getOwner());
+          assertEquals(expectedCalc.getProducts(), actualCalc.getProducts());
+          assertEquals(expectedCalc.getKeys(), actualCalc.getKeys());
+          for (UsageCalculation.Key key : expectedCalc.getKeys()) {
+            for (HardwareMeasurementType type : HardwareMeasurementType.values()) {
+              UsageCalculation.Totals expected = expectedCalc.getCalculation(key).getTotals(type);
+              UsageCalculation.Totals actual = actualCalc.getCalculation(key).getTotals(type);
+              assertEquals(
+                  expected == null ? null : expected.getMeasurements(),
+                  actual == null ? null : actual.getMeasurements());
+            }
+          }
+        });
+  }
+
+  private InventoryAccountUsageCollector createIncrementalCollector() {
+    ApplicationProperties props = new ApplicationProperties();
+    props.setIncrementalTallyEnabled(true);
+    return new InventoryAccountUsageCollector(
+        factNormalizer,
+        inventoryDatabaseOperations,
+        hypervisorMappingCache,
+        hostRepo,
+        tallyStateRepo,
+        props,
+        meterRegistry);
+  }
+
   private void checkTotalsCalculation(
       AccountUsageCalculation calc,
       String account,
@@ -713,7 +1112,7 @@ public class InventoryAccountUsageCollectorTest {
       List<String> accounts, Map<String, String> expectedHypervisorMap) {
     Builder streamBuilder = Stream.builder();
     for (Entry<String, String> entry : expectedHypervisorMap.entrySet()) {
-      streamBuilder.accept(new Object[] {entry.getKey(), entry.getValue()});
+      streamBuilder.accept(new Object[] {entry.getKey(), entry.getValue(), accounts.get(0)});
     }
     when(inventoryRepo.getReportedHypervisors(eq(accounts))).thenReturn(streamBuilder.build());
   }
@@ -0,0 +1,150 @@
+/*
+ * Copyright Red Hat, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * Red Hat trademarks are not licensed under GPLv3. No permission is
+ * granted to use or replicate Red Hat trademarks that are incorporated
+ * in this software or its documentation.
+ */
+package org.candlepin.subscriptions.tally;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+import java.time.OffsetDateTime;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import org.candlepin.subscriptions.ApplicationProperties;
+import org.candlepin.subscriptions.FixedClockConfiguration;
+import org.candlepin.subscriptions.db.TallySnapshotRepository;
+import org.candlepin.subscriptions.db.model.Granularity;
+import org.candlepin.subscriptions.db.model.HardwareMeasurementType;
+import org.candlepin.subscriptions.db.model.ServiceLevel;
+import org.candlepin.subscriptions.db.model.TallySnapshot;
+import org.candlepin.subscriptions.db.model.Usage;
+import org.candlepin.subscriptions.files.ProductProfileRegistry;
+import org.candlepin.subscriptions.util.ApplicationClock;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.transaction.annotation.Transactional;
+
+@SpringBootTest
+// The transactional annotation will rollback the transaction at the end of every test.
+@Transactional
+@ActiveProfiles({"api", "test"})
+class MaxSeenSnapshotStrategyTest {
+
+  private static final String ACCOUNT = "A1";
+  private static final EnumSet<Granularity> RHEL_GRANULARITIES =
+      EnumSet.range(Granularity.DAILY, Granularity.YEARLY);
+
+  @Autowired private TallySnapshotRepository repository;
+
+  @Autowired private ProductProfileRegistry registry;
+
+  private ApplicationClock clock;
+  private MaxSeenSnapshotStrategy strategy;
+
+  @BeforeEach
+  void setup() {
+    clock = new FixedClockConfiguration().fixedClock();
+    ApplicationProperties props = new ApplicationProperties();
+    props.setSnapshotRollupThreads(6);
+    strategy =
+        new MaxSeenSnapshotStrategy(
+            repository,
+            clock,
+            registry,
+            mock(SnapshotSummaryProducer.class),
+            props,
+            mock(ApplicationEventPublisher.class));
+  }
+
+  @AfterEach
+  void teardown() {
+    strategy.destroy();
+  }
+
+  @Test
+  void producesSnapshotsForEverySupportedGranularity() {
+    Map<String, List<TallySnapshot>> produced =
+        strategy.produceSnapshotsFromCalculations(List.of(ACCOUNT), List.of(createCalc(4)));
+
+    assertEquals(
+        RHEL_GRANULARITIES,
+        produced.get(ACCOUNT).stream()
+            .map(TallySnapshot::getGranularity)
+            .collect(Collectors.toCollection(() -> EnumSet.noneOf(Granularity.class))));
+    RHEL_GRANULARITIES.forEach(
+        granularity -> assertEquals(4, getPhysicalCores(findCurrent(granularity).get(0))));
+  }
+
+  @Test
+  void updatesExistingSnapshotsAndRemovesDuplicates() {
+    strategy.produceSnapshotsFromCalculations(List.of(ACCOUNT), List.of(createCalc(4)));
+    repository.saveAndFlush(
+        TallySnapshot.builder()
+            .accountNumber(ACCOUNT)
+            .productId("RHEL")
+            .serviceLevel(ServiceLevel.EMPTY)
+            .usage(Usage.EMPTY)
+            .granularity(Granularity.MONTHLY)
+            .snapshotDate(clock.startOfCurrentMonth())
+            .build());
+
+    strategy.produceSnapshotsFromCalculations(List.of(ACCOUNT), List.of(createCalc(8)));
+
+    RHEL_GRANULARITIES.forEach(
+        granularity -> {
+          List<TallySnapshot> current = findCurrent(granularity);
+          assertEquals(1, current.size());
+          assertEquals(8, getPhysicalCores(current.get(0)));
+        });
+  }
+
+  private List<TallySnapshot> findCurrent(Granularity granularity) {
+    OffsetDateTime now = clock.now();
+    try (var snaps =
+        repository.findByAccountNumberInAndProductIdInAndGranularityAndSnapshotDateBetween(
+            List.of(ACCOUNT),
+            List.of("RHEL"),
+            granularity,
+            clock.calculateStartOfRange(now, granularity),
+            clock.calculateEndOfRange(now, granularity))) {
+      return snaps.collect(Collectors.toList());
+    }
+  }
+
+  private int getPhysicalCores(TallySnapshot snapshot) {
+    return snapshot.getHardwareMeasurement(HardwareMeasurementType.PHYSICAL).getCores();
+  }
+
+  private AccountUsageCalculation createCalc(int cores) {
+    AccountUsageCalculation calc = new AccountUsageCalculation(ACCOUNT);
+    calc.setOwner("O1");
+    UsageCalculation productCalc =
+        new UsageCalculation(new UsageCalculation.Key("RHEL", ServiceLevel.EMPTY, Usage.EMPTY));
+    productCalc.addPhysical(cores, 2, 1);
+    calc.addCalculation(productCalc);
+    return calc;
+  }
+}
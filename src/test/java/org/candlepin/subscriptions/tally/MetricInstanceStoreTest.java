@@ -0,0 +1,67 @@
+/*
+ * Copyright Red Hat, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * Red Hat trademarks are not licensed under GPLv3. No permission is
+ * granted to use or replicate Red Hat trademarks that are incorporated
+ * in this software or its documentation.
+ */
+package org.candlepin.subscriptions.tally;
+
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.when;
+
+import java.util.List;
+import org.candlepin.subscriptions.db.HostRepository;
+import org.candlepin.subscriptions.db.model.Host;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InOrder;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+@ExtendWith(MockitoExtension.class)
+class MetricInstanceStoreTest {
+
+  @Mock HostRepository hostRepo;
+
+  @Test
+  void releasesEachBatchOnceWritten() {
+    Host first = new Host();
+    first.setInstanceId("first");
+    Host second = new Host();
+    second.setInstanceId("second");
+    when(hostRepo.findByAccountNumberAndInstanceIdIn("account123", List.of("first")))
+        .thenReturn(List.of(first));
+    when(hostRepo.findByAccountNumberAndInstanceIdIn("account123", List.of("second")))
+        .thenReturn(List.of(second));
+
+    MetricInstanceStore store = new MetricInstanceStore(hostRepo, "account123", 1);
+    store.load(List.of("first", "second"));
+    store.get("first");
+    store.get("second");
+    store.persist();
+
+    InOrder inOrder = inOrder(hostRepo);
+    inOrder.verify(hostRepo).saveAll(List.of(first));
+    inOrder.verify(hostRepo).flush();
+    inOrder.verify(hostRepo).detach(List.of(first));
+    inOrder.verify(hostRepo).saveAll(List.of(second));
+    inOrder.verify(hostRepo).flush();
+    inOrder.verify(hostRepo).detach(List.of(second));
+    assertNotSame(first, store.get("first"));
+  }
+}
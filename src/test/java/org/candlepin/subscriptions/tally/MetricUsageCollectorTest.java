@@ -27,18 +27,23 @@ import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.Mockito.any;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import java.time.OffsetDateTime;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
 import java.util.UUID;
 import java.util.stream.Stream;
+import org.candlepin.subscriptions.ApplicationProperties;
 import org.candlepin.subscriptions.FixedClockConfiguration;
 import org.candlepin.subscriptions.db.AccountRepository;
+import org.candlepin.subscriptions.db.HostRepository;
 import org.candlepin.subscriptions.db.model.Account;
 import org.candlepin.subscriptions.db.model.Granularity;
 import org.candlepin.subscriptions.db.model.HardwareMeasurementType;
@@ -49,6 +54,7 @@ import org.candlepin.subscriptions.db.model.InstanceMonthlyTotalKey;
 import org.candlepin.subscriptions.db.model.ServiceLevel;
 import org.candlepin.subscriptions.db.model.Usage;
 import org.candlepin.subscriptions.event.EventController;
+import org.candlepin.subscriptions.exception.SubscriptionsException;
 import org.candlepin.subscriptions.files.ProductProfile;
 import org.candlepin.subscriptions.files.SubscriptionWatchProduct;
 import org.candlepin.subscriptions.files.SyspurposeRole;
@@ -63,6 +69,8 @@ import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.junit.jupiter.params.ParameterizedTest;
 import org.junit.jupiter.params.provider.EnumSource;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Captor;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
 
@@ -72,10 +80,16 @@ class MetricUsageCollectorTest {
 
   @Mock AccountRepository accountRepo;
 
+  @Mock HostRepository hostRepo;
+
+  @Captor ArgumentCaptor<List<Host>> saved;
+
   @Mock EventController eventController;
 
   ApplicationClock clock = new FixedClockConfiguration().fixedClock();
 
+  ProductProfile profile;
+
   static final String SERVICE_TYPE = "SERVICE TYPE";
   static final String RHEL_SERVER_SWATCH_PRODUCT_ID = "RHEL_SERVER";
   static final String RHEL_WORKSTATION_SWATCH_PRODUCT_ID = "RHEL_WORKSTATION";
@@ -86,7 +100,7 @@ class MetricUsageCollectorTest {
     Set<SubscriptionWatchProduct> products =
         Set.of(new SubscriptionWatchProduct("1234", Set.of(RHEL)));
 
-    ProductProfile profile = new ProductProfile("RHELProfile", products, Granularity.DAILY);
+    profile = new ProductProfile("RHELProfile", products, Granularity.DAILY);
     profile.setSyspurposeRoles(
         Set.of(
             new SyspurposeRole(Role.RED_HAT_ENTERPRISE_LINUX_SERVER.value(), Set.of("RHEL_SERVER")),
@@ -95,7 +109,9 @@ class MetricUsageCollectorTest {
     profile.setServiceType(SERVICE_TYPE);
     profile.setDefaultUsage(Usage.PRODUCTION);
     profile.setDefaultSla(ServiceLevel.PREMIUM);
-    metricUsageCollector = new MetricUsageCollector(profile, accountRepo, eventController, clock);
+    metricUsageCollector =
+        new MetricUsageCollector(
+            profile, accountRepo, hostRepo, eventController, clock, new ApplicationProperties());
   }
 
   @Test
@@ -519,6 +535,159 @@ class MetricUsageCollectorTest {
     assertNull(staleInstance.getMonthlyTotal(monthId, Measurement.Uom.CORES));
   }
 
+  @Test
+  void testSingleScanBucketsEventsIntoHours() {
+    ApplicationProperties props = new ApplicationProperties();
+    props.setMetricEventSingleScanEnabled(true);
+    MetricUsageCollector singleScanCollector =
+        new MetricUsageCollector(profile, accountRepo, hostRepo, eventController, clock, props);
+
+    OffsetDateTime firstHour = clock.startOfCurrentHour().minusHours(2);
+    OffsetDateTime secondHour = firstHour.plusHours(1);
+    Event firstEvent = instanceEvent(firstHour.plusMinutes(5), 2.0);
+    Event secondEvent = instanceEvent(secondHour.plusMinutes(10), 3.0);
+    Account account = new Account();
+    account.setAccountNumber("account123");
+    when(accountRepo.findById(any())).thenReturn(Optional.of(account));
+    when(eventController.fetchEventsInTimeRangeByServiceType(
+            "account123", SERVICE_TYPE, firstHour, secondHour.plusHours(1)))
+        .thenReturn(Stream.of(firstEvent, secondEvent));
+
+    Map<OffsetDateTime, AccountUsageCalculation> calcs =
+        singleScanCollector.collect(
+            "account123", new DateRange(firstHour, secondHour.plusHours(1)));
+
+    assertEquals(Set.of(firstHour, secondHour), calcs.keySet());
+    UsageCalculation.Key usageKey =
+        new UsageCalculation.Key(RHEL, ServiceLevel.PREMIUM, Usage.PRODUCTION);
+    assertEquals(
+        Double.valueOf(2.0),
+        calcs
+            .get(firstHour)
+            .getCalculation(usageKey)
+            .getTotals(HardwareMeasurementType.PHYSICAL)
+            .getMeasurement(Uom.CORES));
+    assertEquals(
+        Double.valueOf(3.0),
+        calcs
+            .get(secondHour)
+            .getCalculation(usageKey)
+            .getTotals(HardwareMeasurementType.PHYSICAL)
+            .getMeasurement(Uom.CORES));
+    verify(eventController, never()).fetchEventsInTimeRange(any(), any(), any());
+  }
+
+  @Test
+  void testInstanceStoreOnlyLoadsReferencedInstances() {
+    ApplicationProperties props = new ApplicationProperties();
+    props.setMetricInstanceStoreEnabled(true);
+    MetricUsageCollector storeCollector =
+        new MetricUsageCollector(profile, accountRepo, hostRepo, eventController, clock, props);
+
+    OffsetDateTime hour = clock.startOfCurrentHour().minusHours(1);
+    DateRange range = new DateRange(hour, hour.plusHours(1));
+    Event event = instanceEvent(hour, 2.0);
+    Event newInstanceEvent = instanceEvent(hour, 3.0).withInstanceId("new");
+    Host existing = new Host();
+    existing.setInstanceId("instance");
+    existing.setInstanceType(SERVICE_TYPE);
+    existing.setLastSeen(hour.minusHours(1));
+    when(accountRepo.existsById("account123")).thenReturn(true);
+    when(hostRepo.findMaxLastSeen("account123", SERVICE_TYPE)).thenReturn(hour.minusHours(1));
+    when(eventController.fetchInstanceIdsInTimeRangeByServiceType(
+            "account123", SERVICE_TYPE, hour, hour.plusHours(1)))
+        .thenReturn(List.of("instance", "new"));
+    when(hostRepo.findByAccountNumberAndInstanceIdIn("account123", List.of("instance", "new")))
+        .thenReturn(List.of(existing));
+    when(eventController.fetchEventsInTimeRange("account123", hour, hour.plusHours(1)))
+        .thenReturn(Stream.of(event, newInstanceEvent));
+
+    Map<OffsetDateTime, AccountUsageCalculation> calcs =
+        storeCollector.collect("account123", range);
+
+    assertEquals(Set.of(hour), calcs.keySet());
+    assertEquals(hour, existing.getLastSeen());
+    assertEquals(Double.valueOf(2.0), existing.getMonthlyTotal(hour, Measurement.Uom.CORES));
+    verify(hostRepo).saveAll(saved.capture());
+    assertEquals(2, saved.getValue().size());
+    assertEquals(existing, saved.getValue().get(0));
+    assertEquals("new", saved.getValue().get(1).getInstanceId());
+    verify(accountRepo, never()).findById(any());
+    verify(hostRepo, never()).deleteMonthlyTotals(any(), any(), any());
+  }
+
+  @Test
+  void testInstanceStoreUpdatesInstanceRecordedUnderAnotherType() {
+    ApplicationProperties props = new ApplicationProperties();
+    props.setMetricInstanceStoreEnabled(true);
+    MetricUsageCollector storeCollector =
+        new MetricUsageCollector(profile, accountRepo, hostRepo, eventController, clock, props);
+
+    OffsetDateTime hour = clock.startOfCurrentHour().minusHours(1);
+    Host otherType = new Host();
+    otherType.setInstanceId("instance");
+    otherType.setInstanceType("HBI_HOST");
+    when(accountRepo.existsById("account123")).thenReturn(true);
+    when(eventController.fetchInstanceIdsInTimeRangeByServiceType(
+            "account123", SERVICE_TYPE, hour, hour.plusHours(1)))
+        .thenReturn(List.of("instance"));
+    when(hostRepo.findByAccountNumberAndInstanceIdIn("account123", List.of("instance")))
+        .thenReturn(List.of(otherType));
+    when(eventController.fetchEventsInTimeRange("account123", hour, hour.plusHours(1)))
+        .thenReturn(Stream.of(instanceEvent(hour, 2.0)));
+
+    storeCollector.collect("account123", new DateRange(hour, hour.plusHours(1)));
+
+    verify(hostRepo).saveAll(saved.capture());
+    assertEquals(List.of(otherType), saved.getValue());
+    assertEquals(SERVICE_TYPE, otherType.getInstanceType());
+  }
+
+  @Test
+  void testInstanceStoreClearsMonthlyTotalsInBulkWhenRecalculating() {
+    ApplicationProperties props = new ApplicationProperties();
+    props.setMetricInstanceStoreEnabled(true);
+    MetricUsageCollector storeCollector =
+        new MetricUsageCollector(profile, accountRepo, hostRepo, eventController, clock, props);
+
+    OffsetDateTime hour = clock.startOfCurrentHour().minusHours(1);
+    when(accountRepo.existsById("account123")).thenReturn(true);
+    when(hostRepo.findMaxLastSeen("account123", SERVICE_TYPE)).thenReturn(hour.plusMinutes(30));
+    when(eventController.fetchInstanceIdsInTimeRangeByServiceType(any(), any(), any(), any()))
+        .thenReturn(List.of());
+    when(eventController.fetchEventsInTimeRange(any(), any(), any()))
+        .thenAnswer(m -> Stream.of());
+
+    storeCollector.collect("account123", new DateRange(hour, hour.plusHours(1)));
+
+    verify(hostRepo)
+        .deleteMonthlyTotals(
+            "account123", SERVICE_TYPE, List.of(InstanceMonthlyTotalKey.formatMonthId(hour)));
+  }
+
+  @Test
+  void testInstanceStoreRequiresOptedInAccount() {
+    ApplicationProperties props = new ApplicationProperties();
+    props.setMetricInstanceStoreEnabled(true);
+    MetricUsageCollector storeCollector =
+        new MetricUsageCollector(profile, accountRepo, hostRepo, eventController, clock, props);
+    OffsetDateTime hour = clock.startOfCurrentHour().minusHours(1);
+    DateRange range = new DateRange(hour, hour.plusHours(1));
+
+    assertThrows(SubscriptionsException.class, () -> storeCollector.collect("account123", range));
+  }
+
+  private Event instanceEvent(OffsetDateTime timestamp, double cores) {
+    return new Event()
+        .withEventId(UUID.randomUUID())
+        .withProductIds(List.of("1234"))
+        .withTimestamp(timestamp)
+        .withServiceType(SERVICE_TYPE)
+        .withInstanceId("instance")
+        .withMeasurements(
+            Collections.singletonList(new Measurement().withUom(Uom.CORES).withValue(cores)));
+  }
+
   @Test
   void collectionThrowsExceptionWhenDateRangeIsNotRounded() {
     DateRange range = new DateRange(clock.startOfCurrentHour(), clock.now());
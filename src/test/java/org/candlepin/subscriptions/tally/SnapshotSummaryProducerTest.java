@@ -0,0 +1,131 @@
+/*
+ * Copyright Red Hat, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * Red Hat trademarks are not licensed under GPLv3. No permission is
+ * granted to use or replicate Red Hat trademarks that are incorporated
+ * in this software or its documentation.
+ */
+package org.candlepin.subscriptions.tally;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.time.OffsetDateTime;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.stream.Collectors;
+import org.candlepin.subscriptions.ApplicationProperties;
+import org.candlepin.subscriptions.db.model.Granularity;
+import org.candlepin.subscriptions.db.model.ServiceLevel;
+import org.candlepin.subscriptions.db.model.TallySnapshot;
+import org.candlepin.subscriptions.db.model.Usage;
+import org.candlepin.subscriptions.json.TallySummary;
+import org.candlepin.subscriptions.task.TaskQueueProperties;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Captor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.kafka.core.KafkaTemplate;
+
+@ExtendWith(MockitoExtension.class)
+class SnapshotSummaryProducerTest {
+
+  private static final String TOPIC = "platform.rhsm-subscriptions.tally";
+
+  @Mock KafkaTemplate<String, TallySummary> kafkaTemplate;
+
+  @Captor ArgumentCaptor<TallySummary> summaries;
+
+  SimpleMeterRegistry meterRegistry;
+  TaskQueueProperties taskQueueProperties;
+  ApplicationProperties props;
+
+  @BeforeEach
+  void setup() {
+    meterRegistry = new SimpleMeterRegistry();
+    taskQueueProperties = new TaskQueueProperties();
+    taskQueueProperties.setTopic(TOPIC);
+    props = new ApplicationProperties();
+  }
+
+  @Test
+  void testSendsOneMessagePerSnapshotByDefault() {
+    SnapshotSummaryProducer producer =
+        new SnapshotSummaryProducer(kafkaTemplate, taskQueueProperties, props, meterRegistry);
+
+    producer.produceTallySummaryMessages(
+        Map.of("account1", List.of(snapshot(Granularity.HOURLY), snapshot(Granularity.HOURLY))));
+
+    verify(kafkaTemplate, times(2)).send(TOPIC, summaries.capture());
+    summaries
+        .getAllValues()
+        .forEach(summary -> assertEquals(1, summary.getTallySnapshots().size()));
+  }
+
+  @Test
+  void testGroupsSnapshotsByGranularityUpToBatchSize() {
+    props.setTallySummaryBatchSize(2);
+    SnapshotSummaryProducer producer =
+        new SnapshotSummaryProducer(kafkaTemplate, taskQueueProperties, props, meterRegistry);
+
+    producer.produceTallySummaryMessages(
+        Map.of(
+            "account1",
+            List.of(
+                snapshot(Granularity.HOURLY),
+                snapshot(Granularity.DAILY),
+                snapshot(Granularity.HOURLY),
+                snapshot(Granularity.HOURLY))));
+
+    verify(kafkaTemplate, times(3)).send(TOPIC, summaries.capture());
+    Map<String, List<Integer>> sizes =
+        summaries.getAllValues().stream()
+            .collect(
+                Collectors.groupingBy(
+                    summary -> summary.getTallySnapshots().get(0).getGranularity().value(),
+                    Collectors.mapping(
+                        summary -> summary.getTallySnapshots().size(), Collectors.toList())));
+    assertEquals(List.of(2, 1), sizes.get(Granularity.HOURLY.getValue()));
+    assertEquals(List.of(1), sizes.get(Granularity.DAILY.getValue()));
+    summaries
+        .getAllValues()
+        .forEach(summary -> assertEquals("account1", summary.getAccountNumber()));
+
+    DistributionSummary snapshotsPerMessage =
+        meterRegistry.get("rhsm-subscriptions.tally.summary.snapshots_per_message").summary();
+    assertEquals(3, snapshotsPerMessage.count());
+    assertEquals(4.0, snapshotsPerMessage.totalAmount());
+  }
+
+  private TallySnapshot snapshot(Granularity granularity) {
+    TallySnapshot snapshot = new TallySnapshot();
+    snapshot.setId(UUID.randomUUID());
+    snapshot.setAccountNumber("account1");
+    snapshot.setProductId("OpenShift-metrics");
+    snapshot.setGranularity(granularity);
+    snapshot.setServiceLevel(ServiceLevel.PREMIUM);
+    snapshot.setUsage(Usage.PRODUCTION);
+    snapshot.setSnapshotDate(OffsetDateTime.parse("2021-04-01T00:00:00Z"));
+    return snapshot;
+  }
+}
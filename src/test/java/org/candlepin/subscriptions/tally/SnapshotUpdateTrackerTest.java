@@ -0,0 +1,79 @@
+/*
+ * Copyright Red Hat, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * Red Hat trademarks are not licensed under GPLv3. No permission is
+ * granted to use or replicate Red Hat trademarks that are incorporated
+ * in this software or its documentation.
+ */
+package org.candlepin.subscriptions.tally;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+import java.time.OffsetDateTime;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import org.candlepin.subscriptions.FixedClockConfiguration;
+import org.candlepin.subscriptions.db.AccountTallyStateRepository;
+import org.candlepin.subscriptions.db.model.AccountTallyState;
+import org.candlepin.subscriptions.util.ApplicationClock;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+@ExtendWith(MockitoExtension.class)
+class SnapshotUpdateTrackerTest {
+
+  @Mock AccountTallyStateRepository stateRepository;
+
+  private final ApplicationClock clock = new FixedClockConfiguration().fixedClock();
+
+  @Test
+  void recordsSnapshotWritesOfExistingAndNewAccounts() {
+    AccountTallyState existing = new AccountTallyState("A1");
+    OffsetDateTime hostModifiedOn = clock.now().minusDays(1);
+    existing.setHostModifiedOn(hostModifiedOn);
+    when(stateRepository.findAllById(Set.of("A1", "A2"))).thenReturn(List.of(existing));
+
+    new SnapshotUpdateTracker(stateRepository, clock)
+        .onSnapshotsCommitted(new TallySnapshotsCommittedEvent(List.of("A1", "A2")));
+
+    @SuppressWarnings("unchecked")
+    ArgumentCaptor<Collection<AccountTallyState>> saved = ArgumentCaptor.forClass(Collection.class);
+    verify(stateRepository).saveAll(saved.capture());
+    Map<String, AccountTallyState> states =
+        saved.getValue().stream()
+            .collect(Collectors.toMap(AccountTallyState::getAccountNumber, Function.identity()));
+    assertEquals(Set.of("A1", "A2"), states.keySet());
+    assertEquals(clock.now(), states.get("A1").getSnapshotsUpdatedOn());
+    assertEquals(hostModifiedOn, states.get("A1").getHostModifiedOn());
+    assertEquals(clock.now(), states.get("A2").getSnapshotsUpdatedOn());
+  }
+
+  @Test
+  void ignoresEventsWithoutAccounts() {
+    new SnapshotUpdateTracker(stateRepository, clock)
+        .onSnapshotsCommitted(new TallySnapshotsCommittedEvent(List.of()));
+
+    verifyNoInteractions(stateRepository);
+  }
+}
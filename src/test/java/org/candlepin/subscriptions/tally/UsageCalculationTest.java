@@ -23,10 +23,12 @@ package org.candlepin.subscriptions.tally;
 import static org.candlepin.subscriptions.tally.collector.Assertions.*;
 import static org.junit.jupiter.api.Assertions.*;
 
+import java.util.Map;
 import java.util.stream.IntStream;
 import org.candlepin.subscriptions.db.model.HardwareMeasurementType;
 import org.candlepin.subscriptions.db.model.ServiceLevel;
 import org.candlepin.subscriptions.db.model.Usage;
+import org.candlepin.subscriptions.json.Measurement.Uom;
 import org.junit.jupiter.api.Test;
 
 public class UsageCalculationTest {
@@ -60,6 +62,50 @@ public class UsageCalculationTest {
     assertNullExcept(calculation, HardwareMeasurementType.TOTAL, HardwareMeasurementType.PHYSICAL);
   }
 
+  @Test
+  void testMerge() {
+    UsageCalculation calculation = new UsageCalculation(createUsageKey("Product"));
+    UsageCalculation other = new UsageCalculation(createUsageKey("Product"));
+    IntStream.rangeClosed(0, 1).forEach(i -> calculation.addPhysical(i + 2, i + 1, i));
+    IntStream.rangeClosed(2, 4).forEach(i -> other.addPhysical(i + 2, i + 1, i));
+    other.addHypervisor(3, 2, 1);
+
+    calculation.merge(other);
+
+    assertHardwareMeasurementTotals(calculation, HardwareMeasurementType.PHYSICAL, 15, 20, 10);
+    assertHardwareMeasurementTotals(calculation, HardwareMeasurementType.VIRTUAL, 2, 3, 1);
+    assertHardwareMeasurementTotals(calculation, HardwareMeasurementType.TOTAL, 17, 23, 11);
+  }
+
+  @Test
+  void testUomMeasurements() {
+    UsageCalculation calculation = new UsageCalculation(createUsageKey("Product"));
+    calculation.add(HardwareMeasurementType.PHYSICAL, Uom.CORES, 4.0);
+    calculation.add(HardwareMeasurementType.PHYSICAL, Uom.CORES, 2.5);
+    calculation.add(HardwareMeasurementType.VIRTUAL, Uom.SOCKETS, 1.0);
+
+    UsageCalculation.Totals physical = calculation.getTotals(HardwareMeasurementType.PHYSICAL);
+    assertEquals(Map.of(Uom.CORES, 6.5), physical.getMeasurements());
+    assertNull(physical.getMeasurement(Uom.SOCKETS));
+    assertEquals(
+        Map.of(Uom.CORES, 6.5, Uom.SOCKETS, 1.0),
+        calculation.getTotals(HardwareMeasurementType.TOTAL).getMeasurements());
+    assertNullExcept(
+        calculation,
+        HardwareMeasurementType.TOTAL,
+        HardwareMeasurementType.PHYSICAL,
+        HardwareMeasurementType.VIRTUAL);
+  }
+
+  @Test
+  void testKeysAreInterned() {
+    UsageCalculation.Key key = UsageCalculation.Key.of("Product", ServiceLevel.PREMIUM, Usage._ANY);
+
+    assertSame(key, UsageCalculation.Key.of("Product", ServiceLevel.PREMIUM, Usage._ANY));
+    assertEquals(new UsageCalculation.Key("Product", ServiceLevel.PREMIUM, Usage._ANY), key);
+    assertNotEquals(UsageCalculation.Key.of("Product", ServiceLevel._ANY, Usage._ANY), key);
+  }
+
   private UsageCalculation.Key createUsageKey(String product) {
     return new UsageCalculation.Key(product, ServiceLevel.EMPTY, Usage.EMPTY);
   }
@@ -0,0 +1,75 @@
+/*
+ * Copyright Red Hat, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * Red Hat trademarks are not licensed under GPLv3. No permission is
+ * granted to use or replicate Red Hat trademarks that are incorporated
+ * in this software or its documentation.
+ */
+package org.candlepin.subscriptions.tally.facts;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Map;
+import java.util.Set;
+import org.junit.jupiter.api.Test;
+
+class CompiledProductRulesTest {
+
+  private final CompiledProductRules rules =
+      new CompiledProductRules(
+          Map.of(
+              69, Set.of("RHEL", "RHEL Server"),
+              72, Set.of("RHEL", "RHEL for IBM z"),
+              250, Set.of("Satellite Server")),
+          Map.of("Red Hat Enterprise Linux Workstation", Set.of("RHEL", "RHEL Workstation")));
+
+  @Test
+  void mapsEngineeringIdsIncludingNonCanonicalOnes() {
+    BitSet products = new BitSet();
+    rules.addEngineeringProducts(products, Arrays.asList("069", "bogus", "1234", null));
+
+    assertEquals(Set.of("RHEL", "RHEL Server"), rules.toProducts(products));
+  }
+
+  @Test
+  void roleReplacesRhelVariants() {
+    BitSet products = new BitSet();
+    rules.addEngineeringProducts(products, Arrays.asList("69", "72"));
+    rules.applyRole(products, "Red Hat Enterprise Linux Workstation");
+
+    assertEquals(Set.of("RHEL", "RHEL for IBM z", "RHEL Workstation"), rules.toProducts(products));
+  }
+
+  @Test
+  void rhelWithoutVariantIsUngrouped() {
+    BitSet products = new BitSet();
+    rules.addRhel(products);
+    rules.resolveRhelVariants(products);
+
+    assertEquals(Set.of("RHEL", "RHEL Ungrouped"), rules.toProducts(products));
+  }
+
+  @Test
+  void satellitePrunesRhelProducts() {
+    BitSet products = new BitSet();
+    rules.addEngineeringProducts(products, Arrays.asList("69", "250"));
+    rules.pruneProducts(products);
+
+    assertEquals(Set.of("Satellite Server"), rules.toProducts(products));
+  }
+}
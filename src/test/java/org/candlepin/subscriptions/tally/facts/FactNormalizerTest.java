@@ -199,6 +199,18 @@ public class FactNormalizerTest {
     assertEquals(Integer.valueOf(4), normalized.getCores());
   }
 
+  @Test
+  void testChecksTheLastSyncOfEachHost() {
+    OffsetDateTime recent = clock.now().minusDays(1);
+    OffsetDateTime stale = clock.now().minusDays(2);
+
+    for (OffsetDateTime lastSynced : List.of(recent, recent, stale, recent, stale, stale)) {
+      InventoryHostFacts facts = createRhsmHost("A1", "O1", "1", 4, 8, null, lastSynced);
+      NormalizedFacts normalized = normalizer.normalize(facts, new HashMap<>());
+      assertEquals(lastSynced.equals(recent) ? Integer.valueOf(4) : null, normalized.getCores());
+    }
+  }
+
   @Test
   void testRhelFromQpcFacts() {
     NormalizedFacts normalized =
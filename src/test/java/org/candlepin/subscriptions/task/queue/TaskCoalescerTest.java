@@ -0,0 +1,281 @@
+/*
+ * Copyright Red Hat, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * Red Hat trademarks are not licensed under GPLv3. No permission is
+ * granted to use or replicate Red Hat trademarks that are incorporated
+ * in this software or its documentation.
+ */
+package org.candlepin.subscriptions.task.queue;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.List;
+import java.util.Map;
+import org.candlepin.subscriptions.task.TaskDescriptor;
+import org.candlepin.subscriptions.task.TaskPriority;
+import org.candlepin.subscriptions.task.TaskType;
+import org.candlepin.subscriptions.util.ApplicationClock;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class TaskCoalescerTest {
+
+  private static final String TOPIC = "platform.rhsm-subscriptions.tasks";
+
+  private MutableClock clock;
+  private SimpleMeterRegistry meterRegistry;
+  private TaskCoalescer coalescer;
+
+  @BeforeEach
+  void setup() {
+    clock = new MutableClock(Instant.parse("2021-04-01T12:00:00Z"));
+    meterRegistry = new SimpleMeterRegistry();
+    coalescer =
+        new TaskCoalescer(Duration.ofMinutes(5), new ApplicationClock(clock), meterRegistry);
+  }
+
+  @Test
+  void testDropsDuplicateTasksWithinWindow() {
+    assertTrue(coalescer.shouldEnqueue(updateSnapshots("account1")));
+    assertFalse(coalescer.shouldEnqueue(updateSnapshots("account1")));
+    assertTrue(coalescer.shouldEnqueue(updateSnapshots("account2")));
+    assertEquals(1.0, coalescedCount());
+  }
+
+  @Test
+  void testQueuesDuplicateTasksAgainAfterWindow() {
+    assertTrue(coalescer.shouldEnqueue(updateSnapshots("account1")));
+    clock.advance(Duration.ofMinutes(6));
+    assertTrue(coalescer.shouldEnqueue(updateSnapshots("account1")));
+  }
+
+  @Test
+  void testQueuesDuplicateTasksAgainOnceCompleted() {
+    assertTrue(coalescer.shouldEnqueue(updateSnapshots("account1")));
+    coalescer.completed(updateSnapshots("account1"));
+    assertTrue(coalescer.shouldEnqueue(updateSnapshots("account1")));
+    assertFalse(coalescer.shouldEnqueue(updateSnapshots("account1")));
+  }
+
+  @Test
+  void testCompletedMergedTaskForgetsTheTasksItCovers() {
+    assertTrue(
+        coalescer.shouldEnqueue(hourly("account1", "2021-04-01T00:00Z", "2021-04-01T01:00Z")));
+    assertTrue(
+        coalescer.shouldEnqueue(hourly("account1", "2021-04-01T03:00Z", "2021-04-01T04:00Z")));
+
+    coalescer.completed(hourly("account1", "2021-04-01T00:00Z", "2021-04-01T02:00Z"));
+
+    assertTrue(
+        coalescer.shouldEnqueue(hourly("account1", "2021-04-01T00:00Z", "2021-04-01T01:00Z")));
+    assertFalse(
+        coalescer.shouldEnqueue(hourly("account1", "2021-04-01T03:00Z", "2021-04-01T04:00Z")));
+  }
+
+  @Test
+  void testExpiringACompletedTaskKeepsItsPendingDuplicate() {
+    assertTrue(coalescer.shouldEnqueue(updateSnapshots("account1")));
+    assertTrue(coalescer.shouldEnqueue(updateSnapshots("account2")));
+    coalescer.completed(updateSnapshots("account1"));
+    clock.advance(Duration.ofMinutes(2));
+    assertTrue(coalescer.shouldEnqueue(updateSnapshots("account1")));
+
+    clock.advance(Duration.ofMinutes(4));
+    assertTrue(coalescer.shouldEnqueue(updateSnapshots("account2")));
+    assertFalse(coalescer.shouldEnqueue(updateSnapshots("account1")));
+  }
+
+  @Test
+  void testDropsTasksWhoseRangeIsCoveredByAQueuedTask() {
+    assertTrue(
+        coalescer.shouldEnqueue(hourly("account1", "2021-04-01T00:00Z", "2021-04-01T06:00Z")));
+    assertFalse(
+        coalescer.shouldEnqueue(hourly("account1", "2021-04-01T01:00Z", "2021-04-01T02:00Z")));
+    assertTrue(
+        coalescer.shouldEnqueue(hourly("account1", "2021-04-01T05:00Z", "2021-04-01T07:00Z")));
+  }
+
+  @Test
+  void testMergesOverlappingAndAdjacentRangesOfPendingTasks() {
+    List<TaskDescriptor> coalesced =
+        coalescer.coalesce(
+            List.of(
+                hourly("account1", "2021-04-01T00:00Z", "2021-04-01T01:00Z"),
+                updateSnapshots("account1"),
+                hourly("account1", "2021-04-01T01:00Z", "2021-04-01T02:00Z"),
+                hourly("account1", "2021-04-01T05:00Z", "2021-04-01T06:00Z"),
+                updateSnapshots("account1"),
+                hourly("account2", "2021-04-01T00:30Z", "2021-04-01T01:30Z")));
+
+    assertEquals(
+        List.of(
+            hourly("account1", "2021-04-01T00:00Z", "2021-04-01T02:00Z"),
+            hourly("account1", "2021-04-01T05:00Z", "2021-04-01T06:00Z"),
+            updateSnapshots("account1"),
+            hourly("account2", "2021-04-01T00:30Z", "2021-04-01T01:30Z")),
+        coalesced);
+    assertEquals(2.0, coalescedCount());
+  }
+
+  @Test
+  void testMergesEveryRangeBridgedByATask() {
+    List<TaskDescriptor> coalesced =
+        coalescer.coalesce(
+            List.of(
+                hourly("account1", "2021-04-01T00:00Z", "2021-04-01T01:00Z"),
+                hourly("account1", "2021-04-01T02:00Z", "2021-04-01T03:00Z"),
+                updateSnapshots("account1"),
+                hourly("account1", "2021-04-01T01:00Z", "2021-04-01T02:00Z")));
+
+    assertEquals(
+        List.of(
+            updateSnapshots("account1"),
+            hourly("account1", "2021-04-01T00:00Z", "2021-04-01T03:00Z")),
+        coalesced);
+  }
+
+  @Test
+  void testCoalescesAccountsOfBulkTasks() {
+    List<TaskDescriptor> coalesced =
+        coalescer.coalesce(
+            List.of(
+                updateSnapshots("account1", "account2", "account3"),
+                updateSnapshots("account2"),
+                updateSnapshots("account3", "account4")));
+
+    assertEquals(
+        List.of(
+            updateSnapshots("account1"),
+            updateSnapshots("account2"),
+            updateSnapshots("account3", "account4")),
+        coalesced);
+    assertEquals(2.0, coalescedCount());
+  }
+
+  @Test
+  void testLeavesBulkTasksWithoutDuplicatesAsTheyAre() {
+    List<TaskDescriptor> tasks =
+        List.of(updateSnapshots("account1", "account2"), updateSnapshots("account3"));
+
+    assertEquals(tasks, coalescer.coalesce(tasks));
+  }
+
+  @Test
+  void testRunsMergedTasksInTheLaneOfTheirLastDuplicate() {
+    TaskDescriptor interactive =
+        TaskDescriptor.builder(TaskType.UPDATE_SNAPSHOTS, TOPIC)
+            .setSingleValuedArg("accounts", "account1")
+            .setPriority(TaskPriority.INTERACTIVE)
+            .build();
+
+    Map<String, List<TaskDescriptor>> lanes =
+        coalescer.coalesceLanes(
+            List.of(
+                Map.entry("account1", interactive),
+                Map.entry("account2", updateSnapshots("account2")),
+                Map.entry("account1,account3", updateSnapshots("account1", "account3"))));
+
+    assertEquals(
+        Map.of(
+            "account2",
+            List.of(updateSnapshots("account2")),
+            "account1,account3",
+            List.of(updateSnapshots("account1"), updateSnapshots("account3"))),
+        lanes);
+    assertEquals(TaskPriority.INTERACTIVE, lanes.get("account1,account3").get(0).getPriority());
+    assertEquals(TaskPriority.BULK, lanes.get("account1,account3").get(1).getPriority());
+  }
+
+  @Test
+  void testDoesNothingWhenDisabled() {
+    TaskCoalescer disabled =
+        new TaskCoalescer(Duration.ZERO, new ApplicationClock(clock), meterRegistry);
+    List<TaskDescriptor> tasks = List.of(updateSnapshots("account1"), updateSnapshots("account1"));
+
+    assertTrue(disabled.shouldEnqueue(updateSnapshots("account1")));
+    assertTrue(disabled.shouldEnqueue(updateSnapshots("account1")));
+    assertEquals(tasks, disabled.coalesce(tasks));
+  }
+
+  @Test
+  void testKeepsTheHighestPriorityOfDuplicates() {
+    TaskDescriptor interactive =
+        TaskDescriptor.builder(TaskType.UPDATE_SNAPSHOTS, TOPIC)
+            .setSingleValuedArg("accounts", "account1")
+            .setPriority(TaskPriority.INTERACTIVE)
+            .build();
+
+    assertTrue(coalescer.shouldEnqueue(updateSnapshots("account1")));
+    assertTrue(coalescer.shouldEnqueue(interactive));
+    List<TaskDescriptor> coalesced =
+        coalescer.coalesce(List.of(updateSnapshots("account1"), interactive));
+    assertEquals(1, coalesced.size());
+    assertEquals(TaskPriority.INTERACTIVE, coalesced.get(0).getPriority());
+  }
+
+  private double coalescedCount() {
+    return meterRegistry.counter("rhsm-subscriptions.tasks.coalesced").count();
+  }
+
+  private TaskDescriptor updateSnapshots(String... accounts) {
+    return TaskDescriptor.builder(TaskType.UPDATE_SNAPSHOTS, TOPIC)
+        .setArg("accounts", List.of(accounts))
+        .build();
+  }
+
+  private TaskDescriptor hourly(String account, String start, String end) {
+    return TaskDescriptor.builder(TaskType.UPDATE_HOURLY_SNAPSHOTS, TOPIC)
+        .setSingleValuedArg("accountNumber", account)
+        .setSingleValuedArg("startDateTime", start)
+        .setSingleValuedArg("endDateTime", end)
+        .build();
+  }
+
+  private static class MutableClock extends Clock {
+    private Instant instant;
+
+    private MutableClock(Instant instant) {
+      this.instant = instant;
+    }
+
+    void advance(Duration duration) {
+      instant = instant.plus(duration);
+    }
+
+    @Override
+    public ZoneId getZone() {
+      return ZoneOffset.UTC;
+    }
+
+    @Override
+    public Clock withZone(ZoneId zone) {
+      return this;
+    }
+
+    @Override
+    public Instant instant() {
+      return instant;
+    }
+  }
+}
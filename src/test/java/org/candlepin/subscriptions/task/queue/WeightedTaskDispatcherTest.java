@@ -0,0 +1,113 @@
+/*
+ * Copyright Red Hat, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * Red Hat trademarks are not licensed under GPLv3. No permission is
+ * granted to use or replicate Red Hat trademarks that are incorporated
+ * in this software or its documentation.
+ */
+package org.candlepin.subscriptions.task.queue;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Collectors;
+import org.candlepin.subscriptions.task.TaskPriority;
+import org.junit.jupiter.api.Test;
+
+class WeightedTaskDispatcherTest {
+
+  @Test
+  void testGivesEachPriorityItsWeightedShare() {
+    WeightedTaskDispatcher<String> dispatcher = new WeightedTaskDispatcher<>();
+    for (int i = 0; i < 10; i++) {
+      dispatcher.offer(TaskPriority.BULK, "bulk" + i);
+    }
+    for (int i = 0; i < 10; i++) {
+      dispatcher.offer(TaskPriority.INTERACTIVE, "interactive" + i);
+    }
+
+    List<String> taken = new ArrayList<>();
+    for (int i = 0; i < 7; i++) {
+      taken.add(dispatcher.poll());
+    }
+
+    assertEquals(1, taken.stream().filter(item -> item.startsWith("bulk")).count());
+    assertEquals(
+        List.of(
+            "interactive0",
+            "interactive1",
+            "interactive2",
+            "interactive3",
+            "interactive4",
+            "interactive5"),
+        taken.stream().filter(item -> item.startsWith("interactive")).collect(Collectors.toList()));
+  }
+
+  @Test
+  void testDrainsALonePriorityInOrder() {
+    WeightedTaskDispatcher<String> dispatcher = new WeightedTaskDispatcher<>();
+    dispatcher.offer(TaskPriority.HOURLY, "a");
+    dispatcher.offer(TaskPriority.HOURLY, "b");
+
+    assertEquals("a", dispatcher.poll());
+    assertEquals("b", dispatcher.poll());
+    assertNull(dispatcher.poll());
+  }
+
+  @Test
+  void testHandsOutItemsOfAKeyInOrderAcrossPriorities() {
+    WeightedTaskDispatcher<String> dispatcher =
+        new WeightedTaskDispatcher<>(0, item -> item.substring(0, 1));
+    dispatcher.offer(TaskPriority.BULK, "a-bulk0");
+    dispatcher.offer(TaskPriority.BULK, "b-bulk");
+    dispatcher.offer(TaskPriority.BULK, "a-bulk1");
+    dispatcher.offer(TaskPriority.INTERACTIVE, "a-interactive");
+    dispatcher.offer(TaskPriority.INTERACTIVE, "c-interactive");
+
+    List<String> taken = new ArrayList<>();
+    for (String item = dispatcher.poll(); item != null; item = dispatcher.poll()) {
+      taken.add(item);
+    }
+
+    assertEquals(
+        List.of("a-bulk0", "a-bulk1", "a-interactive", "b-bulk", "c-interactive"), taken);
+    assertEquals(0, dispatcher.size());
+  }
+
+  @Test
+  void testRejectsItemsWhenFull() {
+    WeightedTaskDispatcher<String> dispatcher = new WeightedTaskDispatcher<>(1);
+
+    assertTrue(dispatcher.offer(TaskPriority.BULK, "a"));
+    assertFalse(dispatcher.offer(TaskPriority.INTERACTIVE, "b"));
+    assertEquals(1, dispatcher.size());
+  }
+
+  @Test
+  void testTakesPendingItemsAfterClose() throws InterruptedException {
+    WeightedTaskDispatcher<String> dispatcher = new WeightedTaskDispatcher<>();
+    dispatcher.put(TaskPriority.BULK, "a");
+    dispatcher.close();
+
+    assertEquals(Optional.of("a"), dispatcher.take());
+    assertEquals(Optional.empty(), dispatcher.take());
+  }
+}
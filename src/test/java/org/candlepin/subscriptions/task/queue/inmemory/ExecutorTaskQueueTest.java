@@ -22,11 +22,19 @@ package org.candlepin.subscriptions.task.queue.inmemory;
 
 import static org.junit.jupiter.api.Assertions.*;
 
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import org.candlepin.subscriptions.tally.TallyTaskFactory;
+import org.candlepin.subscriptions.task.Task;
 import org.candlepin.subscriptions.task.TaskDescriptor;
+import org.candlepin.subscriptions.task.TaskPriority;
 import org.candlepin.subscriptions.task.TaskType;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
@@ -86,4 +94,135 @@ class ExecutorTaskQueueTest {
     processor.shutdown(2000, TimeUnit.MILLISECONDS);
     assertFalse(failed.get());
   }
+
+  @Test
+  void runsTasksOfTheSameAccountInOrder() throws InterruptedException {
+    ExecutorTaskQueue queue = new ExecutorTaskQueue();
+    ExecutorTaskProcessor processor =
+        new ExecutorTaskProcessor(4, taskFactory, queue, "my-group", new SimpleMeterRegistry());
+    List<String> executed = Collections.synchronizedList(new ArrayList<>());
+    Mockito.when(taskFactory.build(Mockito.any()))
+        .thenAnswer(
+            invocation -> {
+              TaskDescriptor descriptor = invocation.getArgument(0);
+              Task task = () -> executed.add(descriptor.getArg("seq").get(0));
+              return task;
+            });
+    List<String> expected = new ArrayList<>();
+    for (int i = 0; i < 50; i++) {
+      expected.add(String.valueOf(i));
+      queue.enqueue(
+          TaskDescriptor.builder(TaskType.UPDATE_SNAPSHOTS, "my-group")
+              .setSingleValuedArg("accountNumber", "account123")
+              .setSingleValuedArg("seq", String.valueOf(i))
+              .build());
+    }
+    processor.shutdown(2000, TimeUnit.MILLISECONDS);
+    assertEquals(expected, executed);
+  }
+
+  @Test
+  void runsTasksOfTheSameAccountInOrderAcrossPriorities() throws InterruptedException {
+    ExecutorTaskQueue queue = new ExecutorTaskQueue();
+    List<String> executed = Collections.synchronizedList(new ArrayList<>());
+    Mockito.when(taskFactory.build(Mockito.any()))
+        .thenAnswer(
+            invocation -> {
+              TaskDescriptor descriptor = invocation.getArgument(0);
+              Task task = () -> executed.add(descriptor.getArg("seq").get(0));
+              return task;
+            });
+    List<String> expected = new ArrayList<>();
+    for (int i = 0; i < 20; i++) {
+      TaskPriority priority = i % 4 == 3 ? TaskPriority.INTERACTIVE : TaskPriority.BULK;
+      expected.add(String.valueOf(i));
+      queue.enqueue(
+          TaskDescriptor.builder(TaskType.UPDATE_SNAPSHOTS, "my-group")
+              .setSingleValuedArg("accountNumber", "account123")
+              .setSingleValuedArg("seq", String.valueOf(i))
+              .setPriority(priority)
+              .build());
+    }
+
+    ExecutorTaskProcessor processor =
+        new ExecutorTaskProcessor(4, taskFactory, queue, "my-group", new SimpleMeterRegistry());
+    processor.shutdown(2000, TimeUnit.MILLISECONDS);
+    assertEquals(expected, executed);
+  }
+
+  @Test
+  void runsTasksOfOtherLanesWhileALaneIsFull() throws InterruptedException {
+    ExecutorTaskQueue queue = new ExecutorTaskQueue();
+    CountDownLatch release = new CountDownLatch(1);
+    CountDownLatch otherRan = new CountDownLatch(1);
+    List<String> executed = Collections.synchronizedList(new ArrayList<>());
+    Mockito.when(taskFactory.build(Mockito.any()))
+        .thenAnswer(
+            invocation -> {
+              TaskDescriptor descriptor = invocation.getArgument(0);
+              String seq = descriptor.getArg("seq").get(0);
+              Task task =
+                  () -> {
+                    if ("0".equals(seq)) {
+                      try {
+                        release.await();
+                      } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                      }
+                    }
+                    executed.add(seq);
+                    if ("other".equals(seq)) {
+                      otherRan.countDown();
+                    }
+                  };
+              return task;
+            });
+    String busyAccount = "account0";
+    String otherAccount = "account1";
+    // The other account must hash to the other lane.
+    for (int i = 2;
+        Math.floorMod(otherAccount.hashCode(), 2) == Math.floorMod(busyAccount.hashCode(), 2);
+        i++) {
+      otherAccount = "account" + i;
+    }
+
+    ExecutorTaskProcessor processor =
+        new ExecutorTaskProcessor(2, taskFactory, queue, "my-group", new SimpleMeterRegistry());
+    List<String> expected = new ArrayList<>();
+    for (int i = 0; i < ExecutorTaskProcessor.LANE_BACKLOG * 2; i++) {
+      expected.add(String.valueOf(i));
+      queue.enqueue(
+          TaskDescriptor.builder(TaskType.UPDATE_SNAPSHOTS, "my-group")
+              .setSingleValuedArg("accountNumber", busyAccount)
+              .setSingleValuedArg("seq", String.valueOf(i))
+              .build());
+    }
+    queue.enqueue(
+        TaskDescriptor.builder(TaskType.UPDATE_SNAPSHOTS, "my-group")
+            .setSingleValuedArg("accountNumber", otherAccount)
+            .setSingleValuedArg("seq", "other")
+            .build());
+
+    assertTrue(otherRan.await(2, TimeUnit.SECONDS));
+    release.countDown();
+    processor.shutdown(2000, TimeUnit.MILLISECONDS);
+    executed.remove("other");
+    assertEquals(expected, executed);
+  }
+
+  @Test
+  void spillsTasksBeyondCapacityWhenEnabled() {
+    MeterRegistry registry = new SimpleMeterRegistry();
+    ExecutorTaskQueue queue = new ExecutorTaskQueue(null, 1, true, registry);
+    for (int i = 0; i < 3; i++) {
+      queue.enqueue(TaskDescriptor.builder(TaskType.UPDATE_SNAPSHOTS, "my-group").build());
+    }
+    double depth =
+        registry
+            .get("rhsm-subscriptions.tasks.queue.depth")
+            .tag("queue", "my-group")
+            .gauge()
+            .value();
+    assertEquals(Double.valueOf(3), depth);
+  }
 }
@@ -0,0 +1,208 @@
+/*
+ * Copyright Red Hat, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * Red Hat trademarks are not licensed under GPLv3. No permission is
+ * granted to use or replicate Red Hat trademarks that are incorporated
+ * in this software or its documentation.
+ */
+package org.candlepin.subscriptions.task.queue.kafka;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.when;
+
+import com.google.common.util.concurrent.Uninterruptibles;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.candlepin.subscriptions.task.Task;
+import org.candlepin.subscriptions.task.TaskDescriptor;
+import org.candlepin.subscriptions.task.TaskFactory;
+import org.candlepin.subscriptions.task.TaskQueueProperties;
+import org.candlepin.subscriptions.task.TaskType;
+import org.candlepin.subscriptions.task.queue.TaskCoalescer;
+import org.candlepin.subscriptions.task.queue.kafka.message.TaskMessage;
+import org.candlepin.subscriptions.util.ApplicationClock;
+import org.candlepin.subscriptions.util.KafkaConsumerRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+@ExtendWith(MockitoExtension.class)
+class KafkaBatchTaskProcessorTest {
+
+  private static final String TOPIC = "platform.rhsm-subscriptions.tasks";
+
+  @Mock TaskFactory taskFactory;
+
+  List<String> executed;
+  KafkaBatchTaskProcessor processor;
+
+  @BeforeEach
+  void setup() {
+    TaskQueueProperties props = new TaskQueueProperties();
+    props.setTopic(TOPIC);
+    props.setKafkaGroupId("group");
+    props.setKafkaBatchSize(10);
+    props.setKafkaBatchThreads(4);
+    TaskCoalescer coalescer =
+        new TaskCoalescer(Duration.ZERO, new ApplicationClock(), new SimpleMeterRegistry());
+    processor =
+        new KafkaBatchTaskProcessor(
+            taskFactory,
+            props,
+            new KafkaConsumerRegistry(),
+            coalescer,
+            new SimpleMeterRegistry(),
+            new ApplicationClock());
+
+    executed = Collections.synchronizedList(new ArrayList<>());
+    when(taskFactory.build(any(TaskDescriptor.class)))
+        .thenAnswer(
+            invocation -> {
+              TaskDescriptor descriptor = invocation.getArgument(0);
+              String value = descriptor.getArg("accountNumber").get(0);
+              Task task =
+                  () -> {
+                    if (value.startsWith("FAIL")) {
+                      // Errors escape the worker, unlike exceptions, which are logged.
+                      throw new LinkageError(value);
+                    }
+                    if (value.startsWith("SLOW")) {
+                      Uninterruptibles.sleepUninterruptibly(200, TimeUnit.MILLISECONDS);
+                    }
+                    executed.add(value);
+                  };
+              return task;
+            });
+  }
+
+  @AfterEach
+  void teardown() {
+    processor.destroy();
+  }
+
+  @Test
+  void testExecutesEveryRecordBeforeReturning() {
+    processor.receive(List.of(record(0, "A", "A1"), record(1, "B", "B1"), record(2, "C", "C1")));
+
+    assertEquals(3, executed.size());
+  }
+
+  @Test
+  void testKeepsOrderOfRecordsWithTheSameKey() {
+    processor.receive(
+        List.of(
+            record(0, "A", "A1"),
+            record(1, "B", "B1"),
+            record(2, "A", "A2"),
+            record(3, null, "N1"),
+            record(4, "B", "B2"),
+            record(5, "A", "A3"),
+            record(6, null, "N2")));
+
+    assertEquals(List.of("A1", "A2", "A3"), executedWithPrefix("A"));
+    assertEquals(List.of("B1", "B2"), executedWithPrefix("B"));
+    assertEquals(Set.of("N1", "N2"), Set.copyOf(executedWithPrefix("N")));
+  }
+
+  @Test
+  void testWaitsForEveryLaneBeforeRethrowingAFailure() {
+    List<ConsumerRecord<String, TaskMessage>> records =
+        List.of(record(0, "A", "FAIL1"), record(1, "B", "SLOW1"), record(2, "B", "SLOW2"));
+
+    IllegalStateException e =
+        assertThrows(IllegalStateException.class, () -> processor.receive(records));
+
+    assertEquals("FAIL1", e.getCause().getMessage());
+    assertEquals(List.of("SLOW1", "SLOW2"), executedWithPrefix("SLOW"));
+  }
+
+  @Test
+  void testCapsBatchesToTasksThatFitInTheMaxPollInterval() {
+    assertEquals(6, createProcessorCappedAt(1).getBatchSize());
+  }
+
+  @Test
+  void testCapsBatchesToTheBudgetOfEveryThread() {
+    KafkaBatchTaskProcessor capped = createProcessorCappedAt(4);
+    try {
+      assertEquals(24, capped.getBatchSize());
+    } finally {
+      capped.destroy();
+    }
+  }
+
+  @Test
+  void testSpreadsRecordsWithoutKeyOverTheThreads() {
+    long start = System.nanoTime();
+    processor.receive(
+        List.of(
+            record(0, null, "SLOW1"),
+            record(1, null, "SLOW2"),
+            record(2, null, "SLOW3"),
+            record(3, null, "SLOW4")));
+
+    assertEquals(4, executedWithPrefix("SLOW").size());
+    // One after another, the four records would take 800ms.
+    assertTrue(Duration.ofNanos(System.nanoTime() - start).toMillis() < 600);
+  }
+
+  private KafkaBatchTaskProcessor createProcessorCappedAt(int threads) {
+    TaskQueueProperties props = new TaskQueueProperties();
+    props.setTopic(TOPIC);
+    props.setKafkaBatchSize(100);
+    props.setKafkaBatchThreads(threads);
+    props.setKafkaMaxPollInterval(Duration.ofMinutes(30));
+    props.setKafkaBatchMaxTaskDuration(Duration.ofMinutes(5));
+    return new KafkaBatchTaskProcessor(
+        taskFactory,
+        props,
+        new KafkaConsumerRegistry(),
+        new TaskCoalescer(Duration.ZERO, new ApplicationClock(), new SimpleMeterRegistry()),
+        new SimpleMeterRegistry(),
+        new ApplicationClock());
+  }
+
+  private List<String> executedWithPrefix(String prefix) {
+    List<String> result = new ArrayList<>();
+    synchronized (executed) {
+      executed.stream().filter(value -> value.startsWith(prefix)).forEach(result::add);
+    }
+    return result;
+  }
+
+  private ConsumerRecord<String, TaskMessage> record(long offset, String key, String value) {
+    TaskMessage message =
+        TaskMessage.newBuilder()
+            .setType(TaskType.UPDATE_HOURLY_SNAPSHOTS.name())
+            .setGroupId(TOPIC)
+            .setArgs(Map.of("accountNumber", List.of(value)))
+            .build();
+    return new ConsumerRecord<>(TOPIC, 0, offset, key, message);
+  }
+}
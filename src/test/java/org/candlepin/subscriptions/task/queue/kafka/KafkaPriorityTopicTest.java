@@ -0,0 +1,106 @@
+/*
+ * Copyright Red Hat, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ *
+ * Red Hat trademarks are not licensed under GPLv3. No permission is
+ * granted to use or replicate Red Hat trademarks that are incorporated
+ * in this software or its documentation.
+ */
+package org.candlepin.subscriptions.task.queue.kafka;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.candlepin.subscriptions.tally.TallyTaskFactory;
+import org.candlepin.subscriptions.task.Task;
+import org.candlepin.subscriptions.task.TaskDescriptor;
+import org.candlepin.subscriptions.task.TaskPriority;
+import org.candlepin.subscriptions.task.TaskQueueProperties;
+import org.candlepin.subscriptions.task.TaskType;
+import org.candlepin.subscriptions.task.queue.TaskQueue;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.kafka.test.context.EmbeddedKafka;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.ActiveProfiles;
+
+@SpringBootTest(properties = "rhsm-subscriptions.tasks.priority-topic-enabled=true")
+@DirtiesContext
+@ActiveProfiles({"worker", "test", "kafka-test"})
+@EmbeddedKafka(
+    partitions = 1,
+    topics = {"${rhsm-subscriptions.tasks.topic}", "${rhsm-subscriptions.tasks.priority-topic}"})
+class KafkaPriorityTopicTest {
+
+  private static final int BULK_TASKS = 5;
+
+  @MockBean private TallyTaskFactory factory;
+
+  @Autowired private TaskQueue queue;
+
+  @Autowired private TaskQueueProperties taskQueueProperties;
+
+  @Test
+  void testInteractiveTaskIsNotQueuedBehindBulkTasks() throws InterruptedException {
+    CountDownLatch interactiveLatch = new CountDownLatch(1);
+    AtomicInteger bulkTasksDone = new AtomicInteger();
+    AtomicInteger bulkTasksDoneBeforeInteractive = new AtomicInteger(-1);
+    // Each bulk task holds the consumer of the tasks topic until the interactive task has run, so
+    // that task only runs if it does not wait behind them.
+    Task bulkTask =
+        () -> {
+          try {
+            interactiveLatch.await(5L, TimeUnit.SECONDS);
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+          }
+          bulkTasksDone.incrementAndGet();
+        };
+    Task interactiveTask =
+        () -> {
+          bulkTasksDoneBeforeInteractive.set(bulkTasksDone.get());
+          interactiveLatch.countDown();
+        };
+    when(factory.build(any()))
+        .thenAnswer(
+            invocation -> {
+              TaskDescriptor task = invocation.getArgument(0);
+              return task.getPriority() == TaskPriority.BULK ? bulkTask : interactiveTask;
+            });
+
+    for (int i = 0; i < BULK_TASKS; i++) {
+      queue.enqueue(task("bulk" + i, TaskPriority.BULK));
+    }
+    queue.enqueue(task("interactive", TaskPriority.INTERACTIVE));
+
+    assertTrue(
+        interactiveLatch.await(10L, TimeUnit.SECONDS),
+        "The interactive task waited behind the bulk tasks.");
+    assertEquals(0, bulkTasksDoneBeforeInteractive.get());
+  }
+
+  private TaskDescriptor task(String account, TaskPriority priority) {
+    return TaskDescriptor.builder(TaskType.UPDATE_SNAPSHOTS, taskQueueProperties.getTopic())
+        .setSingleValuedArg("accounts", account)
+        .setPriority(priority)
+        .build();
+  }
+}